@@ -0,0 +1,123 @@
+package org.sagebionetworks.bridge.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.Resource;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.models.RefreshStats;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Maps;
+
+/**
+ * Refreshes values in the background before they are needed, such as temporary credentials that are about to
+ * expire, or files that rarely change, so request threads can read the value they hold rather than wait on a call
+ * to AWS. Each task runs one interval after it last finished. A task that fails leaves its value as it was, and is
+ * retried after RETRY_DELAY_IN_SECONDS (or its interval, if that is shorter). How long each refresh took, and how
+ * many failed, are kept for each task.
+ */
+@Component
+public class BackgroundRefresher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BackgroundRefresher.class);
+
+    static final long RETRY_DELAY_IN_SECONDS = 30;
+
+    private final ConcurrentMap<String, RefreshTask> tasks = Maps.newConcurrentMap();
+
+    private ScheduledExecutorService refreshExecutorService;
+
+    @Resource(name = "refreshExecutorService")
+    public final void setRefreshExecutorService(ScheduledExecutorService refreshExecutorService) {
+        this.refreshExecutorService = refreshExecutorService;
+    }
+
+    /**
+     * Run the refresh every intervalInSeconds, starting one interval from now. The name identifies the task in
+     * its stats and in the log, and must be unique.
+     */
+    public void schedule(String name, long intervalInSeconds, Runnable refresh) {
+        checkNotNull(name);
+        checkArgument(intervalInSeconds > 0);
+        checkNotNull(refresh);
+
+        RefreshTask task = new RefreshTask(name, intervalInSeconds, refresh);
+        if (tasks.putIfAbsent(name, task) != null) {
+            throw new IllegalArgumentException("A refresh has already been scheduled for " + name);
+        }
+        task.scheduleNext(intervalInSeconds);
+    }
+
+    /**
+     * The latency and failures of each task's refreshes on this server, ordered by name.
+     */
+    public List<RefreshStats> getStats() {
+        return tasks.values().stream().map(RefreshTask::getStats)
+                .sorted(Comparator.comparing(RefreshStats::getName)).collect(Collectors.toList());
+    }
+
+    private class RefreshTask implements Runnable {
+        private final String name;
+        private final long intervalInSeconds;
+        private final Runnable refresh;
+        private final AtomicLong refreshes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalLatencyMillis = new AtomicLong();
+        private final AtomicLong maxLatencyMillis = new AtomicLong();
+        private volatile long lastLatencyMillis;
+        private volatile DateTime lastRefreshedOn;
+
+        RefreshTask(String name, long intervalInSeconds, Runnable refresh) {
+            this.name = name;
+            this.intervalInSeconds = intervalInSeconds;
+            this.refresh = refresh;
+        }
+
+        @Override
+        public void run() {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            long nextDelayInSeconds = intervalInSeconds;
+            try {
+                refresh.run();
+                lastRefreshedOn = DateTime.now();
+            } catch(RuntimeException e) {
+                failures.incrementAndGet();
+                nextDelayInSeconds = Math.min(intervalInSeconds, RETRY_DELAY_IN_SECONDS);
+                LOG.warn("Background refresh of " + name + " failed, retrying in " + nextDelayInSeconds
+                        + " seconds", e);
+            } finally {
+                long latencyMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+                refreshes.incrementAndGet();
+                totalLatencyMillis.addAndGet(latencyMillis);
+                maxLatencyMillis.accumulateAndGet(latencyMillis, Math::max);
+                lastLatencyMillis = latencyMillis;
+                scheduleNext(nextDelayInSeconds);
+            }
+        }
+
+        void scheduleNext(long delayInSeconds) {
+            refreshExecutorService.schedule(this, delayInSeconds, TimeUnit.SECONDS);
+        }
+
+        RefreshStats getStats() {
+            long count = refreshes.get();
+            long averageLatencyMillis = (count == 0) ? 0 : totalLatencyMillis.get() / count;
+            return new RefreshStats(name, intervalInSeconds, count, failures.get(), lastLatencyMillis,
+                    averageLatencyMillis, maxLatencyMillis.get(), lastRefreshedOn);
+        }
+    }
+}
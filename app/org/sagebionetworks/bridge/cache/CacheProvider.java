@@ -2,8 +2,19 @@ package org.sagebionetworks.bridge.cache;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.sagebionetworks.bridge.BridgeConstants;
@@ -18,10 +29,24 @@ import org.sagebionetworks.bridge.redis.JedisOps;
 import org.sagebionetworks.bridge.redis.JedisTransaction;
 import org.sagebionetworks.bridge.redis.RedisKey;
 
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 /**
  * A wrapper around whatever cache provider we ultimately decide to go with (probably Redis). 
@@ -29,9 +54,29 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 @Component
 public class CacheProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(CacheProvider.class);
+    
+    /** Request info updates for a user are written to Redis at most once in this interval. */
+    static final int REQUEST_INFO_FLUSH_INTERVAL_SECONDS = 10;
+    
+    private static final String INCREMENT_IF_PRESENT_SCRIPT = 
+            "if redis.call('exists', KEYS[1]) == 1 then return redis.call('incrby', KEYS[1], ARGV[1]) end return nil";
+    
+    // Reads the current version, and the value stored under that version, in one round trip.
+    private static final String GET_VERSIONED_SCRIPT = 
+            "local v = redis.call('get', KEYS[1]) or '0' return {v, redis.call('get', v .. ':' .. ARGV[1])}";
     
+    // New versions are greater than both the last version and the current time, so that a version is never reused, 
+    // even once the version key has expired.
+    private static final String INCREMENT_VERSION_SCRIPT = 
+            "local v = string.format('%d', math.max(tonumber(redis.call('get', KEYS[1]) or '0') + 1, " +
+            "tonumber(ARGV[1]))) redis.call('setex', KEYS[1], ARGV[2], v) return v";
+    
+    private final ConcurrentMap<String, RequestInfo> pendingRequestInfo = new ConcurrentHashMap<>();
+    private ScheduledExecutorService requestInfoFlushExecutor;
     private ObjectMapper bridgeObjectMapper;
     private JedisOps jedisOps;
+    private JedisPool jedisPool;
     private int sessionExpireInSeconds;
 
     @Autowired
@@ -44,33 +89,48 @@ public class CacheProvider {
         this.jedisOps = jedisOps;
     }
     
+    @Resource(name = "instrumentedJedisPool")
+    final void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+    
     @Resource(name = "sessionExpireInSeconds")
     final void setSessionExpireInSeconds(int sessionExpireInSeconds) {
         this.sessionExpireInSeconds = sessionExpireInSeconds;
     }
     
+    @PostConstruct
+    void startRequestInfoFlush() {
+        requestInfoFlushExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("request-info-flush").setDaemon(true).build());
+        requestInfoFlushExecutor.scheduleWithFixedDelay(this::flushRequestInfo, REQUEST_INFO_FLUSH_INTERVAL_SECONDS,
+                REQUEST_INFO_FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    @PreDestroy
+    void stopRequestInfoFlush() {
+        if (requestInfoFlushExecutor != null) {
+            requestInfoFlushExecutor.shutdown();
+        }
+        flushRequestInfo();
+    }
+    
     /**
      * Take existing data in the request info object and augment with any new information 
      * in the request info object passed as a parameter, then persist that. Different calls
-     * contribute some different fields to the total RequestInfo object.
+     * contribute some different fields to the total RequestInfo object. Updates are combined 
+     * in memory and written to Redis in the background, so this never blocks on Redis.
      */
     public void updateRequestInfo(RequestInfo requestInfo) {
         checkNotNull(requestInfo, "requestInfo is required");
         checkNotNull(requestInfo.getUserId(), "requestInfo.userId is required");
      
-        RequestInfo existingRequestInfo = getRequestInfo(requestInfo.getUserId());
-        if (existingRequestInfo != null) {
-            RequestInfo.Builder builder = new RequestInfo.Builder();    
-            builder.copyOf(existingRequestInfo);
-            builder.copyOf(requestInfo);
-            setRequestInfo(builder.build());
-        } else {
-            setRequestInfo(requestInfo);
-        }
+        pendingRequestInfo.merge(requestInfo.getUserId(), requestInfo, CacheProvider::mergeRequestInfo);
     }
     
     public void removeRequestInfo(String userId) {
         checkNotNull(userId);
+        pendingRequestInfo.remove(userId);
         try {
             final String requestInfoKey = RedisKey.REQUEST_INFO.getRedisKey(userId);
             jedisOps.del(requestInfoKey);
@@ -80,30 +140,99 @@ public class CacheProvider {
         }
     }
     
-    private void setRequestInfo(RequestInfo requestInfo) {
-        try {
-            String ser = bridgeObjectMapper.writeValueAsString(requestInfo);
-            String redisKey = RedisKey.REQUEST_INFO.getRedisKey(requestInfo.getUserId());
-            jedisOps.set(redisKey, ser);
-        } catch (Throwable e) {
-            promptToStartRedisIfLocal(e);
-            throw new BridgeServiceException(e);
+    /**
+     * Write all buffered request info updates to Redis. Each request info is stored as a hash, 
+     * and only the fields present in the update are set, so nothing needs to be read first. All 
+     * the updates are sent in a single pipeline.
+     */
+    void flushRequestInfo() {
+        Map<String, RequestInfo> updates = Maps.newHashMap();
+        for (String userId : pendingRequestInfo.keySet()) {
+            RequestInfo requestInfo = pendingRequestInfo.remove(userId);
+            if (requestInfo != null) {
+                updates.put(userId, requestInfo);
+            }
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            Map<String, Response<String>> responses = Maps.newHashMap();
+            Pipeline pipeline = jedis.pipelined();
+            for (RequestInfo requestInfo : updates.values()) {
+                String redisKey = RedisKey.REQUEST_INFO.getRedisKey(requestInfo.getUserId());
+                responses.put(requestInfo.getUserId(), pipeline.hmset(redisKey, toHashFields(requestInfo)));
+            }
+            pipeline.sync();
+            
+            for (Map.Entry<String, Response<String>> entry : responses.entrySet()) {
+                try {
+                    entry.getValue().get();
+                } catch(JedisDataException e) {
+                    // Request info written before it was stored as a hash. Convert it.
+                    convertLegacyRequestInfo(jedis, updates.get(entry.getKey()));
+                }
+            }
+        } catch(Throwable e) {
+            LOG.warn("Could not save request info for " + updates.size() + " users", e);
         }
-        
+    }
+    
+    private void convertLegacyRequestInfo(Jedis jedis, RequestInfo requestInfo) throws IOException {
+        String redisKey = RedisKey.REQUEST_INFO.getRedisKey(requestInfo.getUserId());
+        String ser = jedis.get(redisKey);
+        RequestInfo existing = (ser == null) ? null : bridgeObjectMapper.readValue(ser, RequestInfo.class);
+        jedis.del(redisKey);
+        jedis.hmset(redisKey, toHashFields(mergeRequestInfo(existing, requestInfo)));
     }
     
     public RequestInfo getRequestInfo(String userId) {
-        try {
+        RequestInfo requestInfo = null;
         String redisKey = RedisKey.REQUEST_INFO.getRedisKey(userId);
-            String ser = jedisOps.get(redisKey);
-            if (ser != null) {
-                return bridgeObjectMapper.readValue(ser, RequestInfo.class);
+        try (Jedis jedis = jedisPool.getResource()) {
+            Map<String,String> fields = null;
+            try {
+                fields = jedis.hgetAll(redisKey);
+            } catch(JedisDataException e) {
+                String ser = jedis.get(redisKey);
+                if (ser != null) {
+                    requestInfo = bridgeObjectMapper.readValue(ser, RequestInfo.class);
+                }
+            }
+            if (fields != null && !fields.isEmpty()) {
+                requestInfo = fromHashFields(fields);
             }
         } catch (Throwable e) {
             promptToStartRedisIfLocal(e);
             throw new BridgeServiceException(e);
         }
-        return null;
+        RequestInfo pending = pendingRequestInfo.get(userId);
+        return (pending == null) ? requestInfo : mergeRequestInfo(requestInfo, pending);
+    }
+
+    private static RequestInfo mergeRequestInfo(RequestInfo existing, RequestInfo update) {
+        if (existing == null) {
+            return update;
+        }
+        return new RequestInfo.Builder().copyOf(existing).copyOf(update).build();
+    }
+    
+    private Map<String,String> toHashFields(RequestInfo requestInfo) throws IOException {
+        Map<String,String> fields = Maps.newHashMap();
+        JsonNode node = bridgeObjectMapper.valueToTree(requestInfo);
+        for (Iterator<Map.Entry<String,JsonNode>> i = node.fields(); i.hasNext();) {
+            Map.Entry<String,JsonNode> entry = i.next();
+            fields.put(entry.getKey(), bridgeObjectMapper.writeValueAsString(entry.getValue()));
+        }
+        return fields;
+    }
+    
+    private RequestInfo fromHashFields(Map<String,String> fields) throws IOException {
+        ObjectNode node = bridgeObjectMapper.createObjectNode();
+        for (Map.Entry<String,String> entry : fields.entrySet()) {
+            node.set(entry.getKey(), bridgeObjectMapper.readTree(entry.getValue()));
+        }
+        return bridgeObjectMapper.treeToValue(node, RequestInfo.class);
     }
 
     public void setUserSession(final UserSession session) {
@@ -277,6 +406,88 @@ public class CacheProvider {
         }
     }
     
+    /**
+     * Get a binary value, such as a compressed view, or null if it does not exist. Binary values can be removed 
+     * with removeString().
+     */
+    public byte[] getBytes(String cacheKey) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return jedis.get(cacheKey.getBytes(StandardCharsets.UTF_8));
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+
+    public void setBytes(String cacheKey, byte[] value, int expireInSeconds) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            String result = jedis.setex(cacheKey.getBytes(StandardCharsets.UTF_8), expireInSeconds, value);
+            if (!"OK".equals(result)) {
+                throw new BridgeServiceException("View storage error");
+            }
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    /**
+     * Get a value that is stored under its version, with the version it was read with. Values are stored with 
+     * setBytes() under getVersionedKey(). An absent version key is version "0", and an absent value is null.
+     */
+    public VersionedBytes getVersionedBytes(String versionKey, String key) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<?> result = (List<?>)jedis.eval(GET_VERSIONED_SCRIPT.getBytes(StandardCharsets.UTF_8),
+                    ImmutableList.of(versionKey.getBytes(StandardCharsets.UTF_8)),
+                    ImmutableList.of(key.getBytes(StandardCharsets.UTF_8)));
+            String version = new String((byte[])result.get(0), StandardCharsets.UTF_8);
+            return new VersionedBytes(version, (byte[])result.get(1));
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    /**
+     * Move to a new version, so that values stored under earlier versions are no longer read (they are left to 
+     * expire). Returns the new version.
+     */
+    public String incrementVersion(String versionKey, int expireInSeconds) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return (String)jedis.eval(INCREMENT_VERSION_SCRIPT, ImmutableList.of(versionKey),
+                    ImmutableList.of(Long.toString(DateTimeUtils.currentTimeMillis()), 
+                            Integer.toString(expireInSeconds)));
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    public static String getVersionedKey(String version, String key) {
+        return version + RedisKey.SEPARATOR + key;
+    }
+    
+    /**
+     * Get a counter, or null if the counter does not exist (it was never set, or it has expired).
+     */
+    public Long getCount(String cacheKey) {
+        String value = getString(cacheKey);
+        return (value == null) ? null : Long.valueOf(value);
+    }
+    
+    /**
+     * Add the delta to a counter, but only if the counter exists. An absent counter is left absent so that it can 
+     * be recalculated in full, rather than restarted from the delta. A counter is an approximation, so a failure 
+     * to update it is logged but not thrown.
+     */
+    public void incrementCountIfPresent(String cacheKey, long delta) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.eval(INCREMENT_IF_PRESENT_SCRIPT, ImmutableList.of(cacheKey), ImmutableList.of(Long.toString(delta)));
+        } catch(Throwable e) {
+            LOG.warn("Could not update counter " + cacheKey, e);
+        }
+    }
+    
     private void promptToStartRedisIfLocal(Throwable e) {
         if (BridgeConfigFactory.getConfig().isLocal()) {
             throw new BridgeServiceException(
@@ -284,4 +495,24 @@ public class CacheProvider {
                     + e.getMessage() + ")");
         }
     }
+
+    /** A value read with getVersionedBytes(), and the version it was stored under. */
+    public static final class VersionedBytes {
+        private final String version;
+        private final byte[] value;
+        
+        public VersionedBytes(String version, byte[] value) {
+            this.version = version;
+            this.value = value;
+        }
+        
+        public String getVersion() {
+            return version;
+        }
+        
+        /** The value, or null if there is no value for this version. */
+        public byte[] getValue() {
+            return value;
+        }
+    }
 }
@@ -1,8 +1,33 @@
 package org.sagebionetworks.bridge.cache;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Resource;
+
+import org.joda.time.DateTimeUtils;
 import org.sagebionetworks.bridge.BridgeConstants;
+import org.sagebionetworks.bridge.cache.CacheProvider.VersionedBytes;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.ViewCacheStats;
 import org.sagebionetworks.bridge.redis.RedisKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,79 +37,349 @@ import org.springframework.stereotype.Component;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.base.Joiner;
 import com.google.common.base.Supplier;
+import com.google.common.io.ByteStreams;
 
+/**
+ * <p>
+ * Caches the JSON of views in Redis. Views are stored under a version, and removing a view moves it to a new version
+ * rather than deleting it, so a view that was being loaded when it was removed is written under the old version,
+ * where it will never be read. Views can share a version as a group, so they are all removed at once.
+ * </p>
+ * <p>
+ * When a view is not cached, only one caller on this server loads it; other callers wait for that load. Servers also
+ * take a short lock while loading a view, and a server that finds the lock taken waits briefly for the view to appear
+ * before loading it itself. A key can also ask for its view to be refreshed after a time, in which case the cached
+ * view continues to be returned while it is reloaded in the background.
+ * </p>
+ */
 @Component
 public class ViewCache {
-    
+
     private static final Logger logger = LoggerFactory.getLogger(ViewCache.class);
-    
+
     private static final Joiner COLON_JOINER = Joiner.on(":");
-    
+
+    private static final String COMPRESSED_KEY_PREFIX = "gzip:";
+
+    /** Versions outlive the views stored under them, so an expired version can't bring back an old view. */
+    static final int VERSION_EXPIRE_IN_SECONDS = 2 * BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS;
+    static final int LOCK_EXPIRE_IN_SECONDS = 10;
+    static final long LOCK_WAIT_MILLIS = 2000;
+    static final long LOCK_POLL_MILLIS = 50;
+
+    // Each view is stored after the time (epoch millis) at which it should be refreshed, or 0 if it never is.
+    private static final int HEADER_LENGTH = Long.BYTES;
+
     public final class ViewCacheKey<T> {
         private final String key;
-        public ViewCacheKey(String key) {
+        private final String versionKey;
+        private final int refreshAfterSeconds;
+        ViewCacheKey(String key, String versionKey, int refreshAfterSeconds) {
             this.key = key;
+            this.versionKey = versionKey;
+            this.refreshAfterSeconds = refreshAfterSeconds;
         }
         String getKey() {
             return key;
         }
+        String getVersionKey() {
+            return versionKey;
+        }
+        int getRefreshAfterSeconds() {
+            return refreshAfterSeconds;
+        }
+        /**
+         * A key for the same view that is reloaded in the background once it has been cached for this many seconds.
+         * Until it is reloaded, the cached view is still returned (stale-while-revalidate).
+         */
+        public ViewCacheKey<T> withRefreshAfter(int refreshAfterSeconds) {
+            return new ViewCacheKey<T>(key, versionKey, refreshAfterSeconds);
+        }
     };
-    
+
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> loads = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalescedLoads = new AtomicLong();
+    private final AtomicLong lockWaits = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+
     private CacheProvider cache;
-    
+
+    private DistributedLockDao lockDao;
+
+    private ExecutorService asyncExecutorService;
+
     @Autowired
     public void setCacheProvider(CacheProvider cacheProvider) {
         this.cache = cacheProvider;
     }
-    
+
+    @Autowired
+    public void setDistributedLockDao(DistributedLockDao lockDao) {
+        this.lockDao = lockDao;
+    }
+
+    /** Refreshes views in the background. */
+    @Resource(name = "asyncExecutorService")
+    public void setAsyncExecutorService(ExecutorService asyncExecutorService) {
+        this.asyncExecutorService = asyncExecutorService;
+    }
+
     /**
-     * Get the JSON for the viewCacheKey, or if nothing has been cached, call the supplier, 
+     * Get the JSON for the viewCacheKey, or if nothing has been cached, call the supplier,
      * cache the JSON representation of the object returned, and return that JSON.
      * @param key
      * @param supplier
      * @return
      */
     public <T> String getView(ViewCacheKey<T> key, Supplier<T> supplier) {
-        try {
-            String value = cache.getString(key.getKey());
-            if (value == null) {
-                value = cacheView(key, supplier);
-            } else {
-                logger.debug("Retrieving " +key.getKey()+"' JSON from cache");
-            }
-            return value;
-        } catch(JsonProcessingException e) {
-            throw new BridgeServiceException(e);
-        }
+        byte[] json = getEntry(key, key.getKey(), supplier, ViewCache::toJson);
+        return new String(json, StandardCharsets.UTF_8);
     }
 
     /**
-     * Remove the JSON for the view represented by the viewCacheKey.
+     * Get the gzip-compressed JSON for the viewCacheKey, or if nothing has been cached, call the supplier, and
+     * cache and return the compressed JSON of the object returned. Only the compressed bytes are stored, so large
+     * views take less memory in Redis, and are compressed once rather than on every response. Clients that don't
+     * accept gzip can be sent the result of decompress().
+     * @param key
+     * @param supplier
+     * @return
+     */
+    public <T> byte[] getCompressedView(ViewCacheKey<T> key, Supplier<T> supplier) {
+        return getEntry(key, COMPRESSED_KEY_PREFIX + key.getKey(), supplier, ViewCache::toCompressedJson);
+    }
+
+    /**
+     * Remove the view represented by the viewCacheKey, whether it was cached as is or compressed. If the key
+     * belongs to a group, all the views of the group are removed.
      * @param key
      */
     public <T> void removeView(ViewCacheKey<T> key) {
-        logger.debug("Deleting JSON for '" +key.getKey() +"'");
-        cache.removeString(key.getKey());
+        logger.debug("Removing views for '" +key.getVersionKey() +"'");
+        cache.incrementVersion(key.getVersionKey(), VERSION_EXPIRE_IN_SECONDS);
+    }
+
+    /**
+     * Remove all the views in a group (see getGroupCacheKey()).
+     * @param clazz
+     * @param group
+     */
+    public void removeViewGroup(Class<?> clazz, String group) {
+        String versionKey = RedisKey.VIEW_VERSION.getRedisKey(group + ":" + clazz.getName());
+        logger.debug("Removing views for '" +versionKey +"'");
+        cache.incrementVersion(versionKey, VERSION_EXPIRE_IN_SECONDS);
     }
-    
+
     /**
-     * Create a viewCacheKey for a particular type of entity, and the set of identifiers 
+     * Create a viewCacheKey for a particular type of entity, and the set of identifiers
      * that will identify that entity.
      * @param clazz
      * @param identifiers
      * @return
      */
     public <T> ViewCacheKey<T> getCacheKey(Class<T> clazz, String... identifiers) {
-        String id = COLON_JOINER.join(identifiers);
-        return new ViewCacheKey<T>(RedisKey.VIEW.getRedisKey(id + ":" + clazz.getName()));
-    }
-    
-    private <T> String cacheView(ViewCacheKey<T> key, Supplier<T> supplier) throws JsonProcessingException {
-        logger.debug("Caching JSON for " +key.getKey()+"'");
-        T object = supplier.get();
-        String value = BridgeObjectMapper.get().writeValueAsString(object);
-        cache.setString(key.getKey(), value, BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+        String id = COLON_JOINER.join(identifiers) + ":" + clazz.getName();
+        return new ViewCacheKey<T>(RedisKey.VIEW.getRedisKey(id), RedisKey.VIEW_VERSION.getRedisKey(id), 0);
+    }
+
+    /**
+     * Create a viewCacheKey for one of a group of views (for example, the different versions of one survey), which
+     * are removed together with removeViewGroup().
+     * @param clazz
+     * @param group
+     * @param identifiers
+     * @return
+     */
+    public <T> ViewCacheKey<T> getGroupCacheKey(Class<T> clazz, String group, String... identifiers) {
+        String id = group + ":" + COLON_JOINER.join(identifiers) + ":" + clazz.getName();
+        String versionId = group + ":" + clazz.getName();
+        return new ViewCacheKey<T>(RedisKey.VIEW.getRedisKey(id), RedisKey.VIEW_VERSION.getRedisKey(versionId), 0);
+    }
+
+    /**
+     * Counts of how views have been read on this server since it started.
+     */
+    public ViewCacheStats getStats() {
+        return new ViewCacheStats(hits.get(), staleHits.get(), misses.get(), coalescedLoads.get(), lockWaits.get(),
+                loadCount.get());
+    }
+
+    /**
+     * Get the JSON of a view returned by getCompressedView().
+     */
+    public static byte[] decompress(byte[] compressedView) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressedView))) {
+            return ByteStreams.toByteArray(in);
+        } catch(IOException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+
+    static byte[] compress(byte[] json) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4);
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(json);
+        }
+        return bytes.toByteArray();
+    }
+
+    private <T> byte[] getEntry(ViewCacheKey<T> key, String entryKey, Supplier<T> supplier,
+            Function<T, byte[]> serializer) {
+        VersionedBytes cached = cache.getVersionedBytes(key.getVersionKey(), entryKey);
+        String versionedKey = CacheProvider.getVersionedKey(cached.getVersion(), entryKey);
+        byte[] entry = cached.getValue();
+        if (entry == null) {
+            misses.incrementAndGet();
+            return load(key, versionedKey, supplier, serializer);
+        }
+        long refreshAfter = ByteBuffer.wrap(entry).getLong();
+        if (refreshAfter != 0L && DateTimeUtils.currentTimeMillis() > refreshAfter) {
+            staleHits.incrementAndGet();
+            refreshInBackground(key, versionedKey, supplier, serializer);
+        } else {
+            hits.incrementAndGet();
+        }
+        logger.debug("Retrieving " +versionedKey+"' JSON from cache");
+        return Arrays.copyOfRange(entry, HEADER_LENGTH, entry.length);
+    }
+
+    /**
+     * Loads the view, unless it is already being loaded on this server, in which case that load is shared.
+     */
+    private <T> byte[] load(ViewCacheKey<T> key, String versionedKey, Supplier<T> supplier,
+            Function<T, byte[]> serializer) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> inFlight = loads.putIfAbsent(versionedKey, future);
+        if (inFlight != null) {
+            coalescedLoads.incrementAndGet();
+            return join(inFlight);
+        }
+        try {
+            byte[] value = loadWithLock(key, versionedKey, supplier, serializer);
+            future.complete(value);
+            return value;
+        } catch(RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(versionedKey, future);
+        }
+    }
+
+    private <T> byte[] loadWithLock(ViewCacheKey<T> key, String versionedKey, Supplier<T> supplier,
+            Function<T, byte[]> serializer) {
+        String lock = null;
+        try {
+            lock = lockDao.acquireLock(ViewCache.class, versionedKey, LOCK_EXPIRE_IN_SECONDS);
+        } catch(ConcurrentModificationException e) {
+            // Another server is loading this view. It's usually quicker to wait for it than to load it again.
+            lockWaits.incrementAndGet();
+            byte[] entry = waitForEntry(versionedKey);
+            if (entry != null) {
+                return Arrays.copyOfRange(entry, HEADER_LENGTH, entry.length);
+            }
+        }
+        try {
+            return loadAndCache(key, versionedKey, supplier, serializer);
+        } finally {
+            if (lock != null) {
+                lockDao.releaseLock(ViewCache.class, versionedKey, lock);
+            }
+        }
+    }
+
+    private byte[] waitForEntry(String versionedKey) {
+        long waitUntil = DateTimeUtils.currentTimeMillis() + LOCK_WAIT_MILLIS;
+        try {
+            while (DateTimeUtils.currentTimeMillis() < waitUntil) {
+                Thread.sleep(LOCK_POLL_MILLIS);
+                byte[] entry = cache.getBytes(versionedKey);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Reload a view that is due to be refreshed, unless it is already being loaded here or on another server.
+     */
+    private <T> void refreshInBackground(ViewCacheKey<T> key, String versionedKey, Supplier<T> supplier,
+            Function<T, byte[]> serializer) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        if (loads.putIfAbsent(versionedKey, future) != null) {
+            return;
+        }
+        Runnable refresh = () -> {
+            try {
+                String lock = lockDao.acquireLock(ViewCache.class, versionedKey, LOCK_EXPIRE_IN_SECONDS);
+                try {
+                    future.complete(loadAndCache(key, versionedKey, supplier, serializer));
+                } finally {
+                    lockDao.releaseLock(ViewCache.class, versionedKey, lock);
+                }
+            } catch(ConcurrentModificationException e) {
+                // Another server is refreshing it.
+                future.completeExceptionally(e);
+            } catch(RuntimeException e) {
+                logger.warn("Error refreshing view " + versionedKey, e);
+                future.completeExceptionally(e);
+            } finally {
+                loads.remove(versionedKey, future);
+            }
+        };
+        try {
+            asyncExecutorService.execute(refresh);
+        } catch(RuntimeException e) {
+            logger.warn("Could not schedule refresh of view " + versionedKey, e);
+            loads.remove(versionedKey, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private <T> byte[] loadAndCache(ViewCacheKey<T> key, String versionedKey, Supplier<T> supplier,
+            Function<T, byte[]> serializer) {
+        logger.debug("Caching JSON for " +versionedKey+"'");
+        loadCount.incrementAndGet();
+        byte[] value = serializer.apply(supplier.get());
+
+        long refreshAfter = (key.getRefreshAfterSeconds() > 0) ?
+                DateTimeUtils.currentTimeMillis() + key.getRefreshAfterSeconds() * 1000L : 0L;
+        byte[] entry = ByteBuffer.allocate(HEADER_LENGTH + value.length).putLong(refreshAfter).put(value).array();
+        cache.setBytes(versionedKey, entry, BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
         return value;
     }
-    
+
+    private static byte[] join(CompletableFuture<byte[]> future) {
+        try {
+            return future.join();
+        } catch(CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new BridgeServiceException(e.getCause());
+        }
+    }
+
+    private static byte[] toJson(Object object) {
+        try {
+            return BridgeObjectMapper.get().writeValueAsBytes(object);
+        } catch(JsonProcessingException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+
+    private static byte[] toCompressedJson(Object object) {
+        try {
+            return compress(BridgeObjectMapper.get().writeValueAsBytes(object));
+        } catch(IOException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
 }
@@ -19,6 +19,16 @@ public class BridgeConfig implements Config {
     private static final String ENTERPRISE_STORMPATH_SECRET = "enterprise.stormpath.secret";
     private static final String ENTERPRISE_STORMPATH_APPLICATION_HREF = "enterprise.stormpath.application.href";
 
+    private static final String ACCOUNT_DAO = "account.dao";
+    private static final String LOCAL_ACCOUNT_DAO = "local";
+    private static final String LOCAL_ACCOUNT_SNAPSHOT_FILE = "local.account.snapshot.file";
+
+    private static final String NOTIFICATION_PUBLISHER = "notification.publisher";
+    private static final String LOCAL_NOTIFICATION_PUBLISHER = "local";
+
+    private static final String UPLOAD_TOKEN_SERVICE = "upload.token.service";
+    private static final String LOCAL_UPLOAD_TOKEN_SERVICE = "local";
+
     private static final String CONSENTS_BUCKET = "consents.bucket";
 
     // Property for a token that is checked before user is unsubscribed from further emails
@@ -122,6 +132,38 @@ public class BridgeConfig implements Config {
         return config.get(ENTERPRISE_STORMPATH_APPLICATION_HREF);
     }
 
+    /**
+     * True if accounts should be kept in the local, in-memory account store rather than in Stormpath. 
+     * This is only intended for load testing.
+     */
+    public boolean isLocalAccountDao() {
+        return LOCAL_ACCOUNT_DAO.equals(config.get(ACCOUNT_DAO));
+    }
+
+    /**
+     * File the local account store is loaded from on startup and saved to on shutdown. Blank if 
+     * the local account store should not be persisted.
+     */
+    public String getLocalAccountSnapshotFile() {
+        return config.get(LOCAL_ACCOUNT_SNAPSHOT_FILE);
+    }
+
+    /**
+     * True if push notifications should be recorded by the local, in-memory publisher rather than sent through 
+     * SNS. This is only intended for testing.
+     */
+    public boolean isLocalNotificationPublisher() {
+        return LOCAL_NOTIFICATION_PUBLISHER.equals(config.get(NOTIFICATION_PUBLISHER));
+    }
+
+    /**
+     * True if upload credentials should be issued by the local stand-in for STS rather than by AWS. This is only 
+     * intended for testing; the credentials it issues can't be used to upload to S3.
+     */
+    public boolean isLocalUploadTokenService() {
+        return LOCAL_UPLOAD_TOKEN_SERVICE.equals(config.get(UPLOAD_TOKEN_SERVICE));
+    }
+
     public String getHealthCodeKey() {
         return config.get(HEALTHCODE_KEY);
     }
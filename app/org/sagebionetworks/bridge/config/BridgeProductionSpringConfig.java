@@ -15,6 +15,7 @@ import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
 import org.sagebionetworks.bridge.redis.JedisOps;
+import org.sagebionetworks.bridge.util.DependencyMetrics;
 
 /**
  * Production-only Spring config. This includes things that we don't want in our unit tests for
@@ -27,13 +28,25 @@ public class BridgeProductionSpringConfig {
     @Autowired
     BridgeConfig bridgeConfig;
     
+    @Autowired
+    DependencyMetrics dependencyMetrics;
+    
     @Resource(name = "redisProviders")
     List<String> redisProviders;
     
     @Bean(name = "jedisOps")
-    @Resource(name = "jedisPool")
-    public JedisOps jedisOps(final JedisPool jedisPool) {
-        return new JedisOps(jedisPool);
+    public JedisOps jedisOps() throws Exception {
+        return dependencyMetrics.instrument("redis", JedisOps.class, new JedisOps(jedisPool()));
+    }
+
+    /**
+     * The pool for the Redis commands JedisOps doesn't provide (scripts, hashes, pipelines, binary values and scans).
+     * Its connections are instrumented, where JedisOps is instrumented instead of the pool it uses, so each command
+     * is recorded once.
+     */
+    @Bean(name = "instrumentedJedisPool")
+    public JedisPool instrumentedJedisPool() throws Exception {
+        return dependencyMetrics.instrument("redis", jedisPool());
     }
 
     @Bean(name = "jedisPool")
@@ -4,12 +4,16 @@ import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 import javax.annotation.Resource;
 
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.PredefinedClientConfigurations;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.services.datapipeline.DataPipelineClient;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
@@ -23,6 +27,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.stormpath.sdk.api.ApiKey;
 import com.stormpath.sdk.api.ApiKeys;
 import com.stormpath.sdk.application.Application;
@@ -41,6 +46,7 @@ import org.sagebionetworks.client.SynapseClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 
 import org.springframework.context.annotation.FilterType;
@@ -71,8 +77,11 @@ import org.sagebionetworks.bridge.dynamodb.DynamoUploadDedupe;
 import org.sagebionetworks.bridge.dynamodb.DynamoUploadSchema;
 import org.sagebionetworks.bridge.dynamodb.DynamoUtils;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.local.LocalSecurityTokenServiceClient;
 import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.upload.DecryptHandler;
+import org.sagebionetworks.bridge.util.Bulkhead;
+import org.sagebionetworks.bridge.util.DependencyMetrics;
 import org.sagebionetworks.bridge.upload.IosSchemaValidationHandler2;
 import org.sagebionetworks.bridge.upload.ParseJsonHandler;
 import org.sagebionetworks.bridge.upload.S3DownloadHandler;
@@ -106,6 +115,15 @@ public class BridgeSpringConfig {
         return BridgeConfigFactory.getConfig();
     }
 
+    /**
+     * Records the calls made by the clients of DynamoDB, Redis, Stormpath, S3 and SES, each of which is wrapped by
+     * DependencyMetrics.instrument() where it is declared.
+     */
+    @Bean(name = "dependencyMetrics")
+    public DependencyMetrics dependencyMetrics() {
+        return new DependencyMetrics();
+    }
+
     @Bean(name = "annotationBasedTableCreator")
     public AnnotationBasedTableCreator annotationBasedTableCreator(DynamoNamingHelper dynamoNamingHelper) {
         return new AnnotationBasedTableCreator(dynamoNamingHelper);
@@ -149,9 +167,13 @@ public class BridgeSpringConfig {
     @Resource(name = "awsCredentials")
     public AmazonDynamoDBClient dynamoDbClient() {
         int maxRetries = bridgeConfig().getPropertyAsInt("ddb.max.retries");
+        RetryPolicy retryPolicy = new RetryPolicy(
+                dependencyMetrics().retryCondition("dynamo", PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION),
+                PredefinedRetryPolicies.DYNAMODB_DEFAULT_BACKOFF_STRATEGY, maxRetries, true);
         ClientConfiguration awsClientConfig = PredefinedClientConfigurations.dynamoDefault()
-                .withMaxErrorRetry(maxRetries);
-        return new AmazonDynamoDBClient(awsCredentials(), awsClientConfig);
+                .withMaxErrorRetry(maxRetries).withRetryPolicy(retryPolicy);
+        return dependencyMetrics().instrument("dynamo", AmazonDynamoDBClient.class,
+                new AmazonDynamoDBClient(awsCredentials(), awsClientConfig));
     }
     
     @Bean(name = "snsClient")
@@ -187,6 +209,9 @@ public class BridgeSpringConfig {
     @Bean(name ="uploadTokenServiceClient")
     @Resource(name = "s3UploadCredentials")
     public AWSSecurityTokenServiceClient uploadTokenServiceClient(BasicAWSCredentials s3UploadCredentials) {
+        if (bridgeConfig().isLocalUploadTokenService()) {
+            return new LocalSecurityTokenServiceClient();
+        }
         return new AWSSecurityTokenServiceClient(s3UploadCredentials);
     }
 
@@ -195,7 +220,7 @@ public class BridgeSpringConfig {
     public S3Helper s3CmsHelper(AmazonS3Client s3CmsClient) {
         S3Helper s3CmsHelper = new S3Helper();
         s3CmsHelper.setS3Client(s3CmsClient);
-        return s3CmsHelper;
+        return dependencyMetrics().instrument("s3", S3Helper.class, s3CmsHelper);
     }
 
     @Bean(name = "s3Helper")
@@ -203,7 +228,7 @@ public class BridgeSpringConfig {
     public S3Helper s3Helper(AmazonS3Client s3Client) {
         S3Helper s3Helper = new S3Helper();
         s3Helper.setS3Client(s3Client);
-        return s3Helper;
+        return dependencyMetrics().instrument("s3", S3Helper.class, s3Helper);
     }
 
     @Bean(name = "s3ConsentsCredentials")
@@ -224,13 +249,14 @@ public class BridgeSpringConfig {
     public S3Helper s3ConsentsHelper(AmazonS3Client s3Client) {
         S3Helper s3Helper = new S3Helper();
         s3Helper.setS3Client(s3Client);
-        return s3Helper;
+        return dependencyMetrics().instrument("s3", S3Helper.class, s3Helper);
     }
 
     @Bean(name = "sesClient")
     @Resource(name="awsCredentials")
     public AmazonSimpleEmailServiceClient sesClient(BasicAWSCredentials awsCredentials) {
-        return new AmazonSimpleEmailServiceClient(awsCredentials);
+        return dependencyMetrics().instrument("ses", AmazonSimpleEmailServiceClient.class,
+                new AmazonSimpleEmailServiceClient(awsCredentials));
     }
 
     @Bean(name = "sqsClient")
@@ -245,6 +271,106 @@ public class BridgeSpringConfig {
         return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("async.worker.thread.count"));
     }
 
+    /**
+     * Runs DAO reads that a request fans out in parallel. Kept apart from asyncExecutorService so that reads
+     * made on behalf of a waiting request are not queued behind background work.
+     */
+    @Bean(name = "daoExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService daoExecutorService(BridgeConfig bridgeConfig) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("dao-io-%d").setDaemon(true).build();
+        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("dao.io.thread.count"), threadFactory);
+    }
+
+    /**
+     * Publishes push notifications to the devices of a cohort. Its size bounds the number of publishes in flight
+     * across all cohort notification jobs.
+     */
+    @Bean(name = "notificationPublishExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService notificationPublishExecutorService(BridgeConfig bridgeConfig) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("notification-publish-%d")
+                .setDaemon(true).build();
+        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("notification.publish.thread.count"),
+                threadFactory);
+    }
+
+    /**
+     * Writes the records of bulk imports (external IDs, participant report data) in parallel. Kept apart from
+     * daoExecutorService so that a large import can't hold up reads made on behalf of waiting requests. Its size
+     * bounds the number of writes in flight across all running imports.
+     */
+    @Bean(name = "importExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService importExecutorService(BridgeConfig bridgeConfig) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("import-%d").setDaemon(true).build();
+        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("import.thread.count"), threadFactory);
+    }
+
+    /**
+     * Deletes users, and the stages of deleting a user, in parallel. Kept apart from daoExecutorService so that a
+     * large deletion can't hold up reads made on behalf of waiting requests, and from asyncExecutorService so that
+     * deleting many users can't hold up other background work.
+     */
+    @Bean(name = "userDeletionExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService userDeletionExecutorService(BridgeConfig bridgeConfig) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("user-deletion-%d").setDaemon(true)
+                .build();
+        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("user.deletion.thread.count"),
+                threadFactory);
+    }
+
+    /**
+     * Backfills items in parallel. Its size bounds the number of items in flight across all running backfills.
+     */
+    @Bean(name = "backfillExecutorService")
+    @Resource(name = "bridgeConfig")
+    public ExecutorService backfillExecutorService(BridgeConfig bridgeConfig) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("backfill-%d").setDaemon(true).build();
+        return Executors.newFixedThreadPool(bridgeConfig.getPropertyAsInt("backfill.thread.count"), threadFactory);
+    }
+
+    /**
+     * Runs controller actions that block on Stormpath (signing up and signing in, and so on).
+     */
+    @Bean(name = "stormpathBulkhead")
+    @Resource(name = "bridgeConfig")
+    public Bulkhead stormpathBulkhead(BridgeConfig bridgeConfig) {
+        return new Bulkhead("stormpath", bridgeConfig.getPropertyAsInt("stormpath.bulkhead.thread.count"),
+                bridgeConfig.getPropertyAsInt("stormpath.bulkhead.queue.size"));
+    }
+
+    /**
+     * Runs controller actions that block on DynamoDB.
+     */
+    @Bean(name = "dynamoBulkhead")
+    @Resource(name = "bridgeConfig")
+    public Bulkhead dynamoBulkhead(BridgeConfig bridgeConfig) {
+        return new Bulkhead("dynamo", bridgeConfig.getPropertyAsInt("dynamo.bulkhead.thread.count"),
+                bridgeConfig.getPropertyAsInt("dynamo.bulkhead.queue.size"));
+    }
+
+    /**
+     * Runs controller actions that block on S3.
+     */
+    @Bean(name = "s3Bulkhead")
+    @Resource(name = "bridgeConfig")
+    public Bulkhead s3Bulkhead(BridgeConfig bridgeConfig) {
+        return new Bulkhead("s3", bridgeConfig.getPropertyAsInt("s3.bulkhead.thread.count"),
+                bridgeConfig.getPropertyAsInt("s3.bulkhead.queue.size"));
+    }
+
+    /**
+     * Runs the BackgroundRefresher's tasks. These are few and short, so one thread is enough.
+     */
+    @Bean(name = "refreshExecutorService")
+    public ScheduledExecutorService refreshExecutorService() {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("background-refresh-%d")
+                .setDaemon(true).build();
+        return Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
     @Bean(name = "supportEmail")
     @Resource(name = "bridgeConfig")
     public String supportEmail(BridgeConfig bridgeConfig) {
@@ -470,14 +596,17 @@ public class BridgeSpringConfig {
             .setSecret(bridgeConfig.getStormpathSecret()).build();
         ClientBuilder clientBuilder = Clients.builder().setApiKey(apiKey);
         ((DefaultClientBuilder)clientBuilder).setBaseUrl("https://enterprise.stormpath.io/v1");
-        return clientBuilder.build();        
+        return dependencyMetrics().instrument("stormpath", Client.class, clientBuilder.build());
     }
 
     // Do NOT reference this bean outside of StormpathAccountDao. Injected for testing purposes.
     @Bean(name = "stormpathApplication")
+    @Conditional(StormpathAccountDaoCondition.class)
     @Autowired
     public Application getStormpathApplication(BridgeConfig bridgeConfig, Client stormpathClient) {
-        return stormpathClient.getResource(bridgeConfig.getStormpathApplicationHref(), Application.class);
+        Application application = stormpathClient.getResource(bridgeConfig.getStormpathApplicationHref(),
+                Application.class);
+        return dependencyMetrics().instrument("stormpath", Application.class, application);
     }
     
     @Bean(name = "sessionExpireInSeconds")
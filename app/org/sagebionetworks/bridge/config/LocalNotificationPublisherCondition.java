@@ -0,0 +1,15 @@
+package org.sagebionetworks.bridge.config;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Matches when the configuration selects the local, in-memory notification publisher (notification.publisher = local).
+ */
+public class LocalNotificationPublisherCondition implements Condition {
+    @Override
+    public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+        return BridgeConfigFactory.getConfig().isLocalNotificationPublisher();
+    }
+}
@@ -0,0 +1,16 @@
+package org.sagebionetworks.bridge.config;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Matches unless the configuration selects the local notification publisher, so push notifications are sent 
+ * through SNS by default.
+ */
+public class SnsNotificationPublisherCondition implements Condition {
+    @Override
+    public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+        return !BridgeConfigFactory.getConfig().isLocalNotificationPublisher();
+    }
+}
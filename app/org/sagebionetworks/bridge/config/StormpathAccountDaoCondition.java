@@ -0,0 +1,16 @@
+package org.sagebionetworks.bridge.config;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Matches unless the configuration selects the local account store, so the Stormpath account beans 
+ * (which contact Stormpath when they are created) are only created when they will be used.
+ */
+public class StormpathAccountDaoCondition implements Condition {
+    @Override
+    public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+        return !BridgeConfigFactory.getConfig().isLocalAccountDao();
+    }
+}
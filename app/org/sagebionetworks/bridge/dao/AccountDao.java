@@ -92,6 +92,12 @@ public interface AccountDao {
      */
     Iterator<AccountSummary> getStudyAccounts(Study study);
     
+    /**
+     * Get all accounts in one study, in full. Accounts are constructed from the pages in which the study's accounts 
+     * are listed, rather than retrieved one at a time.
+     */
+    Iterator<Account> getFullStudyAccounts(Study study);
+    
     /**
      * Get a page of lightweight account summaries (most importantly, the email addresses of 
      * participants which are required for the rest of the participant APIs). 
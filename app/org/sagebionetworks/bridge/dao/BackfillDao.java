@@ -16,15 +16,48 @@ public interface BackfillDao {
     BackfillTask createTask(String name, String user);
 
     /**
-     * Updates the status of the backfill task.
+     * Starts a run of the backfill task: marks it IN_PROCESS and beats its heartbeat. Returns the task's version after
+     * the update. The run's later updates of the task are conditional on the version, so they fail once another run
+     * has started the task. Throws EntityNotFoundException if there is no such task.
      */
-    void updateTaskStatus(String taskId, BackfillStatus status);
+    long startTask(String taskId);
+
+    /**
+     * Updates the status of the backfill task, if the task is still at the given version. Throws
+     * ConcurrentModificationException if it isn't, and EntityNotFoundException if there is no such task.
+     */
+    void updateTaskStatus(String taskId, long version, BackfillStatus status);
 
     /**
      * Gets the backfill task by ID.
      */
     BackfillTask getTask(String taskId);
 
+    /**
+     * Saves how many items of its input the backfill task has finished, so that it can resume from there if it is
+     * interrupted, and beats the task's heartbeat. The key of the last item finished is saved with the checkpoint
+     * (null if there is none), so a resumed task can check that its input hasn't changed. The checkpoint is only
+     * saved if the task is still at the given version; returns the task's new version. Throws
+     * ConcurrentModificationException if the task has changed, and EntityNotFoundException if there is no such task.
+     */
+    long updateTaskCheckpoint(String taskId, long version, long checkpoint, String checkpointKey);
+
+    /**
+     * Gets the checkpoint saved for the backfill task, or null if the task has never saved one.
+     */
+    Long getTaskCheckpoint(String taskId);
+
+    /**
+     * Gets the key of the last item before the checkpoint saved for the backfill task, or null if there is none.
+     */
+    String getTaskCheckpointKey(String taskId);
+
+    /**
+     * Gets when the run working on the backfill task last beat its heartbeat, in epoch milliseconds, or null if the
+     * task has never been started.
+     */
+    Long getTaskHeartbeat(String taskId);
+
     /**
      * Gets the list of tasks of the specified name since a particular time point.
      * The list is in ascending order of the timestamp.
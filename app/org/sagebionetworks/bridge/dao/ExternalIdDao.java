@@ -1,8 +1,10 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.Iterator;
 import java.util.List;
 
 import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.accounts.ExternalIdImportResult;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifierInfo;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 
@@ -15,6 +17,7 @@ public interface ExternalIdDao {
     
     String CONFIG_KEY_ADD_LIMIT = "external.id.add.limit";
     String CONFIG_KEY_LOCK_DURATION = "external.id.lock.duration";
+    String CONFIG_KEY_IMPORT_PARALLELISM = "external.id.import.parallelism";
 
     /**
      * Retrieve external IDs that match the ID and/or assignment filters. These records are returned in pages of pageSize 
@@ -22,6 +25,10 @@ public interface ExternalIdDao {
      * null, there is not a further page of IDs to retrieve.
      * 
      * More interestingly, you can retrieve the next available ID by asking for pageSize=1, assignmentFilter=FALSE.
+     * 
+     * When there is no idFilter, the total is taken from counts that are maintained as IDs are added and assigned, 
+     * rather than counted on every call. IDs that are reserved but not yet assigned are not included in the count of 
+     * assigned IDs.
      *   
      * @param studyId
      *      study of caller
@@ -43,6 +50,13 @@ public interface ExternalIdDao {
      */
     void addExternalIds(StudyIdentifier studyId, List<String> externalIdentifiers);
     
+    /**
+     * Add any number of external IDs, as they are read from the iterator. As with addExternalIds(), existing IDs are 
+     * left alone. Returns the number of IDs that were added and the number that were skipped because they exist. 
+     * IDs must be validated before they are passed to this method.
+     */
+    ExternalIdImportResult importExternalIds(StudyIdentifier studyId, Iterator<String> externalIdentifiers);
+    
     /**
      * Reserve this ID. Reserving the ID prevents it from being taken by another caller for a short duration (30 seconds), 
      * allowing this reserving thread to do other work to set up the user (e.g. creating a Stormpath account, which can 
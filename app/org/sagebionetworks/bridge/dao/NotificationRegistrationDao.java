@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.Iterator;
 import java.util.List;
 
 import org.sagebionetworks.bridge.models.notifications.NotificationRegistration;
@@ -8,6 +9,12 @@ public interface NotificationRegistrationDao {
 
     List<NotificationRegistration> listRegistrations(String healthCode);
     
+    /**
+     * Get the registrations of each of the participants in turn, reading each participant's registrations only 
+     * as the iterator reaches them.
+     */
+    Iterator<NotificationRegistration> getRegistrations(Iterator<String> healthCodes);
+    
     NotificationRegistration getRegistration(String healthCode, String guid);
     
     NotificationRegistration createRegistration(String platformARN, NotificationRegistration registration);
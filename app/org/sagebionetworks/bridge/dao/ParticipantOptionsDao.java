@@ -1,6 +1,8 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 import org.sagebionetworks.bridge.models.accounts.AllParticipantOptionsLookup;
 import org.sagebionetworks.bridge.models.accounts.ParticipantOptionsLookup;
@@ -28,6 +30,13 @@ public interface ParticipantOptionsDao {
      * Get all the options for all participants in a study. 
      */
     AllParticipantOptionsLookup getOptionsForAllParticipants(StudyIdentifier studyIdentifier);
+    
+    /**
+     * Get the health codes of the participants in a study who are in at least one of the data groups (or of every 
+     * participant in the study with options, if the set of data groups is empty). The health codes are read lazily 
+     * as the iterator is consumed, so this can be used for studies of any size.
+     */
+    Iterator<String> getHealthCodesInDataGroups(StudyIdentifier studyIdentifier, Set<String> dataGroups);
    
     /**
      * Clear a single option for a participant.
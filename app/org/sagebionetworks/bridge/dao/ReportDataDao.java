@@ -1,5 +1,8 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.List;
+import java.util.Map;
+
 import org.joda.time.LocalDate;
 
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
@@ -27,6 +30,18 @@ public interface ReportDataDao {
      *         report data object
      */
     void saveReportData(ReportData reportData);
+
+    /**
+     * Writes a list of report data records to the backing store, as few requests as possible. Records the store
+     * doesn't accept at first are retried. Records that still can't be written are returned, so the caller can
+     * report them.
+     *
+     * @param reportDataList
+     *         report data objects, with their keys set
+     * @return reasons that records couldn't be written, keyed by the record's index in the list. Empty if every
+     *         record was written.
+     */
+    Map<Integer, String> saveReportDataBatch(List<ReportData> reportDataList);
     
     /***
      * Delete all records regardless of date for a report. This can be used as part of testing, 
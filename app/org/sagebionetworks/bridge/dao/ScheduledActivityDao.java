@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.Iterator;
 import java.util.List;
 
 import org.joda.time.DateTimeZone;
@@ -10,10 +11,17 @@ import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
 public interface ScheduledActivityDao {
     
     /**
-     * Get paged results of the scheduled activities that have been created for this user. 
+     * Get paged results of the scheduled activities that have been created for this user. The total is an 
+     * approximate count of the user's activities that is maintained as activities are saved and deleted. 
      */
     PagedResourceList<? extends ScheduledActivity> getActivityHistory(String healthCode, String offsetKey, int pageSize);
     
+    /**
+     * Iterate over all of the scheduled activities that have been created for this user, most recent first. Records 
+     * are retrieved a page at a time as the iterator advances, so the history is never held in memory.
+     */
+    Iterator<? extends ScheduledActivity> getActivityHistoryIterator(String healthCode);
+    
     /**
      * Load an individual activity.
      */
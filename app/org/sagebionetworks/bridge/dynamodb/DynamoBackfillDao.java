@@ -7,6 +7,9 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import java.util.Iterator;
 import java.util.List;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
@@ -17,7 +20,10 @@ import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import org.sagebionetworks.bridge.dao.BackfillDao;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.models.backfill.BackfillRecord;
 import org.sagebionetworks.bridge.models.backfill.BackfillStatus;
 import org.sagebionetworks.bridge.models.backfill.BackfillTask;
@@ -52,13 +58,82 @@ public class DynamoBackfillDao implements BackfillDao {
     }
 
     @Override
-    public void updateTaskStatus(String taskId, BackfillStatus status) {
+    public long startTask(String taskId) {
+        checkArgument(isNotBlank(taskId));
+        DynamoBackfillTask task = loadTask(taskId);
+        task.setStatus(BackfillStatus.IN_PROCESS.name());
+        task.setHeartbeat(DateTime.now(DateTimeZone.UTC).getMillis());
+        return saveTask(task);
+    }
+
+    @Override
+    public void updateTaskStatus(String taskId, long version, BackfillStatus status) {
         checkArgument(isNotBlank(taskId));
         checkNotNull(status);
+        DynamoBackfillTask task = loadTask(taskId, version);
+        task.setStatus(status.name());
+        saveTask(task);
+    }
+
+    @Override
+    public long updateTaskCheckpoint(String taskId, long version, long checkpoint, String checkpointKey) {
+        checkArgument(isNotBlank(taskId));
+        checkArgument(checkpoint >= 0);
+        DynamoBackfillTask task = loadTask(taskId, version);
+        task.setCheckpoint(checkpoint);
+        task.setCheckpointKey(checkpointKey);
+        task.setHeartbeat(DateTime.now(DateTimeZone.UTC).getMillis());
+        return saveTask(task);
+    }
+
+    @Override
+    public String getTaskCheckpointKey(String taskId) {
+        checkArgument(isNotBlank(taskId));
         DynamoBackfillTask task = new DynamoBackfillTask(taskId);
         task = taskMapper.load(task);
-        task.setStatus(status.name());
-        taskMapper.save(task);
+        return (task == null) ? null : task.getCheckpointKey();
+    }
+
+    @Override
+    public Long getTaskHeartbeat(String taskId) {
+        checkArgument(isNotBlank(taskId));
+        DynamoBackfillTask task = new DynamoBackfillTask(taskId);
+        task = taskMapper.load(task);
+        return (task == null) ? null : task.getHeartbeat();
+    }
+
+    private DynamoBackfillTask loadTask(String taskId) {
+        DynamoBackfillTask task = taskMapper.load(new DynamoBackfillTask(taskId));
+        if (task == null) {
+            throw new EntityNotFoundException(BackfillTask.class);
+        }
+        return task;
+    }
+
+    private DynamoBackfillTask loadTask(String taskId, long version) {
+        DynamoBackfillTask task = loadTask(taskId);
+        if (task.getVersion() == null || task.getVersion() != version) {
+            throw new ConcurrentModificationException(task);
+        }
+        return task;
+    }
+
+    /** Saves the task, conditional on the version it was loaded at, and returns its new version. */
+    private long saveTask(DynamoBackfillTask task) {
+        try {
+            taskMapper.save(task);
+        } catch(ConditionalCheckFailedException e) {
+            throw new ConcurrentModificationException(task);
+        }
+        return task.getVersion();
+    }
+
+    @Override
+    public Long getTaskCheckpoint(String taskId) {
+        checkArgument(isNotBlank(taskId));
+        DynamoBackfillTask task = new DynamoBackfillTask(taskId);
+        task = taskMapper.load(task);
+        return (task == null) ? null : task.getCheckpoint();
     }
 
     @Override
@@ -24,6 +24,9 @@ public class DynamoBackfillTask implements BackfillTask {
 
     private String user;
     private String status;
+    private Long checkpoint;
+    private String checkpointKey;
+    private Long heartbeat;
 
     public DynamoBackfillTask() {
     }
@@ -84,6 +87,30 @@ public class DynamoBackfillTask implements BackfillTask {
         this.status = status;
     }
 
+    /** Number of items of its input the task has finished. Null if the task doesn't save checkpoints. */
+    public Long getCheckpoint() {
+        return checkpoint;
+    }
+    public void setCheckpoint(Long checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /** Key of the last item before the checkpoint, to check a resumed task has the same input. */
+    public String getCheckpointKey() {
+        return checkpointKey;
+    }
+    public void setCheckpointKey(String checkpointKey) {
+        this.checkpointKey = checkpointKey;
+    }
+
+    /** When the run working on the task last showed it was alive, in epoch milliseconds. Null if never started. */
+    public Long getHeartbeat() {
+        return heartbeat;
+    }
+    public void setHeartbeat(Long heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
     @DynamoDBIgnore
     @Override
     public String getId() {
@@ -4,6 +4,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.sagebionetworks.bridge.models.OperatingSystem.IOS;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -13,6 +14,7 @@ import java.util.stream.Collectors;
 
 import org.sagebionetworks.bridge.json.BridgeTypeName;
 import org.sagebionetworks.bridge.models.Criteria;
+import org.sagebionetworks.bridge.models.CriteriaMatcher;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
@@ -37,6 +39,9 @@ public final class DynamoCriteria implements Criteria {
     private Set<String> noneOfGroups = Sets.newHashSet();
     private Map<String, Integer> minAppVersions = Maps.newHashMap();
     private Map<String, Integer> maxAppVersions = Maps.newHashMap();
+    // Compiled on first use (or shared by DynamoCriteriaDao from criteria with the same content), and discarded 
+    // whenever the criteria are changed (not part of equality).
+    private transient volatile CriteriaMatcher matcher;
     
     @Override
     @DynamoDBHashKey
@@ -54,6 +59,7 @@ public final class DynamoCriteria implements Criteria {
     }
     public void setLanguage(String language) {
         this.language = language;
+        this.matcher = null;
     }
     
     /**
@@ -94,19 +100,21 @@ public final class DynamoCriteria implements Criteria {
     @DynamoDBAttribute
     @DynamoDBTypeConverted(converter=StringSetMarshaller.class)
     public Set<String> getAllOfGroups() {
-        return allOfGroups;
+        return Collections.unmodifiableSet(allOfGroups);
     }
     public void setAllOfGroups(Set<String> allOfGroups) {
-        this.allOfGroups = (allOfGroups == null) ? new HashSet<>() : allOfGroups;
+        this.allOfGroups = (allOfGroups == null) ? new HashSet<>() : new HashSet<>(allOfGroups);
+        this.matcher = null;
     }
     @Override
     @DynamoDBAttribute
     @DynamoDBTypeConverted(converter=StringSetMarshaller.class)
     public Set<String> getNoneOfGroups() {
-        return noneOfGroups;
+        return Collections.unmodifiableSet(noneOfGroups);
     }
     public void setNoneOfGroups(Set<String> noneOfGroups) {
-        this.noneOfGroups = (noneOfGroups == null) ? new HashSet<>() : noneOfGroups;
+        this.noneOfGroups = (noneOfGroups == null) ? new HashSet<>() : new HashSet<>(noneOfGroups);
+        this.matcher = null;
     }
     
     /**
@@ -121,6 +129,7 @@ public final class DynamoCriteria implements Criteria {
     }
     public void setMinAppVersions(Map<String, Integer> minAppVersions) {
         this.minAppVersions = (minAppVersions == null) ? new HashMap<>() : withoutNullEntries(minAppVersions);
+        this.matcher = null;
     }
     @DynamoDBIgnore
     @Override
@@ -145,6 +154,7 @@ public final class DynamoCriteria implements Criteria {
     }
     public void setMaxAppVersions(Map<String, Integer> maxAppVersions) {
         this.maxAppVersions = (minAppVersions == null) ? new HashMap<>() : withoutNullEntries(maxAppVersions);
+        this.matcher = null;
     }
     @DynamoDBIgnore
     @Override
@@ -164,6 +174,37 @@ public final class DynamoCriteria implements Criteria {
                 .addAll(minAppVersions.keySet())
                 .addAll(maxAppVersions.keySet()).build();
     }
+    @DynamoDBIgnore
+    @JsonIgnore
+    @Override
+    public CriteriaMatcher getMatcher() {
+        CriteriaMatcher compiled = matcher;
+        if (compiled == null) {
+            compiled = CriteriaMatcher.compile(this);
+            matcher = compiled;
+        }
+        return compiled;
+    }
+    /**
+     * Use a matcher that was compiled from criteria equal to these ones, rather than compiling it again.
+     */
+    void setMatcher(CriteriaMatcher matcher) {
+        this.matcher = matcher;
+    }
+    /**
+     * A copy of these criteria that doesn't share any of their collections, so changing one does not change the 
+     * other. The copy compiles its own matcher.
+     */
+    DynamoCriteria copy() {
+        DynamoCriteria copy = new DynamoCriteria();
+        copy.key = key;
+        copy.language = language;
+        copy.allOfGroups = new HashSet<>(allOfGroups);
+        copy.noneOfGroups = new HashSet<>(noneOfGroups);
+        copy.minAppVersions = new HashMap<>(minAppVersions);
+        copy.maxAppVersions = new HashMap<>(maxAppVersions);
+        return copy;
+    }
     /**
      * Creates a new copy of the map, removing any entries that have a null value (particularly easy to do this in JSON).
      */
@@ -178,6 +219,7 @@ public final class DynamoCriteria implements Criteria {
         } else {
             map.remove(osName);
         }
+        this.matcher = null;
     }
     
     @Override
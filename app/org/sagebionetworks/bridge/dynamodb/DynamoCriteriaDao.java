@@ -12,6 +12,8 @@ import org.sagebionetworks.bridge.dao.CriteriaDao;
 import org.sagebionetworks.bridge.models.Criteria;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * The DAO for managing criteria, which are optionally associated with models that can be filtered by Criteria 
@@ -20,6 +22,16 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 @Component
 public class DynamoCriteriaDao implements CriteriaDao {
 
+    /**
+     * Criteria are loaded again by every request that is filtered by them, but rarely change. So the criteria last 
+     * loaded for each key are kept with their compiled matcher, and criteria that are loaded with the same content 
+     * are given that matcher rather than compiling their own. A change on any server changes the content, and so 
+     * replaces the entry.
+     */
+    private final Cache<String, DynamoCriteria> compiledCriteria = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build();
+
     private DynamoDBMapper criteriaMapper;
     
     @Resource(name = "criteriaMapper")
@@ -43,7 +55,18 @@ public class DynamoCriteriaDao implements CriteriaDao {
         DynamoCriteria hashKey = new DynamoCriteria();
         hashKey.setKey(key);
 
-        return criteriaMapper.load(hashKey);
+        DynamoCriteria criteria = criteriaMapper.load(hashKey);
+        if (criteria != null) {
+            DynamoCriteria compiled = compiledCriteria.getIfPresent(key);
+            if (compiled == null || !compiled.equals(criteria)) {
+                // The cached copy is never handed out, so it can't be changed without its matcher being dropped
+                compiled = criteria.copy();
+                compiled.getMatcher();
+                compiledCriteria.put(key, compiled);
+            }
+            criteria.setMatcher(compiled.getMatcher());
+        }
+        return criteria;
     }
 
     @Override
@@ -57,6 +80,7 @@ public class DynamoCriteriaDao implements CriteriaDao {
         if (criteria != null) {
             criteriaMapper.delete(hashKey);
         }
+        compiledCriteria.invalidate(key);
     }
 
 }
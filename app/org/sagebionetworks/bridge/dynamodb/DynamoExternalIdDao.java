@@ -16,6 +16,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
@@ -25,16 +28,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.dao.ExternalIdDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityAlreadyExistsException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.DateUtils;
 import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.accounts.ExternalIdImportResult;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifier;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifierInfo;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.redis.RedisKey;
+import org.sagebionetworks.bridge.util.AdaptiveBackoff;
+import org.sagebionetworks.bridge.util.BoundedFanOut;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
@@ -47,6 +56,7 @@ import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.ConditionalOperator;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -62,21 +72,46 @@ public class DynamoExternalIdDao implements ExternalIdDao {
     private static final String ASSIGNMENT_FILTER = "assignmentFilter";
     private static final String ID_FILTER = "idFilter";
 
+    static final String TOTAL_COUNT = "total";
+    static final String ASSIGNED_COUNT = "assigned";
+    /** The counts are recalculated at least this often, to correct any drift in the maintained counts. */
+    static final int COUNTS_EXPIRE_IN_SECONDS = 24 * 60 * 60;
+    
+    static final long MIN_BACKOFF_MILLIS = 50L;
+    static final long MAX_BACKOFF_MILLIS = 5000L;
+    /** The number of times a put is throttled before the import fails. */
+    static final int MAX_THROTTLED_ATTEMPTS = 10;
+
     private int addLimit;
     private int lockDuration;
+    private int importParallelism;
     private DynamoDBMapper mapper;
+    private CacheProvider cacheProvider;
+    private ExecutorService executorService;
 
-    /** Gets the add limit and lock duration from Config. */
+    /** Gets the add limit, lock duration and import parallelism from Config. */
     @Autowired
     public final void setConfig(Config config) {
         addLimit = config.getInt(CONFIG_KEY_ADD_LIMIT);
         lockDuration = config.getInt(CONFIG_KEY_LOCK_DURATION);
+        importParallelism = config.getInt(CONFIG_KEY_IMPORT_PARALLELISM);
     }
     
     @Resource(name = "externalIdDdbMapper")
     public final void setMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
     }
+    
+    @Autowired
+    public final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+    
+    /** Writes imported external IDs. */
+    @Resource(name = "importExecutorService")
+    public final void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
 
     @Override
     public PagedResourceList<ExternalIdentifierInfo> getExternalIds(StudyIdentifier studyId, String offsetKey, 
@@ -96,7 +131,11 @@ public class DynamoExternalIdDao implements ExternalIdDao {
         PaginatedQueryList<DynamoExternalIdentifier> list = mapper.query(DynamoExternalIdentifier.class,
                 createGetQuery(studyId, offsetKey, pageSize, idFilter, assignmentFilter));
         
-        int total = mapper.count(DynamoExternalIdentifier.class, createCountQuery(studyId, idFilter, assignmentFilter));
+        // An idFilter is a range key condition, so only the matching IDs are counted. Otherwise the count would
+        // have to walk the whole study, so the total comes from the maintained counts.
+        int total = (idFilter != null) ?
+                mapper.count(DynamoExternalIdentifier.class, createCountQuery(studyId, idFilter, assignmentFilter)) :
+                getCount(studyId, assignmentFilter);
         
         List<ExternalIdentifierInfo> identifiers = Lists.newArrayListWithCapacity(pageSize);
         
@@ -128,15 +167,84 @@ public class DynamoExternalIdDao implements ExternalIdDao {
         if (externalIds.size() > addLimit) {
             throw new BadRequestException("List of externalIds is too large; size=" + externalIds.size() + ", limit=" + addLimit);
         }
-        List<DynamoExternalIdentifier> idsToSave = externalIds.stream().map(id -> {
-            return new DynamoExternalIdentifier(studyId, id);
-        }).filter(externalId -> {
-            return mapper.load(externalId) == null;
-        }).collect(Collectors.toList());
+        importExternalIds(studyId, externalIds.iterator());
+    }
+    
+    /**
+     * Each ID is written with a put that is conditional on the ID not existing, so existing IDs are skipped without 
+     * being read first, and the import can safely be run again if it fails partway through. At most 
+     * importParallelism puts are in flight at any time. When DynamoDB throttles the puts (after the SDK's own 
+     * retries), all the workers back off together and the throttled put is retried.
+     */
+    @Override
+    public ExternalIdImportResult importExternalIds(StudyIdentifier studyId, Iterator<String> externalIds) {
+        checkNotNull(studyId);
+        checkNotNull(externalIds);
         
-        if (!idsToSave.isEmpty()) {
-            List<FailedBatch> failures = mapper.batchSave(idsToSave);
-            BridgeUtils.ifFailuresThrowException(failures);
+        AtomicInteger inserted = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        AdaptiveBackoff backoff = new AdaptiveBackoff(MIN_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+        BoundedFanOut fanOut = new BoundedFanOut(executorService, importParallelism);
+        try {
+            try {
+                while (externalIds.hasNext() && failure.get() == null) {
+                    String externalId = externalIds.next();
+                    fanOut.submit(() -> {
+                        try {
+                            if (putIfAbsent(studyId, externalId, backoff)) {
+                                inserted.incrementAndGet();
+                            } else {
+                                skipped.incrementAndGet();
+                            }
+                        } catch(RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    });
+                }
+            } finally {
+                // Wait for the puts still in flight, even if the IDs could not be read to the end.
+                fanOut.awaitCompletion();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new BridgeServiceException("Import of external IDs was interrupted"));
+        } finally {
+            if (inserted.get() > 0) {
+                cacheProvider.incrementCountIfPresent(getCountKey(studyId, TOTAL_COUNT), inserted.get());
+            }
+        }
+        if (failure.get() != null) {
+            throw new BridgeServiceException(String.format(
+                    "Import of external IDs stopped after %s IDs were added and %s skipped (it can be safely repeated): %s",
+                    inserted.get(), skipped.get(), failure.get().getMessage()));
+        }
+        return new ExternalIdImportResult(inserted.get(), skipped.get(), 0);
+    }
+    
+    /**
+     * Write the ID if it does not exist. Returns true if it was written, false if it already existed.
+     */
+    private boolean putIfAbsent(StudyIdentifier studyId, String externalId, AdaptiveBackoff backoff) {
+        DynamoExternalIdentifier identifier = new DynamoExternalIdentifier(studyId, externalId);
+        for (int attempt = 1;; attempt++) {
+            try {
+                backoff.pause();
+                mapper.save(identifier, getInsertExpression());
+                backoff.onSuccess();
+                return true;
+            } catch(ConditionalCheckFailedException e) {
+                backoff.onSuccess();
+                return false;
+            } catch(ProvisionedThroughputExceededException e) {
+                backoff.onThrottled();
+                if (attempt == MAX_THROTTLED_ATTEMPTS) {
+                    throw e;
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BridgeServiceException("Import of external IDs was interrupted");
+            }
         }
     }
     
@@ -182,6 +290,7 @@ public class DynamoExternalIdDao implements ExternalIdDao {
                 identifier.setReservation(0L);
                 identifier.setHealthCode(healthCode);
                 mapper.save(identifier, getAssignmentExpression());
+                cacheProvider.incrementCountIfPresent(getCountKey(studyId, ASSIGNED_COUNT), 1);
                 
             } catch(ConditionalCheckFailedException e) {
                 // The timeout is in effect or the healthCode is set, either way, code is "taken"
@@ -200,9 +309,13 @@ public class DynamoExternalIdDao implements ExternalIdDao {
         // Don't throw an exception if the identifier doesn't exist, we don't care.
         DynamoExternalIdentifier identifier = mapper.load(keyObject);
         if (identifier != null) {
+            boolean wasAssigned = (identifier.getHealthCode() != null);
             identifier.setHealthCode(null);
             identifier.setReservation(0L);
             mapper.save(identifier);
+            if (wasAssigned) {
+                cacheProvider.incrementCountIfPresent(getCountKey(studyId, ASSIGNED_COUNT), -1);
+            }
         }
     }
     
@@ -221,7 +334,39 @@ public class DynamoExternalIdDao implements ExternalIdDao {
             
             List<FailedBatch> failures = mapper.batchDelete(idsToDelete);
             BridgeUtils.ifFailuresThrowException(failures);
+            
+            // We don't know which of these IDs existed or were assigned, so count them again when next needed.
+            cacheProvider.removeString(getCountKey(studyId, TOTAL_COUNT));
+            cacheProvider.removeString(getCountKey(studyId, ASSIGNED_COUNT));
+        }
+    }
+    
+    /**
+     * The number of IDs in the study that match the assignment filter, from counts that are maintained as IDs are 
+     * added, assigned, unassigned and deleted. The counts are only calculated from the table when they are absent. 
+     * A reservation lapses after the lock duration without any write, so it cannot be tracked by a counter; only 
+     * assignment to a health code is counted, and IDs that are reserved but not yet assigned count as unassigned.
+     */
+    private int getCount(StudyIdentifier studyId, Boolean assignmentFilter) {
+        Long total = cacheProvider.getCount(getCountKey(studyId, TOTAL_COUNT));
+        Long assigned = cacheProvider.getCount(getCountKey(studyId, ASSIGNED_COUNT));
+        if (total == null || assigned == null) {
+            DynamoDBQueryExpression<DynamoExternalIdentifier> assignedQuery = createCountQuery(studyId, null, null);
+            assignedQuery.withQueryFilterEntry(HEALTH_CODE, new Condition().withComparisonOperator(NOT_NULL));
+            
+            total = (long)mapper.count(DynamoExternalIdentifier.class, createCountQuery(studyId, null, null));
+            assigned = (long)mapper.count(DynamoExternalIdentifier.class, assignedQuery);
+            cacheProvider.setString(getCountKey(studyId, TOTAL_COUNT), total.toString(), COUNTS_EXPIRE_IN_SECONDS);
+            cacheProvider.setString(getCountKey(studyId, ASSIGNED_COUNT), assigned.toString(), COUNTS_EXPIRE_IN_SECONDS);
+        }
+        if (assignmentFilter == null) {
+            return total.intValue();
         }
+        return (int)(assignmentFilter ? assigned : Math.max(0L, total - assigned));
+    }
+    
+    private String getCountKey(StudyIdentifier studyId, String count) {
+        return RedisKey.EXTERNAL_ID_COUNT.getRedisKey(studyId.getIdentifier() + RedisKey.SEPARATOR + count);
     }
 
     /**
@@ -298,6 +443,18 @@ public class DynamoExternalIdDao implements ExternalIdDao {
         return saveExpression;
     }
     
+    /**
+     * Save the record only if it does not already exist.
+     */
+    private DynamoDBSaveExpression getInsertExpression() {
+        Map<String, ExpectedAttributeValue> map = Maps.newHashMap();
+        map.put(IDENTIFIER, new ExpectedAttributeValue().withExists(false));
+
+        DynamoDBSaveExpression saveExpression = new DynamoDBSaveExpression();
+        saveExpression.setExpected(map);
+        return saveExpression;
+    }
+    
     /**
      * Save the record with the user's healthCode IF the healthCode is not yet set. If calling code calls 
      * the reservation method first, this should not happen, but we do not prevent it.  
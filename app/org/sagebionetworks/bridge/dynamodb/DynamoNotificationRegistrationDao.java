@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.dynamodb;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -28,6 +29,7 @@ import com.amazonaws.services.sns.model.GetEndpointAttributesResult;
 import com.amazonaws.services.sns.model.InvalidParameterException;
 import com.amazonaws.services.sns.model.NotFoundException;
 import com.amazonaws.services.sns.model.SetEndpointAttributesRequest;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 
 @Component
@@ -67,6 +69,14 @@ public class DynamoNotificationRegistrationDao implements NotificationRegistrati
                 .stream().collect(Collectors.toList());
     }
 
+    @Override
+    public Iterator<NotificationRegistration> getRegistrations(Iterator<String> healthCodes) {
+        checkNotNull(healthCodes);
+        
+        return Iterators.concat(Iterators.transform(healthCodes,
+                healthCode -> listRegistrations(healthCode).iterator()));
+    }
+
     @Override
     public NotificationRegistration getRegistration(String healthCode, String guid) {
         checkNotNull(healthCode);
@@ -4,8 +4,11 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Resource;
 
@@ -18,15 +21,20 @@ import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.springframework.stereotype.Component;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
 
 @Component
 public class DynamoParticipantOptionsDao implements ParticipantOptionsDao {
 
+    private static final DynamoDBMapperConfig ITERATION_ONLY_CONFIG = new DynamoDBMapperConfig(
+            DynamoDBMapperConfig.PaginationLoadingStrategy.ITERATION_ONLY);
+
     private DynamoDBMapper mapper;
     
     @Resource(name = "participantOptionsDbMapper")
@@ -140,4 +148,28 @@ public class DynamoParticipantOptionsDao implements ParticipantOptionsDao {
         return allLookup;
     }
 
+    @Override
+    public Iterator<String> getHealthCodesInDataGroups(StudyIdentifier studyIdentifier, Set<String> dataGroups) {
+        checkNotNull(studyIdentifier);
+        checkNotNull(dataGroups);
+        
+        DynamoDBScanExpression scan = new DynamoDBScanExpression();
+        Condition condition = new Condition();
+        condition.withComparisonOperator(ComparisonOperator.EQ);
+        condition.withAttributeValueList(new AttributeValue().withS(studyIdentifier.getIdentifier()));
+        scan.addFilterCondition("studyKey", condition);
+        
+        // Data groups are stored in a serialized map of options, so they can only be matched once the record is read
+        Iterator<DynamoParticipantOptions> mappings = mapper.scan(DynamoParticipantOptions.class, scan,
+                ITERATION_ONLY_CONFIG).iterator();
+        if (!dataGroups.isEmpty()) {
+            mappings = Iterators.filter(mappings, mapping -> {
+                Set<String> participantGroups = new ParticipantOptionsLookup(mapping.getOptions())
+                        .getStringSet(ParticipantOption.DATA_GROUPS);
+                return !Collections.disjoint(participantGroups, dataGroups);
+            });
+        }
+        return Iterators.transform(mappings, DynamoParticipantOptions::getHealthCode);
+    }
+
 }
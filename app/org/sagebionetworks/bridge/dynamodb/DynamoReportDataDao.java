@@ -2,7 +2,11 @@ package org.sagebionetworks.bridge.dynamodb;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Resource;
 
@@ -11,6 +15,7 @@ import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.dao.ReportDataDao;
+import org.sagebionetworks.bridge.json.DateUtils;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
 import org.sagebionetworks.bridge.models.reports.ReportData;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
@@ -21,6 +26,8 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.google.common.collect.ImmutableMap;
 
 @Component
 public class DynamoReportDataDao implements ReportDataDao {
@@ -61,6 +68,59 @@ public class DynamoReportDataDao implements ReportDataDao {
         mapper.save(reportData);
     }
 
+    /**
+     * Records are written with BatchWriteItem, up to 25 at a time. The mapper retries unprocessed items itself, and
+     * the client retries throttled requests, so anything reported in a FailedBatch has already been retried. A
+     * request can't hold two items with the same key and date, so if the list has more than one record for a date,
+     * only the last is written (as if they had been saved in order), and they all share its result.
+     */
+    @Override
+    public Map<Integer, String> saveReportDataBatch(List<ReportData> reportDataList) {
+        checkNotNull(reportDataList);
+        if (reportDataList.isEmpty()) {
+            return ImmutableMap.of();
+        }
+
+        // The indices of the records for each key and date, and the last record for each, which is written.
+        Map<String, List<Integer>> indicesByItemKey = new HashMap<>();
+        Map<String, ReportData> lastByItemKey = new LinkedHashMap<>();
+        for (int i = 0; i < reportDataList.size(); i++) {
+            ReportData reportData = reportDataList.get(i);
+            String itemKey = getItemKey(reportData.getKey(), DateUtils.getCalendarDateString(reportData.getDate()));
+            indicesByItemKey.computeIfAbsent(itemKey, k -> new ArrayList<>()).add(i);
+            lastByItemKey.put(itemKey, reportData);
+        }
+
+        List<FailedBatch> failures = mapper.batchSave(new ArrayList<>(lastByItemKey.values()));
+        if (failures.isEmpty()) {
+            return ImmutableMap.of();
+        }
+
+        // Match the failed items back to the records by their key and date.
+        Map<Integer, String> errorsByIndex = new HashMap<>();
+        for (FailedBatch failure : failures) {
+            String message = (failure.getException() != null) ? failure.getException().getMessage() :
+                    "Report data could not be written";
+            for (List<WriteRequest> writeRequests : failure.getUnprocessedItems().values()) {
+                for (WriteRequest writeRequest : writeRequests) {
+                    Map<String, AttributeValue> item = writeRequest.getPutRequest().getItem();
+                    List<Integer> indices = indicesByItemKey.get(getItemKey(item.get("key").getS(),
+                            item.get("date").getS()));
+                    if (indices != null) {
+                        for (Integer index : indices) {
+                            errorsByIndex.put(index, message);
+                        }
+                    }
+                }
+            }
+        }
+        return errorsByIndex;
+    }
+
+    private static String getItemKey(String key, String date) {
+        return key + "|" + date;
+    }
+
     @Override
     public void deleteReportData(ReportDataKey key) {
         checkNotNull(key);
@@ -6,29 +6,35 @@ import static org.sagebionetworks.bridge.BridgeConstants.API_MINIMUM_PAGE_SIZE;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Resource;
 
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.ScheduledActivityDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
+import org.sagebionetworks.bridge.redis.RedisKey;
 
 import org.joda.time.DateTimeZone;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 
 @Component
@@ -40,13 +46,31 @@ public class DynamoScheduledActivityDao implements ScheduledActivityDao {
 
     static final String PAGE_SIZE_ERROR = "pageSize must be from 1-"+API_MAXIMUM_PAGE_SIZE+" records";
     
+    /** The activity count is recalculated at least this often, to correct any drift in the maintained count. */
+    static final int ACTIVITY_COUNT_EXPIRE_IN_SECONDS = 7 * 24 * 60 * 60;
+    
+    private static final DynamoDBMapperConfig ITERATION_ONLY_CONFIG = new DynamoDBMapperConfig(
+            DynamoDBMapperConfig.PaginationLoadingStrategy.ITERATION_ONLY);
+    
     private DynamoDBMapper mapper;
     
+    private CacheProvider cacheProvider;
+    
     @Resource(name = "activityDdbMapper")
     public final void setDdbMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
     }
     
+    @Autowired
+    public final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+    
+    /**
+     * Get a page of the user's activity history. Only the page is queried. The total is the maintained count of the 
+     * user's activities, which is counted in full only when the counter is absent (the first request for a user, or 
+     * after the counter expires), rather than on every page.
+     */
     @Override
     public PagedResourceList<? extends ScheduledActivity> getActivityHistory(String healthCode, String offsetKey, int pageSize){
         // Just set a sane upper limit on this.
@@ -58,7 +82,7 @@ public class DynamoScheduledActivityDao implements ScheduledActivityDao {
         
         String nextPageOffsetKey = (page.getLastEvaluatedKey() != null) ? page.getLastEvaluatedKey().get(GUID).getS() : null;
         
-        int total = mapper.count(DynamoScheduledActivity.class, createCountQuery(healthCode));
+        int total = getActivityCount(healthCode);
         
         PagedResourceList<? extends ScheduledActivity> resourceList = new PagedResourceList<>(page.getResults(), null,
                 pageSize, total).withOffsetKey(nextPageOffsetKey);
@@ -68,6 +92,29 @@ public class DynamoScheduledActivityDao implements ScheduledActivityDao {
         }
         return resourceList;
     }
+    
+    /** {@inheritDoc} */
+    @Override
+    public Iterator<? extends ScheduledActivity> getActivityHistoryIterator(String healthCode) {
+        // Iteration only: pages are fetched as the iterator advances, and are not retained once iterated.
+        PaginatedQueryList<DynamoScheduledActivity> results = mapper.query(DynamoScheduledActivity.class,
+                createCountQuery(healthCode), ITERATION_ONLY_CONFIG);
+        
+        return Iterators.transform(results.iterator(), activity -> {
+            activity.setTimeZone(DateTimeZone.UTC);
+            return activity;
+        });
+    }
+    
+    private int getActivityCount(String healthCode) {
+        String cacheKey = RedisKey.ACTIVITY_COUNT.getRedisKey(healthCode);
+        Long count = cacheProvider.getCount(cacheKey);
+        if (count == null) {
+            count = (long)mapper.count(DynamoScheduledActivity.class, createCountQuery(healthCode));
+            cacheProvider.setString(cacheKey, Long.toString(count), ACTIVITY_COUNT_EXPIRE_IN_SECONDS);
+        }
+        return count.intValue();
+    }
 
     /**
      * Get the count query (applies filters) and then sets an offset key and the limit to a page of records, 
@@ -145,6 +192,10 @@ public class DynamoScheduledActivityDao implements ScheduledActivityDao {
             // Health code is (now) set during construction in the scheduler.
             List<FailedBatch> failures = mapper.batchSave(activities);
             BridgeUtils.ifFailuresThrowException(failures);
+            
+            // All activities in a save belong to the same user.
+            String healthCode = activities.get(0).getHealthCode();
+            cacheProvider.incrementCountIfPresent(RedisKey.ACTIVITY_COUNT.getRedisKey(healthCode), activities.size());
         }
     }
     
@@ -176,6 +227,7 @@ public class DynamoScheduledActivityDao implements ScheduledActivityDao {
             List<FailedBatch> failures = mapper.batchDelete(activitiesToDelete);
             BridgeUtils.ifFailuresThrowException(failures);
         }
+        cacheProvider.removeString(RedisKey.ACTIVITY_COUNT.getRedisKey(healthCode));
     }
     
 }
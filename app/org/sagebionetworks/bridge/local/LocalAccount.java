@@ -0,0 +1,149 @@
+package org.sagebionetworks.bridge.local;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import org.sagebionetworks.bridge.Roles;
+import org.sagebionetworks.bridge.crypto.BridgeEncryptor;
+import org.sagebionetworks.bridge.json.BridgeTypeName;
+import org.sagebionetworks.bridge.models.accounts.Account;
+import org.sagebionetworks.bridge.models.accounts.AccountStatus;
+import org.sagebionetworks.bridge.models.accounts.EncryptedCustomData;
+import org.sagebionetworks.bridge.models.accounts.HealthId;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
+import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * An account held in the local account store. Sensitive values are encrypted into the record's custom data
+ * by the same EncryptedCustomData that StormpathAccount uses, so the cost of reading and writing an account
+ * is the same as working with a Stormpath account, less the calls to Stormpath.
+ */
+@BridgeTypeName("Account")
+public class LocalAccount implements Account {
+
+    private final LocalAccountRecord record;
+    private final StudyIdentifier studyIdentifier;
+    private final EncryptedCustomData encryptedData;
+    private String healthCode;
+
+    LocalAccount(LocalAccountRecord record, List<? extends SubpopulationGuid> subpopGuids,
+            SortedMap<Integer, BridgeEncryptor> encryptors) {
+        checkNotNull(record);
+        checkNotNull(subpopGuids);
+        checkNotNull(encryptors);
+
+        this.record = record;
+        this.studyIdentifier = new StudyIdentifierImpl(record.getStudyId());
+        this.encryptedData = new EncryptedCustomData(studyIdentifier, subpopGuids, record::getCustomData,
+                encryptors);
+    }
+
+    /**
+     * The record for this account, with any changed consent signature histories encrypted into its custom data.
+     */
+    LocalAccountRecord getRecord() {
+        encryptedData.writeConsentSignatureHistories();
+        return record;
+    }
+
+    String getHealthId() {
+        return encryptedData.getHealthId();
+    }
+
+    @Override
+    public String getFirstName() {
+        return record.getFirstName();
+    }
+    @Override
+    public void setFirstName(String firstName) {
+        record.setFirstName(firstName);
+    }
+    @Override
+    public String getLastName() {
+        return record.getLastName();
+    }
+    @Override
+    public void setLastName(String lastName) {
+        record.setLastName(lastName);
+    }
+    @Override
+    public String getAttribute(String name) {
+        return encryptedData.get(name);
+    }
+    @Override
+    public void setAttribute(String name, String value) {
+        encryptedData.put(name, value);
+    }
+    @Override
+    public String getEmail() {
+        return record.getEmail();
+    }
+    @Override
+    public void setEmail(String email) {
+        record.setEmail(email);
+    }
+    @Override
+    public List<ConsentSignature> getConsentSignatureHistory(SubpopulationGuid subpopGuid) {
+        return encryptedData.getConsentSignatureHistory(subpopGuid);
+    }
+    @Override
+    public Map<SubpopulationGuid, List<ConsentSignature>> getAllConsentSignatureHistories() {
+        return encryptedData.getAllConsentSignatureHistories();
+    }
+    @Override
+    public String getHealthCode() {
+        return healthCode;
+    }
+    @Override
+    public void setHealthId(HealthId healthId) {
+        if (healthId != null) {
+            encryptedData.setHealthId(healthId.getId());
+            this.healthCode = healthId.getCode();
+        }
+    }
+    @Override
+    public AccountStatus getStatus() {
+        return record.getStatus();
+    }
+    @Override
+    public void setStatus(AccountStatus status) {
+        record.setStatus(status);
+    }
+    @Override
+    public StudyIdentifier getStudyIdentifier() {
+        return studyIdentifier;
+    }
+    @Override
+    public Set<Roles> getRoles() {
+        return ImmutableSet.copyOf(record.getRoles());
+    }
+    @Override
+    public void setRoles(Set<Roles> roles) {
+        record.setRoles((roles == null) ? ImmutableSet.of() : ImmutableSet.copyOf(roles));
+    }
+    @Override
+    public String getId() {
+        return record.getId();
+    }
+    @Override
+    public DateTime getCreatedOn() {
+        return new DateTime(record.getCreatedOn(), DateTimeZone.UTC);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LocalAccount [firstName=%s, lastName=%s, email=%s, roles=%s, signatures=%s]",
+                getFirstName(), getLastName(), getEmail(), getRoles(), getAllConsentSignatureHistories());
+    }
+}
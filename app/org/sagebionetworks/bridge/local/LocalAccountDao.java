@@ -0,0 +1,476 @@
+package org.sagebionetworks.bridge.local;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MINIMUM_PAGE_SIZE;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.config.LocalAccountDaoCondition;
+import org.sagebionetworks.bridge.crypto.BridgeEncryptor;
+import org.sagebionetworks.bridge.dao.AccountDao;
+import org.sagebionetworks.bridge.exceptions.AccountDisabledException;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.EntityAlreadyExistsException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.accounts.Account;
+import org.sagebionetworks.bridge.models.accounts.AccountStatus;
+import org.sagebionetworks.bridge.models.accounts.AccountSummary;
+import org.sagebionetworks.bridge.models.accounts.Email;
+import org.sagebionetworks.bridge.models.accounts.EmailVerification;
+import org.sagebionetworks.bridge.models.accounts.HealthId;
+import org.sagebionetworks.bridge.models.accounts.PasswordReset;
+import org.sagebionetworks.bridge.models.accounts.SignIn;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.services.HealthCodeService;
+import org.sagebionetworks.bridge.services.StudyService;
+import org.sagebionetworks.bridge.services.SubpopulationService;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An AccountDao that keeps accounts in memory (optionally loaded from and saved to a snapshot file), so the
+ * authentication and participant paths can be load tested without calling Stormpath. Values are encrypted,
+ * healthIds are mapped to health codes, and pages are sorted and counted the same way as in StormpathAccountDao.
+ * No email is sent; verification and password reset tokens are written to the log instead. Selected by setting
+ * <code>account.dao = local</code> in the configuration.
+ */
+@Component("localAccountDao")
+@Conditional(LocalAccountDaoCondition.class)
+public class LocalAccountDao implements AccountDao {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalAccountDao.class);
+
+    private static final TypeReference<List<LocalAccountRecord>> RECORD_LIST_TYPE = new TypeReference<List<LocalAccountRecord>>() {};
+    private static final Comparator<LocalAccountRecord> EMAIL_ORDER = Comparator.comparing(LocalAccountRecord::getEmail,
+            String.CASE_INSENSITIVE_ORDER);
+    private static final String PASSWORD_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int PASSWORD_ITERATIONS = 10000;
+    private static final int PASSWORD_SALT_BYTES = 16;
+    private static final int PASSWORD_KEY_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Map<String, LocalAccountRecord> accountsById = Maps.newConcurrentMap();
+    private final Map<String, String> idsByEmail = Maps.newConcurrentMap();
+    private final Map<String, String> verificationTokens = Maps.newConcurrentMap();
+    private final Map<String, String> passwordResetTokens = Maps.newConcurrentMap();
+
+    private StudyService studyService;
+    private SubpopulationService subpopService;
+    private HealthCodeService healthCodeService;
+    private SortedMap<Integer, BridgeEncryptor> encryptors = Maps.newTreeMap();
+    private String snapshotFile;
+
+    @Autowired
+    final void setBridgeConfig(BridgeConfig bridgeConfig) {
+        this.snapshotFile = bridgeConfig.getLocalAccountSnapshotFile();
+    }
+    @Autowired
+    final void setStudyService(StudyService studyService) {
+        this.studyService = studyService;
+    }
+    @Autowired
+    final void setSubpopulationService(SubpopulationService subpopService) {
+        this.subpopService = subpopService;
+    }
+    @Autowired
+    final void setHealthCodeService(HealthCodeService healthCodeService) {
+        this.healthCodeService = healthCodeService;
+    }
+    @Resource(name="encryptorList")
+    final void setEncryptors(List<BridgeEncryptor> list) {
+        for (BridgeEncryptor encryptor : list) {
+            encryptors.put(encryptor.getVersion(), encryptor);
+        }
+    }
+    // For testing.
+    final void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Load accounts from the snapshot file, if one is configured and exists.
+     */
+    @PostConstruct
+    public void loadSnapshot() {
+        if (isBlank(snapshotFile) || !new File(snapshotFile).exists()) {
+            return;
+        }
+        try {
+            List<LocalAccountRecord> records = BridgeObjectMapper.get().readValue(new File(snapshotFile), RECORD_LIST_TYPE);
+            for (LocalAccountRecord record : records) {
+                accountsById.put(record.getId(), record);
+                idsByEmail.put(emailKey(record.getStudyId(), record.getEmail()), record.getId());
+            }
+            logger.info("Loaded " + records.size() + " accounts from " + snapshotFile);
+        } catch(IOException e) {
+            throw new BridgeServiceException("Could not load local accounts from " + snapshotFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write all accounts to the snapshot file, if one is configured.
+     */
+    @PreDestroy
+    public synchronized void saveSnapshot() {
+        if (isBlank(snapshotFile)) {
+            return;
+        }
+        try {
+            List<LocalAccountRecord> records = Lists.newArrayList(accountsById.values());
+            BridgeObjectMapper.get().writeValue(new File(snapshotFile), records);
+            logger.info("Saved " + records.size() + " accounts to " + snapshotFile);
+        } catch(IOException e) {
+            logger.error("Could not save local accounts to " + snapshotFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void verifyEmail(EmailVerification verification) {
+        checkNotNull(verification);
+
+        String id = verificationTokens.remove(verification.getSptoken());
+        LocalAccountRecord record = (id == null) ? null : accountsById.get(id);
+        if (record == null) {
+            throw new EntityNotFoundException(Account.class);
+        }
+        synchronized(this) {
+            LocalAccountRecord updated = new LocalAccountRecord(record);
+            updated.setStatus(AccountStatus.ENABLED);
+            accountsById.put(id, updated);
+        }
+    }
+
+    @Override
+    public void resendEmailVerificationToken(StudyIdentifier studyIdentifier, Email email) {
+        checkNotNull(studyIdentifier);
+        checkNotNull(email);
+
+        LocalAccountRecord record = getRecordWithEmail(studyIdentifier.getIdentifier(), email.getEmail());
+        if (record == null) {
+            throw new EntityNotFoundException(Account.class);
+        }
+        issueToken(verificationTokens, record, "Email verification");
+    }
+
+    @Override
+    public void requestResetPassword(Study study, Email email) {
+        checkNotNull(study);
+        checkNotNull(email);
+
+        LocalAccountRecord record = getRecordWithEmail(study.getIdentifier(), email.getEmail());
+        if (record == null) {
+            throw new EntityNotFoundException(Account.class);
+        }
+        issueToken(passwordResetTokens, record, "Password reset");
+    }
+
+    @Override
+    public void resetPassword(PasswordReset passwordReset) {
+        checkNotNull(passwordReset);
+
+        String id = passwordResetTokens.remove(passwordReset.getSptoken());
+        LocalAccountRecord record = (id == null) ? null : accountsById.get(id);
+        if (record == null) {
+            throw new BadRequestException("Password reset token has expired (or already been used).");
+        }
+        synchronized(this) {
+            LocalAccountRecord updated = new LocalAccountRecord(record);
+            updated.setPasswordHash(hashPassword(passwordReset.getPassword()));
+            accountsById.put(id, updated);
+        }
+    }
+
+    @Override
+    public Account authenticate(Study study, SignIn signIn) {
+        checkNotNull(study);
+        checkNotNull(signIn);
+        checkArgument(isNotBlank(signIn.getEmail()));
+        checkArgument(isNotBlank(signIn.getPassword()));
+
+        LocalAccountRecord record = getRecordWithEmail(study.getIdentifier(), signIn.getEmail());
+        // As with Stormpath, a bad password or an unverified account is reported as not found.
+        if (record == null || !passwordMatches(signIn.getPassword(), record.getPasswordHash())
+                || record.getStatus() == AccountStatus.UNVERIFIED) {
+            throw new EntityNotFoundException(Account.class);
+        }
+        if (record.getStatus() == AccountStatus.DISABLED) {
+            throw new AccountDisabledException();
+        }
+        return constructAccount(record);
+    }
+
+    @Override
+    public Account constructAccount(Study study, String email, String password) {
+        checkNotNull(study);
+        checkArgument(isNotBlank(email));
+        checkArgument(isNotBlank(password));
+
+        LocalAccountRecord record = new LocalAccountRecord();
+        record.setStudyId(study.getIdentifier());
+        record.setEmail(email);
+        record.setPasswordHash(hashPassword(password));
+        record.setStatus(AccountStatus.ENABLED);
+
+        Account account = new LocalAccount(record, subpopService.getSubpopulationGuids(study.getStudyIdentifier()),
+                encryptors);
+        HealthId healthId = healthCodeService.createMapping(study);
+        account.setHealthId(healthId);
+
+        return account;
+    }
+
+    @Override
+    public synchronized void createAccount(Study study, Account account, boolean sendVerifyEmail) {
+        checkNotNull(study);
+        checkNotNull(account);
+
+        LocalAccountRecord record = new LocalAccountRecord(((LocalAccount)account).getRecord());
+        String emailKey = emailKey(study.getIdentifier(), record.getEmail());
+        if (idsByEmail.containsKey(emailKey)) {
+            throw new EntityAlreadyExistsException(account, "Account already exists.");
+        }
+        record.setId(BridgeUtils.generateGuid());
+        record.setCreatedOn(DateTime.now().getMillis());
+        if (sendVerifyEmail) {
+            record.setStatus(AccountStatus.UNVERIFIED);
+        }
+        accountsById.put(record.getId(), record);
+        idsByEmail.put(emailKey, record.getId());
+
+        // The caller's account object now refers to the saved account
+        LocalAccountRecord callerRecord = ((LocalAccount)account).getRecord();
+        callerRecord.setId(record.getId());
+        callerRecord.setCreatedOn(record.getCreatedOn());
+        callerRecord.setStatus(record.getStatus());
+
+        if (sendVerifyEmail) {
+            issueToken(verificationTokens, record, "Email verification");
+        }
+    }
+
+    @Override
+    public synchronized void updateAccount(Account account) {
+        checkNotNull(account);
+
+        LocalAccountRecord record = new LocalAccountRecord(((LocalAccount)account).getRecord());
+        LocalAccountRecord existing = accountsById.get(record.getId());
+        if (existing == null) {
+            throw new EntityNotFoundException(Account.class);
+        }
+        String existingEmailKey = emailKey(existing.getStudyId(), existing.getEmail());
+        String emailKey = emailKey(record.getStudyId(), record.getEmail());
+        if (!emailKey.equals(existingEmailKey)) {
+            if (idsByEmail.containsKey(emailKey)) {
+                throw new EntityAlreadyExistsException(account, "Account already exists.");
+            }
+            idsByEmail.remove(existingEmailKey);
+            idsByEmail.put(emailKey, record.getId());
+        }
+        accountsById.put(record.getId(), record);
+    }
+
+    @Override
+    public Account getAccount(Study study, String id) {
+        checkNotNull(study);
+        checkArgument(isNotBlank(id));
+
+        LocalAccountRecord record = accountsById.get(id);
+        if (record != null && record.getStudyId().equals(study.getIdentifier())) {
+            return constructAccount(record);
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void deleteAccount(Study study, String id) {
+        checkNotNull(study);
+        checkArgument(isNotBlank(id));
+
+        LocalAccountRecord record = accountsById.get(id);
+        if (record == null || !record.getStudyId().equals(study.getIdentifier())) {
+            throw new EntityNotFoundException(Account.class);
+        }
+        accountsById.remove(id);
+        idsByEmail.remove(emailKey(record.getStudyId(), record.getEmail()));
+        verificationTokens.values().remove(id);
+        passwordResetTokens.values().remove(id);
+    }
+
+    @Override
+    public Iterator<AccountSummary> getAllAccounts() {
+        Iterator<AccountSummary> combinedIterator = Collections.emptyIterator();
+        for (Study study : studyService.getStudies()) {
+            combinedIterator = Iterators.concat(combinedIterator, getStudyAccounts(study));
+        }
+        return combinedIterator;
+    }
+
+    @Override
+    public Iterator<AccountSummary> getStudyAccounts(Study study) {
+        checkNotNull(study);
+
+        return getStudyRecords(study.getIdentifier()).stream()
+                .map(LocalAccountDao::toSummary)
+                .iterator();
+    }
+
+    @Override
+    public Iterator<Account> getFullStudyAccounts(Study study) {
+        checkNotNull(study);
+
+        return getStudyRecords(study.getIdentifier()).stream()
+                .map(this::constructAccount)
+                .iterator();
+    }
+
+    @Override
+    public PagedResourceList<AccountSummary> getPagedAccountSummaries(Study study, int offsetBy, int pageSize,
+            String emailFilter, DateTime startDate, DateTime endDate) {
+        checkNotNull(study);
+        checkArgument(offsetBy >= 0);
+        checkArgument(pageSize >= API_MINIMUM_PAGE_SIZE && pageSize <= API_MAXIMUM_PAGE_SIZE);
+
+        String filter = isNotBlank(emailFilter) ? emailFilter.toLowerCase() : null;
+        List<LocalAccountRecord> matches = getStudyRecords(study.getIdentifier()).stream()
+                .filter(record -> filter == null || record.getEmail().toLowerCase().contains(filter))
+                .filter(record -> startDate == null || record.getCreatedOn() >= startDate.getMillis())
+                .filter(record -> endDate == null || record.getCreatedOn() <= endDate.getMillis())
+                .collect(Collectors.toList());
+
+        List<AccountSummary> results = matches.stream()
+                .skip(offsetBy)
+                .limit(pageSize)
+                .map(LocalAccountDao::toSummary)
+                .collect(Collectors.toList());
+
+        return new PagedResourceList<AccountSummary>(results, offsetBy, pageSize, matches.size())
+                .withFilter("emailFilter", emailFilter)
+                .withFilter("startDate", startDate)
+                .withFilter("endDate", endDate);
+    }
+
+    @Override
+    public String getHealthCodeForEmail(Study study, String email) {
+        checkNotNull(study);
+        checkArgument(isNotBlank(email));
+
+        LocalAccountRecord record = getRecordWithEmail(study.getIdentifier(), email);
+        if (record == null) {
+            return null;
+        }
+        return constructAccount(record).getHealthCode();
+    }
+
+    /**
+     * Construct a LocalAccount and guarantee that the healthid<->healthCode mapping exists for the account.
+     */
+    private Account constructAccount(LocalAccountRecord record) {
+        StudyIdentifier studyId = new StudyIdentifierImpl(record.getStudyId());
+        LocalAccount account = new LocalAccount(new LocalAccountRecord(record),
+                subpopService.getSubpopulationGuids(studyId), encryptors);
+
+        HealthId healthId = healthCodeService.getMapping(account.getHealthId());
+        if (healthId == null) {
+            healthId = healthCodeService.createMapping(studyId);
+            account.setHealthId(healthId);
+            updateAccount(account);
+        } else {
+            account.setHealthId(healthId);
+        }
+        return account;
+    }
+
+    private List<LocalAccountRecord> getStudyRecords(String studyId) {
+        return accountsById.values().stream()
+                .filter(record -> record.getStudyId().equals(studyId))
+                .sorted(EMAIL_ORDER)
+                .collect(Collectors.toList());
+    }
+
+    private LocalAccountRecord getRecordWithEmail(String studyId, String email) {
+        String id = idsByEmail.get(emailKey(studyId, email));
+        return (id == null) ? null : accountsById.get(id);
+    }
+
+    private void issueToken(Map<String, String> tokens, LocalAccountRecord record, String purpose) {
+        String sptoken = BridgeUtils.generateGuid();
+        tokens.put(sptoken, record.getId());
+        logger.info(purpose + " token for account " + record.getId() + ": " + sptoken);
+    }
+
+    private static AccountSummary toSummary(LocalAccountRecord record) {
+        return new AccountSummary(record.getFirstName(), record.getLastName(), record.getEmail(), record.getId(),
+                new DateTime(record.getCreatedOn()), record.getStatus(), new StudyIdentifierImpl(record.getStudyId()));
+    }
+
+    private static String emailKey(String studyId, String email) {
+        return studyId + ":" + email.toLowerCase();
+    }
+
+    static String hashPassword(String password) {
+        byte[] salt = new byte[PASSWORD_SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, PASSWORD_ITERATIONS);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PASSWORD_ITERATIONS + ":" + encoder.encodeToString(salt) + ":" + encoder.encodeToString(hash);
+    }
+
+    static boolean passwordMatches(String password, String passwordHash) {
+        if (passwordHash == null) {
+            return false;
+        }
+        String[] parts = passwordHash.split(":");
+        Base64.Decoder decoder = Base64.getDecoder();
+        byte[] expected = decoder.decode(parts[2]);
+        byte[] actual = pbkdf2(password, decoder.decode(parts[1]), Integer.parseInt(parts[0]));
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        try {
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, PASSWORD_KEY_BITS);
+            return SecretKeyFactory.getInstance(PASSWORD_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch(GeneralSecurityException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.sagebionetworks.bridge.local;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.sagebionetworks.bridge.Roles;
+import org.sagebionetworks.bridge.models.accounts.AccountStatus;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * The persisted form of an account in the local account store, and the unit written to the on-disk snapshot.
+ * The store only ever hands out copies, so changes to an account are not visible until the account is saved.
+ */
+public final class LocalAccountRecord {
+    private String id;
+    private String studyId;
+    private String email;
+    private String firstName;
+    private String lastName;
+    private String passwordHash;
+    private AccountStatus status;
+    private long createdOn;
+    private Set<Roles> roles = Sets.newHashSet();
+    private Map<String, Object> customData = Maps.newHashMap();
+
+    public LocalAccountRecord() {
+    }
+
+    LocalAccountRecord(LocalAccountRecord record) {
+        this.id = record.id;
+        this.studyId = record.studyId;
+        this.email = record.email;
+        this.firstName = record.firstName;
+        this.lastName = record.lastName;
+        this.passwordHash = record.passwordHash;
+        this.status = record.status;
+        this.createdOn = record.createdOn;
+        this.roles = Sets.newHashSet(record.roles);
+        this.customData = Maps.newHashMap(record.customData);
+    }
+
+    public String getId() {
+        return id;
+    }
+    public void setId(String id) {
+        this.id = id;
+    }
+    public String getStudyId() {
+        return studyId;
+    }
+    public void setStudyId(String studyId) {
+        this.studyId = studyId;
+    }
+    public String getEmail() {
+        return email;
+    }
+    public void setEmail(String email) {
+        this.email = email;
+    }
+    public String getFirstName() {
+        return firstName;
+    }
+    public void setFirstName(String firstName) {
+        this.firstName = firstName;
+    }
+    public String getLastName() {
+        return lastName;
+    }
+    public void setLastName(String lastName) {
+        this.lastName = lastName;
+    }
+    public String getPasswordHash() {
+        return passwordHash;
+    }
+    public void setPasswordHash(String passwordHash) {
+        this.passwordHash = passwordHash;
+    }
+    public AccountStatus getStatus() {
+        return status;
+    }
+    public void setStatus(AccountStatus status) {
+        this.status = status;
+    }
+    public long getCreatedOn() {
+        return createdOn;
+    }
+    public void setCreatedOn(long createdOn) {
+        this.createdOn = createdOn;
+    }
+    public Set<Roles> getRoles() {
+        return roles;
+    }
+    public void setRoles(Set<Roles> roles) {
+        this.roles = (roles == null) ? Sets.newHashSet() : Sets.newHashSet(roles);
+    }
+    public Map<String, Object> getCustomData() {
+        return customData;
+    }
+    public void setCustomData(Map<String, Object> customData) {
+        this.customData = (customData == null) ? Maps.newHashMap() : Maps.newHashMap(customData);
+    }
+}
@@ -0,0 +1,93 @@
+package org.sagebionetworks.bridge.local;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.config.LocalNotificationPublisherCondition;
+import org.sagebionetworks.bridge.models.notifications.NotificationMessage;
+import org.sagebionetworks.bridge.services.NotificationPublisher;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.model.EndpointDisabledException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A NotificationPublisher that records messages in memory rather than sending them through SNS, so notifications 
+ * to a cohort can be tested end-to-end without devices. Endpoints can be disabled or set to be throttled a number 
+ * of times, to exercise the way failures are handled. Selected by setting <code>notification.publisher = local</code> 
+ * in the configuration.
+ */
+@Component("localNotificationPublisher")
+@Conditional(LocalNotificationPublisherCondition.class)
+public class LocalNotificationPublisher implements NotificationPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalNotificationPublisher.class);
+    
+    static final String THROTTLING_ERROR_CODE = "Throttling";
+
+    private final List<Map.Entry<String, NotificationMessage>> published = Lists.newArrayList();
+    private final Set<String> disabledEndpoints = Sets.newHashSet();
+    private final Map<String, Integer> throttledEndpoints = Maps.newHashMap();
+    
+    @Override
+    public synchronized String publish(String endpointARN, NotificationMessage message) {
+        checkNotNull(endpointARN);
+        checkNotNull(message);
+        
+        if (disabledEndpoints.contains(endpointARN)) {
+            throw new EndpointDisabledException("Endpoint is disabled");
+        }
+        Integer throttles = throttledEndpoints.get(endpointARN);
+        if (throttles != null && throttles > 0) {
+            throttledEndpoints.put(endpointARN, throttles - 1);
+            AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+            e.setErrorCode(THROTTLING_ERROR_CODE);
+            e.setStatusCode(400);
+            throw e;
+        }
+        published.add(Maps.immutableEntry(endpointARN, message));
+        
+        String messageId = BridgeUtils.generateGuid();
+        logger.info("Published notification to " + endpointARN + ", message ID=" + messageId);
+        return messageId;
+    }
+    
+    /**
+     * The endpoints and messages published so far, in the order they were published.
+     */
+    public synchronized List<Map.Entry<String, NotificationMessage>> getPublished() {
+        return ImmutableList.copyOf(published);
+    }
+    
+    /**
+     * Publishing to this endpoint will fail as it does when a device has uninstalled the app.
+     */
+    public synchronized void disableEndpoint(String endpointARN) {
+        disabledEndpoints.add(endpointARN);
+    }
+    
+    /**
+     * The next publishes to this endpoint will be throttled, the given number of times.
+     */
+    public synchronized void throttleEndpoint(String endpointARN, int times) {
+        throttledEndpoints.put(endpointARN, times);
+    }
+    
+    public synchronized void clear() {
+        published.clear();
+        disabledEndpoints.clear();
+        throttledEndpoints.clear();
+    }
+}
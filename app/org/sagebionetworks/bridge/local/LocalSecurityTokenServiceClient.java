@@ -0,0 +1,71 @@
+package org.sagebionetworks.bridge.local;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenRequest;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenResult;
+
+/**
+ * An STS client that issues session credentials itself rather than calling AWS, so the upload paths and the
+ * background refresh of upload credentials can be tested without AWS. Credentials expire after the requested
+ * duration, as they do from STS, but can't be used to sign requests to S3. Calls can be set to fail a number of
+ * times, to exercise the way failures are handled. Selected by setting <code>upload.token.service = local</code>
+ * in the configuration.
+ */
+public class LocalSecurityTokenServiceClient extends AWSSecurityTokenServiceClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalSecurityTokenServiceClient.class);
+
+    /** STS issues session tokens for 12 hours when no duration is requested. */
+    static final int DEFAULT_DURATION_IN_SECONDS = 43200;
+
+    private int sessionTokenCount;
+    private int failures;
+
+    @Override
+    public synchronized GetSessionTokenResult getSessionToken(GetSessionTokenRequest getSessionTokenRequest) {
+        if (failures > 0) {
+            failures--;
+            AmazonServiceException e = new AmazonServiceException("Service unavailable");
+            e.setErrorCode("ServiceUnavailable");
+            e.setStatusCode(503);
+            throw e;
+        }
+        Integer duration = getSessionTokenRequest.getDurationSeconds();
+        int durationInSeconds = (duration != null) ? duration : DEFAULT_DURATION_IN_SECONDS;
+
+        sessionTokenCount++;
+        Credentials credentials = new Credentials()
+                .withAccessKeyId("LOCAL" + sessionTokenCount)
+                .withSecretAccessKey(BridgeUtils.generateGuid())
+                .withSessionToken(BridgeUtils.generateGuid())
+                .withExpiration(DateTime.now().plusSeconds(durationInSeconds).toDate());
+        logger.info("Issued local session credentials " + credentials.getAccessKeyId() + ", expiring "
+                + credentials.getExpiration());
+        return new GetSessionTokenResult().withCredentials(credentials);
+    }
+
+    /**
+     * The number of session credentials issued so far.
+     */
+    public synchronized int getSessionTokenCount() {
+        return sessionTokenCount;
+    }
+
+    /**
+     * The next requests for session credentials will fail, the given number of times.
+     */
+    public synchronized void failNext(int times) {
+        checkArgument(times >= 0);
+        failures = times;
+    }
+}
@@ -0,0 +1,68 @@
+package org.sagebionetworks.bridge.models;
+
+/**
+ * The use of one bulkhead on one server. Active threads and queued tasks are as of the time the stats were taken;
+ * the other counts are since the server started. Wait times (in milliseconds) are the time tasks spent in the queue
+ * before a thread started them.
+ */
+public class BulkheadStats {
+
+    private final String name;
+    private final int threads;
+    private final int activeThreads;
+    private final int queueSize;
+    private final int queuedTasks;
+    private final long completedTasks;
+    private final long rejectedTasks;
+    private final long averageWaitMillis;
+    private final long maxWaitMillis;
+
+    public BulkheadStats(String name, int threads, int activeThreads, int queueSize, int queuedTasks,
+            long completedTasks, long rejectedTasks, long averageWaitMillis, long maxWaitMillis) {
+        this.name = name;
+        this.threads = threads;
+        this.activeThreads = activeThreads;
+        this.queueSize = queueSize;
+        this.queuedTasks = queuedTasks;
+        this.completedTasks = completedTasks;
+        this.rejectedTasks = rejectedTasks;
+        this.averageWaitMillis = averageWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getActiveThreads() {
+        return activeThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getQueuedTasks() {
+        return queuedTasks;
+    }
+
+    public long getCompletedTasks() {
+        return completedTasks;
+    }
+
+    public long getRejectedTasks() {
+        return rejectedTasks;
+    }
+
+    public long getAverageWaitMillis() {
+        return averageWaitMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+}
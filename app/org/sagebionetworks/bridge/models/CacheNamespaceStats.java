@@ -0,0 +1,36 @@
+package org.sagebionetworks.bridge.models;
+
+/**
+ * The number of keys in one namespace of the cache, with an estimate of the memory they use. The estimate is 
+ * extrapolated from the serialized size of a sample of the namespace's keys, so it is only approximate.
+ */
+public class CacheNamespaceStats {
+
+    private final String namespace;
+    private final long keyCount;
+    private final int sampleSize;
+    private final long estimatedBytes;
+    
+    public CacheNamespaceStats(String namespace, long keyCount, int sampleSize, long estimatedBytes) {
+        this.namespace = namespace;
+        this.keyCount = keyCount;
+        this.sampleSize = sampleSize;
+        this.estimatedBytes = estimatedBytes;
+    }
+    
+    public String getNamespace() {
+        return namespace;
+    }
+    
+    public long getKeyCount() {
+        return keyCount;
+    }
+    
+    public int getSampleSize() {
+        return sampleSize;
+    }
+    
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+}
@@ -4,6 +4,7 @@ import java.util.Set;
 
 import org.sagebionetworks.bridge.dynamodb.DynamoCriteria;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 @JsonDeserialize(as = DynamoCriteria.class)
@@ -65,4 +66,13 @@ public interface Criteria extends BridgeEntity {
      * versions (or both). Used to iterate through these collections.
      */
     Set<String> getAppVersionOperatingSystems();
+    
+    /**
+     * The compiled form of these criteria, used to match them against the context of a request. Implementations 
+     * can cache the matcher, as long as it is discarded when the criteria are changed.
+     */
+    @JsonIgnore
+    default CriteriaMatcher getMatcher() {
+        return CriteriaMatcher.compile(this);
+    }
 }
@@ -1,8 +1,11 @@
 package org.sagebionetworks.bridge.models;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sagebionetworks.bridge.util.BridgeCollectors.toImmutableSet;
 
+import java.util.BitSet;
 import java.util.LinkedHashSet;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
 
@@ -19,6 +22,9 @@ public final class CriteriaContext {
     private final Set<String> userDataGroups;
     // This set has ordered keys (most to least preferential)
     private final LinkedHashSet<String> languages;
+    // Derived values used by CriteriaMatcher, computed once for the request (not part of equality)
+    private final transient BitSet userDataGroupBits;
+    private final transient Set<String> lowerCaseLanguages;
     
     private CriteriaContext(StudyIdentifier studyId, String healthCode, String userId, ClientInfo clientInfo,
             Set<String> userDataGroups, LinkedHashSet<String> languages) {
@@ -28,6 +34,9 @@ public final class CriteriaContext {
         this.clientInfo = clientInfo;
         this.userDataGroups = (userDataGroups == null) ? ImmutableSet.of() : ImmutableSet.copyOf(userDataGroups);
         this.languages = (languages == null) ? new LinkedHashSet<>() : languages;
+        this.userDataGroupBits = DataGroupIndex.toBitSet(this.userDataGroups);
+        this.lowerCaseLanguages = this.languages.stream().filter(Objects::nonNull)
+                .map(language -> language.toLowerCase(Locale.ROOT)).collect(toImmutableSet());
     }
 
     /**
@@ -64,6 +73,16 @@ public final class CriteriaContext {
     public LinkedHashSet<String> getLanguages() {
         return languages;
     }
+    
+    /** The user's data groups as a bitset (see DataGroupIndex). Must not be modified. */
+    BitSet getUserDataGroupBits() {
+        return userDataGroupBits;
+    }
+    
+    /** The user's languages, lower-cased, for case-insensitive matching. */
+    Set<String> getLowerCaseLanguages() {
+        return lowerCaseLanguages;
+    }
 
     @Override
     public int hashCode() {
@@ -0,0 +1,90 @@
+package org.sagebionetworks.bridge.models;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * An immutable, compiled form of a Criteria object, used to match criteria against the CriteriaContext of each
+ * request. The criteria's data groups are converted to bitsets (see DataGroupIndex), app version ranges are held in
+ * arrays indexed by interned operating system names, and the language is lower-cased once, so matching does no
+ * set operations, map lookups or case conversions.
+ */
+public final class CriteriaMatcher {
+
+    private final BitSet allOfGroups;
+    private final BitSet noneOfGroups;
+    private final String language;
+    private final String[] osNames;
+    private final int[] minAppVersions;
+    private final int[] maxAppVersions;
+
+    private CriteriaMatcher(BitSet allOfGroups, BitSet noneOfGroups, String language, String[] osNames,
+            int[] minAppVersions, int[] maxAppVersions) {
+        this.allOfGroups = allOfGroups;
+        this.noneOfGroups = noneOfGroups;
+        this.language = language;
+        this.osNames = osNames;
+        this.minAppVersions = minAppVersions;
+        this.maxAppVersions = maxAppVersions;
+    }
+
+    public static CriteriaMatcher compile(Criteria criteria) {
+        checkNotNull(criteria);
+        checkNotNull(criteria.getAllOfGroups());
+        checkNotNull(criteria.getNoneOfGroups());
+
+        Set<String> osNameSet = criteria.getAppVersionOperatingSystems();
+        String[] osNames = new String[osNameSet.size()];
+        int[] minAppVersions = new int[osNames.length];
+        int[] maxAppVersions = new int[osNames.length];
+        int i = 0;
+        for (String osName : osNameSet) {
+            Integer min = criteria.getMinAppVersion(osName);
+            Integer max = criteria.getMaxAppVersion(osName);
+            osNames[i] = osName.intern();
+            minAppVersions[i] = (min == null) ? Integer.MIN_VALUE : min;
+            maxAppVersions[i] = (max == null) ? Integer.MAX_VALUE : max;
+            i++;
+        }
+        String language = (criteria.getLanguage() == null) ? null : criteria.getLanguage().toLowerCase(Locale.ROOT);
+
+        return new CriteriaMatcher(DataGroupIndex.toBitSet(criteria.getAllOfGroups()),
+                DataGroupIndex.toBitSet(criteria.getNoneOfGroups()), language, osNames, minAppVersions,
+                maxAppVersions);
+    }
+
+    /**
+     * Match the context of a request (the user's language and data groups, the application making the request) 
+     * against these criteria. Returns true if the object filtered by the criteria should be included, and false 
+     * otherwise.
+     */
+    public boolean matches(CriteriaContext context) {
+        Integer appVersion = context.getClientInfo().getAppVersion();
+        String appOs = context.getClientInfo().getOsName();
+        if (appVersion != null && appOs != null) {
+            for (int i=0; i < osNames.length; i++) {
+                if (osNames[i] == appOs || osNames[i].equals(appOs)) {
+                    if (appVersion < minAppVersions[i] || appVersion > maxAppVersions[i]) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+        }
+        BitSet userDataGroups = context.getUserDataGroupBits();
+        for (int i = allOfGroups.nextSetBit(0); i >= 0; i = allOfGroups.nextSetBit(i+1)) {
+            if (!userDataGroups.get(i)) {
+                return false;
+            }
+        }
+        if (noneOfGroups.intersects(userDataGroups)) {
+            return false;
+        }
+        // If a criteria declares a language, the user must declare the language. This does NOT 
+        // necessarily return the user's most desired language.
+        return language == null || context.getLowerCaseLanguages().contains(language);
+    }
+}
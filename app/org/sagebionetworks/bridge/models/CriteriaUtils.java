@@ -3,7 +3,6 @@ package org.sagebionetworks.bridge.models;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.sagebionetworks.bridge.BridgeUtils.COMMA_SPACE_JOINER;
 
-import java.util.Collections;
 import java.util.Set;
 
 import org.springframework.validation.Errors;
@@ -26,35 +25,9 @@ public class CriteriaUtils {
      */
     public static boolean matchCriteria(CriteriaContext context, Criteria criteria) {
         checkNotNull(context);
-        checkNotNull(context.getLanguages());
-        checkNotNull(context.getClientInfo());
-        checkNotNull(context.getUserDataGroups());
-        checkNotNull(criteria.getAllOfGroups());
-        checkNotNull(criteria.getNoneOfGroups());
+        checkNotNull(criteria);
         
-        Integer appVersion = context.getClientInfo().getAppVersion();
-        String appOs = context.getClientInfo().getOsName();
-        if (appVersion != null && appOs != null) {
-            Integer minAppVersion = criteria.getMinAppVersion(appOs);
-            Integer maxAppVersion = criteria.getMaxAppVersion(appOs);
-            if ((minAppVersion != null && appVersion < minAppVersion) ||
-                (maxAppVersion != null && appVersion > maxAppVersion)) {
-                return false;
-            }
-        }
-        Set<String> dataGroups = context.getUserDataGroups();
-        if (dataGroups != null) {
-            if (!dataGroups.containsAll(criteria.getAllOfGroups())) {
-                return false;
-            }
-            if (!Collections.disjoint(dataGroups, criteria.getNoneOfGroups())) {
-                return false;
-            }
-        }
-        if (languageDoesNotMatch(context.getLanguages(), criteria.getLanguage())) {
-            return false;
-        }
-        return true;
+        return criteria.getMatcher().matches(context);
     }
 
     /**
@@ -88,22 +61,6 @@ public class CriteriaUtils {
         errors.popNestedPath();
     }
 
-    // This is a simple match: if a criteria declares a language, the user must declare the language
-    // This does NOT necessarily return the user's most desired language.
-    private static boolean languageDoesNotMatch(Set<String> preferredLanguages, String targetLanguage) {
-        // It doesn't match if 1) target language has been specified or 
-        // 2) user has declared the required language. 
-        if (targetLanguage == null) {
-            return false;
-        }
-        for (String prefLang : preferredLanguages) {
-            if (targetLanguage.equalsIgnoreCase(prefLang)) {
-                return false;
-            }
-        }
-        return true;
-    }
-    
     /**
      * Can't logically have a data group that is both required and prohibited, so check for this.
      * @param criteria
@@ -0,0 +1,34 @@
+package org.sagebionetworks.bridge.models;
+
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns every data group name a bit position, so that sets of data groups can be compared as bitsets. Positions
+ * are assigned the first time a data group is seen and never change, so bitsets created at different times (when a
+ * criteria is compiled, and when a request's CriteriaContext is built) can always be compared with each other. Data
+ * groups must be declared by a study before they can be used, so the number of positions stays small.
+ */
+final class DataGroupIndex {
+
+    private static final ConcurrentMap<String,Integer> POSITIONS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_POSITION = new AtomicInteger();
+
+    private DataGroupIndex() {
+    }
+
+    static BitSet toBitSet(Set<String> dataGroups) {
+        BitSet bits = new BitSet();
+        if (dataGroups != null) {
+            for (String dataGroup : dataGroups) {
+                if (dataGroup != null) {
+                    bits.set(POSITIONS.computeIfAbsent(dataGroup, group -> NEXT_POSITION.getAndIncrement()));
+                }
+            }
+        }
+        return bits;
+    }
+}
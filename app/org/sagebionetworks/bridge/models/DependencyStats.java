@@ -0,0 +1,79 @@
+package org.sagebionetworks.bridge.models;
+
+import java.util.Map;
+
+/**
+ * The calls one server has made to one operation of a dependency (e.g. DynamoDB's getItem) since it started. The
+ * latency histogram maps the upper bound of each bucket (in milliseconds) to the number of calls that took no longer
+ * than that and longer than the bucket before it. Errors are calls that threw an exception, throttles are responses
+ * telling the server to slow down (whether or not the call then succeeded on a retry), and payload bytes are the
+ * sizes of the values read or written, where those are strings or byte arrays.
+ */
+public class DependencyStats {
+
+    private final String dependency;
+    private final String operation;
+    private final long calls;
+    private final long errors;
+    private final long throttles;
+    private final long retries;
+    private final long payloadBytes;
+    private final long averageLatencyMillis;
+    private final long maxLatencyMillis;
+    private final Map<String, Long> latencyHistogram;
+
+    public DependencyStats(String dependency, String operation, long calls, long errors, long throttles,
+            long retries, long payloadBytes, long averageLatencyMillis, long maxLatencyMillis,
+            Map<String, Long> latencyHistogram) {
+        this.dependency = dependency;
+        this.operation = operation;
+        this.calls = calls;
+        this.errors = errors;
+        this.throttles = throttles;
+        this.retries = retries;
+        this.payloadBytes = payloadBytes;
+        this.averageLatencyMillis = averageLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.latencyHistogram = latencyHistogram;
+    }
+
+    public String getDependency() {
+        return dependency;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getThrottles() {
+        return throttles;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public long getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    public Map<String, Long> getLatencyHistogram() {
+        return latencyHistogram;
+    }
+}
@@ -9,7 +9,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
- * Request-scoped metrics.
+ * Request-scoped metrics. Parts of a request can run on other threads (reads fanned out to an executor, for example),
+ * and the JSON node isn't thread-safe, so every write to it, and its serialization, is synchronized on this object.
  */
 public class Metrics {
 
@@ -32,28 +33,31 @@ public class Metrics {
         setRequestId(requestId);
     }
 
-    public String getCacheKey() {
+    public synchronized String getCacheKey() {
         return Metrics.getCacheKey(json.get("request_id").asText());
     }
 
-    /** The JSON node backing this metrics object. This is used primarily for testing. */
+    /**
+     * The JSON node backing this metrics object. This is used primarily for testing. Reading it isn't synchronized
+     * with writes made on other threads.
+     */
     public ObjectNode getJson() {
         return json;
     }
 
-    public String toJsonString() {
+    public synchronized String toJsonString() {
         return json.toString();
     }
 
-    public void start() {
+    public synchronized void start() {
         json.put("start", DateUtils.getCurrentISODateTime());
     }
 
-    public void end() {
+    public synchronized void end() {
         json.put("end", DateUtils.getCurrentISODateTime());
     }
 
-    public void setRequestId(String requestId) {
+    public synchronized void setRequestId(String requestId) {
         checkArgument(isNotBlank(requestId), "Request ID cannot be blank.");
         json.put("request_id", requestId);
     }
@@ -78,7 +82,7 @@ public class Metrics {
         put("user_agent", userAgent);
     }
 
-    public void setStatus(int status) {
+    public synchronized void setStatus(int status) {
         json.put("status", status);
     }
 
@@ -102,7 +106,7 @@ public class Metrics {
         put("upload_id", uploadId);
     }
 
-    public void setUploadSize(long uploadSize) {
+    public synchronized void setUploadSize(long uploadSize) {
         json.put("upload_size", uploadSize);
     }
 
@@ -110,7 +114,58 @@ public class Metrics {
         put("sharing_option", sharingOption);
     }
 
-    private void put(final String field, final String value) {
+    /**
+     * Records the time taken by one stage of processing the request (e.g. one of the reads made to build the 
+     * response), in milliseconds.
+     */
+    public synchronized void setStageDuration(String stage, long durationMillis) {
+        checkArgument(isNotBlank(stage), "Stage cannot be blank.");
+        ObjectNode stages = (ObjectNode)json.get("stage_durations");
+        if (stages == null) {
+            stages = json.putObject("stage_durations");
+        }
+        stages.put(stage, durationMillis);
+    }
+
+    /**
+     * Adds one call to a dependency (DynamoDB, Redis, S3 and so on) to the totals the request has spent on that
+     * dependency. Calls can be made from more than one thread on behalf of the same request.
+     */
+    public synchronized void recordDependencyCall(String dependency, long latencyMillis, long payloadBytes,
+            boolean failed, boolean throttled) {
+        ObjectNode totals = getDependencyTotals(dependency);
+        increment(totals, "calls", 1);
+        increment(totals, "millis", latencyMillis);
+        increment(totals, "bytes", payloadBytes);
+        increment(totals, "errors", failed ? 1 : 0);
+        increment(totals, "throttles", throttled ? 1 : 0);
+    }
+
+    /** Adds one retry of a call to a dependency to the request's totals for that dependency. */
+    public synchronized void recordDependencyRetry(String dependency, boolean throttled) {
+        ObjectNode totals = getDependencyTotals(dependency);
+        increment(totals, "retries", 1);
+        increment(totals, "throttles", throttled ? 1 : 0);
+    }
+
+    private ObjectNode getDependencyTotals(String dependency) {
+        checkArgument(isNotBlank(dependency), "Dependency cannot be blank.");
+        ObjectNode dependencies = (ObjectNode)json.get("dependencies");
+        if (dependencies == null) {
+            dependencies = json.putObject("dependencies");
+        }
+        ObjectNode totals = (ObjectNode)dependencies.get(dependency);
+        if (totals == null) {
+            totals = dependencies.putObject(dependency);
+        }
+        return totals;
+    }
+
+    private static void increment(ObjectNode totals, String field, long amount) {
+        totals.put(field, totals.path(field).asLong() + amount);
+    }
+
+    private synchronized void put(final String field, final String value) {
         if (isNotBlank(value)) {
             json.put(field, value);
         }
@@ -0,0 +1,63 @@
+package org.sagebionetworks.bridge.models;
+
+import org.joda.time.DateTime;
+
+/**
+ * How one background refresh task has run on one server since it started. Refreshes counts every run, including
+ * the failures; latencies are in milliseconds. The last refreshed time is null until a refresh has succeeded.
+ */
+public class RefreshStats {
+
+    private final String name;
+    private final long intervalInSeconds;
+    private final long refreshes;
+    private final long failures;
+    private final long lastLatencyMillis;
+    private final long averageLatencyMillis;
+    private final long maxLatencyMillis;
+    private final DateTime lastRefreshedOn;
+
+    public RefreshStats(String name, long intervalInSeconds, long refreshes, long failures, long lastLatencyMillis,
+            long averageLatencyMillis, long maxLatencyMillis, DateTime lastRefreshedOn) {
+        this.name = name;
+        this.intervalInSeconds = intervalInSeconds;
+        this.refreshes = refreshes;
+        this.failures = failures;
+        this.lastLatencyMillis = lastLatencyMillis;
+        this.averageLatencyMillis = averageLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.lastRefreshedOn = lastRefreshedOn;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getIntervalInSeconds() {
+        return intervalInSeconds;
+    }
+
+    public long getRefreshes() {
+        return refreshes;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    public long getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    public DateTime getLastRefreshedOn() {
+        return lastRefreshedOn;
+    }
+}
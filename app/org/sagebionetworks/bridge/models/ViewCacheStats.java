@@ -0,0 +1,50 @@
+package org.sagebionetworks.bridge.models;
+
+/**
+ * How cached views have been read on one server since it started. A stale hit returned a view that was due to be 
+ * refreshed, and started the refresh. A coalesced load waited for a load of the same view already running on this 
+ * server, and a lock wait waited for one running on another server. Loads counts the times a view was read from its 
+ * source and cached.
+ */
+public class ViewCacheStats {
+
+    private final long hits;
+    private final long staleHits;
+    private final long misses;
+    private final long coalescedLoads;
+    private final long lockWaits;
+    private final long loads;
+    
+    public ViewCacheStats(long hits, long staleHits, long misses, long coalescedLoads, long lockWaits, long loads) {
+        this.hits = hits;
+        this.staleHits = staleHits;
+        this.misses = misses;
+        this.coalescedLoads = coalescedLoads;
+        this.lockWaits = lockWaits;
+        this.loads = loads;
+    }
+    
+    public long getHits() {
+        return hits;
+    }
+    
+    public long getStaleHits() {
+        return staleHits;
+    }
+    
+    public long getMisses() {
+        return misses;
+    }
+    
+    public long getCoalescedLoads() {
+        return coalescedLoads;
+    }
+    
+    public long getLockWaits() {
+        return lockWaits;
+    }
+    
+    public long getLoads() {
+        return loads;
+    }
+}
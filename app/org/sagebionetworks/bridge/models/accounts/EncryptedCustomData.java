@@ -0,0 +1,267 @@
+package org.sagebionetworks.bridge.models.accounts;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.Supplier;
+
+import org.sagebionetworks.bridge.crypto.BridgeEncryptor;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
+import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The values of an account that are stored encrypted in its custom data: attributes, the health ID, and the consent
+ * signature histories. Values are decrypted with the Encryptor of the version stored with the encrypted value, and
+ * are always encrypted with the most recent Encryptor. Values are decrypted once and then served from memory.
+ * Signature histories are decrypted on first access, and only histories that have changed are re-encrypted by
+ * writeConsentSignatureHistories().
+ *
+ * There are historical exceptions including the "<studyId>version" key for the health ID and no version for the
+ * phone value; these are handled here. On updating these values, the version keys will be updated.
+ */
+public class EncryptedCustomData {
+
+    private static final TypeReference<List<ConsentSignature>> CONSENT_SIGNATURES_TYPE = new TypeReference<List<ConsentSignature>>() {};
+    private static final ObjectMapper MAPPER = BridgeObjectMapper.get();
+    private static final String PHONE_ATTRIBUTE = "phone";
+    private static final String HEALTH_CODE_SUFFIX = "_code";
+    private static final String CONSENT_SIGNATURE_SUFFIX = "_consent_signature";
+    private static final String CONSENT_SIGNATURES_SUFFIX = "_consent_signatures";
+    private static final String VERSION_SUFFIX = "_version";
+    private static final String OLD_VERSION_SUFFIX = "version";
+
+    private final Supplier<Map<String, Object>> customData;
+    private final SortedMap<Integer, BridgeEncryptor> encryptors;
+    private final String healthIdKey;
+    private final String oldHealthIdVersionKey;
+    private final String oldConsentSignatureKey;
+    private final Set<SubpopulationGuid> subpopGuids;
+    private final Map<SubpopulationGuid, List<ConsentSignature>> allSignatures;
+    private final Map<SubpopulationGuid, List<ConsentSignature>> savedSignatures;
+    private final Map<String, String> decryptedValues;
+
+    /**
+     * The custom data is supplied rather than passed in, so that it is read from the account each time it is used.
+     */
+    public EncryptedCustomData(StudyIdentifier studyIdentifier, List<? extends SubpopulationGuid> subpopGuids,
+            Supplier<Map<String, Object>> customData, SortedMap<Integer, BridgeEncryptor> encryptors) {
+        checkNotNull(studyIdentifier);
+        checkNotNull(subpopGuids);
+        checkNotNull(customData);
+        checkNotNull(encryptors);
+
+        String studyId = studyIdentifier.getIdentifier();
+
+        this.customData = customData;
+        this.encryptors = encryptors;
+        this.healthIdKey = studyId + HEALTH_CODE_SUFFIX;
+        this.oldHealthIdVersionKey = studyId + OLD_VERSION_SUFFIX;
+        this.oldConsentSignatureKey = studyId + CONSENT_SIGNATURE_SUFFIX;
+        this.subpopGuids = ImmutableSet.copyOf(subpopGuids);
+        // savedSignatures holds each history as it was last read from or written to custom data.
+        this.allSignatures = Maps.newHashMap();
+        this.savedSignatures = Maps.newHashMap();
+        this.decryptedValues = Maps.newHashMap();
+    }
+
+    /** Forget the decrypted values, when the custom data has been replaced. */
+    public void clearDecryptedValues() {
+        decryptedValues.clear();
+    }
+
+    public String get(String key) {
+        return decryptFrom(key);
+    }
+
+    public void put(String key, String value) {
+        encryptTo(key, value);
+    }
+
+    public String getHealthId() {
+        return decryptFrom(healthIdKey);
+    }
+
+    public void setHealthId(String healthId) {
+        encryptTo(healthIdKey, healthId);
+    }
+
+    public List<ConsentSignature> getConsentSignatureHistory(SubpopulationGuid subpopGuid) {
+        List<ConsentSignature> signatures = allSignatures.get(subpopGuid);
+        if (signatures == null) {
+            signatures = Lists.newArrayList();
+            List<ConsentSignature> savedSigs = ImmutableList.of();
+            if (subpopGuids.contains(subpopGuid)) {
+                List<ConsentSignature> history = decryptJSONFrom(subpopGuid.getGuid()+CONSENT_SIGNATURES_SUFFIX, CONSENT_SIGNATURES_TYPE);
+                if (history == null || history.isEmpty()) {
+                    // A signature in the older single-signature slot is not saved under the history key yet,
+                    // so leave savedSigs empty and it will be migrated the next time the account is saved.
+                    ConsentSignature sig = decryptJSONFrom(subpopGuid.getGuid()+CONSENT_SIGNATURE_SUFFIX, ConsentSignature.class);
+                    if (sig != null) {
+                        signatures.add(sig);
+                    }
+                } else {
+                    signatures.addAll(history);
+                    savedSigs = ImmutableList.copyOf(history);
+                }
+            }
+            allSignatures.put(subpopGuid, signatures);
+            savedSignatures.put(subpopGuid, savedSigs);
+        }
+        return signatures;
+    }
+
+    /**
+     * The signature histories that have signatures, by subpopulation. Empty histories are left out, so callers only
+     * see the subpopulations the account has signed. The lists are the ones held here, so changes to them are saved.
+     */
+    public Map<SubpopulationGuid, List<ConsentSignature>> getAllConsentSignatureHistories() {
+        for (SubpopulationGuid subpopGuid : subpopGuids) {
+            getConsentSignatureHistory(subpopGuid);
+        }
+        Map<SubpopulationGuid, List<ConsentSignature>> histories = Maps.newHashMap();
+        for (Map.Entry<SubpopulationGuid, List<ConsentSignature>> entry : allSignatures.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                histories.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return histories;
+    }
+
+    /**
+     * Encrypt the signature histories that have changed since they were read or last written into the custom data.
+     */
+    public void writeConsentSignatureHistories() {
+        for (Map.Entry<SubpopulationGuid, List<ConsentSignature>> entry : allSignatures.entrySet()) {
+            SubpopulationGuid subpopGuid = entry.getKey();
+            List<ConsentSignature> signatures = entry.getValue();
+            if (!signatures.equals(savedSignatures.get(subpopGuid))) {
+                encryptJSONTo(subpopGuid.getGuid()+CONSENT_SIGNATURES_SUFFIX, signatures);
+                savedSignatures.put(subpopGuid, ImmutableList.copyOf(signatures));
+            }
+        }
+    }
+
+    private void encryptJSONTo(String key, Object value) {
+        if (value == null) {
+            encryptTo(key, null);
+            return;
+        }
+        try {
+            String jsonString = MAPPER.writeValueAsString(value);
+            encryptTo(key, jsonString);
+        } catch(JsonProcessingException e) {
+            String message = String.format("Could not store %s due to malformed JSON: %s", key, e.getMessage());
+            throw new BridgeServiceException(message);
+        }
+    }
+
+    private <T> T decryptJSONFrom(String key, TypeReference<T> reference) {
+        try {
+            String jsonString = decryptFrom(key);
+            if (jsonString == null) {
+                return null;
+            }
+            return MAPPER.readValue(jsonString, reference);
+        } catch(IOException e) {
+            String message = String.format("Could not retrieve %s due to malformed JSON: %s", key, e.getMessage());
+            throw new BridgeServiceException(message);
+        }
+    }
+
+    private <T> T decryptJSONFrom(String key, Class<T> clazz) {
+        try {
+            String jsonString = decryptFrom(key);
+            if (jsonString == null) {
+                return null;
+            }
+            return MAPPER.readValue(jsonString, clazz);
+        } catch(IOException e) {
+            String message = String.format("Could not retrieve %s due to malformed JSON: %s", key, e.getMessage());
+            throw new BridgeServiceException(message);
+        }
+    }
+
+    private void encryptTo(String key, String value) {
+        decryptedValues.put(key, value);
+        Map<String, Object> data = customData.get();
+        if (value == null) {
+            data.remove(key);
+            data.remove(key+VERSION_SUFFIX);
+            return;
+        }
+        // Encryption is always done with the most recent encryptor, which is last in the list (most recent version #)
+        Integer encryptorKey = encryptors.lastKey();
+        BridgeEncryptor encryptor = encryptors.get(encryptorKey);
+
+        String encrypted = encryptor.encrypt(value);
+        data.put(key+VERSION_SUFFIX, encryptor.getVersion());
+        data.put(key, encrypted);
+    }
+
+    private String decryptFrom(String key) {
+        if (decryptedValues.containsKey(key)) {
+            return decryptedValues.get(key);
+        }
+        String encryptedString = (String)customData.get().get(key);
+        if (encryptedString == null) {
+            return null;
+        }
+        // Decryption is always done with the version that was used for encryption.
+        Integer version = getVersionAccountingForExceptions(key);
+        BridgeEncryptor encryptor = encryptors.get(version);
+        if (encryptor == null) {
+            throw new BridgeServiceException("No encryptor can be found for version " + version);
+        }
+        String value = encryptor.decrypt(encryptedString);
+        decryptedValues.put(key, value);
+        return value;
+    }
+
+    /**
+     * Historically there have been two special cases: health Ids were stored with a format
+     * for the version that wasn't generically applicable to other attributes in the customData object,
+     * and phone numbers were stored with no separate version at all.
+     */
+    private Integer getVersionAccountingForExceptions(String key) {
+        Map<String, Object> data = customData.get();
+        String versionKey = key+VERSION_SUFFIX;
+        Integer version = (Integer)data.get(versionKey);
+        if (version == null) {
+            // Special case #1: the original health id version format is being used (studyIdversion), not the newer per-field key format
+            // (studyId_code_version)
+            if (healthIdKey.equals(key)) {
+                versionKey = oldHealthIdVersionKey;
+                version = (Integer)data.get(versionKey);
+            }
+            // Special case #2: phone without a version string
+            else if (PHONE_ATTRIBUTE.equals(key)) {
+                version = 2;
+            }
+            // Special case #3: existing consent signature has no version. Again, assume version 2 for now.
+            else if (oldConsentSignatureKey.equals(key)) {
+                version = 2;
+            }
+        }
+        if (version == null) {
+            // Get the most recent key. We've only ever used v2 in production so in the rare case where we
+            // don't have the version of the encryptor saved alongside the attribute, this should be correct.
+            version = encryptors.lastKey();
+        }
+        return version;
+    }
+}
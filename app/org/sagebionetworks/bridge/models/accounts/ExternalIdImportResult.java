@@ -0,0 +1,35 @@
+package org.sagebionetworks.bridge.models.accounts;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The outcome of a bulk import of external IDs: the number of IDs that were added, the number that were skipped
+ * because they already existed (or were repeated in the import), and the number that were not valid identifiers.
+ */
+public class ExternalIdImportResult {
+
+    private final int inserted;
+    private final int skipped;
+    private final int invalid;
+
+    @JsonCreator
+    public ExternalIdImportResult(@JsonProperty("inserted") int inserted, @JsonProperty("skipped") int skipped,
+            @JsonProperty("invalid") int invalid) {
+        this.inserted = inserted;
+        this.skipped = skipped;
+        this.invalid = invalid;
+    }
+
+    public int getInserted() {
+        return inserted;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public int getInvalid() {
+        return invalid;
+    }
+}
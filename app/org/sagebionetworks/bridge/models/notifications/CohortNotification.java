@@ -0,0 +1,74 @@
+package org.sagebionetworks.bridge.models.notifications;
+
+import java.util.Objects;
+import java.util.Set;
+
+import org.sagebionetworks.bridge.models.BridgeEntity;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A push notification to be sent to every registered device of the participants in a cohort. The cohort is every
+ * participant in the study who is in at least one of the data groups, or every participant in the study if no data
+ * groups are given.
+ */
+@JsonDeserialize(builder=CohortNotification.Builder.class)
+public final class CohortNotification implements BridgeEntity {
+
+    private final Set<String> dataGroups;
+    private final NotificationMessage message;
+    
+    CohortNotification(Set<String> dataGroups, NotificationMessage message) {
+        this.dataGroups = dataGroups;
+        this.message = message;
+    }
+    
+    public Set<String> getDataGroups() {
+        return dataGroups;
+    }
+    
+    public NotificationMessage getMessage() {
+        return message;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(dataGroups, message);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        CohortNotification other = (CohortNotification)obj;
+        return Objects.equals(dataGroups, other.getDataGroups()) &&
+               Objects.equals(message, other.getMessage());
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("CohortNotification[dataGroups=%s, message=%s]", dataGroups, message);
+    }
+    
+    public static class Builder {
+        private Set<String> dataGroups;
+        private NotificationMessage message;
+        
+        public Builder withDataGroups(Set<String> dataGroups) {
+            this.dataGroups = dataGroups;
+            return this;
+        }
+        public Builder withMessage(NotificationMessage message) {
+            this.message = message;
+            return this;
+        }
+        public CohortNotification build() {
+            Set<String> groups = (dataGroups == null) ? ImmutableSet.of() : ImmutableSet.copyOf(dataGroups);
+            return new CohortNotification(groups, message);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.sagebionetworks.bridge.models.notifications;
+
+import org.joda.time.DateTime;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The progress of sending a notification to a cohort. Every registered device found for the cohort is counted once 
+ * as either published or failed (retries of throttled publishes are counted separately). A job that fails part way 
+ * has the reason in its error message; the devices it reached were still sent the notification.
+ */
+public final class NotificationJob {
+
+    private final String guid;
+    private final NotificationJobStatus status;
+    private final DateTime startedOn;
+    private final DateTime finishedOn;
+    private final int published;
+    private final int failed;
+    private final int retried;
+    private final String errorMessage;
+    
+    @JsonCreator
+    public NotificationJob(@JsonProperty("guid") String guid, @JsonProperty("status") NotificationJobStatus status,
+            @JsonProperty("startedOn") DateTime startedOn, @JsonProperty("finishedOn") DateTime finishedOn,
+            @JsonProperty("published") int published, @JsonProperty("failed") int failed,
+            @JsonProperty("retried") int retried, @JsonProperty("errorMessage") String errorMessage) {
+        this.guid = guid;
+        this.status = status;
+        this.startedOn = startedOn;
+        this.finishedOn = finishedOn;
+        this.published = published;
+        this.failed = failed;
+        this.retried = retried;
+        this.errorMessage = errorMessage;
+    }
+    
+    public String getGuid() {
+        return guid;
+    }
+    
+    public NotificationJobStatus getStatus() {
+        return status;
+    }
+    
+    public DateTime getStartedOn() {
+        return startedOn;
+    }
+    
+    public DateTime getFinishedOn() {
+        return finishedOn;
+    }
+    
+    public int getPublished() {
+        return published;
+    }
+    
+    public int getFailed() {
+        return failed;
+    }
+    
+    public int getRetried() {
+        return retried;
+    }
+    
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
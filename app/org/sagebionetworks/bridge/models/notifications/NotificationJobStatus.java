@@ -0,0 +1,7 @@
+package org.sagebionetworks.bridge.models.notifications;
+
+public enum NotificationJobStatus {
+    IN_PROCESS,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,59 @@
+package org.sagebionetworks.bridge.models.reports;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The outcome of a bulk import of participant report data: the number of rows that were saved, the number that
+ * failed, and why each row failed. Rows are numbered from 1, in the order they appear in the import. Only the first
+ * errors are listed (see ReportService.MAX_IMPORT_ERRORS), but every failed row is counted.
+ */
+public class ReportDataImportResult {
+
+    private final int saved;
+    private final int failed;
+    private final List<RowError> errors;
+
+    @JsonCreator
+    public ReportDataImportResult(@JsonProperty("saved") int saved, @JsonProperty("failed") int failed,
+            @JsonProperty("errors") List<RowError> errors) {
+        this.saved = saved;
+        this.failed = failed;
+        this.errors = (errors == null) ? ImmutableList.of() : ImmutableList.copyOf(errors);
+    }
+
+    public int getSaved() {
+        return saved;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public List<RowError> getErrors() {
+        return errors;
+    }
+
+    /** Why a single row of the import wasn't saved. */
+    public static final class RowError {
+        private final int row;
+        private final String message;
+
+        @JsonCreator
+        public RowError(@JsonProperty("row") int row, @JsonProperty("message") String message) {
+            this.row = row;
+            this.message = message;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
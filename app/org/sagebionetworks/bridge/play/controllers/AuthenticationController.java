@@ -3,6 +3,8 @@ package org.sagebionetworks.bridge.play.controllers;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.sagebionetworks.bridge.BridgeConstants.STUDY_PROPERTY;
 
+import javax.annotation.Resource;
+
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
@@ -22,8 +24,10 @@ import org.sagebionetworks.bridge.models.accounts.UserSessionInfo;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.util.Bulkhead;
 import org.springframework.stereotype.Controller;
 
+import play.libs.F.Promise;
 import play.mvc.BodyParser;
 import play.mvc.Result;
 
@@ -32,10 +36,21 @@ import com.fasterxml.jackson.databind.JsonNode;
 @Controller
 public class AuthenticationController extends BaseController {
 
-    public Result signIn() throws Exception {
-        return signInWithRetry(5);
+    private Bulkhead stormpathBulkhead;
+
+    @Resource(name = "stormpathBulkhead")
+    final void setStormpathBulkhead(Bulkhead stormpathBulkhead) {
+        this.stormpathBulkhead = stormpathBulkhead;
+    }
+
+    public Promise<Result> signIn() throws Exception {
+        return async(stormpathBulkhead, () -> signInWithRetry(5));
     }
 
+    /**
+     * Signing out only removes the session from Redis, so unlike the other calls, it doesn't wait on Stormpath and 
+     * runs on the request thread.
+     */
     @BodyParser.Of(BodyParser.Empty.class)
     public Result signOut() throws Exception {
         final UserSession session = getSessionIfItExists();
@@ -46,47 +61,60 @@ public class AuthenticationController extends BaseController {
         return okResult("Signed out.");
     }
 
-    public Result signUp() throws Exception {
-        JsonNode json = requestToJSON(request());
-        StudyParticipant participant = parseJson(request(), StudyParticipant.class);
-        
-        Study study = getStudyOrThrowException(json);
-        authenticationService.signUp(study, participant);
-        return createdResult("Signed up.");
+    public Promise<Result> signUp() throws Exception {
+        return async(stormpathBulkhead, () -> {
+            JsonNode json = requestToJSON(request());
+            StudyParticipant participant = parseJson(request(), StudyParticipant.class);
+            
+            Study study = getStudyOrThrowException(json);
+            authenticationService.signUp(study, participant);
+            return createdResult("Signed up.");
+        });
     }
 
-    public Result verifyEmail() throws Exception {
-        EmailVerification emailVerification = parseJson(request(), EmailVerification.class);
+    public Promise<Result> verifyEmail() throws Exception {
+        return async(stormpathBulkhead, () -> {
+            EmailVerification emailVerification = parseJson(request(), EmailVerification.class);
 
-        authenticationService.verifyEmail(emailVerification);
-        
-        return okResult("Email address verified.");
+            authenticationService.verifyEmail(emailVerification);
+            
+            return okResult("Email address verified.");
+        });
     }
 
-    public Result resendEmailVerification() throws Exception {
-        JsonNode json = requestToJSON(request());
-        Email email = parseJson(request(), Email.class);
-        StudyIdentifier studyIdentifier = getStudyIdentifierOrThrowException(json);
-        authenticationService.resendEmailVerification(studyIdentifier, email);
-        return okResult("If registered with the study, we'll email you instructions on how to verify your account.");
+    public Promise<Result> resendEmailVerification() throws Exception {
+        return async(stormpathBulkhead, () -> {
+            JsonNode json = requestToJSON(request());
+            Email email = parseJson(request(), Email.class);
+            StudyIdentifier studyIdentifier = getStudyIdentifierOrThrowException(json);
+            authenticationService.resendEmailVerification(studyIdentifier, email);
+            return okResult(
+                    "If registered with the study, we'll email you instructions on how to verify your account.");
+        });
     }
 
-    public Result requestResetPassword() throws Exception {
-        JsonNode json = requestToJSON(request());
-        Email email = parseJson(request(), Email.class);
-        Study study = getStudyOrThrowException(json);
-        authenticationService.requestResetPassword(study, email);
-        return okResult("If registered with the study, we'll email you instructions on how to change your password.");
+    public Promise<Result> requestResetPassword() throws Exception {
+        return async(stormpathBulkhead, () -> {
+            JsonNode json = requestToJSON(request());
+            Email email = parseJson(request(), Email.class);
+            Study study = getStudyOrThrowException(json);
+            authenticationService.requestResetPassword(study, email);
+            return okResult(
+                    "If registered with the study, we'll email you instructions on how to change your password.");
+        });
     }
 
-    public Result resetPassword() throws Exception {
-        PasswordReset passwordReset = parseJson(request(), PasswordReset.class);
-        authenticationService.resetPassword(passwordReset);
-        return okResult("Password has been changed.");
+    public Promise<Result> resetPassword() throws Exception {
+        return async(stormpathBulkhead, () -> {
+            PasswordReset passwordReset = parseJson(request(), PasswordReset.class);
+            authenticationService.resetPassword(passwordReset);
+            return okResult("Password has been changed.");
+        });
     }
 
     /**
-     * Retries sign-in on lock.
+     * Retries sign-in on lock. This runs on the Stormpath bulkhead, so waiting between retries doesn't hold one of 
+     * Play's request threads.
      *
      * @param retryCounter the number of retries, excluding the initial try
      */
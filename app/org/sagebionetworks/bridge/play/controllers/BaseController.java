@@ -1,17 +1,25 @@
 package org.sagebionetworks.bridge.play.controllers;
 
+import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.sagebionetworks.bridge.BridgeConstants.BRIDGE_SESSION_EXPIRE_IN_SECONDS;
 import static org.sagebionetworks.bridge.BridgeConstants.SESSION_TOKEN_HEADER;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.LANGUAGES;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Locale.LanguageRange;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
@@ -20,6 +28,7 @@ import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.UnsupportedVersionException;
 import org.sagebionetworks.bridge.exceptions.ConsentRequiredException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
@@ -39,24 +48,38 @@ import org.sagebionetworks.bridge.play.interceptors.RequestUtils;
 import org.sagebionetworks.bridge.services.AuthenticationService;
 import org.sagebionetworks.bridge.services.ParticipantOptionsService;
 import org.sagebionetworks.bridge.services.StudyService;
+import org.sagebionetworks.bridge.util.Bulkhead;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import akka.dispatch.ExecutionContexts;
+
 import play.cache.Cache;
+import play.libs.F.Function0;
+import play.libs.F.Promise;
+import play.libs.HttpExecution;
 import play.libs.Json;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Http.Cookie;
 import play.mvc.Http.Request;
 import play.mvc.Result;
+import play.mvc.Results.ByteChunks;
+import play.mvc.Results.Chunks;
 
 import com.amazonaws.util.Throwables;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
 import com.google.common.collect.Sets;
 
 public abstract class BaseController extends Controller {
@@ -64,6 +87,11 @@ public abstract class BaseController extends Controller {
     private final static Logger LOG = LoggerFactory.getLogger(BaseController.class);
     
     protected final static ObjectMapper MAPPER = BridgeObjectMapper.get();
+    
+    /** Lists with more items than this are written to the response as a chunked stream. */
+    static final int STREAMING_CHUNK_THRESHOLD = 500;
+    
+    private static final int STREAMING_CHUNK_SIZE = 8192;
 
     CacheProvider cacheProvider;
     
@@ -306,11 +334,162 @@ public abstract class BaseController extends Controller {
     }
 
     Result okResult(Object obj) {
-        return ok((JsonNode)MAPPER.valueToTree(obj));
+        return okResult(MAPPER.writer(), obj);
+    }
+    
+    /**
+     * Serializes the object directly to the response with the given writer (rather than building a JsonNode tree 
+     * which Play then serializes a second time). Use a writer with a filter to remove fields from the entity.
+     */
+    Result okResult(ObjectWriter writer, Object obj) {
+        return ok(writeJson(writer, obj, null)).as(BridgeConstants.JSON_MIME_TYPE);
     }
     
     <T> Result okResult(List<T> list) {
-        return ok((JsonNode)MAPPER.valueToTree(new ResourceList<T>(list)));
+        return okResult(MAPPER.writer(), list);
+    }
+    
+    <T> Result okResult(ObjectWriter writer, List<T> list) {
+        return okResult(writer, list, null);
+    }
+    
+    /**
+     * Serializes the list as a ResourceList. Lists larger than STREAMING_CHUNK_THRESHOLD are written to a chunked 
+     * response as they are serialized (see okStreamedResult), so the full response body is never held in memory. 
+     * The generator decorator, if supplied, wraps the JsonGenerator used to write the list.
+     */
+    <T> Result okResult(ObjectWriter writer, List<T> list, UnaryOperator<JsonGenerator> decorator) {
+        if (list.size() > STREAMING_CHUNK_THRESHOLD) {
+            return okStreamedResult(writer, list.iterator(), decorator);
+        }
+        return ok(writeJson(writer, new ResourceList<T>(list), decorator)).as(BridgeConstants.JSON_MIME_TYPE);
+    }
+    
+    /**
+     * Returns the JSON with a strong ETag computed from its content, and the given Cache-Control header. If the 
+     * request's If-None-Match header already names this ETag, the client's copy is current and a 304 is returned 
+     * without a body.
+     */
+    Result conditionalResult(byte[] json, String cacheControl) {
+        return conditionalResult(getETag(json), cacheControl, () -> json);
+    }
+    
+    /**
+     * Returns the JSON with the given ETag, which the caller has derived from a version of the content rather than 
+     * the content itself, and the given Cache-Control header. If the request's If-None-Match header already names 
+     * this ETag, a 304 is returned and the JSON is never written.
+     */
+    Result conditionalResult(String etag, String cacheControl, Supplier<byte[]> json) {
+        response().setHeader(ETAG, etag);
+        response().setHeader(CACHE_CONTROL, cacheControl);
+        if (matchesETag(request().getHeader(IF_NONE_MATCH), etag)) {
+            return status(NOT_MODIFIED);
+        }
+        return ok(json.get()).as(BridgeConstants.JSON_MIME_TYPE);
+    }
+    
+    Result conditionalResult(String json, String cacheControl) {
+        return conditionalResult(json.getBytes(StandardCharsets.UTF_8), cacheControl);
+    }
+    
+    static String getETag(byte[] content) {
+        return "\"" + Hashing.murmur3_128().hashBytes(content).toString() + "\"";
+    }
+    
+    static String getETag(String version) {
+        return getETag(version.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * If-None-Match uses the weak comparison, so a weak validator from the client matches our strong ETag. The 
+     * header may also list several ETags, or be "*".
+     */
+    static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (isBlank(ifNoneMatch)) {
+            return false;
+        }
+        for (String oneTag : ifNoneMatch.split(",")) {
+            oneTag = oneTag.trim();
+            if (oneTag.startsWith("W/")) {
+                oneTag = oneTag.substring(2);
+            }
+            if ("*".equals(oneTag) || etag.equals(oneTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Does the Accept-Encoding header accept this content coding? A coding given a q-value of zero is refused.
+     */
+    static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        if (isBlank(acceptEncoding)) {
+            return false;
+        }
+        for (String oneCoding : acceptEncoding.split(",")) {
+            String[] parts = oneCoding.split(";");
+            String name = parts[0].trim();
+            if (encoding.equalsIgnoreCase(name) || "*".equals(name)) {
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=") && param.substring(2).matches("0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Writes the items of the iterator to a chunked response as a ResourceList, as they are retrieved. Use this for 
+     * exports that are too large to load in to memory; the total is only known once the last item has been written, 
+     * so it follows the items in the JSON.
+     */
+    <T> Result okStreamedResult(ObjectWriter writer, Iterator<T> iterator) {
+        return okStreamedResult(writer, iterator, null);
+    }
+    
+    /**
+     * The first STREAMING_CHUNK_THRESHOLD items are serialized before the response is started, so if they fail, 
+     * the request fails with an error status like any other, and if there are no more items, the JSON is returned 
+     * as an ordinary response. Once the chunked response has started its status can't be changed, so an error 
+     * writing a later item ends the response without its final chunk: the client sees a broken response rather 
+     * than a 200 with truncated JSON.
+     */
+    <T> Result okStreamedResult(ObjectWriter writer, Iterator<T> iterator, UnaryOperator<JsonGenerator> decorator) {
+        ByteChunksOutputStream stream = new ByteChunksOutputStream(STREAMING_CHUNK_SIZE);
+        JsonItemsWriter<T> itemsWriter;
+        try {
+            itemsWriter = new JsonItemsWriter<>(writer, iterator, decorator, stream);
+            if (itemsWriter.write(STREAMING_CHUNK_THRESHOLD)) {
+                return ok(stream.getHeldBytes()).as(BridgeConstants.JSON_MIME_TYPE);
+            }
+        } catch(IOException e) {
+            throw new BridgeServiceException(e);
+        }
+        Chunks<byte[]> chunks = new ByteChunks() {
+            @Override
+            public void onReady(Chunks.Out<byte[]> out) {
+                stream.attach(out);
+                try {
+                    itemsWriter.write(Integer.MAX_VALUE);
+                    stream.close();
+                } catch(IOException | RuntimeException e) {
+                    LOG.error("Error streaming JSON response, ending response without its final chunk", e);
+                    stream.abort();
+                    // Failing here fails Play's enumeration of the chunks, which closes the connection
+                    throw new BridgeServiceException(e);
+                }
+            }
+        };
+        return ok(chunks).as(BridgeConstants.JSON_MIME_TYPE);
+    }
+    
+    static <T> void writeJsonItems(ObjectWriter writer, Iterator<T> iterator, OutputStream stream) throws IOException {
+        new JsonItemsWriter<T>(writer, iterator, null, stream).write(Integer.MAX_VALUE);
     }
     
     Result createdResult(String message) throws Exception {
@@ -318,13 +497,42 @@ public abstract class BaseController extends Controller {
     }
     
     Result createdResult(Object obj) throws Exception {
-        return created((JsonNode)MAPPER.valueToTree(obj));
+        return created(writeJson(MAPPER.writer(), obj, null)).as(BridgeConstants.JSON_MIME_TYPE);
+    }
+    
+    static byte[] writeJson(ObjectWriter writer, Object obj, UnaryOperator<JsonGenerator> decorator) {
+        ByteArrayBuilder builder = new ByteArrayBuilder();
+        try {
+            writeJson(writer, obj, decorator, builder);
+            return builder.toByteArray();
+        } catch(IOException e) {
+            throw new BridgeServiceException(e);
+        } finally {
+            builder.release();
+        }
+    }
+    
+    private static void writeJson(ObjectWriter writer, Object obj, UnaryOperator<JsonGenerator> decorator,
+            OutputStream stream) throws IOException {
+        JsonGenerator generator = writer.getFactory().createGenerator(stream, JsonEncoding.UTF8);
+        if (decorator != null) {
+            generator = decorator.apply(generator);
+        }
+        try {
+            writer.writeValue(generator, obj);
+        } finally {
+            generator.close();
+        }
     }
     
     Result acceptedResult(String message) {
         return status(202, Json.toJson(new StatusMessage(message)));
     }
     
+    Result acceptedResult(Object obj) {
+        return status(202, writeJson(MAPPER.writer(), obj, null)).as(BridgeConstants.JSON_MIME_TYPE);
+    }
+    
     // This is needed or tests fail. It appears to be a bug in Play Framework,
     // that the asJson() method doesn't return a node in that context, possibly
     // because the root object in the JSON is an array (which is legal). 
@@ -378,6 +586,24 @@ public abstract class BaseController extends Controller {
         throw new InvalidEntityException("Expected JSON in the request body is missing");
     }
     
+    /**
+     * Runs the action on the bulkhead for the dependency it blocks on, rather than on one of Play's request threads, 
+     * and returns a promise of its result. The action sees the request's context (request(), response(), the 
+     * session cookie) as it would on a request thread. The time it waited for a thread in the bulkhead is recorded 
+     * in the request's metrics.
+     */
+    Promise<Result> async(Bulkhead bulkhead, Function0<Result> action) {
+        final Metrics metrics = getMetrics();
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        return Promise.promise(() -> {
+            if (metrics != null) {
+                metrics.setStageDuration(bulkhead.getName() + "_bulkhead_wait",
+                        stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            }
+            return action.apply();
+        }, HttpExecution.fromThread(ExecutionContexts.fromExecutor(bulkhead)));
+    }
+
     /**
      * Retrieves the metrics object from the cache. Can be null if the metrics is not in the cache.
      */
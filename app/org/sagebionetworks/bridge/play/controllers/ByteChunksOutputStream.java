@@ -0,0 +1,127 @@
+package org.sagebionetworks.bridge.play.controllers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import play.mvc.Results.Chunks;
+
+/**
+ * Adapts a Play chunked response to an OutputStream, so a JsonGenerator can write to the response directly. Bytes
+ * are collected into chunks of a fixed size, so the client isn't sent a chunk for every token that is written.
+ * A stream can be written before it is attached to a response, in which case its chunks are held until it is
+ * attached (or read back with getHeldBytes(), if the response is not chunked after all).
+ */
+class ByteChunksOutputStream extends OutputStream {
+
+    private final List<byte[]> heldChunks = Lists.newArrayList();
+    private final byte[] buffer;
+    private Chunks.Out<byte[]> chunksOut;
+    private int count;
+    private boolean closed;
+
+    ByteChunksOutputStream(int chunkSize) {
+        checkArgument(chunkSize > 0);
+        this.buffer = new byte[chunkSize];
+    }
+
+    ByteChunksOutputStream(Chunks.Out<byte[]> out, int chunkSize) {
+        this(chunkSize);
+        attach(out);
+    }
+
+    /** Send the chunks written so far to the response, and the rest as they are written. */
+    void attach(Chunks.Out<byte[]> out) {
+        checkNotNull(out);
+        checkState(chunksOut == null, "Stream is already attached to a response");
+        this.chunksOut = out;
+        for (byte[] chunk : heldChunks) {
+            chunksOut.write(chunk);
+        }
+        heldChunks.clear();
+    }
+
+    /** The bytes written to a stream that has not been attached to a response. */
+    byte[] getHeldBytes() {
+        checkState(chunksOut == null, "Stream is attached to a response");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] chunk : heldChunks) {
+            bytes.write(chunk, 0, chunk.length);
+        }
+        bytes.write(buffer, 0, count);
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void write(int b) {
+        if (closed) {
+            return;
+        }
+        if (count == buffer.length) {
+            flush();
+        }
+        buffer[count++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        if (closed) {
+            return;
+        }
+        while (length > 0) {
+            if (count == buffer.length) {
+                flush();
+            }
+            int copied = Math.min(length, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, copied);
+            count += copied;
+            offset += copied;
+            length -= copied;
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (count > 0 && !closed) {
+            byte[] chunk = Arrays.copyOf(buffer, count);
+            if (chunksOut == null) {
+                heldChunks.add(chunk);
+            } else {
+                chunksOut.write(chunk);
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Sends the last chunk and ends the response. A stream that is not attached to a response keeps its bytes for
+     * getHeldBytes().
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            if (chunksOut != null) {
+                flush();
+                chunksOut.close();
+            }
+            closed = true;
+        }
+    }
+
+    /**
+     * Discards what has not been sent and stops writing, without ending the response. Ending the response would
+     * tell the client it had received all of it.
+     */
+    void abort() {
+        closed = true;
+        count = 0;
+        heldChunks.clear();
+    }
+}
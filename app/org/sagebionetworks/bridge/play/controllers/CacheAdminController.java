@@ -2,8 +2,12 @@ package org.sagebionetworks.bridge.play.controllers;
 
 import static org.sagebionetworks.bridge.Roles.ADMIN;
 
-import java.util.Set;
+import java.util.List;
 
+import org.sagebionetworks.bridge.cache.BackgroundRefresher;
+import org.sagebionetworks.bridge.cache.ViewCache;
+import org.sagebionetworks.bridge.models.CacheNamespaceStats;
+import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.services.CacheAdminService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -14,17 +18,60 @@ import play.mvc.Result;
 public class CacheAdminController extends BaseController {
 
     private CacheAdminService cacheAdminService;
+    
+    private ViewCache viewCache;
+    
+    private BackgroundRefresher backgroundRefresher;
 
     @Autowired
     public void setCacheAdminService(CacheAdminService cacheService) {
         this.cacheAdminService = cacheService;
     }
     
-    public Result listItems() throws Exception {
+    @Autowired
+    public void setViewCache(ViewCache viewCache) {
+        this.viewCache = viewCache;
+    }
+    
+    @Autowired
+    public void setBackgroundRefresher(BackgroundRefresher backgroundRefresher) {
+        this.backgroundRefresher = backgroundRefresher;
+    }
+    
+    public Result listItems(String namespace, String offsetKey, String pageSizeString) throws Exception {
+        getAuthenticatedSession(ADMIN);
+        
+        // Play will not convert these to null if they are not included in the query string, so we must do the conversion.
+        Integer pageSize = (pageSizeString != null) ? Integer.parseInt(pageSizeString,10) : null;
+        
+        PagedResourceList<String> page = cacheAdminService.listItems(namespace, offsetKey, pageSize);
+        return okResult(page);
+    }
+    
+    public Result getNamespaceStats() throws Exception {
         getAuthenticatedSession(ADMIN);
         
-        Set<String> keys = cacheAdminService.listItems();
-        return okResult(keys);
+        List<CacheNamespaceStats> stats = cacheAdminService.getNamespaceStats();
+        return okResult(stats);
+    }
+    
+    /**
+     * Counts of view cache hits, misses and loads on the server that handles the request.
+     */
+    public Result getViewCacheStats() throws Exception {
+        getAuthenticatedSession(ADMIN);
+        
+        return okResult(viewCache.getStats());
+    }
+    
+    /**
+     * Latency and failures of the background refreshes (of upload credentials and so on) on the server that 
+     * handles the request.
+     */
+    public Result getRefreshStats() throws Exception {
+        getAuthenticatedSession(ADMIN);
+        
+        return okResult(backgroundRefresher.getStats());
     }
     
     public Result removeItem(String cacheKey) {
@@ -33,5 +80,12 @@ public class CacheAdminController extends BaseController {
         cacheAdminService.removeItem(cacheKey);
         return okResult("Item removed from cache.");
     }
+    
+    public Result removeItems(String namespace, String pattern) {
+        getAuthenticatedSession(ADMIN);
+        
+        long removed = cacheAdminService.removeItems(namespace, pattern);
+        return okResult(removed + " items removed from cache.");
+    }
 
 }
@@ -0,0 +1,44 @@
+package org.sagebionetworks.bridge.play.controllers;
+
+import static org.sagebionetworks.bridge.Roles.RESEARCHER;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+
+import org.sagebionetworks.bridge.models.accounts.UserSession;
+import org.sagebionetworks.bridge.models.notifications.CohortNotification;
+import org.sagebionetworks.bridge.models.notifications.NotificationJob;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.services.CohortNotificationService;
+
+import play.mvc.Result;
+
+@Controller
+public class CohortNotificationController extends BaseController {
+
+    private CohortNotificationService cohortNotificationService;
+    
+    @Autowired
+    final void setCohortNotificationService(CohortNotificationService cohortNotificationService) {
+        this.cohortNotificationService = cohortNotificationService;
+    }
+    
+    public Result sendNotification() {
+        UserSession session = getAuthenticatedSession(RESEARCHER);
+        Study study = studyService.getStudy(session.getStudyIdentifier());
+        
+        CohortNotification notification = parseJson(request(), CohortNotification.class);
+        
+        NotificationJob job = cohortNotificationService.startJob(study, notification);
+        
+        return acceptedResult(job);
+    }
+    
+    public Result getNotificationJob(String guid) {
+        UserSession session = getAuthenticatedSession(RESEARCHER);
+        
+        NotificationJob job = cohortNotificationService.getJob(session.getStudyIdentifier(), guid);
+        
+        return okResult(job);
+    }
+}
@@ -2,6 +2,8 @@ package org.sagebionetworks.bridge.play.controllers;
 
 import static org.sagebionetworks.bridge.Roles.DEVELOPER;
 
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,6 +11,7 @@ import org.springframework.stereotype.Controller;
 
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.accounts.ExternalIdImportResult;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifierInfo;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.studies.Study;
@@ -17,12 +20,16 @@ import org.sagebionetworks.bridge.services.ExternalIdService;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.Lists;
 
+import play.mvc.BodyParser;
+import play.mvc.Http;
 import play.mvc.Result;
 
 @Controller("externalIdController")
 public class ExternalIdController extends BaseController {
     
     private static final TypeReference<List<String>> EXTERNAL_ID_TYPE_REF = new TypeReference<List<String>>() {};
+    
+    private static final int IMPORT_MAX_LENGTH = 100 * 1024 * 1024;
 
     private ExternalIdService externalIdService;
     
@@ -54,6 +61,29 @@ public class ExternalIdController extends BaseController {
         return createdResult("External identifiers added.");
     }
     
+    /**
+     * Bulk import of external IDs from a JSON array or CSV body of any size. Play buffers a large body to disk, so 
+     * it is read from the file as IDs are added.
+     */
+    @BodyParser.Of(value = BodyParser.Raw.class, maxLength = IMPORT_MAX_LENGTH)
+    public Result importExternalIds() throws Exception {
+        UserSession session = getAuthenticatedSession(DEVELOPER);
+        Study study = studyService.getStudy(session.getStudyIdentifier());
+
+        Http.RawBuffer body = request().body().asRaw();
+        if (body == null || body.size() == 0) {
+            throw new BadRequestException("No external IDs provided in request body.");
+        }
+        String contentType = request().getHeader(CONTENT_TYPE);
+        boolean isJson = (contentType != null && contentType.toLowerCase().contains("json"));
+        
+        ExternalIdImportResult result;
+        try (InputStream stream = new FileInputStream(body.asFile())) {
+            result = externalIdService.importExternalIds(study, stream, isJson);
+        }
+        return okResult(result);
+    }
+    
     public Result deleteExternalIds() throws Exception {
         UserSession session = getAuthenticatedSession(DEVELOPER);
         Study study = studyService.getStudy(session.getStudyIdentifier());
@@ -0,0 +1,70 @@
+package org.sagebionetworks.bridge.play.controllers;
+
+import static org.sagebionetworks.bridge.Roles.ADMIN;
+
+import java.util.List;
+
+import javax.annotation.Resource;
+
+import org.sagebionetworks.bridge.models.BulkheadStats;
+import org.sagebionetworks.bridge.util.Bulkhead;
+import org.sagebionetworks.bridge.util.DependencyMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+
+import com.google.common.collect.ImmutableList;
+
+import play.mvc.Result;
+
+@Controller
+public class InstrumentationController extends BaseController {
+
+    private DependencyMetrics dependencyMetrics;
+
+    private Bulkhead stormpathBulkhead;
+
+    private Bulkhead dynamoBulkhead;
+
+    private Bulkhead s3Bulkhead;
+
+    @Autowired
+    final void setDependencyMetrics(DependencyMetrics dependencyMetrics) {
+        this.dependencyMetrics = dependencyMetrics;
+    }
+
+    @Resource(name = "stormpathBulkhead")
+    final void setStormpathBulkhead(Bulkhead stormpathBulkhead) {
+        this.stormpathBulkhead = stormpathBulkhead;
+    }
+
+    @Resource(name = "dynamoBulkhead")
+    final void setDynamoBulkhead(Bulkhead dynamoBulkhead) {
+        this.dynamoBulkhead = dynamoBulkhead;
+    }
+
+    @Resource(name = "s3Bulkhead")
+    final void setS3Bulkhead(Bulkhead s3Bulkhead) {
+        this.s3Bulkhead = s3Bulkhead;
+    }
+
+    /**
+     * Latency histograms, errors, throttles and retries of the calls made to each dependency operation (DynamoDB's
+     * getItem, S3Helper's readS3FileAsBytes and so on) by the server that handles the request.
+     */
+    public Result getDependencyStats() throws Exception {
+        getAuthenticatedSession(ADMIN);
+
+        return okResult(dependencyMetrics.getStats());
+    }
+
+    /**
+     * Use of the threads and queues of the bulkheads on the server that handles the request.
+     */
+    public Result getBulkheadStats() throws Exception {
+        getAuthenticatedSession(ADMIN);
+
+        List<BulkheadStats> stats = ImmutableList.of(stormpathBulkhead.getStats(), dynamoBulkhead.getStats(),
+                s3Bulkhead.getStats());
+        return okResult(stats);
+    }
+}
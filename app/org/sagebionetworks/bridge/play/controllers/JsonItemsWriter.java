@@ -0,0 +1,67 @@
+package org.sagebionetworks.bridge.play.controllers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.function.UnaryOperator;
+
+import org.sagebionetworks.bridge.models.ResourceList;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Writes the items of an iterator as a ResourceList, a number of items at a time, so that a response can be
+ * started once the first items have been written successfully. The total is only known once the last item has
+ * been written, so it follows the items in the JSON.
+ */
+class JsonItemsWriter<T> {
+
+    private final ObjectWriter itemWriter;
+    private final Iterator<T> iterator;
+    private final JsonGenerator generator;
+    private int total;
+
+    JsonItemsWriter(ObjectWriter writer, Iterator<T> iterator, UnaryOperator<JsonGenerator> decorator,
+            OutputStream stream) throws IOException {
+        checkNotNull(writer);
+        checkNotNull(iterator);
+        checkNotNull(stream);
+
+        // Otherwise each item is flushed, and sent, as a separate chunk
+        this.itemWriter = writer.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.iterator = iterator;
+        JsonGenerator generator = writer.getFactory().createGenerator(stream, JsonEncoding.UTF8);
+        this.generator = (decorator == null) ? generator : decorator.apply(generator);
+        this.generator.writeStartObject();
+        this.generator.writeArrayFieldStart("items");
+    }
+
+    /**
+     * Writes up to maxItems more items. If there are no more items after these, the list is ended and the generator
+     * closed, and true is returned. If an item can't be written the generator is left open, so whatever has been
+     * written is not flushed to the stream.
+     */
+    boolean write(int maxItems) throws IOException {
+        checkArgument(maxItems >= 0);
+
+        for (int i = 0; i < maxItems && iterator.hasNext(); i++) {
+            itemWriter.writeValue(generator, iterator.next());
+            total++;
+        }
+        if (iterator.hasNext()) {
+            return false;
+        }
+        generator.writeEndArray();
+        generator.writeNumberField("total", total);
+        generator.writeStringField("type", ResourceList.class.getSimpleName());
+        generator.writeEndObject();
+        generator.close();
+        return true;
+    }
+}
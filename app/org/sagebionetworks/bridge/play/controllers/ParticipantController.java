@@ -4,6 +4,7 @@ import static org.sagebionetworks.bridge.Roles.RESEARCHER;
 import static org.sagebionetworks.bridge.BridgeConstants.NO_CALLER_ROLES;
 import static org.sagebionetworks.bridge.BridgeUtils.getIntOrDefault;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -186,6 +187,15 @@ public class ParticipantController extends BaseController {
         return ok(ScheduledActivity.RESEARCHER_SCHEDULED_ACTIVITY_WRITER.writeValueAsString(history));
     }
     
+    public Result exportActivityHistory(String userId) throws Exception {
+        UserSession session = getAuthenticatedSession(RESEARCHER);
+        Study study = studyService.getStudy(session.getStudyIdentifier());
+        
+        Iterator<? extends ScheduledActivity> history = participantService.getActivityHistoryIterator(study, userId);
+        
+        return okStreamedResult(ScheduledActivity.RESEARCHER_SCHEDULED_ACTIVITY_WRITER, history);
+    }
+    
     public Result deleteActivities(String userId) throws Exception {
         UserSession session = getAuthenticatedSession(RESEARCHER);
         Study study = studyService.getStudy(session.getStudyIdentifier());
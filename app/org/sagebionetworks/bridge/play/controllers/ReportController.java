@@ -6,6 +6,9 @@ import static org.sagebionetworks.bridge.Roles.RESEARCHER;
 import static org.sagebionetworks.bridge.Roles.WORKER;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
+import java.io.FileInputStream;
+import java.io.InputStream;
+
 import org.joda.time.LocalDate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -19,6 +22,7 @@ import org.sagebionetworks.bridge.models.ReportTypeResourceList;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.reports.ReportData;
+import org.sagebionetworks.bridge.models.reports.ReportDataImportResult;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
 import org.sagebionetworks.bridge.models.reports.ReportIndex;
 import org.sagebionetworks.bridge.models.reports.ReportType;
@@ -29,6 +33,8 @@ import org.sagebionetworks.bridge.services.ReportService;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import play.mvc.BodyParser;
+import play.mvc.Http;
 import play.mvc.Result;
 
 /**
@@ -50,6 +56,10 @@ import play.mvc.Result;
 @Controller
 public class ReportController extends BaseController {
     
+    private static final int IMPORT_MAX_LENGTH = 1024 * 1024 * 1024;
+    
+    static final String PUBLIC_REPORT_CACHE_CONTROL = "public, max-age=300";
+    
     @Autowired
     ReportService reportService;
     
@@ -150,6 +160,27 @@ public class ReportController extends BaseController {
         return createdResult("Report data saved.");
     }
     
+    /**
+     * Bulk import of participant report data by worker processes, as a JSON array or NDJSON body of any size. Each 
+     * row includes the healthCode and report identifier of the record. Play buffers a large body to disk, so it is 
+     * read from the file as records are saved.
+     */
+    @BodyParser.Of(value = BodyParser.Raw.class, maxLength = IMPORT_MAX_LENGTH)
+    public Result importParticipantReportsForWorker() throws Exception {
+        UserSession session = getAuthenticatedSession(WORKER);
+        
+        Http.RawBuffer body = request().body().asRaw();
+        if (body == null || body.size() == 0) {
+            throw new BadRequestException("No report data provided in request body.");
+        }
+        
+        ReportDataImportResult result;
+        try (InputStream stream = new FileInputStream(body.asFile())) {
+            result = reportService.importParticipantReports(session.getStudyIdentifier(), stream);
+        }
+        return okResult(result);
+    }
+    
     /**
      * Developers and workers can delete participant report data (though worker accounts are unlikely 
      * to know the user ID for records). This deletes all reports for all users. This is not 
@@ -206,7 +237,10 @@ public class ReportController extends BaseController {
     }
     
     /**
-     * Get a study report *if* it is marked public, as this call does not require the user to be authenticated.
+     * Get a study report *if* it is marked public, as this call does not require the user to be authenticated. The 
+     * response carries an ETag so clients and proxies can revalidate it, and can be cached by shared caches for a 
+     * short time, since reports may still be written to. The ETag comes from the report's version, so a client whose 
+     * copy is current gets a 304 without the records being queried.
      */
     public Result getPublicStudyReport(String studyIdString, String identifier, String startDateString,
             String endDateString) {
@@ -217,10 +251,14 @@ public class ReportController extends BaseController {
         LocalDate startDate = parseDateHelper(startDateString);
         LocalDate endDate = parseDateHelper(endDateString);
         
-        DateRangeResourceList<? extends ReportData> results = reportService.getStudyReport(
-                studyId, identifier, startDate, endDate);
+        // Read the version before the records, so the records are never older than the version they are tagged with
+        String etag = getETag(reportService.getStudyReportVersion(studyId, identifier, startDate, endDate));
         
-        return okResult(results);
+        return conditionalResult(etag, PUBLIC_REPORT_CACHE_CONTROL, () -> {
+            DateRangeResourceList<? extends ReportData> results = reportService.getStudyReport(
+                    studyId, identifier, startDate, endDate);
+            return writeJson(MAPPER.writer(), results, null);
+        });
     }
     
     /**
@@ -4,6 +4,9 @@ import static org.sagebionetworks.bridge.BridgeUtils.getIntOrDefault;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.UnaryOperator;
+
+import javax.annotation.Resource;
 
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
@@ -12,69 +15,78 @@ import org.joda.time.DateTimeZone;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.json.DateUtils;
 import org.sagebionetworks.bridge.models.RequestInfo;
-import org.sagebionetworks.bridge.models.ResourceList;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.schedules.ScheduleContext;
 import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
 import org.sagebionetworks.bridge.services.ScheduledActivityService;
+import org.sagebionetworks.bridge.util.Bulkhead;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import play.libs.F.Promise;
 import play.mvc.Result;
 
 @Controller
 public class ScheduledActivityController extends BaseController {
     
     private static final TypeReference<ArrayList<ScheduledActivity>> scheduledActivityTypeRef = new TypeReference<ArrayList<ScheduledActivity>>() {};
+    
+    // The deprecated tasks API publishes scheduled activities with a type of "Task".
+    private static final UnaryOperator<JsonGenerator> TASK_TYPE_RENAMER = 
+            generator -> new TypeRenamingJsonGenerator(generator, "ScheduledActivity", "Task");
 
     private ScheduledActivityService scheduledActivityService;
+    
+    private Bulkhead dynamoBulkhead;
 
     @Autowired
     public void setScheduledActivityService(ScheduledActivityService scheduledActivityService) {
         this.scheduledActivityService = scheduledActivityService;
     }
     
+    @Resource(name = "dynamoBulkhead")
+    public void setDynamoBulkhead(Bulkhead dynamoBulkhead) {
+        this.dynamoBulkhead = dynamoBulkhead;
+    }
+    
     // This annotation adds a deprecation header to the REST API method.
     @Deprecated
-    public Result getTasks(String untilString, String offset, String daysAhead) throws Exception {
-        List<ScheduledActivity> scheduledActivities = getScheduledActivitiesInternal(untilString, offset, daysAhead, null);
-        
-        return okResultAsTasks(scheduledActivities);
+    public Promise<Result> getTasks(String untilString, String offset, String daysAhead) throws Exception {
+        return async(dynamoBulkhead, () -> {
+            List<ScheduledActivity> scheduledActivities = getScheduledActivitiesInternal(untilString, offset,
+                    daysAhead, null);
+            
+            return okResultAsTasks(scheduledActivities);
+        });
     }
 
-    public Result getScheduledActivities(String untilString, String offset, String daysAhead, String minimumPerScheduleString)
-            throws Exception {
-        List<ScheduledActivity> scheduledActivities = getScheduledActivitiesInternal(untilString, offset, daysAhead, minimumPerScheduleString);
-        
-        return ok(ScheduledActivity.SCHEDULED_ACTIVITY_WRITER
-                .writeValueAsString(new ResourceList<ScheduledActivity>(scheduledActivities)));
+    public Promise<Result> getScheduledActivities(String untilString, String offset, String daysAhead,
+            String minimumPerScheduleString) throws Exception {
+        return async(dynamoBulkhead, () -> {
+            List<ScheduledActivity> scheduledActivities = getScheduledActivitiesInternal(untilString, offset,
+                    daysAhead, minimumPerScheduleString);
+            
+            return okResult(ScheduledActivity.SCHEDULED_ACTIVITY_WRITER, scheduledActivities);
+        });
     }
 
-    public Result updateScheduledActivities() throws Exception {
-        UserSession session = getAuthenticatedAndConsentedSession();
+    public Promise<Result> updateScheduledActivities() throws Exception {
+        return async(dynamoBulkhead, () -> {
+            UserSession session = getAuthenticatedAndConsentedSession();
 
-        List<ScheduledActivity> scheduledActivities = MAPPER.convertValue(requestToJSON(request()),
-                scheduledActivityTypeRef);
-        scheduledActivityService.updateScheduledActivities(session.getHealthCode(), scheduledActivities);
+            List<ScheduledActivity> scheduledActivities = MAPPER.convertValue(requestToJSON(request()),
+                    scheduledActivityTypeRef);
+            scheduledActivityService.updateScheduledActivities(session.getHealthCode(), scheduledActivities);
 
-        return okResult("Activities updated.");
+            return okResult("Activities updated.");
+        });
     }
 
     <T> Result okResultAsTasks(List<T> list) {
-        JsonNode node = MAPPER.valueToTree(new ResourceList<T>(list));
-        ArrayNode items = (ArrayNode)node.get("items");
-        for (int i=0; i < items.size(); i++) {
-            ObjectNode object = (ObjectNode)items.get(i);
-            object.put("type", "Task");
-            object.remove("healthCode");
-            object.remove("schedulePlanGuid");
-        }
-        return ok(node);
+        return okResult(ScheduledActivity.SCHEDULED_ACTIVITY_WRITER, list, TASK_TYPE_RENAMER);
     }
     
     private List<ScheduledActivity> getScheduledActivitiesInternal(String untilString, String offset, String daysAhead,
@@ -107,7 +119,7 @@ public class ScheduledActivityController extends BaseController {
                 .withStudyIdentifier(context.getCriteriaContext().getStudyIdentifier()).build();
         cacheProvider.updateRequestInfo(requestInfo);
         
-        return scheduledActivityService.getScheduledActivities(context);
+        return scheduledActivityService.getScheduledActivities(context, getMetrics());
     }
     
     private void addEndsOnWithZone(ScheduleContext.Builder builder, String untilString, String offset, String daysAhead) {
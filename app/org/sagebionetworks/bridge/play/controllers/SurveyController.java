@@ -1,12 +1,12 @@
 package org.sagebionetworks.bridge.play.controllers;
 
-import static org.sagebionetworks.bridge.BridgeConstants.JSON_MIME_TYPE;
 import static org.sagebionetworks.bridge.Roles.ADMIN;
 import static org.sagebionetworks.bridge.Roles.DEVELOPER;
 import static org.sagebionetworks.bridge.Roles.WORKER;
 
 import java.util.List;
 
+import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.cache.ViewCache;
 import org.sagebionetworks.bridge.cache.ViewCache.ViewCacheKey;
@@ -33,6 +33,19 @@ public class SurveyController extends BaseController {
 
     public static final String MOSTRECENT_KEY = "mostrecent";
     public static final String PUBLISHED_KEY = "published";
+    /**
+     * Survey responses are per-user and the most recent and published versions change, so clients may keep them but 
+     * must revalidate them with their ETag, which is cheap since the view is cached.
+     */
+    static final String SURVEY_CACHE_CONTROL = "private, no-cache";
+    
+    private static final String GZIP_ENCODING = "gzip";
+    
+    /**
+     * Cached surveys are reloaded in the background after this long, so a survey read by many users is never 
+     * missing from the cache when it expires.
+     */
+    static final int SURVEY_VIEW_REFRESH_AFTER_SECONDS = BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS - 60 * 60;
 
     private SurveyService surveyService;
     
@@ -131,13 +144,11 @@ public class SurveyController extends BaseController {
         UserSession session = getAuthenticatedSession(DEVELOPER);
         StudyIdentifier studyId = session.getStudyIdentifier();
         
-        ViewCacheKey<Survey> cacheKey = viewCache.getCacheKey(Survey.class, surveyGuid, MOSTRECENT_KEY, studyId.getIdentifier());
+        ViewCacheKey<Survey> cacheKey = getCacheKey(surveyGuid, MOSTRECENT_KEY, studyId);
         
-        String json = getView(cacheKey, session, () -> {
+        return getViewResult(cacheKey, session, () -> {
             return surveyService.getSurveyMostRecentVersion(studyId, surveyGuid);
         });
-
-        return ok(json).as(JSON_MIME_TYPE);
     }
     
     public Result getSurveyMostRecentlyPublishedVersion(String surveyGuid) throws Exception {
@@ -169,7 +180,7 @@ public class SurveyController extends BaseController {
             // An admin calling for a logical delete. That wasn't allowed before so we don't allow it now.
             throw new UnauthorizedException();
         }
-        expireCache(surveyGuid, createdOnString, studyId);
+        expireCache(surveyGuid, studyId);
         return okResult("Survey deleted.");
     }
     
@@ -201,7 +212,7 @@ public class SurveyController extends BaseController {
         Survey survey = getSurveyWithoutCacheInternal(surveyGuid, createdOnString, session);
 
         survey = surveyService.versionSurvey(survey);
-        expireCache(surveyGuid, createdOnString, studyId);
+        expireCache(surveyGuid, studyId);
         
         return createdResult(new GuidCreatedOnVersionHolderImpl(survey));
     }
@@ -221,7 +232,7 @@ public class SurveyController extends BaseController {
         survey.setStudyIdentifier(studyId.getIdentifier());
         
         survey = surveyService.updateSurvey(survey);
-        expireCache(surveyGuid, createdOnString, studyId);
+        expireCache(surveyGuid, studyId);
         
         return okResult(new GuidCreatedOnVersionHolderImpl(survey));
     }
@@ -234,7 +245,7 @@ public class SurveyController extends BaseController {
         Survey survey = getSurveyWithoutCacheInternal(surveyGuid, createdOnString, session);
 
         survey = surveyService.publishSurvey(studyId, survey, Boolean.parseBoolean(newSchemaRev));
-        expireCache(surveyGuid, createdOnString, studyId);
+        expireCache(surveyGuid, studyId);
         
         return okResult(new GuidCreatedOnVersionHolderImpl(survey));
     }
@@ -252,33 +263,37 @@ public class SurveyController extends BaseController {
         long createdOn = DateUtils.convertToMillisFromEpoch(createdOnString);
         GuidCreatedOnVersionHolder keys = new GuidCreatedOnVersionHolderImpl(surveyGuid, createdOn);
 
-        ViewCacheKey<Survey> cacheKey = viewCache.getCacheKey(Survey.class, surveyGuid, createdOnString,
-                session.getStudyIdentifier().getIdentifier());
+        ViewCacheKey<Survey> cacheKey = getCacheKey(surveyGuid, createdOnString, session.getStudyIdentifier());
         
-        String json = getView(cacheKey, session, () -> {
+        return getViewResult(cacheKey, session, () -> {
             return surveyService.getSurvey(keys);
         });
-
-        return ok(json).as(JSON_MIME_TYPE);
     }
     
     private Result getCachedSurveyMostRecentlyPublishedInternal(String surveyGuid, UserSession session) {
-        ViewCacheKey<Survey> cacheKey = viewCache.getCacheKey(Survey.class, surveyGuid, PUBLISHED_KEY,
-                session.getStudyIdentifier().getIdentifier());
+        ViewCacheKey<Survey> cacheKey = getCacheKey(surveyGuid, PUBLISHED_KEY, session.getStudyIdentifier());
         
-        String json = getView(cacheKey, session, () -> {
+        return getViewResult(cacheKey, session, () -> {
             return surveyService.getSurveyMostRecentlyPublishedVersion(session.getStudyIdentifier(), surveyGuid);
         });
-        
-        return ok(json).as(JSON_MIME_TYPE);
     }
     
-    private String getView(ViewCacheKey<Survey> cacheKey, UserSession session, Supplier<Survey> supplier) {
-        return viewCache.getView(cacheKey, () -> {
+    /**
+     * Surveys are cached compressed, and sent as they are to clients that accept gzip, so they aren't compressed 
+     * again on every response. The gzip filter leaves a response alone once it has a Content-Encoding.
+     */
+    private Result getViewResult(ViewCacheKey<Survey> cacheKey, UserSession session, Supplier<Survey> supplier) {
+        byte[] compressedJson = viewCache.getCompressedView(cacheKey, () -> {
             Survey survey = supplier.get();
             verifySurveyIsInStudy(session, survey);
             return survey;
         });
+        response().setHeader(VARY, ACCEPT_ENCODING);
+        if (acceptsEncoding(request().getHeader(ACCEPT_ENCODING), GZIP_ENCODING)) {
+            response().setHeader(CONTENT_ENCODING, GZIP_ENCODING);
+            return conditionalResult(compressedJson, SURVEY_CACHE_CONTROL);
+        }
+        return conditionalResult(ViewCache.decompress(compressedJson), SURVEY_CACHE_CONTROL);
     }
     
     private void verifySurveyIsInStudy(UserSession session,List<Survey> surveys) {
@@ -299,12 +314,23 @@ public class SurveyController extends BaseController {
         }
     }
     
-    private void expireCache(String surveyGuid, String createdOnString, StudyIdentifier studyId) {
+    /**
+     * All the cached views of a survey (each version, and the most recent and published versions) are in one group, 
+     * so they can be expired together.
+     */
+    private ViewCacheKey<Survey> getCacheKey(String surveyGuid, String view, StudyIdentifier studyId) {
+        return viewCache.getGroupCacheKey(Survey.class, getCacheGroup(surveyGuid, studyId), view)
+                .withRefreshAfter(SURVEY_VIEW_REFRESH_AFTER_SECONDS);
+    }
+    
+    private static String getCacheGroup(String surveyGuid, StudyIdentifier studyId) {
+        return surveyGuid + ":" + studyId.getIdentifier();
+    }
+    
+    private void expireCache(String surveyGuid, StudyIdentifier studyId) {
         // Don't screw around trying to figure out if *this* survey instance is the same survey
         // as the most recent or published version, expire all versions in the cache
-        viewCache.removeView(viewCache.getCacheKey(Survey.class, surveyGuid, createdOnString, studyId.getIdentifier()));
-        viewCache.removeView(viewCache.getCacheKey(Survey.class, surveyGuid, PUBLISHED_KEY, studyId.getIdentifier()));
-        viewCache.removeView(viewCache.getCacheKey(Survey.class, surveyGuid, MOSTRECENT_KEY, studyId.getIdentifier()));
+        viewCache.removeViewGroup(Survey.class, getCacheGroup(surveyGuid, studyId));
     }
     
 }
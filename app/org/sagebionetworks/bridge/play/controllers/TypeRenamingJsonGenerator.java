@@ -0,0 +1,35 @@
+package org.sagebionetworks.bridge.play.controllers;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+
+/**
+ * The "type" property is added by BridgeObjectMapper's serializer rather than being a property of the bean, so it
+ * cannot be changed with a filter or a mixin. This generator rewrites the value as it is written, so that entities
+ * can be published under a legacy type name (e.g. ScheduledActivity as "Task") without building a tree to patch.
+ */
+class TypeRenamingJsonGenerator extends JsonGeneratorDelegate {
+
+    private static final String TYPE_FIELD = "type";
+
+    private final String fromTypeName;
+    private final String toTypeName;
+
+    TypeRenamingJsonGenerator(JsonGenerator delegate, String fromTypeName, String toTypeName) {
+        super(delegate, false);
+        this.fromTypeName = checkNotNull(fromTypeName);
+        this.toTypeName = checkNotNull(toTypeName);
+    }
+
+    @Override
+    public void writeStringField(String fieldName, String value) throws IOException {
+        if (TYPE_FIELD.equals(fieldName) && fromTypeName.equals(value)) {
+            value = toTypeName;
+        }
+        super.writeStringField(fieldName, value);
+    }
+}
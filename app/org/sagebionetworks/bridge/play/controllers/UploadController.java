@@ -1,5 +1,7 @@
 package org.sagebionetworks.bridge.play.controllers;
 
+import javax.annotation.Resource;
+
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.dao.HealthCodeDao;
 import org.sagebionetworks.bridge.exceptions.UnauthorizedException;
@@ -13,11 +15,13 @@ import org.sagebionetworks.bridge.models.upload.UploadRequest;
 import org.sagebionetworks.bridge.models.upload.UploadSession;
 import org.sagebionetworks.bridge.models.upload.UploadValidationStatus;
 import org.sagebionetworks.bridge.services.UploadService;
+import org.sagebionetworks.bridge.util.Bulkhead;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 
+import play.libs.F.Promise;
 import play.mvc.BodyParser;
 import play.mvc.Result;
 
@@ -27,6 +31,10 @@ public class UploadController extends BaseController {
     private UploadService uploadService;
     
     private HealthCodeDao healthCodeDao;
+    
+    private Bulkhead dynamoBulkhead;
+    
+    private Bulkhead s3Bulkhead;
 
     @Autowired
     final void setUploadService(UploadService uploadService) {
@@ -37,71 +45,89 @@ public class UploadController extends BaseController {
     final void setHealthCodeDao(HealthCodeDao healthCodeDao) {
         this.healthCodeDao = healthCodeDao;
     }
+    
+    @Resource(name = "dynamoBulkhead")
+    final void setDynamoBulkhead(Bulkhead dynamoBulkhead) {
+        this.dynamoBulkhead = dynamoBulkhead;
+    }
+    
+    @Resource(name = "s3Bulkhead")
+    final void setS3Bulkhead(Bulkhead s3Bulkhead) {
+        this.s3Bulkhead = s3Bulkhead;
+    }
 
     /** Gets validation status and messages for the given upload ID. */
-    public Result getValidationStatus(String uploadId) throws JsonProcessingException {
-        UserSession session = getSessionEitherConsentedOrInRole(Roles.RESEARCHER);
-        
-        // If not a researcher, validate that this user owns the upload
-        if (!session.isInRole(Roles.RESEARCHER)) {
-            Upload upload = uploadService.getUpload(uploadId);
-            if (!session.getHealthCode().equals(upload.getHealthCode())) {
-                throw new UnauthorizedException();
+    public Promise<Result> getValidationStatus(String uploadId) throws JsonProcessingException {
+        return async(dynamoBulkhead, () -> {
+            UserSession session = getSessionEitherConsentedOrInRole(Roles.RESEARCHER);
+            
+            // If not a researcher, validate that this user owns the upload
+            if (!session.isInRole(Roles.RESEARCHER)) {
+                Upload upload = uploadService.getUpload(uploadId);
+                if (!session.getHealthCode().equals(upload.getHealthCode())) {
+                    throw new UnauthorizedException();
+                }
             }
-        }
-        
-        UploadValidationStatus validationStatus = uploadService.getUploadValidationStatus(uploadId);
-        
-        // Upload validation status may contain the health data record. Use the filter to filter out health code.
-        return ok(HealthDataRecord.PUBLIC_RECORD_WRITER.writeValueAsString(validationStatus));
+            
+            UploadValidationStatus validationStatus = uploadService.getUploadValidationStatus(uploadId);
+            
+            // Upload validation status may contain the health data record. Use the filter to filter out health code.
+            return ok(HealthDataRecord.PUBLIC_RECORD_WRITER.writeValueAsString(validationStatus));
+        });
     }
     
-    public Result upload() throws Exception {
-        UserSession session = getAuthenticatedAndConsentedSession();
-        UploadRequest uploadRequest = UploadRequest.fromJson(requestToJSON(request()));
-        UploadSession uploadSession = uploadService.createUpload(session.getStudyIdentifier(), session.getParticipant(),
-                uploadRequest);
-        final Metrics metrics = getMetrics();
-        if (metrics != null) {
-            metrics.setUploadSize(uploadRequest.getContentLength());
-            metrics.setUploadId(uploadSession.getId());
-        }
-        return okResult(uploadSession);
+    public Promise<Result> upload() throws Exception {
+        return async(dynamoBulkhead, () -> {
+            UserSession session = getAuthenticatedAndConsentedSession();
+            UploadRequest uploadRequest = UploadRequest.fromJson(requestToJSON(request()));
+            UploadSession uploadSession = uploadService.createUpload(session.getStudyIdentifier(),
+                    session.getParticipant(), uploadRequest);
+            final Metrics metrics = getMetrics();
+            if (metrics != null) {
+                metrics.setUploadSize(uploadRequest.getContentLength());
+                metrics.setUploadId(uploadSession.getId());
+            }
+            return okResult(uploadSession);
+        });
     }
 
     /**
      * Signals to the Bridge server that the upload is complete. This kicks off the asynchronous validation process
-     * through the Upload Validation Service.
+     * through the Upload Validation Service. This waits on S3 (to check the uploaded file), so it runs on the S3 
+     * bulkhead.
      */
     @BodyParser.Of(BodyParser.Empty.class)
-    public Result uploadComplete(String uploadId) throws Exception {
+    public Promise<Result> uploadComplete(String uploadId) throws Exception {
         final Metrics metrics = getMetrics();
         if (metrics != null) {
             metrics.setUploadId(uploadId);
         }
 
-        // User can be a worker account (get study and health code from the upload itself)...
-        UserSession session = getAuthenticatedSession();
-        if (session.isInRole(Roles.WORKER)) {
+        return async(s3Bulkhead, () -> {
+            // User can be a worker account (get study and health code from the upload itself)...
+            UserSession session = getAuthenticatedSession();
+            if (session.isInRole(Roles.WORKER)) {
+                
+                Upload upload = uploadService.getUpload(uploadId);
+                String studyId = healthCodeDao.getStudyIdentifier(upload.getHealthCode());
+                uploadService.uploadComplete(new StudyIdentifierImpl(studyId), UploadCompletionClient.S3_WORKER,
+                        upload);
+                
+                return okResult("Upload " + uploadId + " complete!");
+            }
             
-            Upload upload = uploadService.getUpload(uploadId);
-            String studyId = healthCodeDao.getStudyIdentifier(upload.getHealthCode());
-            uploadService.uploadComplete(new StudyIdentifierImpl(studyId), UploadCompletionClient.S3_WORKER, upload);
+            // Or, the consented user that originally made the upload request. Check that health codes match.
+            // Do not need to look up the study.
+            session = getAuthenticatedAndConsentedSession();
             
-            return okResult("Upload " + uploadId + " complete!");
-        }
-        
-        // Or, the consented user that originally made the upload request. Check that health codes match.
-        // Do not need to look up the study.
-        session = getAuthenticatedAndConsentedSession();
-        
-        Upload upload = uploadService.getUpload(uploadId);
-        if (!session.getHealthCode().equals(upload.getHealthCode())) {
-            throw new UnauthorizedException();
-        }
-        uploadService.uploadComplete(session.getStudyIdentifier(), UploadCompletionClient.APP, upload);
+            Upload upload = uploadService.getUpload(uploadId);
+            if (!session.getHealthCode().equals(upload.getHealthCode())) {
+                throw new UnauthorizedException();
+            }
+            uploadService.uploadComplete(session.getStudyIdentifier(), UploadCompletionClient.APP, upload);
 
-        return okResult("Upload " + uploadId + " complete!");
+            return okResult("Upload " + uploadId + " complete!");
+        });
     }
 
 }
@@ -49,4 +49,13 @@ public class UserManagementController extends BaseController {
         
         return okResult("User deleted.");
     }
+
+    public Result deleteAllTestUsers() throws Exception {
+        UserSession session = getAuthenticatedSession(ADMIN);
+        Study study = studyService.getStudy(session.getStudyIdentifier());
+        
+        userAdminService.deleteAllTestUsers(study);
+        
+        return acceptedResult("Deletion of test users has started.");
+    }
 }
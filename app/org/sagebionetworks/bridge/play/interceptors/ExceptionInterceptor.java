@@ -15,6 +15,7 @@ import org.springframework.stereotype.Component;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 
+import play.libs.F.Promise;
 import play.libs.Json;
 import play.mvc.Http;
 import play.mvc.Http.Request;
@@ -27,17 +28,30 @@ public class ExceptionInterceptor implements MethodInterceptor {
     private final Logger logger = LoggerFactory.getLogger(ExceptionInterceptor.class);
     
     @Override
+    @SuppressWarnings("unchecked")
     public Object invoke(MethodInvocation method) throws Throwable {
+        final Request request = Http.Context.current().request();
         try {
-            return method.proceed();
+            Object result = method.proceed();
+            // Asynchronous actions fail by completing their promise with the exception
+            if (result instanceof Promise) {
+                return ((Promise<Result>)result).recover(throwable -> {
+                    logException(request, throwable);
+                    return getResult(throwable);
+                });
+            }
+            return result;
         } catch(Throwable throwable) {
-            logException(throwable);
-            return getResult(throwable);
+            logException(request, throwable);
+            Result result = getResult(throwable);
+            if (Promise.class.isAssignableFrom(method.getMethod().getReturnType())) {
+                return Promise.pure(result);
+            }
+            return result;
         }
     }
 
-    private void logException(final Throwable throwable) {
-        final Request request = Http.Context.current().request();
+    private void logException(final Request request, final Throwable throwable) {
         final String requestId = RequestUtils.getRequestId(request);
         final String msg = "request: " + requestId + " " + throwable.getMessage();
         if (throwable.getClass().isAnnotationPresent(NoStackTraceException.class)) {
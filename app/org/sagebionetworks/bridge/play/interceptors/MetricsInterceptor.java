@@ -7,11 +7,13 @@ import static org.sagebionetworks.bridge.BridgeConstants.X_FORWARDED_FOR_HEADER;
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 import org.sagebionetworks.bridge.models.Metrics;
+import org.sagebionetworks.bridge.util.DependencyMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import play.cache.Cache;
+import play.libs.F.Promise;
 import play.mvc.Http;
 import play.mvc.Http.Request;
 import play.mvc.Result;
@@ -22,18 +24,39 @@ public class MetricsInterceptor implements MethodInterceptor {
     private static final Logger logger = LoggerFactory.getLogger(MetricsInterceptor.class);
 
     @Override
+    @SuppressWarnings("unchecked")
     public Object invoke(MethodInvocation method) throws Throwable {
         final Metrics metrics = initMetrics();
         Cache.set(metrics.getCacheKey(), metrics, METRICS_EXPIRE_SECONDS);
+        // Calls to dependencies find the request's metrics here, rather than looking them up in the cache
+        Http.Context.current().args.put(DependencyMetrics.REQUEST_METRICS_ARG, metrics);
+        final Object result;
         try {
-            final Result result = (Result)method.proceed();
-            metrics.setStatus(result.toScala().header().status());
-            return result;
-        } finally {
-            Cache.remove(metrics.getCacheKey());
-            metrics.end();
-            logger.info(metrics.toJsonString());
+            result = method.proceed();
+        } catch(Throwable throwable) {
+            endMetrics(metrics);
+            throw throwable;
         }
+        // Asynchronous actions are measured until their promise completes, not until they return it
+        if (result instanceof Promise) {
+            return ((Promise<Result>)result).transform(asyncResult -> {
+                metrics.setStatus(asyncResult.toScala().header().status());
+                endMetrics(metrics);
+                return asyncResult;
+            }, throwable -> {
+                endMetrics(metrics);
+                return throwable;
+            });
+        }
+        metrics.setStatus(((Result)result).toScala().header().status());
+        endMetrics(metrics);
+        return result;
+    }
+
+    private void endMetrics(Metrics metrics) {
+        Cache.remove(metrics.getCacheKey());
+        metrics.end();
+        logger.info(metrics.toJsonString());
     }
 
     Metrics initMetrics() {
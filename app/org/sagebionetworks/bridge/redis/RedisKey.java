@@ -1,5 +1,9 @@
 package org.sagebionetworks.bridge.redis;
 
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
 /**
  * A Redis key concatenates the original key with a list of domains to form a compound key
  * where different parts are separated by ':'.
@@ -48,8 +52,48 @@ public interface RedisKey {
 
     /** A cached JSON response. */
     RedisKey VIEW = new SimpleKey("view");
+    
+    /** Current version of a cached JSON response, or of a group of them. Changed to invalidate the views. */
+    RedisKey VIEW_VERSION = new SimpleKey("view-version");
 
     RedisKey STUDY_EMAIL_STATUS = new SimpleKey("study-email-status");
+
+    /** GUIDs of the (undeleted) subpopulations in a study. */
+    RedisKey SUBPOPULATION_GUIDS = new SimpleKey("subpopulation-guids");
+
+    /** Current version of a study's subpopulation GUIDs. Changed when a subpopulation in the study is changed. */
+    RedisKey SUBPOPULATION_GUIDS_VERSION = new SimpleKey("subpopulation-guids-version");
+
+    /** Current version of an account. Changed whenever the account is updated or deleted on any server. */
+    RedisKey ACCOUNT_VERSION = new SimpleKey("account-version");
+
+    /** Identity of the most recently published version of a survey in a study. */
+    RedisKey PUBLISHED_SURVEY_REFERENCE = new SimpleKey("published-survey-reference");
+    
+    /** Current version of the published survey reference. Changed when a version of the survey is published. */
+    RedisKey PUBLISHED_SURVEY_REFERENCE_VERSION = new SimpleKey("published-survey-reference-version");
+    
+    /** Current version of a study report's records. Changed whenever a record is saved or deleted. */
+    RedisKey STUDY_REPORT_VERSION = new SimpleKey("study-report-version");
+    
+    /** Approximate number of scheduled activities persisted for a user (by health code). */
+    RedisKey ACTIVITY_COUNT = new SimpleKey("activity-count");
+    
+    /** Approximate count of the external IDs in a study (all IDs, or only assigned IDs). */
+    RedisKey EXTERNAL_ID_COUNT = new SimpleKey("external-id-count");
+    
+    /** Progress of a job sending a push notification to a cohort (by study and job GUID). */
+    RedisKey NOTIFICATION_JOB = new SimpleKey("notification-job");
+    
+    /** Stages of deleting a user (by user ID) that have completed, so a failed deletion can be resumed. */
+    RedisKey USER_DELETION = new SimpleKey("user-deletion");
+    
+    /** All key namespaces, used to attribute keys to a namespace when administering the cache. */
+    List<RedisKey> NAMESPACES = ImmutableList.of(LOCK, SESSION, STUDY, HEALTH_CODE, USER, REQUEST_INFO,
+            USER_SESSION, HEALTH_CODE_LOCK, USER_LOCK, NUM_OF_PARTICIPANTS, VIEW, VIEW_VERSION, STUDY_EMAIL_STATUS,
+            SUBPOPULATION_GUIDS, SUBPOPULATION_GUIDS_VERSION, ACCOUNT_VERSION, PUBLISHED_SURVEY_REFERENCE,
+            PUBLISHED_SURVEY_REFERENCE_VERSION, ACTIVITY_COUNT, EXTERNAL_ID_COUNT, STUDY_REPORT_VERSION,
+            NOTIFICATION_JOB, USER_DELETION);
     
     String SEPARATOR = ":";
 
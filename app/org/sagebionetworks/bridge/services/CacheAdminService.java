@@ -1,49 +1,159 @@
 package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.sagebionetworks.bridge.BridgeConstants.API_DEFAULT_PAGE_SIZE;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
+import static org.sagebionetworks.bridge.BridgeConstants.API_MINIMUM_PAGE_SIZE;
 
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
+import javax.annotation.Resource;
+
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.CacheNamespaceStats;
+import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.redis.RedisKey;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 
-import com.google.common.collect.Sets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
+/**
+ * Administration of the Redis cache. The keyspace is only ever walked with SCAN, a batch of keys at a time, so
+ * that listing or clearing the cache does not block Redis (as KEYS does) while the whole keyspace is examined.
+ */
 @Component
 public class CacheAdminService {
 
-    private final String SESSION_SUFFIX = RedisKey.SEPARATOR + RedisKey.SESSION.getSuffix();
-    private final String USER_SESSION_SUFFIX = RedisKey.SEPARATOR + RedisKey.SESSION.getSuffix() + RedisKey.SEPARATOR + RedisKey.USER.getSuffix();
-    private final String REQUEST_INFO_SUFFIX = RedisKey.SEPARATOR + RedisKey.REQUEST_INFO.getSuffix();
-    
+    static final String PAGE_SIZE_ERROR = "pageSize must be from "+API_MINIMUM_PAGE_SIZE+"-"+API_MAXIMUM_PAGE_SIZE+" records";
+    static final String OTHER_NAMESPACE = "other";
+    /** The number of keys sampled in each namespace to estimate the memory used by the namespace. */
+    static final int STATS_SAMPLE_SIZE = 20;
+    /** A hint to Redis of the number of keys to examine with each SCAN when walking the whole keyspace. */
+    static final int SCAN_BATCH_SIZE = 500;
+    /** The number of SCANs done to fill a page before returning a partial page (sparse namespaces). */
+    static final int MAX_SCANS_PER_PAGE = 50;
+
+    private static final Set<String> SESSION_NAMESPACES = ImmutableSet.of(RedisKey.SESSION.getSuffix(),
+            RedisKey.USER_SESSION.getSuffix(), RedisKey.REQUEST_INFO.getSuffix());
+
+    // Longest suffixes first, so compound keys (e.g. "session:user") are not attributed to a simple key ("user").
+    private static final List<String> NAMESPACES = RedisKey.NAMESPACES.stream().map(RedisKey::getSuffix)
+            .sorted(Comparator.comparing(String::length).reversed()).collect(Collectors.toList());
+
     private JedisPool jedisPool;
-    
-    @Autowired
+
+    @Resource(name = "instrumentedJedisPool")
     public void setJedisPool(JedisPool jedisPool) {
         this.jedisPool = jedisPool;
     }
 
     /**
-     * Returns all keys in the cache that are not user session keys.
-     * @return
+     * Returns a page of the keys in the cache that are not user session keys, optionally limited to one namespace
+     * (the suffix of a RedisKey, e.g. "view"). The offsetKey of the page is the SCAN cursor to pass in to retrieve
+     * the next page, and is absent on the last page. SCAN cannot report the size of the keyspace, so the total is
+     * the number of keys in this page, which may be slightly more or less than the page size.
+     */
+    public PagedResourceList<String> listItems(String namespace, String offsetKey, Integer pageSize) {
+        if (pageSize == null) {
+            pageSize = API_DEFAULT_PAGE_SIZE;
+        }
+        if (pageSize < API_MINIMUM_PAGE_SIZE || pageSize > API_MAXIMUM_PAGE_SIZE) {
+            throw new BadRequestException(PAGE_SIZE_ERROR);
+        }
+        if (namespace != null) {
+            checkNamespace(namespace);
+        }
+        String cursor = ScanParams.SCAN_POINTER_START;
+        if (offsetKey != null) {
+            if (!offsetKey.matches("\\d+")) {
+                throw new BadRequestException("offsetKey '"+offsetKey+"' is not a valid cache cursor");
+            }
+            cursor = offsetKey;
+        }
+        ScanParams params = new ScanParams().match(matchPattern("*", namespace)).count(pageSize);
+
+        List<String> items = Lists.newArrayList();
+        try (Jedis jedis = jedisPool.getResource()) {
+            int scans = 0;
+            do {
+                ScanResult<String> result = jedis.scan(cursor, params);
+                for (String key : result.getResult()) {
+                    String keyNamespace = getNamespace(key);
+                    if (!SESSION_NAMESPACES.contains(keyNamespace) &&
+                            (namespace == null || namespace.equals(keyNamespace))) {
+                        items.add(key);
+                    }
+                }
+                cursor = result.getStringCursor();
+            } while (items.size() < pageSize && !isLastCursor(cursor) && ++scans < MAX_SCANS_PER_PAGE);
+        }
+        return new PagedResourceList<String>(items, null, pageSize, items.size())
+                .withOffsetKey(isLastCursor(cursor) ? null : cursor)
+                .withFilter("namespace", namespace);
+    }
+
+    /**
+     * Walks the whole keyspace to count the keys in each namespace. Memory use is estimated from the serialized
+     * size (DUMP) of the first STATS_SAMPLE_SIZE keys found in each namespace. Keys that don't belong to a known
+     * namespace are reported under "other".
      */
-    public Set<String> listItems() {
+    public List<CacheNamespaceStats> getNamespaceStats() {
+        Map<String,Long> counts = Maps.newHashMap();
+        Map<String,List<String>> samples = Maps.newHashMap();
+        Map<String,Long> sampleBytes = Maps.newHashMap();
+
+        ScanParams params = new ScanParams().count(SCAN_BATCH_SIZE);
         try (Jedis jedis = jedisPool.getResource()) {
-            Set<String> allKeys = jedis.keys("*");
-            Set<String> set = Sets.newHashSet();
-            for (String key : allKeys) {
-                if (notASessionKey(key)) {
-                    set.add(key);
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> result = jedis.scan(cursor, params);
+                for (String key : result.getResult()) {
+                    String namespace = getNamespace(key);
+                    counts.merge(namespace, 1L, Long::sum);
+                    List<String> sample = samples.computeIfAbsent(namespace, ns -> Lists.newArrayList());
+                    if (sample.size() < STATS_SAMPLE_SIZE) {
+                        sample.add(key);
+                    }
+                }
+                cursor = result.getStringCursor();
+            } while (!isLastCursor(cursor));
+
+            for (Map.Entry<String,List<String>> entry : samples.entrySet()) {
+                long bytes = 0L;
+                for (String key : entry.getValue()) {
+                    byte[] dump = jedis.dump(key);
+                    // The key may have expired since it was scanned.
+                    if (dump != null) {
+                        bytes += key.length() + dump.length;
+                    }
                 }
+                sampleBytes.put(entry.getKey(), bytes);
             }
-            return set;
         }
+        List<CacheNamespaceStats> stats = Lists.newArrayListWithCapacity(counts.size());
+        for (Map.Entry<String,Long> entry : counts.entrySet()) {
+            String namespace = entry.getKey();
+            long count = entry.getValue();
+            int sampleSize = samples.get(namespace).size();
+            long estimate = (sampleBytes.get(namespace) * count) / sampleSize;
+            stats.add(new CacheNamespaceStats(namespace, count, sampleSize, estimate));
+        }
+        stats.sort(Comparator.comparing(CacheNamespaceStats::getNamespace));
+        return stats;
     }
 
     /**
@@ -53,18 +163,79 @@ public class CacheAdminService {
     public void removeItem(String cacheKey) {
         checkArgument(isNotBlank(cacheKey));
         Long removed = null;
-        
+
         if (notASessionKey(cacheKey)) {
             try (Jedis jedis = jedisPool.getResource()) {
                 removed = jedis.del(cacheKey);
             }
         }
         if (removed == null || removed == 0) {
-            throw new BridgeServiceException("Item could not be removed from cache: does key '"+cacheKey+"' exist?"); 
+            throw new BridgeServiceException("Item could not be removed from cache: does key '"+cacheKey+"' exist?");
+        }
+    }
+
+    /**
+     * Delete all the items in a namespace whose original key (the key before the namespace suffix) matches a
+     * glob-style pattern, e.g. removeItems("view", "api:*") removes every cached view of the api study. Keys are
+     * found and deleted a SCAN batch at a time, so a large invalidation does not block Redis. Sessions cannot be
+     * removed. Returns the number of items removed.
+     */
+    public long removeItems(String namespace, String pattern) {
+        if (isBlank(namespace)) {
+            throw new BadRequestException("A namespace is required to remove items from the cache");
+        }
+        if (isBlank(pattern)) {
+            throw new BadRequestException("A key pattern is required to remove items from the cache");
+        }
+        checkNamespace(namespace);
+
+        ScanParams params = new ScanParams().match(matchPattern(pattern, namespace)).count(SCAN_BATCH_SIZE);
+        long removed = 0L;
+        try (Jedis jedis = jedisPool.getResource()) {
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> result = jedis.scan(cursor, params);
+                String[] keys = result.getResult().stream()
+                        .filter(key -> namespace.equals(getNamespace(key))).toArray(String[]::new);
+                if (keys.length > 0) {
+                    removed += jedis.del(keys);
+                }
+                cursor = result.getStringCursor();
+            } while (!isLastCursor(cursor));
+        }
+        return removed;
+    }
+
+    /**
+     * The namespace (RedisKey suffix) of a key, or "other" if the key does not belong to a known namespace.
+     */
+    static String getNamespace(String key) {
+        for (String namespace : NAMESPACES) {
+            if (key.endsWith(RedisKey.SEPARATOR + namespace)) {
+                return namespace;
+            }
+        }
+        return OTHER_NAMESPACE;
+    }
+
+    private void checkNamespace(String namespace) {
+        if (!NAMESPACES.contains(namespace)) {
+            throw new BadRequestException("'"+namespace+"' is not a cache namespace");
         }
+        if (SESSION_NAMESPACES.contains(namespace)) {
+            throw new BadRequestException("Sessions cannot be administered through the cache API");
+        }
+    }
+
+    private String matchPattern(String pattern, String namespace) {
+        return (namespace == null) ? pattern : pattern + RedisKey.SEPARATOR + namespace;
     }
-    
+
+    private boolean isLastCursor(String cursor) {
+        return ScanParams.SCAN_POINTER_START.equals(cursor);
+    }
+
     private boolean notASessionKey(String key) {
-        return !(key.endsWith(SESSION_SUFFIX) || key.endsWith(USER_SESSION_SUFFIX) || key.endsWith(REQUEST_INFO_SUFFIX));
+        return !SESSION_NAMESPACES.contains(getNamespace(key));
     }
 }
@@ -0,0 +1,254 @@
+package org.sagebionetworks.bridge.services;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Resource;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.dao.NotificationRegistrationDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.notifications.CohortNotification;
+import org.sagebionetworks.bridge.models.notifications.NotificationJob;
+import org.sagebionetworks.bridge.models.notifications.NotificationJobStatus;
+import org.sagebionetworks.bridge.models.notifications.NotificationMessage;
+import org.sagebionetworks.bridge.models.notifications.NotificationRegistration;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.redis.RedisKey;
+import org.sagebionetworks.bridge.util.AdaptiveBackoff;
+import org.sagebionetworks.bridge.util.BoundedFanOut;
+import org.sagebionetworks.bridge.validators.CohortNotificationValidator;
+import org.sagebionetworks.bridge.validators.Validate;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Sends a push notification to every registered device of the participants in a cohort. The job runs in the
+ * background: the participants are read from the participant options table and their registrations looked up as
+ * the job goes, so the cohort is never held in memory. Publishes are made on a bounded pool of threads and at no
+ * more than a configured rate, and throttled publishes are retried with a back-off shared by all the publishing
+ * threads. The job's progress is kept in Redis, where it can be read while the job runs and for a week afterwards.
+ */
+@Component
+public class CohortNotificationService {
+    private static final Logger LOG = LoggerFactory.getLogger(CohortNotificationService.class);
+
+    static final String CONFIG_KEY_PUBLISH_RATE = "notification.publish.rate";
+    static final String CONFIG_KEY_PUBLISH_THREAD_COUNT = "notification.publish.thread.count";
+    static final int JOB_EXPIRE_IN_SECONDS = 7*24*60*60;
+    static final int MAX_PUBLISH_ATTEMPTS = 5;
+    static final long MIN_BACKOFF_MILLIS = 100;
+    static final long MAX_BACKOFF_MILLIS = 10000;
+    /** Progress is saved after this many devices, as well as at the end of the job. */
+    static final int SAVE_PROGRESS_INTERVAL = 100;
+    private static final Set<String> THROTTLING_ERROR_CODES = ImmutableSet.of("Throttling", "ThrottlingException",
+            "ThrottledException", "RequestLimitExceeded");
+
+    private ParticipantOptionsService optionsService;
+    private NotificationRegistrationDao registrationDao;
+    private NotificationPublisher publisher;
+    private CacheProvider cacheProvider;
+    private ExecutorService asyncExecutorService;
+    private ExecutorService publishExecutorService;
+    private int publishParallelism;
+    private double publishRate;
+
+    @Autowired
+    final void setParticipantOptionsService(ParticipantOptionsService optionsService) {
+        this.optionsService = optionsService;
+    }
+
+    @Autowired
+    final void setNotificationRegistrationDao(NotificationRegistrationDao registrationDao) {
+        this.registrationDao = registrationDao;
+    }
+
+    @Autowired
+    final void setNotificationPublisher(NotificationPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+
+    /** Runs the job itself, which only reads participants and hands their devices to the publishing threads. */
+    @Resource(name = "asyncExecutorService")
+    final void setAsyncExecutorService(ExecutorService asyncExecutorService) {
+        this.asyncExecutorService = asyncExecutorService;
+    }
+
+    @Resource(name = "notificationPublishExecutorService")
+    final void setPublishExecutorService(ExecutorService publishExecutorService) {
+        this.publishExecutorService = publishExecutorService;
+    }
+
+    /** Gets the number of publishing threads and the rate at which they publish from Config. */
+    @Autowired
+    final void setConfig(Config config) {
+        this.publishParallelism = config.getInt(CONFIG_KEY_PUBLISH_THREAD_COUNT);
+        this.publishRate = config.getInt(CONFIG_KEY_PUBLISH_RATE);
+    }
+
+    /**
+     * Start sending the notification to the cohort. Returns the job immediately; its progress can be followed with
+     * its GUID.
+     */
+    public NotificationJob startJob(Study study, CohortNotification notification) {
+        checkNotNull(study);
+        checkNotNull(notification);
+
+        Validate.entityThrowingException(new CohortNotificationValidator(study.getDataGroups()), notification);
+
+        StudyIdentifier studyId = study.getStudyIdentifier();
+        JobProgress progress = new JobProgress(BridgeUtils.generateGuid(), DateTime.now());
+        NotificationJob job = progress.toJob(NotificationJobStatus.IN_PROCESS, null);
+        saveJob(studyId, job);
+
+        asyncExecutorService.execute(() -> runJob(studyId, notification, progress));
+        return job;
+    }
+
+    public NotificationJob getJob(StudyIdentifier studyId, String guid) {
+        checkNotNull(studyId);
+        checkArgument(isNotBlank(guid));
+
+        String json = cacheProvider.getString(getJobKey(studyId, guid));
+        if (json == null) {
+            throw new EntityNotFoundException(NotificationJob.class);
+        }
+        try {
+            return BridgeObjectMapper.get().readValue(json, NotificationJob.class);
+        } catch(IOException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+
+    void runJob(StudyIdentifier studyId, CohortNotification notification, JobProgress progress) {
+        NotificationMessage message = notification.getMessage();
+        RateLimiter rateLimiter = RateLimiter.create(publishRate);
+        AdaptiveBackoff backoff = new AdaptiveBackoff(MIN_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+        BoundedFanOut fanOut = new BoundedFanOut(publishExecutorService, publishParallelism);
+        try {
+            Iterator<String> healthCodes = optionsService.getHealthCodesInDataGroups(studyId,
+                    notification.getDataGroups());
+            Iterator<NotificationRegistration> registrations = registrationDao.getRegistrations(healthCodes);
+            try {
+                int count = 0;
+                while (registrations.hasNext()) {
+                    String endpointARN = registrations.next().getEndpointARN();
+                    fanOut.submit(() -> publish(endpointARN, message, rateLimiter, backoff, progress));
+                    if (++count % SAVE_PROGRESS_INTERVAL == 0) {
+                        saveJob(studyId, progress.toJob(NotificationJobStatus.IN_PROCESS, null));
+                    }
+                }
+            } finally {
+                // Wait for the publishes still in flight, even if the job has failed
+                fanOut.awaitCompletion();
+            }
+            saveJob(studyId, progress.toJob(NotificationJobStatus.COMPLETED, null));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            saveJob(studyId, progress.toJob(NotificationJobStatus.FAILED, "Notification job was interrupted"));
+        } catch(RuntimeException e) {
+            LOG.error("Notification job " + progress.guid + " for study " + studyId.getIdentifier() + " failed", e);
+            saveJob(studyId, progress.toJob(NotificationJobStatus.FAILED, e.getMessage()));
+        }
+    }
+
+    private void publish(String endpointARN, NotificationMessage message, RateLimiter rateLimiter,
+            AdaptiveBackoff backoff, JobProgress progress) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                backoff.pause();
+                rateLimiter.acquire();
+                publisher.publish(endpointARN, message);
+                backoff.onSuccess();
+                progress.published.incrementAndGet();
+                return;
+            } catch(AmazonClientException e) {
+                if (!isRetryable(e) || attempt == MAX_PUBLISH_ATTEMPTS) {
+                    LOG.warn("Error publishing notification to " + endpointARN + ": " + e.getMessage());
+                    progress.failed.incrementAndGet();
+                    return;
+                }
+                backoff.onThrottled();
+                progress.retried.incrementAndGet();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                progress.failed.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Throttling and server errors are worth retrying, as are errors reaching the service at all. Any other error
+     * (a disabled endpoint, an invalid parameter) will not be fixed by publishing again.
+     */
+    static boolean isRetryable(AmazonClientException e) {
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException ase = (AmazonServiceException)e;
+            return ase.getStatusCode() >= 500 || THROTTLING_ERROR_CODES.contains(ase.getErrorCode());
+        }
+        return true;
+    }
+
+    private void saveJob(StudyIdentifier studyId, NotificationJob job) {
+        try {
+            String json = BridgeObjectMapper.get().writeValueAsString(job);
+            cacheProvider.setString(getJobKey(studyId, job.getGuid()), json, JOB_EXPIRE_IN_SECONDS);
+        } catch(JsonProcessingException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+
+    private String getJobKey(StudyIdentifier studyId, String guid) {
+        return RedisKey.NOTIFICATION_JOB.getRedisKey(studyId.getIdentifier() + ":" + guid);
+    }
+
+    /**
+     * The counts of a running job, updated by the publishing threads.
+     */
+    static final class JobProgress {
+        private final String guid;
+        private final DateTime startedOn;
+        private final AtomicInteger published = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger retried = new AtomicInteger();
+
+        JobProgress(String guid, DateTime startedOn) {
+            this.guid = guid;
+            this.startedOn = startedOn;
+        }
+
+        NotificationJob toJob(NotificationJobStatus status, String errorMessage) {
+            DateTime finishedOn = (status == NotificationJobStatus.IN_PROCESS) ? null : DateTime.now();
+            return new NotificationJob(guid, status, startedOn, finishedOn, published.get(), failed.get(),
+                    retried.get(), errorMessage);
+        }
+    }
+}
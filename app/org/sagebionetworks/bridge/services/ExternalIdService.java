@@ -5,9 +5,17 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.EXTERNAL_IDENTIFIER;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
-
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -15,12 +23,22 @@ import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.dao.ExternalIdDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.accounts.ExternalIdImportResult;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifierInfo;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.validators.ExternalIdsValidator;
 import org.sagebionetworks.bridge.validators.Validate;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+
 /**
  * Service for managing external IDs. These methods can be called whether or not strict validation of IDs is enabled. 
  * If it's enabled, reservation and assignment will work as expected, otherwise these silently do nothing. The identifier 
@@ -29,6 +47,9 @@ import org.sagebionetworks.bridge.validators.Validate;
 @Component
 public class ExternalIdService {
     
+    static final String JSON_IMPORT_ERROR = "External IDs must be imported as a JSON array of strings";
+    private static final Set<String> CSV_HEADERS = ImmutableSet.of("externalid", "identifier");
+    
     private ExternalIdDao externalIdDao;
     
     private ParticipantOptionsService optionsService;
@@ -69,6 +90,84 @@ public class ExternalIdService {
         externalIdDao.addExternalIds(study.getStudyIdentifier(), externalIdentifiers);
     }
     
+    /**
+     * Import any number of external IDs from a request body, adding them as the body is read so it is never held 
+     * in memory. A JSON body is an array of identifiers. A CSV body has an identifier in the first column of each 
+     * line (a header of "externalId" or "identifier" is ignored). Identifiers that are not valid are counted and 
+     * skipped, rather than failing the whole import.
+     */
+    public ExternalIdImportResult importExternalIds(Study study, InputStream body, boolean isJson) throws IOException {
+        checkNotNull(study);
+        checkNotNull(body);
+        
+        Iterator<String> externalIds = (isJson) ?
+                jsonIterator(BridgeObjectMapper.get().getFactory().createParser(body)) :
+                csvIterator(new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8)));
+        
+        AtomicInteger invalid = new AtomicInteger();
+        Iterator<String> validIds = Iterators.filter(externalIds, id -> {
+            if (ExternalIdsValidator.isValidIdentifier(id)) {
+                return true;
+            }
+            invalid.incrementAndGet();
+            return false;
+        });
+        ExternalIdImportResult result = externalIdDao.importExternalIds(study.getStudyIdentifier(), validIds);
+        return new ExternalIdImportResult(result.getInserted(), result.getSkipped(), invalid.get());
+    }
+    
+    static Iterator<String> csvIterator(BufferedReader reader) {
+        return new AbstractIterator<String>() {
+            private boolean firstLine = true;
+            @Override
+            protected String computeNext() {
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String id = StringUtils.strip(line.split(",", 2)[0].trim(), "\"");
+                        boolean isHeader = firstLine && CSV_HEADERS.contains(id.toLowerCase());
+                        firstLine = false;
+                        if (!isHeader && !id.isEmpty()) {
+                            return id;
+                        }
+                    }
+                    return endOfData();
+                } catch(IOException e) {
+                    throw new BridgeServiceException(e);
+                }
+            }
+        };
+    }
+    
+    static Iterator<String> jsonIterator(JsonParser parser) throws IOException {
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new BadRequestException(JSON_IMPORT_ERROR);
+            }
+        } catch(JsonProcessingException e) {
+            throw new BadRequestException(JSON_IMPORT_ERROR);
+        }
+        return new AbstractIterator<String>() {
+            @Override
+            protected String computeNext() {
+                try {
+                    JsonToken token = parser.nextToken();
+                    if (token == JsonToken.END_ARRAY) {
+                        return endOfData();
+                    }
+                    if (token != JsonToken.VALUE_STRING) {
+                        throw new BadRequestException(JSON_IMPORT_ERROR);
+                    }
+                    return parser.getText();
+                } catch(JsonProcessingException e) {
+                    throw new BadRequestException(JSON_IMPORT_ERROR);
+                } catch(IOException e) {
+                    throw new BridgeServiceException(e);
+                }
+            }
+        };
+    }
+    
     public void reserveExternalId(Study study, String externalIdentifier) {
         checkNotNull(study);
         checkArgument(isNotBlank(externalIdentifier));
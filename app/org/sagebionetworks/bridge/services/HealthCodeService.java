@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.services;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.sagebionetworks.bridge.dao.HealthCodeDao;
 import org.sagebionetworks.bridge.dao.HealthIdDao;
@@ -14,11 +15,21 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 @Component
 public class HealthCodeService {
 
     private final Logger logger = LoggerFactory.getLogger(HealthCodeService.class);
 
+    // The healthId -> healthCode mapping never changes once it has been created, so lookups (made every 
+    // time an account is constructed) can be served from memory.
+    private final Cache<String,String> healthCodeCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
     private HealthIdDao healthIdDao;
     private HealthCodeDao healthCodeDao;
 
@@ -35,6 +46,7 @@ public class HealthCodeService {
         checkNotNull(studyIdentifier);
         final String healthCode = generateHealthCode(studyIdentifier.getIdentifier());
         final String healthId = generateHealthId(healthCode);
+        healthCodeCache.put(healthId, healthCode);
         return new HealthIdImpl(healthId, healthCode);
     }
 
@@ -42,9 +54,13 @@ public class HealthCodeService {
         if (healthId == null) {
             return null;
         }
-        final String healthCode = healthIdDao.getCode(healthId);
+        String healthCode = healthCodeCache.getIfPresent(healthId);
         if (healthCode == null) {
-            return null;
+            healthCode = healthIdDao.getCode(healthId);
+            if (healthCode == null) {
+                return null;
+            }
+            healthCodeCache.put(healthId, healthCode);
         }
         return new HealthIdImpl(healthId, healthCode);
     }
@@ -0,0 +1,17 @@
+package org.sagebionetworks.bridge.services;
+
+import org.sagebionetworks.bridge.models.notifications.NotificationMessage;
+
+/**
+ * Publishes a push notification to a single device endpoint. Errors are reported as the AWS SDK reports them 
+ * (AmazonServiceException for errors returned by the service, AmazonClientException for errors reaching it), 
+ * so callers can decide which errors are worth retrying.
+ */
+public interface NotificationPublisher {
+
+    /**
+     * Publish the message to the endpoint, returning the ID assigned to the published message.
+     */
+    String publish(String endpointARN, NotificationMessage message);
+    
+}
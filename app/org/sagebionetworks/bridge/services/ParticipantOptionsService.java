@@ -4,6 +4,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -47,6 +48,17 @@ public class ParticipantOptionsService {
     public AllParticipantOptionsLookup getOptionsForAllParticipants(StudyIdentifier studyIdentifier) {
         return optionsDao.getOptionsForAllParticipants(studyIdentifier);
     }
+    
+    /**
+     * Get the health codes of the participants in a study who are in any of the given data groups, or of all the 
+     * participants in the study if no data groups are given. Health codes are read as the iterator is consumed.
+     */
+    public Iterator<String> getHealthCodesInDataGroups(StudyIdentifier studyIdentifier, Set<String> dataGroups) {
+        checkNotNull(studyIdentifier);
+        checkNotNull(dataGroups);
+        
+        return optionsDao.getHealthCodesInDataGroups(studyIdentifier, dataGroups);
+    }
 
     /**
      * Persist a boolean participant option.
@@ -15,6 +15,7 @@ import static org.sagebionetworks.bridge.Roles.ADMINISTRATIVE_ROLES;
 import static org.sagebionetworks.bridge.Roles.CAN_BE_EDITED_BY;
 
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -246,6 +247,19 @@ public class ParticipantService {
         return activityDao.getActivityHistory(account.getHealthCode(), offsetKey, pageSize);
     }
     
+    /**
+     * Iterate over the user's entire activity history, for export. The history is retrieved from the database as 
+     * the iterator is consumed.
+     */
+    public Iterator<? extends ScheduledActivity> getActivityHistoryIterator(Study study, String userId) {
+        checkNotNull(study);
+        checkArgument(isNotBlank(userId));
+        
+        Account account = getAccountThrowingException(study, userId);
+        
+        return activityDao.getActivityHistoryIterator(account.getHealthCode());
+    }
+    
     public void deleteActivities(Study study, String userId) {
         checkNotNull(study);
         checkArgument(isNotBlank(userId));
@@ -2,8 +2,19 @@ package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Resource;
 
 import org.joda.time.LocalDate;
 import org.joda.time.Period;
@@ -11,19 +22,29 @@ import org.joda.time.PeriodType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.dao.ReportDataDao;
 import org.sagebionetworks.bridge.dao.ReportIndexDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.json.DateUtils;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
 import org.sagebionetworks.bridge.models.reports.ReportData;
+import org.sagebionetworks.bridge.models.reports.ReportDataImportResult;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
 import org.sagebionetworks.bridge.models.reports.ReportIndex;
 import org.sagebionetworks.bridge.models.reports.ReportType;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.redis.RedisKey;
+import org.sagebionetworks.bridge.util.BoundedFanOut;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
@@ -31,6 +52,14 @@ import com.google.common.cache.CacheBuilder;
 public class ReportService {
     private static final int MAX_RANGE_DAYS = 45;
     
+    static final String CONFIG_KEY_IMPORT_PARALLELISM = "report.import.parallelism";
+    /** The most records a single BatchWriteItem request can hold. */
+    static final int IMPORT_BATCH_SIZE = 25;
+    /** Only this many row errors are listed in an import result, though all failed rows are counted. */
+    static final int MAX_IMPORT_ERRORS = 100;
+    /** A study report's version is kept this long after it last changed. */
+    static final int STUDY_REPORT_VERSION_EXPIRE_IN_SECONDS = 30 * 24 * 60 * 60;
+    
     // A short-lived cache to prevent repeatedly writing an index on batch jobs
     private static final Cache<String,String> REPORT_INDEX_CACHE = CacheBuilder.newBuilder()
             .maximumSize(1000)
@@ -39,6 +68,9 @@ public class ReportService {
     
     private ReportDataDao reportDataDao;
     private ReportIndexDao reportIndexDao;
+    private CacheProvider cacheProvider;
+    private ExecutorService importExecutorService;
+    private int importParallelism;
     
     @Autowired
     final void setReportDataDao(ReportDataDao reportDataDao) {
@@ -50,6 +82,22 @@ public class ReportService {
         this.reportIndexDao = reportIndexDao;
     }
     
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+    
+    @Resource(name = "importExecutorService")
+    final void setImportExecutorService(ExecutorService importExecutorService) {
+        this.importExecutorService = importExecutorService;
+    }
+    
+    /** Gets the number of batches written at once during an import from Config. */
+    @Autowired
+    final void setConfig(Config config) {
+        this.importParallelism = config.getInt(CONFIG_KEY_IMPORT_PARALLELISM);
+    }
+    
     public ReportIndex getReportIndex(ReportDataKey key) {
         checkNotNull(key);
         
@@ -72,6 +120,33 @@ public class ReportService {
         return reportDataDao.getReportData(key, startDate, endDate);
     }
     
+    /**
+     * A version of the records getStudyReport() would return for these dates, read without querying the records. It 
+     * changes whenever a record of the report is saved or deleted, and differs for each date range.
+     */
+    public String getStudyReportVersion(StudyIdentifier studyId, String identifier, LocalDate startDate,
+            LocalDate endDate) {
+        // ReportDataKey validates all parameters to this method
+        
+        startDate = defaultValueToMinusDays(startDate, 1);
+        endDate = defaultValueToMinusDays(endDate, 0);
+        validateDateRange(startDate, endDate);
+        
+        ReportDataKey key = new ReportDataKey.Builder()
+                .withReportType(ReportType.STUDY)
+                .withIdentifier(identifier)
+                .withStudyIdentifier(studyId).build();
+        
+        String versionKey = RedisKey.STUDY_REPORT_VERSION.getRedisKey(key.getKeyString());
+        String version = cacheProvider.getString(versionKey);
+        if (version == null) {
+            // The report hasn't changed since its version expired (or was evicted). Start a new version, rather than 
+            // reuse an absent version, as the report may have changed under the versions before it.
+            version = cacheProvider.incrementVersion(versionKey, STUDY_REPORT_VERSION_EXPIRE_IN_SECONDS);
+        }
+        return version + RedisKey.SEPARATOR + startDate + RedisKey.SEPARATOR + endDate;
+    }
+    
     public DateRangeResourceList<? extends ReportData> getParticipantReport(StudyIdentifier studyId, String identifier, String healthCode, LocalDate startDate, LocalDate endDate) {
         // ReportDataKey validates all parameters to this method
         
@@ -99,6 +174,7 @@ public class ReportService {
         reportData.setKey(key.getKeyString());
         
         reportDataDao.saveReportData(reportData);
+        studyReportChanged(key);
         addToIndex(key);
     }
     
@@ -119,6 +195,146 @@ public class ReportService {
         addToIndex(key);        
     }
     
+    /**
+     * <p>
+     * Imports any number of participant report records from a request body, saving them as the body is read so it 
+     * is never held in memory. The body is either a JSON array of rows, or rows separated by new lines (NDJSON). Each 
+     * row is an object with the healthCode, identifier, date and data of one record.
+     * </p>
+     * <p>
+     * Rows are saved in batches, several batches at a time, and the index of each report is created once per import 
+     * rather than checked for every row. A row that is not valid or can't be saved is reported and skipped, rather 
+     * than failing the whole import. If the body is not well-formed JSON, the rows up to that point are saved and the 
+     * rest of the body is not read.
+     * </p>
+     */
+    public ReportDataImportResult importParticipantReports(StudyIdentifier studyId, InputStream body)
+            throws IOException {
+        checkNotNull(studyId);
+        checkNotNull(body);
+        
+        ImportProgress progress = new ImportProgress();
+        BoundedFanOut fanOut = new BoundedFanOut(importExecutorService, importParallelism);
+        try (JsonParser parser = BridgeObjectMapper.get().getFactory().createParser(body)) {
+            try {
+                readReportRows(studyId, parser, progress, fanOut);
+            } finally {
+                // Wait for the batches still in flight, even if the body could not be read to the end.
+                fanOut.awaitCompletion();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeServiceException("Import of participant reports was interrupted");
+        }
+        return progress.toResult();
+    }
+    
+    private void readReportRows(StudyIdentifier studyId, JsonParser parser, ImportProgress progress,
+            BoundedFanOut fanOut) throws IOException, InterruptedException {
+        List<ReportData> batch = new ArrayList<>();
+        List<Integer> batchRows = new ArrayList<>();
+        List<ReportDataKey> batchKeys = new ArrayList<>();
+        int row = 0;
+        try {
+            JsonToken token = parser.nextToken();
+            boolean isArray = (token == JsonToken.START_ARRAY);
+            if (isArray) {
+                token = parser.nextToken();
+            }
+            while (token != null && !(isArray && token == JsonToken.END_ARRAY)) {
+                row++;
+                if (token != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    progress.addError(row, "Report data must be a JSON object");
+                } else {
+                    JsonNode node = BridgeObjectMapper.get().readTree(parser);
+                    try {
+                        LocalDate date = parseReportDate(node);
+                        ReportDataKey key = new ReportDataKey.Builder()
+                                .withHealthCode(node.path("healthCode").textValue())
+                                .withReportType(ReportType.PARTICIPANT)
+                                .withIdentifier(node.path("identifier").textValue())
+                                .withStudyIdentifier(studyId)
+                                .validateWithDate(date).build();
+                        ReportData reportData = ReportData.create();
+                        reportData.setKey(key.getKeyString());
+                        reportData.setDate(date);
+                        reportData.setData(node.get("data"));
+                        
+                        batch.add(reportData);
+                        batchRows.add(row);
+                        batchKeys.add(key);
+                    } catch(RuntimeException e) {
+                        progress.addError(row, e.getMessage());
+                    }
+                    if (batch.size() == IMPORT_BATCH_SIZE) {
+                        submitBatch(batch, batchRows, batchKeys, progress, fanOut);
+                        batch = new ArrayList<>();
+                        batchRows = new ArrayList<>();
+                        batchKeys = new ArrayList<>();
+                    }
+                }
+                token = parser.nextToken();
+            }
+        } catch(JsonProcessingException e) {
+            progress.addError(row + 1, "Report data is not valid JSON, so the rest of the import was not read: " + 
+                    e.getOriginalMessage());
+        }
+        if (!batch.isEmpty()) {
+            submitBatch(batch, batchRows, batchKeys, progress, fanOut);
+        }
+    }
+    
+    private static LocalDate parseReportDate(JsonNode node) {
+        String dateString = node.path("date").textValue();
+        if (dateString == null) {
+            return null;
+        }
+        try {
+            return DateUtils.parseCalendarDate(dateString);
+        } catch(IllegalArgumentException e) {
+            throw new BadRequestException("invalid date " + dateString);
+        }
+    }
+    
+    private void submitBatch(List<ReportData> batch, List<Integer> batchRows, List<ReportDataKey> batchKeys,
+            ImportProgress progress, BoundedFanOut fanOut) throws InterruptedException {
+        fanOut.submit(() -> saveBatch(batch, batchRows, batchKeys, progress));
+    }
+    
+    private void saveBatch(List<ReportData> batch, List<Integer> batchRows, List<ReportDataKey> batchKeys,
+            ImportProgress progress) {
+        Map<Integer, String> errorsByIndex;
+        try {
+            errorsByIndex = reportDataDao.saveReportDataBatch(batch);
+        } catch(RuntimeException e) {
+            for (Integer row : batchRows) {
+                progress.addError(row, e.getMessage());
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            String error = errorsByIndex.get(i);
+            if (error != null) {
+                progress.addError(batchRows.get(i), error);
+                continue;
+            }
+            ReportDataKey key = batchKeys.get(i);
+            if (progress.indexKeys.add(key.getIndexKeyString())) {
+                try {
+                    addToIndex(key);
+                } catch(RuntimeException e) {
+                    // The record was saved. Let a later row of the same report try to create the index again.
+                    progress.indexKeys.remove(key.getIndexKeyString());
+                    progress.addError(batchRows.get(i), "Report data saved, but its report index could not be " + 
+                            "created: " + e.getMessage());
+                    continue;
+                }
+            }
+            progress.saved.incrementAndGet();
+        }
+    }
+    
     public void deleteStudyReport(StudyIdentifier studyId, String identifier) {
         // ReportDataKey validates all parameters to this method
 
@@ -128,6 +344,7 @@ public class ReportService {
                 .withStudyIdentifier(studyId).build();
         
         reportDataDao.deleteReportData(key);
+        studyReportChanged(key);
         REPORT_INDEX_CACHE.invalidate(key.getIndexKeyString());
         reportIndexDao.removeIndex(key);
     }
@@ -140,6 +357,7 @@ public class ReportService {
                 .validateWithDate(date).build();
         
         reportDataDao.deleteReportDataRecord(key, date);
+        studyReportChanged(key);
         
         // If this is the last key visible in the window, you can delete the index because this is a study record
         LocalDate startDate = LocalDate.now().minusDays(MAX_RANGE_DAYS);
@@ -199,6 +417,12 @@ public class ReportService {
         reportIndexDao.updateIndex(index);
     }
 
+    // Moves the study report to a new version, after its records have changed.
+    private void studyReportChanged(ReportDataKey key) {
+        cacheProvider.incrementVersion(RedisKey.STUDY_REPORT_VERSION.getRedisKey(key.getKeyString()),
+                STUDY_REPORT_VERSION_EXPIRE_IN_SECONDS);
+    }
+    
     private void addToIndex(ReportDataKey key) {
         try {
             REPORT_INDEX_CACHE.get(key.getIndexKeyString(), () -> {
@@ -210,6 +434,34 @@ public class ReportService {
         }
     }
     
+    /**
+     * The counts and errors of a running import, updated by the threads saving batches.
+     */
+    private static final class ImportProgress {
+        private final AtomicInteger saved = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final List<ReportDataImportResult.RowError> errors = new ArrayList<>();
+        /** Reports whose index has been created during this import. */
+        private final Set<String> indexKeys = ConcurrentHashMap.newKeySet();
+        
+        void addError(int row, String message) {
+            failed.incrementAndGet();
+            synchronized (errors) {
+                if (errors.size() < MAX_IMPORT_ERRORS) {
+                    errors.add(new ReportDataImportResult.RowError(row, message));
+                }
+            }
+        }
+        
+        ReportDataImportResult toResult() {
+            synchronized (errors) {
+                List<ReportDataImportResult.RowError> sortedErrors = new ArrayList<>(errors);
+                sortedErrors.sort((error1, error2) -> Integer.compare(error1.getRow(), error2.getRow()));
+                return new ReportDataImportResult(saved.get(), failed.get(), sortedErrors);
+            }
+        }
+    }
+    
     private LocalDate defaultValueToMinusDays(LocalDate submittedValue, int minusDays) {
         if (submittedValue == null) {
             return DateUtils.getCurrentCalendarDateInLocalTime().minusDays(minusDays);
@@ -9,6 +9,15 @@ import static org.sagebionetworks.bridge.util.BridgeCollectors.toImmutableList;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import javax.annotation.Resource;
 
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,6 +25,7 @@ import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.dao.ScheduledActivityDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.models.Metrics;
 import org.sagebionetworks.bridge.models.schedules.Activity;
 import org.sagebionetworks.bridge.models.schedules.ActivityType;
 import org.sagebionetworks.bridge.models.schedules.Schedule;
@@ -23,13 +33,16 @@ import org.sagebionetworks.bridge.models.schedules.ScheduleContext;
 import org.sagebionetworks.bridge.models.schedules.SchedulePlan;
 import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
 import org.sagebionetworks.bridge.models.schedules.ScheduledActivityStatus;
-import org.sagebionetworks.bridge.models.surveys.Survey;
+import org.sagebionetworks.bridge.models.schedules.SurveyReference;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.util.DependencyMetrics;
 import org.sagebionetworks.bridge.validators.ScheduleContextValidator;
 import org.sagebionetworks.bridge.validators.Validate;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 @Component
 public class ScheduledActivityService {
@@ -46,6 +59,8 @@ public class ScheduledActivityService {
     
     private SurveyService surveyService;
     
+    private ExecutorService daoExecutorService;
+    
     @Autowired
     public final void setScheduledActivityDao(ScheduledActivityDao activityDao) {
         this.activityDao = activityDao;
@@ -62,23 +77,57 @@ public class ScheduledActivityService {
     public final void setSurveyService(SurveyService surveyService) {
         this.surveyService = surveyService;
     }
+    @Resource(name = "daoExecutorService")
+    public final void setDaoExecutorService(ExecutorService daoExecutorService) {
+        this.daoExecutorService = daoExecutorService;
+    }
     
     public List<ScheduledActivity> getScheduledActivities(ScheduleContext context) {
+        return getScheduledActivities(context, null);
+    }
+    
+    /**
+     * Get the scheduled activities for a user. The reads that don't depend on each other (the user's activity 
+     * events, and the study's schedule plans followed by the surveys they reference) are made in parallel on the 
+     * DAO executor. If metrics are provided, the duration of each stage is recorded in them.
+     */
+    public List<ScheduledActivity> getScheduledActivities(ScheduleContext context, Metrics metrics) {
         checkNotNull(context);
         
         Validate.nonEntityThrowingException(VALIDATOR, context);
         
+        Map<String,Long> durations = new ConcurrentHashMap<>();
+        // The reads made on the DAO executor are recorded in this request's metrics
+        Executor executor = DependencyMetrics.forRequest(daoExecutorService);
+        
+        CompletableFuture<Map<String, DateTime>> eventsFuture = supplyTimed(executor, durations, "activity_events",
+                () -> createEventsMap(context));
+        CompletableFuture<List<SchedulePlan>> plansFuture = supplyTimed(executor, durations, "schedule_plans",
+                () -> schedulePlanService.getSchedulePlans(context.getCriteriaContext().getClientInfo(),
+                        context.getCriteriaContext().getStudyIdentifier()));
+        CompletableFuture<Map<String, SurveyReference>> surveysFuture = plansFuture.thenCompose(
+                plans -> getSurveyReferences(context, plans, executor, durations));
+        
         // Add events for scheduling
-        Map<String, DateTime> events = createEventsMap(context);
+        Map<String, DateTime> events = join(eventsFuture);
         ScheduleContext newContext = new ScheduleContext.Builder().withContext(context).withEvents(events).build();
         
         // Get scheduled activities, persisted activities, and compare them
-        List<ScheduledActivity> scheduledActivities = scheduleActivitiesForPlans(newContext);
+        List<ScheduledActivity> scheduledActivities = scheduleActivitiesForPlans(newContext, join(plansFuture),
+                Maps.newHashMap(join(surveysFuture)));
+        
+        long start = System.currentTimeMillis();
         List<ScheduledActivity> dbActivities = activityDao.getActivities(newContext.getZone(), scheduledActivities);
+        durations.put("db_activities", System.currentTimeMillis() - start);
         
         List<ScheduledActivity> saves = updateActivitiesAndCollectSaves(scheduledActivities, dbActivities);
+        start = System.currentTimeMillis();
         activityDao.saveActivities(saves);
+        durations.put("save_activities", System.currentTimeMillis() - start);
         
+        if (metrics != null) {
+            durations.forEach(metrics::setStageDuration);
+        }
         return orderActivities(scheduledActivities);
     }
     
@@ -154,13 +203,17 @@ public class ScheduledActivityService {
     }
     
     protected List<ScheduledActivity> scheduleActivitiesForPlans(ScheduleContext context) {
-        // Reduce the number of calls to get a survey, as repeating tasks will make several calls
-        Map<String,Survey> surveyCache = Maps.newHashMap();
-        List<ScheduledActivity> scheduledActivities = Lists.newArrayList();
-        
         List<SchedulePlan> plans = schedulePlanService.getSchedulePlans(context.getCriteriaContext().getClientInfo(),
                 context.getCriteriaContext().getStudyIdentifier());
         
+        // Reduce the number of calls to get a survey, as repeating tasks will make several calls
+        return scheduleActivitiesForPlans(context, plans, Maps.newHashMap());
+    }
+    
+    private List<ScheduledActivity> scheduleActivitiesForPlans(ScheduleContext context, List<SchedulePlan> plans,
+            Map<String,SurveyReference> surveyCache) {
+        List<ScheduledActivity> scheduledActivities = Lists.newArrayList();
+        
         for (SchedulePlan plan : plans) {
             Schedule schedule = plan.getStrategy().getScheduleForUser(plan, context);
             if (schedule != null) {
@@ -172,21 +225,88 @@ public class ScheduledActivityService {
         return scheduledActivities;
     }
     
-    private List<ScheduledActivity> resolveLinks(ScheduleContext context, Map<String, Survey> surveyCache,
+    /**
+     * Look up, in parallel, the published version of every survey referenced by any schedule in these plans. Which 
+     * schedule a user receives isn't known until their events are loaded, so this can include surveys the user is 
+     * not scheduled to do. Surveys that cannot be resolved are left out, and are looked up again (failing as they 
+     * did before) only if they are actually scheduled.
+     */
+    private CompletableFuture<Map<String,SurveyReference>> getSurveyReferences(ScheduleContext context,
+            List<SchedulePlan> plans, Executor executor, Map<String,Long> durations) {
+        long start = System.currentTimeMillis();
+        Set<String> surveyGuids = Sets.newHashSet();
+        for (SchedulePlan plan : plans) {
+            for (Schedule schedule : plan.getStrategy().getAllPossibleSchedules()) {
+                if (schedule == null || schedule.getActivities() == null) {
+                    continue;
+                }
+                for (Activity activity : schedule.getActivities()) {
+                    if (activity != null && isReferenceToPublishedSurvey(activity)) {
+                        surveyGuids.add(activity.getSurvey().getGuid());
+                    }
+                }
+            }
+        }
+        StudyIdentifier studyId = context.getCriteriaContext().getStudyIdentifier();
+        Map<String,SurveyReference> references = new ConcurrentHashMap<>();
+        CompletableFuture<?>[] futures = surveyGuids.stream().map(guid -> CompletableFuture.runAsync(() -> {
+            SurveyReference reference = surveyService.getSurveyReferenceMostRecentlyPublishedVersion(studyId, guid);
+            if (reference != null) {
+                references.put(guid, reference);
+            }
+        }, executor).exceptionally(e -> null)).toArray(CompletableFuture<?>[]::new);
+        
+        return CompletableFuture.allOf(futures).thenApply(ignored -> {
+            durations.put("survey_references", System.currentTimeMillis() - start);
+            return references;
+        });
+    }
+    
+    private static <T> CompletableFuture<T> supplyTimed(Executor executor, Map<String,Long> durations, String stage,
+            Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                return supplier.get();
+            } finally {
+                durations.put(stage, System.currentTimeMillis() - start);
+            }
+        }, executor);
+    }
+    
+    /**
+     * Wait for the result of a future, rethrowing the exception that caused it to fail (rather than a 
+     * CompletionException), so callers see the same exceptions as when the reads were made sequentially.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch(CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw e;
+        }
+    }
+    
+    private List<ScheduledActivity> resolveLinks(ScheduleContext context, Map<String, SurveyReference> surveyCache,
             List<ScheduledActivity> activities) {
 
         return activities.stream().map(schActivity -> {
             Activity activity = schActivity.getActivity();
 
             if (isReferenceToPublishedSurvey(activity)) {
-                Survey survey = surveyCache.get(activity.getSurvey().getGuid());
+                SurveyReference survey = surveyCache.get(activity.getSurvey().getGuid());
                 if (survey == null) {
-                    survey = surveyService.getSurveyMostRecentlyPublishedVersion(
+                    survey = surveyService.getSurveyReferenceMostRecentlyPublishedVersion(
                             context.getCriteriaContext().getStudyIdentifier(), activity.getSurvey().getGuid());
                     surveyCache.put(survey.getGuid(), survey);
                 }
                 Activity resolvedActivity = new Activity.Builder().withActivity(activity)
-                        .withSurvey(survey.getIdentifier(), survey.getGuid(), new DateTime(survey.getCreatedOn()))
+                        .withSurvey(survey.getIdentifier(), survey.getGuid(), survey.getCreatedOn())
                         .build();
                 schActivity.setActivity(resolvedActivity);
             }
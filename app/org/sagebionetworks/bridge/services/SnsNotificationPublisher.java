@@ -0,0 +1,36 @@
+package org.sagebionetworks.bridge.services;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Resource;
+
+import org.springframework.context.annotation.Conditional;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.SnsNotificationPublisherCondition;
+import org.sagebionetworks.bridge.models.notifications.NotificationMessage;
+
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.PublishRequest;
+
+@Component("snsNotificationPublisher")
+@Conditional(SnsNotificationPublisherCondition.class)
+public class SnsNotificationPublisher implements NotificationPublisher {
+
+    private AmazonSNSClient snsClient;
+    
+    @Resource(name = "snsClient")
+    final void setSnsClient(AmazonSNSClient snsClient) {
+        this.snsClient = snsClient;
+    }
+    
+    @Override
+    public String publish(String endpointARN, NotificationMessage message) {
+        checkNotNull(endpointARN);
+        checkNotNull(message);
+        
+        PublishRequest request = new PublishRequest().withTargetArn(endpointARN)
+                .withSubject(message.getSubject()).withMessage(message.getMessage());
+        return snsClient.publish(request).getMessageId();
+    }
+}
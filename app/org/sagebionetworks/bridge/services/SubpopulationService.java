@@ -12,7 +12,10 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.Validator;
 
+import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.CacheProvider.VersionedBytes;
 import org.sagebionetworks.bridge.dao.StudyConsentDao;
 import org.sagebionetworks.bridge.dao.SubpopulationDao;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
@@ -24,16 +27,28 @@ import org.sagebionetworks.bridge.models.subpopulations.StudyConsentForm;
 import org.sagebionetworks.bridge.models.subpopulations.StudyConsentView;
 import org.sagebionetworks.bridge.models.subpopulations.Subpopulation;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
+import org.sagebionetworks.bridge.redis.RedisKey;
+import org.sagebionetworks.bridge.util.BridgeCollectors;
 import org.sagebionetworks.bridge.validators.SubpopulationValidator;
 import org.sagebionetworks.bridge.validators.Validate;
 
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+
 @Component
 public class SubpopulationService {
 
+    /** Versions outlive the GUIDs stored under them, so an expired version can't bring back a list of GUIDs. */
+    static final int GUIDS_VERSION_EXPIRE_IN_SECONDS = 2 * BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS;
+
+    private static final Joiner COMMA_JOINER = Joiner.on(",");
+    private static final Splitter COMMA_SPLITTER = Splitter.on(",").omitEmptyStrings();
+
     private SubpopulationDao subpopDao;
     private StudyConsentDao studyConsentDao;
     private StudyConsentService studyConsentService;
     private StudyConsentForm defaultConsentDocument;
+    private CacheProvider cacheProvider;
     
     @Autowired
     final void setSubpopulationDao(SubpopulationDao subpopDao) {
@@ -47,6 +62,10 @@ public class SubpopulationService {
     final void setStudyConsentService(StudyConsentService studyConsentService) {
         this.studyConsentService = studyConsentService;
     }
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
     @Value("classpath:study-defaults/consent-body.xhtml")
     final void setDefaultConsentDocument(org.springframework.core.io.Resource resource) throws IOException {
         this.defaultConsentDocument = new StudyConsentForm(IOUtils.toString(resource.getInputStream(), StandardCharsets.UTF_8));
@@ -73,6 +92,7 @@ public class SubpopulationService {
         Validate.entityThrowingException(validator, subpop);
         
         Subpopulation created = subpopDao.createSubpopulation(subpop);
+        removeSubpopulationGuids(study.getStudyIdentifier());
         
         // Create a default consent for this subpopulation.
         StudyConsentView view = studyConsentService.addConsent(subpop.getGuid(), defaultConsentDocument);
@@ -89,6 +109,7 @@ public class SubpopulationService {
     public Subpopulation createDefaultSubpopulation(Study study) {
         SubpopulationGuid subpopGuid = SubpopulationGuid.create(study.getIdentifier());
         Subpopulation created = subpopDao.createDefaultSubpopulation(study.getStudyIdentifier());
+        removeSubpopulationGuids(study.getStudyIdentifier());
         
         // It should no longer be necessary to check that there are no consents yet, but not harmful to keep doing it.
         if (studyConsentService.getAllConsents(subpopGuid).isEmpty()) {
@@ -126,7 +147,9 @@ public class SubpopulationService {
         Validator validator = new SubpopulationValidator(study.getDataGroups());
         Validate.entityThrowingException(validator, subpop);
         
-        return subpopDao.updateSubpopulation(subpop);
+        Subpopulation updated = subpopDao.updateSubpopulation(subpop);
+        removeSubpopulationGuids(study.getStudyIdentifier());
+        return updated;
     }
     
     /**
@@ -142,6 +165,35 @@ public class SubpopulationService {
         return subpopDao.getSubpopulations(studyId, true, false);
     }
     
+    /**
+     * Get the GUIDs of all subpopulations defined for this study that have not been deleted. This list 
+     * is needed every time an account is constructed, so it is cached per study. The GUIDs are stored under 
+     * the study's current version, which moves whenever a subpopulation in the study is created, updated or 
+     * deleted, so a list loaded while a subpopulation was changing is never read.
+     * @param studyId
+     * @return
+     */
+    public List<SubpopulationGuid> getSubpopulationGuids(StudyIdentifier studyId) {
+        checkNotNull(studyId);
+        
+        String cacheKey = RedisKey.SUBPOPULATION_GUIDS.getRedisKey(studyId.getIdentifier());
+        VersionedBytes cached = cacheProvider.getVersionedBytes(
+                RedisKey.SUBPOPULATION_GUIDS_VERSION.getRedisKey(studyId.getIdentifier()), cacheKey);
+        if (cached.getValue() != null) {
+            String ser = new String(cached.getValue(), StandardCharsets.UTF_8);
+            return COMMA_SPLITTER.splitToList(ser).stream()
+                    .map(SubpopulationGuid::create)
+                    .collect(BridgeCollectors.toImmutableList());
+        }
+        List<SubpopulationGuid> subpopGuids = getSubpopulations(studyId).stream()
+                .map(Subpopulation::getGuid)
+                .collect(BridgeCollectors.toImmutableList());
+        cacheProvider.setBytes(CacheProvider.getVersionedKey(cached.getVersion(), cacheKey),
+                COMMA_JOINER.join(subpopGuids).getBytes(StandardCharsets.UTF_8),
+                BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+        return subpopGuids;
+    }
+    
     /**
      * Get a specific subpopulation.
      * @param studyId
@@ -181,6 +233,7 @@ public class SubpopulationService {
         
         // Will throw EntityNotFoundException if the subpopulation is not in the study
         subpopDao.deleteSubpopulation(studyId, subpopGuid, physicalDelete);
+        removeSubpopulationGuids(studyId);
     }
     
     /**
@@ -191,6 +244,12 @@ public class SubpopulationService {
         checkNotNull(studyId);
         
         subpopDao.deleteAllSubpopulations(studyId);
+        removeSubpopulationGuids(studyId);
+    }
+    
+    private void removeSubpopulationGuids(StudyIdentifier studyId) {
+        cacheProvider.incrementVersion(RedisKey.SUBPOPULATION_GUIDS_VERSION.getRedisKey(studyId.getIdentifier()),
+                GUIDS_VERSION_EXPIRE_IN_SECONDS);
     }
 
 }
@@ -4,15 +4,24 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+import java.io.IOException;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.CacheProvider.VersionedBytes;
 import org.sagebionetworks.bridge.dao.SurveyDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.GuidCreatedOnVersionHolder;
+import org.sagebionetworks.bridge.models.schedules.SurveyReference;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.surveys.Survey;
 import org.sagebionetworks.bridge.models.surveys.SurveyElement;
+import org.sagebionetworks.bridge.redis.RedisKey;
 import org.sagebionetworks.bridge.validators.SurveyValidator;
 import org.sagebionetworks.bridge.validators.Validate;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,14 +31,23 @@ import org.springframework.validation.Validator;
 @Component
 public class SurveyService {
 
+    /** Versions outlive the references stored under them, so an expired version can't bring back a reference. */
+    static final int REFERENCE_VERSION_EXPIRE_IN_SECONDS = 2 * BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS;
+
     private Validator validator;
     private SurveyDao surveyDao;
+    private CacheProvider cacheProvider;
     
     @Autowired
     public void setSurveyDao(SurveyDao surveyDao) {
         this.surveyDao = surveyDao;
     }
     
+    @Autowired
+    public void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+    
     @Autowired
     public void setValidator(SurveyValidator validator) {
         this.validator = validator;
@@ -101,7 +119,9 @@ public class SurveyService {
         checkArgument(StringUtils.isNotBlank(keys.getGuid()), "Survey GUID cannot be null/blank");
         checkArgument(keys.getCreatedOn() != 0L, "Survey createdOn timestamp cannot be 0");
         
-        return surveyDao.publishSurvey(study, keys, newSchemaRev);
+        Survey survey = surveyDao.publishSurvey(study, keys, newSchemaRev);
+        removeSurveyReference(study, keys.getGuid());
+        return survey;
     }
     
     /**
@@ -130,7 +150,9 @@ public class SurveyService {
         checkArgument(StringUtils.isNotBlank(keys.getGuid()), "Survey GUID cannot be null/blank");
         checkArgument(keys.getCreatedOn() != 0L, "Survey createdOn timestamp cannot be 0");
 
+        Survey survey = surveyDao.getSurvey(keys);
         surveyDao.deleteSurvey(keys);
+        removeSurveyReference(survey);
     }
 
     /**
@@ -146,7 +168,9 @@ public class SurveyService {
         checkArgument(StringUtils.isNotBlank(keys.getGuid()), "Survey GUID cannot be null/blank");
         checkArgument(keys.getCreatedOn() != 0L, "Survey createdOn timestamp cannot be 0");
 
+        Survey survey = surveyDao.getSurvey(keys);
         surveyDao.deleteSurveyPermanently(keys);
+        removeSurveyReference(survey);
     }
 
     /**
@@ -194,6 +218,42 @@ public class SurveyService {
         return surveyDao.getSurveyMostRecentlyPublishedVersion(studyIdentifier, guid);
     }
 
+    /**
+     * Get a reference (identifier, GUID and createdOn timestamp) to the most recent version of a survey 
+     * that is published. This is all that is needed to resolve schedules that point to the published 
+     * version of a survey, and it is cached until a version of the survey is published or deleted.
+     * 
+     * @param studyIdentifier
+     * @param guid
+     * @return
+     */
+    public SurveyReference getSurveyReferenceMostRecentlyPublishedVersion(StudyIdentifier studyIdentifier,
+            String guid) {
+        checkNotNull(studyIdentifier, Validate.CANNOT_BE_NULL, "study");
+        checkArgument(isNotBlank(guid), Validate.CANNOT_BE_BLANK, "survey guid");
+
+        String id = getSurveyReferenceId(studyIdentifier.getIdentifier(), guid);
+        String cacheKey = RedisKey.PUBLISHED_SURVEY_REFERENCE.getRedisKey(id);
+        try {
+            // The reference is stored under the version that was current when it was loaded, so a reference that 
+            // was loaded while a new version of the survey was being published is never read.
+            VersionedBytes cached = cacheProvider.getVersionedBytes(
+                    RedisKey.PUBLISHED_SURVEY_REFERENCE_VERSION.getRedisKey(id), cacheKey);
+            if (cached.getValue() != null) {
+                return BridgeObjectMapper.get().readValue(cached.getValue(), SurveyReference.class);
+            }
+            Survey survey = surveyDao.getSurveyMostRecentlyPublishedVersion(studyIdentifier, guid);
+            SurveyReference reference = new SurveyReference(survey.getIdentifier(), survey.getGuid(),
+                    new DateTime(survey.getCreatedOn()));
+            cacheProvider.setBytes(CacheProvider.getVersionedKey(cached.getVersion(), cacheKey),
+                    BridgeObjectMapper.get().writeValueAsBytes(reference),
+                    BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+            return reference;
+        } catch(IOException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+
     /**
      * Get the most recent version of each survey in the study that has been
      * published. If a survey has not been published, nothing is returned.
@@ -219,5 +279,24 @@ public class SurveyService {
 
         return surveyDao.getAllSurveysMostRecentVersion(studyIdentifier);
     }
-    
-}
\ No newline at end of file
+
+    private void removeSurveyReference(Survey survey) {
+        if (survey != null && survey.getStudyIdentifier() != null) {
+            removeSurveyReference(survey.getStudyIdentifier(), survey.getGuid());
+        }
+    }
+
+    private void removeSurveyReference(StudyIdentifier studyIdentifier, String guid) {
+        removeSurveyReference(studyIdentifier.getIdentifier(), guid);
+    }
+
+    private void removeSurveyReference(String studyId, String guid) {
+        String versionKey = RedisKey.PUBLISHED_SURVEY_REFERENCE_VERSION.getRedisKey(
+                getSurveyReferenceId(studyId, guid));
+        cacheProvider.incrementVersion(versionKey, REFERENCE_VERSION_EXPIRE_IN_SECONDS);
+    }
+
+    private String getSurveyReferenceId(String studyId, String guid) {
+        return studyId + RedisKey.SEPARATOR + guid;
+    }
+}
@@ -8,9 +8,12 @@ import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
+import org.sagebionetworks.bridge.cache.BackgroundRefresher;
 import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.crypto.BcCertificateFactory;
@@ -21,10 +24,13 @@ import org.sagebionetworks.bridge.crypto.PemUtils;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.s3.S3Helper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.collect.Maps;
 
 @Component("uploadCertificateService")
 public class UploadCertificateService {
@@ -33,9 +39,19 @@ public class UploadCertificateService {
     private static final String PRIVATE_KEY_BUCKET = CONFIG.getProperty("upload.cms.priv.bucket");
     private static final String CERT_BUCKET = CONFIG.getProperty("upload.cms.cert.bucket");
 
+    /**
+     * Certificates are only written when a study is created, so the ones that have been read are re-read from S3 
+     * in the background this often, and requests are served from memory.
+     */
+    static final int PUBLIC_KEY_REFRESH_INTERVAL_IN_SECONDS = 3600; // 1 hour
+
+    static final String PUBLIC_KEY_REFRESH_NAME = "cmsPublicKeys";
+
     private final CertificateFactory certificateFactory;
+    private final ConcurrentMap<String, String> publicKeys = Maps.newConcurrentMap();
     private AmazonS3 s3CmsClient;
     private S3Helper s3CmsHelper;
+    private BackgroundRefresher backgroundRefresher;
 
     public UploadCertificateService() {
         certificateFactory = new BcCertificateFactory();
@@ -51,6 +67,17 @@ public class UploadCertificateService {
         this.s3CmsHelper = s3CmsHelper;
     }
 
+    @Autowired
+    public final void setBackgroundRefresher(BackgroundRefresher backgroundRefresher) {
+        this.backgroundRefresher = backgroundRefresher;
+    }
+
+    @PostConstruct
+    public void schedulePublicKeyRefresh() {
+        backgroundRefresher.schedule(PUBLIC_KEY_REFRESH_NAME, PUBLIC_KEY_REFRESH_INTERVAL_IN_SECONDS,
+                this::refreshPublicKeys);
+    }
+
     /**
      * Creates a CMS key pair for a particular study and save it in permanent storage.
      */
@@ -68,7 +95,9 @@ public class UploadCertificateService {
         final String name = studyIdentifier.getIdentifier() + ".pem";
         try {
             s3Put(PRIVATE_KEY_BUCKET, name, PemUtils.toPem(keyPair.getPrivate()));
-            s3Put(CERT_BUCKET, name, PemUtils.toPem(cert));
+            String certPem = PemUtils.toPem(cert);
+            s3Put(CERT_BUCKET, name, certPem);
+            publicKeys.put(studyIdentifier.getIdentifier(), certPem);
         } catch (CertificateEncodingException e) {
             throw new BridgeServiceException(e);
         }
@@ -82,8 +111,42 @@ public class UploadCertificateService {
      * @return
      */
     public String getPublicKeyAsPem(StudyIdentifier studyIdentifier) {
+        String studyId = studyIdentifier.getIdentifier();
+        String pem = publicKeys.get(studyId);
+        if (pem == null) {
+            pem = readPublicKeyAsPem(studyId);
+            publicKeys.put(studyId, pem);
+        }
+        return pem;
+    }
+
+    /**
+     * Re-reads the certificates that have been read before. A certificate that can't be read is left as it was 
+     * (unless it no longer exists), and the refresh fails once the others have been read, so it is retried.
+     */
+    void refreshPublicKeys() {
+        int failures = 0;
+        for (String studyId : publicKeys.keySet()) {
+            try {
+                publicKeys.put(studyId, readPublicKeyAsPem(studyId));
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() == 404) {
+                    publicKeys.remove(studyId);
+                } else {
+                    failures++;
+                }
+            } catch (RuntimeException e) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            throw new BridgeServiceException("Could not refresh " + failures + " CMS certificate(s)");
+        }
+    }
+
+    private String readPublicKeyAsPem(String studyId) {
         try {
-            return s3CmsHelper.readS3FileAsString(CERT_BUCKET, studyIdentifier.getIdentifier() + ".pem");
+            return s3CmsHelper.readS3FileAsString(CERT_BUCKET, studyId + ".pem");
         } catch (IOException e) {
             throw new BridgeServiceException(e);
         }
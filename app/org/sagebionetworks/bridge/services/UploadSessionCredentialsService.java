@@ -7,6 +7,8 @@ import org.joda.time.DateTimeZone;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.cache.BackgroundRefresher;
+
 import com.amazonaws.auth.AWSSessionCredentials;
 import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
@@ -15,7 +17,8 @@ import com.amazonaws.services.securitytoken.model.GetSessionTokenRequest;
 import com.amazonaws.services.securitytoken.model.GetSessionTokenResult;
 
 /**
- * Generates session-based, temporary credentials.
+ * Generates session-based, temporary credentials. The credentials are renewed by the BackgroundRefresher well before
+ * they expire, so requests for upload credentials don't wait on STS.
  */
 @Component
 public class UploadSessionCredentialsService {
@@ -31,14 +34,25 @@ public class UploadSessionCredentialsService {
      */
     private static final int MARGIN_IN_SECONDS = 300; // 5 minutes
 
+    /**
+     * How often the credentials are renewed in the background. Renewed credentials are always at least 
+     * 10 minutes from expiring, so they are only renewed while a request waits if background renewal 
+     * has been failing for 5 minutes.
+     */
+    static final int REFRESH_INTERVAL_IN_SECONDS = 600; // 10 minutes
+
+    static final String REFRESH_NAME = "uploadSessionCredentials";
+
     private final AWSSecurityTokenServiceClient tokenServiceClient;
 
     private volatile Credentials credentials;
 
     @Autowired
-    public UploadSessionCredentialsService(AWSSecurityTokenServiceClient tokenServiceClient) {
+    public UploadSessionCredentialsService(AWSSecurityTokenServiceClient tokenServiceClient,
+            BackgroundRefresher backgroundRefresher) {
         this.tokenServiceClient = tokenServiceClient;
         credentials = generateCredentials();
+        backgroundRefresher.schedule(REFRESH_NAME, REFRESH_INTERVAL_IN_SECONDS, this::refreshCredentials);
     }
 
     public AWSSessionCredentials getSessionCredentials() {
@@ -59,6 +73,10 @@ public class UploadSessionCredentialsService {
                 credentials.getSessionToken());
     }
 
+    private void refreshCredentials() {
+        credentials = generateCredentials();
+    }
+
     private Credentials generateCredentials() {
         GetSessionTokenRequest getSessionTokenRequest = new GetSessionTokenRequest();
         getSessionTokenRequest.setDurationSeconds(EXPIRATION_IN_SECONDS);
@@ -49,4 +49,19 @@ public class UploadValidationService {
         UploadValidationTask task = taskFactory.newTask(study, upload);
         asyncExecutorService.execute(task);
     }
+
+    /**
+     * Validates the upload in the calling thread, returning once validation is finished and the upload's validation
+     * status has been written. This is for callers that manage their own threads and throughput, like backfills,
+     * which would otherwise hand work to the async thread pool faster than it can be done.
+     *
+     * @param study
+     *         study this upload lives in
+     * @param upload
+     *         upload metadata object for the upload
+     */
+    public void validateUploadSynchronously(@Nonnull StudyIdentifier study, @Nonnull Upload upload) {
+        UploadValidationTask task = taskFactory.newTask(study, upload);
+        task.run();
+    }
 }
@@ -2,19 +2,39 @@ package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.sagebionetworks.bridge.BridgeConstants.TEST_USER_GROUP;
+import static org.sagebionetworks.bridge.dao.ParticipantOption.DATA_GROUPS;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.EXTERNAL_IDENTIFIER;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.SharingScope.NO_SHARING;
 
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.Resource;
 
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.dao.AccountDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.json.DateUtils;
 import org.sagebionetworks.bridge.models.CriteriaContext;
 import org.sagebionetworks.bridge.models.accounts.Account;
+import org.sagebionetworks.bridge.models.accounts.AccountStatus;
 import org.sagebionetworks.bridge.models.accounts.ConsentStatus;
 import org.sagebionetworks.bridge.models.accounts.IdentifierHolder;
 import org.sagebionetworks.bridge.models.accounts.ParticipantOptionsLookup;
@@ -23,17 +43,38 @@ import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
+import org.sagebionetworks.bridge.redis.RedisKey;
+import org.sagebionetworks.bridge.util.BoundedFanOut;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component("userAdminService")
 public class UserAdminService {
+    private static final Logger LOG = LoggerFactory.getLogger(UserAdminService.class);
     
     private static final Set<Roles> ADMIN_ROLE = Sets.newHashSet(Roles.ADMIN);
+    
+    static final String CONFIG_KEY_DELETION_PARALLELISM = "user.deletion.parallelism";
+    static final int DELETION_CHECKPOINT_EXPIRE_IN_SECONDS = 7*24*60*60;
+    
+    /**
+     * The parts of a user's data that are deleted independently of each other (and in parallel) before the 
+     * participant options and the account itself are deleted.
+     */
+    enum DeletionStage {
+        HEALTH_DATA,
+        UPLOADS,
+        SCHEDULED_ACTIVITIES,
+        ACTIVITY_EVENTS,
+        EXTERNAL_ID
+    }
 
     private AuthenticationService authenticationService;
     private ParticipantService participantService;
@@ -46,6 +87,9 @@ public class UserAdminService {
     private ParticipantOptionsService optionsService;
     private ExternalIdService externalIdService;
     private UploadService uploadService;
+    private ExecutorService userDeletionExecutorService;
+    private ExecutorService asyncExecutorService;
+    private int deletionParallelism;
 
     @Autowired
     final void setAuthenticationService(AuthenticationService authenticationService) {
@@ -91,6 +135,24 @@ public class UserAdminService {
     final void setUploadService(UploadService uploadService) {
         this.uploadService = uploadService;
     }
+    /** 
+     * Runs the deletion stages of a user in parallel, and deletes users in parallel when all the test users in a 
+     * study are deleted. 
+     */
+    @Resource(name = "userDeletionExecutorService")
+    final void setUserDeletionExecutorService(ExecutorService userDeletionExecutorService) {
+        this.userDeletionExecutorService = userDeletionExecutorService;
+    }
+    /** Finds the test users to delete when all the test users in a study are deleted. */
+    @Resource(name = "asyncExecutorService")
+    final void setAsyncExecutorService(ExecutorService asyncExecutorService) {
+        this.asyncExecutorService = asyncExecutorService;
+    }
+    /** Gets the number of users deleted at once when deleting all test users from Config. */
+    @Autowired
+    final void setConfig(Config config) {
+        this.deletionParallelism = config.getInt(CONFIG_KEY_DELETION_PARALLELISM);
+    }
     
     
     /**
@@ -163,7 +225,11 @@ public class UserAdminService {
     }
 
     /**
-     * Delete the target user.
+     * Delete the target user. The user's health data, uploads, scheduled activities, activity events and external 
+     * ID assignment are deleted in parallel, and the participant options and account are only deleted once all of 
+     * these have succeeded. The account is disabled before anything is deleted, so if deletion fails part way, the 
+     * user can't sign in and create new data. Each stage that completes is checkpointed, so deleting the user again 
+     * only repeats the stages that did not complete.
      *
      * @param study
      *      target user's study
@@ -176,26 +242,181 @@ public class UserAdminService {
         
         Account account = accountDao.getAccount(study, id);
         if (account != null) {
-            // remove this first so if account is partially deleted, re-authenticating will pick
-            // up accurate information about the state of the account (as we can recover it)
-            cacheProvider.removeSessionByUserId(account.getId());
-            cacheProvider.removeRequestInfo(account.getId());
-            
-            String healthCode = account.getHealthCode();
-            healthDataService.deleteRecordsForHealthCode(healthCode);
-            uploadService.deleteUploadsForHealthCode(healthCode);
-            scheduledActivityService.deleteActivitiesForUser(healthCode);
-            activityEventService.deleteActivityEvents(healthCode);
-
-            // Remove the externalId from the table even if validation is not enabled. If the study
-            // turns it off/back on again, we want to track what has changed
-            ParticipantOptionsLookup lookup = optionsService.getOptions(healthCode);
-            String externalId = lookup.getString(EXTERNAL_IDENTIFIER);
-            if (externalId != null) {
-                externalIdService.unassignExternalId(study, externalId, healthCode);    
+            deleteAccount(study, account, userDeletionExecutorService);
+        }
+    }
+    
+    /**
+     * Start deleting every user in the study who is in the test user data group. Returns immediately; the users 
+     * are deleted in the background, several at a time. A user who cannot be deleted is skipped (and logged), and 
+     * is left disabled, so deleting test users again resumes its deletion.
+     */
+    public void deleteAllTestUsers(Study study) {
+        checkNotNull(study);
+        
+        asyncExecutorService.execute(() -> {
+            try {
+                deleteTestUsers(study);
+            } catch(RuntimeException e) {
+                LOG.error("Deleting test users in study " + study.getIdentifier() + " failed", e);
+            }
+        });
+    }
+    
+    /**
+     * Delete the test users in the study, returning the number of users deleted. The study's accounts are read a 
+     * page at a time, and each test user is handed to the deletion pool as it is found, so neither the accounts nor 
+     * the test users are held in memory. The listing is paged by offset, so deleting accounts while it is read can 
+     * move later accounts onto pages that have already been read; a test user who is missed is deleted the next time.
+     */
+    int deleteTestUsers(Study study) {
+        StudyIdentifier studyId = study.getStudyIdentifier();
+        AtomicInteger deleted = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        BoundedFanOut fanOut = new BoundedFanOut(userDeletionExecutorService, deletionParallelism);
+        try {
+            try {
+                Iterator<Account> accounts = accountDao.getFullStudyAccounts(study);
+                while (accounts.hasNext()) {
+                    Account account = accounts.next();
+                    if (!isTestUser(account)) {
+                        continue;
+                    }
+                    fanOut.submit(() -> {
+                        try {
+                            // This task runs in the deletion pool, so it runs the stages itself rather than wait 
+                            // on stages queued behind it in the same pool
+                            deleteAccount(study, account, MoreExecutors.directExecutor());
+                            deleted.incrementAndGet();
+                        } catch(RuntimeException e) {
+                            LOG.warn("Could not delete test user " + account.getId() + " in study " +
+                                    studyId.getIdentifier(), e);
+                            failed.incrementAndGet();
+                        }
+                    });
+                }
+            } finally {
+                fanOut.awaitCompletion();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Deleted " + deleted.get() + " test users in study " + studyId.getIdentifier() + " (" + failed.get()
+                + " could not be deleted)");
+        return deleted.get();
+    }
+    
+    /** Data groups are participant options, so they are looked up by the account's health code. */
+    private boolean isTestUser(Account account) {
+        return account.getHealthCode() != null && optionsService.getOptions(account.getHealthCode())
+                .getStringSet(DATA_GROUPS).contains(TEST_USER_GROUP);
+    }
+    
+    /**
+     * Delete the account, running its deletion stages on the stageExecutor.
+     */
+    private void deleteAccount(Study study, Account account, Executor stageExecutor) {
+        // Disable the account first, so if it is only partially deleted the user can't sign back in and create new 
+        // data while it waits to be deleted again.
+        if (account.getStatus() != AccountStatus.DISABLED) {
+            account.setStatus(AccountStatus.DISABLED);
+            accountDao.updateAccount(account);
+        }
+        // remove this first so if account is partially deleted, re-authenticating will pick
+        // up accurate information about the state of the account (as we can recover it)
+        cacheProvider.removeSessionByUserId(account.getId());
+        cacheProvider.removeRequestInfo(account.getId());
+        
+        String healthCode = account.getHealthCode();
+        String checkpointKey = RedisKey.USER_DELETION.getRedisKey(account.getId());
+        Set<DeletionStage> completed = Collections.synchronizedSet(getCheckpoint(checkpointKey));
+        
+        List<CompletableFuture<Void>> futures = Lists.newArrayList();
+        for (DeletionStage stage : DeletionStage.values()) {
+            if (!completed.contains(stage)) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    deleteStage(study, healthCode, stage);
+                    completed.add(stage);
+                    saveCheckpoint(checkpointKey, completed);
+                }, stageExecutor));
+            }
+        }
+        Throwable failure = null;
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.get();
+            } catch(ExecutionException e) {
+                failure = (failure == null) ? e.getCause() : failure;
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = (failure == null) ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw new BridgeServiceException("User was only partially deleted (deleting again will resume): "
+                    + failure.getMessage());
+        }
+        // Options are deleted after the other stages, because the external ID stage reads the external ID from them
+        optionsService.deleteAllParticipantOptions(healthCode);
+        accountDao.deleteAccount(study, account.getId());
+        cacheProvider.removeString(checkpointKey);
+    }
+    
+    private void deleteStage(Study study, String healthCode, DeletionStage stage) {
+        switch(stage) {
+            case HEALTH_DATA:
+                healthDataService.deleteRecordsForHealthCode(healthCode);
+                break;
+            case UPLOADS:
+                uploadService.deleteUploadsForHealthCode(healthCode);
+                break;
+            case SCHEDULED_ACTIVITIES:
+                scheduledActivityService.deleteActivitiesForUser(healthCode);
+                break;
+            case ACTIVITY_EVENTS:
+                activityEventService.deleteActivityEvents(healthCode);
+                break;
+            case EXTERNAL_ID:
+                // Remove the externalId from the table even if validation is not enabled. If the study
+                // turns it off/back on again, we want to track what has changed
+                ParticipantOptionsLookup lookup = optionsService.getOptions(healthCode);
+                String externalId = lookup.getString(EXTERNAL_IDENTIFIER);
+                if (externalId != null) {
+                    externalIdService.unassignExternalId(study, externalId, healthCode);    
+                }
+                break;
+        }
+    }
+    
+    /**
+     * The stages that completed in an earlier attempt to delete the user. The checkpoint only saves work, so if it 
+     * cannot be read, every stage is run again.
+     */
+    private Set<DeletionStage> getCheckpoint(String checkpointKey) {
+        Set<DeletionStage> completed = EnumSet.noneOf(DeletionStage.class);
+        try {
+            String value = cacheProvider.getString(checkpointKey);
+            for (String stage : BridgeUtils.commaListToOrderedSet(value)) {
+                completed.add(DeletionStage.valueOf(stage));
+            }
+        } catch(RuntimeException e) {
+            LOG.warn("Could not read user deletion checkpoint " + checkpointKey, e);
+        }
+        return completed;
+    }
+    
+    /**
+     * Stages complete in parallel, so the set is read and written under its lock; otherwise a write of an earlier 
+     * copy of the set could overwrite a later one.
+     */
+    private void saveCheckpoint(String checkpointKey, Set<DeletionStage> completed) {
+        try {
+            synchronized(completed) {
+                String value = completed.stream().map(DeletionStage::name).collect(Collectors.joining(","));
+                cacheProvider.setString(checkpointKey, value, DELETION_CHECKPOINT_EXPIRE_IN_SECONDS);
             }
-            optionsService.deleteAllParticipantOptions(healthCode);
-            accountDao.deleteAccount(study, account.getId());
+        } catch(RuntimeException e) {
+            LOG.warn("Could not save user deletion checkpoint " + checkpointKey, e);
         }
     }
 }
@@ -1,33 +1,90 @@
 package org.sagebionetworks.bridge.services.backfill;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.annotation.Resource;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.dao.BackfillDao;
 import org.sagebionetworks.bridge.dao.DistributedLockDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.models.backfill.BackfillRecord;
 import org.sagebionetworks.bridge.models.backfill.BackfillStatus;
 import org.sagebionetworks.bridge.models.backfill.BackfillTask;
+import org.sagebionetworks.bridge.util.AdaptiveBackoff;
+import org.sagebionetworks.bridge.util.BoundedFanOut;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * <p>
+ * Runs a backfill in the background, holding a lock so the same backfill doesn't run twice at once.
+ * </p>
+ * <p>
+ * Backfills that work through a sequence of items can hand them to {@link #backfillItems}, which backfills them on a
+ * shared pool of worker threads, no faster than a configured budget of DynamoDB capacity units per second. Throttled
+ * items are retried with a back-off shared by the workers. The number of items finished is saved as a checkpoint on
+ * the task as the backfill goes. If the task fails or is cut off (for example, because the node running it was
+ * restarted), the next run of the backfill resumes the same task from its checkpoint rather than starting over.
+ * </p>
+ * <p>
+ * The lock can expire while a long backfill is still running, so the lock alone doesn't stop a second run from
+ * picking up a task. Each save of the checkpoint also beats the task's heartbeat, and a task that is in process is
+ * only resumed once its heartbeat has gone stale. The updates a run makes to its task are conditional on the version
+ * of the task the run last wrote, so if another run does take the task over, the first run stops at its next save.
+ * </p>
+ */
 @Component
 abstract class AsyncBackfillTemplate implements BackfillService {
 
     private final Logger logger = LoggerFactory.getLogger(AsyncBackfillTemplate.class);
 
+    static final String CONFIG_KEY_THREAD_COUNT = "backfill.thread.count";
+    static final String CONFIG_KEY_CAPACITY_UNITS_PER_SECOND = "backfill.capacity.units.per.second";
+    static final int MAX_ATTEMPTS = 5;
+    static final long MIN_BACKOFF_MILLIS = 100;
+    static final long MAX_BACKOFF_MILLIS = 10000;
+    /** The checkpoint is saved, and progress reported, after this many items. */
+    static final int CHECKPOINT_INTERVAL = 100;
+    /** How far back to look for a task to resume. */
+    static final long RESUME_WINDOW_MILLIS = 7*24*60*60*1000L;
+    /** The checkpoint is also saved, beating the task's heartbeat, when it hasn't been saved for this long. */
+    static final long HEARTBEAT_INTERVAL_MILLIS = 60*1000L;
+    /** A task in process whose heartbeat is older than this is taken to have been cut off. */
+    static final long HEARTBEAT_STALE_MILLIS = 10*60*1000L;
+    private static final Set<String> RESUMABLE_STATUSES = ImmutableSet.of(BackfillStatus.IN_PROCESS.name(),
+            BackfillStatus.FAILED.name());
+
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
 
     private DistributedLockDao lockDao;
     private BackfillDao backfillDao;
     private BackfillRecordFactory backfillRecordFactory;
+    private ExecutorService workerExecutorService;
+    private int workerCount;
+    private double capacityUnitsPerSecond;
 
     @Autowired
     public final void setDistributedLockDao(DistributedLockDao lockDao) {
@@ -47,6 +104,19 @@ abstract class AsyncBackfillTemplate implements BackfillService {
         this.backfillRecordFactory = backfillRecordFactory;
     }
 
+    /** Backfills the items handed to {@link #backfillItems}. */
+    @Resource(name = "backfillExecutorService")
+    public final void setWorkerExecutorService(ExecutorService workerExecutorService) {
+        this.workerExecutorService = workerExecutorService;
+    }
+
+    /** Gets the number of items backfilled at once, and the capacity they may consume, from Config. */
+    @Autowired
+    public final void setConfig(Config config) {
+        this.workerCount = config.getInt(CONFIG_KEY_THREAD_COUNT);
+        this.capacityUnitsPerSecond = config.getInt(CONFIG_KEY_CAPACITY_UNITS_PER_SECOND);
+    }
+
     @Override
     public void backfill(final String user, final String name, final BackfillCallback callback) {
         checkNotNull(user);
@@ -96,23 +166,192 @@ abstract class AsyncBackfillTemplate implements BackfillService {
     }
 
     private void backfillTask(final String user, final String name, final BackfillCallback callback) {
-        BackfillTask task = null;
+        TaskRun run = null;
         try {
-            task = backfillDao.createTask(name, user);
+            BackfillTask task = getRecentTask(name);
+            if (task != null && isRunning(task)) {
+                callback.newRecords(backfillRecordFactory.createOnly(task, "Task " + task.getId() +
+                        " is still running, so it is not resumed or started again."));
+                return;
+            }
+            if (task == null || !isResumable(task)) {
+                task = backfillDao.createTask(name, user);
+            }
             callback.start(task);
-            backfillDao.updateTaskStatus(task.getId(), BackfillStatus.IN_PROCESS);
-            doBackfill(task, callback);
-            backfillDao.updateTaskStatus(task.getId(), BackfillStatus.COMPLETED);
+            run = new TaskRun(task, backfillDao.startTask(task.getId()));
+            doBackfill(run, callback);
+            backfillDao.updateTaskStatus(task.getId(), run.version, BackfillStatus.COMPLETED);
         } catch (Throwable t) {
             logger.error("Backfill task " + name + " has failed.", t);
-            if (task != null) {
-                backfillDao.updateTaskStatus(task.getId(), BackfillStatus.FAILED);
+            if (run != null) {
+                try {
+                    backfillDao.updateTaskStatus(run.getId(), run.version, BackfillStatus.FAILED);
+                } catch (ConcurrentModificationException e) {
+                    logger.warn("Backfill task " + run.getId() + " was taken over by another run, leaving its status");
+                }
             }
         } finally {
             callback.done();
         }
     }
 
+    /** The most recent task of this backfill, or null if there isn't one within the resume window. */
+    private BackfillTask getRecentTask(final String name) {
+        long since = DateTime.now(DateTimeZone.UTC).getMillis() - RESUME_WINDOW_MILLIS;
+        List<? extends BackfillTask> tasks = backfillDao.getTasks(name, since);
+        if (tasks == null || tasks.isEmpty()) {
+            return null;
+        }
+        return tasks.get(tasks.size() - 1);
+    }
+
+    /** Whether the task is in process with a recent heartbeat, so a run is still working on it. */
+    private boolean isRunning(BackfillTask task) {
+        if (!BackfillStatus.IN_PROCESS.name().equals(task.getStatus())) {
+            return false;
+        }
+        Long heartbeat = backfillDao.getTaskHeartbeat(task.getId());
+        return heartbeat != null && DateTime.now(DateTimeZone.UTC).getMillis() - heartbeat < HEARTBEAT_STALE_MILLIS;
+    }
+
+    /** Whether the task, which isn't running, failed or was cut off after saving a checkpoint. */
+    private boolean isResumable(BackfillTask task) {
+        return RESUMABLE_STATUSES.contains(task.getStatus()) && backfillDao.getTaskCheckpoint(task.getId()) != null;
+    }
+
+    /**
+     * <p>
+     * Backfills each item in turn with the given backfiller, several at a time. Items before the task's checkpoint
+     * were finished by an earlier run of the task and are skipped, so the items must come in the same order every
+     * time the backfill runs. An item whose backfill throws is recorded as an error, counted as failed, and the
+     * backfill moves on, so backfillers should let their errors propagate rather than catch them.
+     * </p>
+     * <p>
+     * The key of the last item before the checkpoint is saved with it. When the task is resumed, the item skipped
+     * last must have the same key, or the input has changed and the checkpoint no longer marks the items that were
+     * finished. In that case the task isn't resumed; its checkpoint is reset, so running the backfill again starts
+     * the task over from the first item.
+     * </p>
+     * <p>
+     * The task must be the one handed to {@link #doBackfill}. If another run has taken the task over, the backfill
+     * stops with a ConcurrentModificationException at its next checkpoint.
+     * </p>
+     * <p>
+     * The callback the backfiller is given can safely be called from the worker threads.
+     * </p>
+     */
+    protected <T> void backfillItems(BackfillTask task, BackfillCallback callback, Iterator<T> items,
+            Function<? super T, String> itemKey, ItemBackfiller<T> backfiller) {
+        checkArgument(task instanceof TaskRun, "Items can only be backfilled for the task handed to doBackfill()");
+        TaskRun run = (TaskRun) task;
+        BackfillCallback workerCallback = new SynchronizedCallback(callback);
+
+        // Keys of the items handed to the workers, from the item before the first unfinished one
+        NavigableMap<Long, String> itemKeys = new ConcurrentSkipListMap<>();
+        Long savedCheckpoint = backfillDao.getTaskCheckpoint(task.getId());
+        long index = 0;
+        if (savedCheckpoint != null && savedCheckpoint > 0) {
+            String lastKey = null;
+            while (index < savedCheckpoint && items.hasNext()) {
+                lastKey = itemKey.apply(items.next());
+                index++;
+            }
+            String savedKey = backfillDao.getTaskCheckpointKey(task.getId());
+            if (index < savedCheckpoint || savedKey == null || !savedKey.equals(lastKey)) {
+                run.version = backfillDao.updateTaskCheckpoint(task.getId(), run.version, 0L, null);
+                throw new BridgeServiceException("The input of " + task.getName() + " has changed since its " +
+                        "checkpoint after " + savedCheckpoint + " items, so it can't be resumed. Run the backfill " +
+                        "again to start it over.");
+            }
+            itemKeys.put(index - 1, lastKey);
+            recordMessage(task, workerCallback, "Resuming " + task.getName() + " after " + index + " items");
+        }
+
+        ItemProgress progress = new ItemProgress();
+        RateLimiter rateLimiter = RateLimiter.create(capacityUnitsPerSecond);
+        AdaptiveBackoff backoff = new AdaptiveBackoff(MIN_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+        BoundedFanOut fanOut = new BoundedFanOut(workerExecutorService, workerCount);
+        // Items handed to the workers and not yet finished. Everything before the first of these is done.
+        NavigableSet<Long> inFlight = new ConcurrentSkipListSet<>();
+        long startMillis = System.currentTimeMillis();
+        long savedMillis = startMillis;
+        try {
+            try {
+                while (items.hasNext()) {
+                    T item = items.next();
+                    long itemIndex = index++;
+                    String key = itemKey.apply(item);
+                    itemKeys.put(itemIndex, key);
+                    inFlight.add(itemIndex);
+                    String itemName = "item " + itemIndex + " (" + key + ")";
+                    try {
+                        fanOut.submit(() -> {
+                            try {
+                                backfillItem(task, workerCallback, item, itemName, backfiller, rateLimiter, backoff,
+                                        progress);
+                            } finally {
+                                inFlight.remove(itemIndex);
+                            }
+                        });
+                    } catch (InterruptedException | RuntimeException e) {
+                        inFlight.remove(itemIndex);
+                        throw e;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (index % CHECKPOINT_INTERVAL == 0 || now - savedMillis >= HEARTBEAT_INTERVAL_MILLIS) {
+                        Long firstInFlight = inFlight.ceiling(0L);
+                        long checkpoint = (firstInFlight != null) ? firstInFlight : index;
+                        run.version = backfillDao.updateTaskCheckpoint(task.getId(), run.version, checkpoint,
+                                itemKeys.get(checkpoint - 1));
+                        itemKeys.headMap(checkpoint - 1).clear();
+                        savedMillis = now;
+                        workerCallback.newRecords(progress.toRecord(task, checkpoint, startMillis));
+                    }
+                }
+            } finally {
+                // Wait for the items still in flight, even if the backfill has failed
+                fanOut.awaitCompletion();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeServiceException("Backfill " + task.getName() + " was interrupted");
+        }
+        run.version = backfillDao.updateTaskCheckpoint(task.getId(), run.version, index, itemKeys.get(index - 1));
+        workerCallback.newRecords(progress.toRecord(task, index, startMillis));
+    }
+
+    private <T> void backfillItem(BackfillTask task, BackfillCallback callback, T item, String itemName,
+            ItemBackfiller<T> backfiller, RateLimiter rateLimiter, AdaptiveBackoff backoff, ItemProgress progress) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                backoff.pause();
+                rateLimiter.acquire(getCapacityUnitsPerItem());
+                backfiller.backfill(item, callback);
+                backoff.onSuccess();
+                progress.processed.incrementAndGet();
+                return;
+            } catch (ProvisionedThroughputExceededException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    recordError(task, callback, "Throttled backfilling " + itemName + ", giving up after " +
+                            attempt + " attempts: " + e.getMessage(), e);
+                    progress.failed.incrementAndGet();
+                    return;
+                }
+                backoff.onThrottled();
+                progress.throttled.incrementAndGet();
+            } catch (RuntimeException e) {
+                // Ensure that errors won't fail the entire backfill. Record an error and move on.
+                recordError(task, callback, "Error backfilling " + itemName + ": " + e.getMessage(), e);
+                progress.failed.incrementAndGet();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                progress.failed.incrementAndGet();
+                return;
+            }
+        }
+    }
+
     /**
      * Records the specified message. This is a convenience method that wraps calling the BackfillRecordFactory to
      * create a message on a task and calls the callback with the BackfillRecord.
@@ -135,7 +374,102 @@ abstract class AsyncBackfillTemplate implements BackfillService {
     abstract int getLockExpireInSeconds();
 
     /**
-     * Does the actual backfill for the task. Reports back progress as the backfill goes.
+     * Does the actual backfill for the task. Reports back progress as the backfill goes. The task is the template's
+     * record of this run of the task, to be handed on to {@link #backfillItems}.
      */
     abstract void doBackfill(BackfillTask task, BackfillCallback callback);
+
+    /**
+     * Roughly how many DynamoDB capacity units backfilling one item consumes, for backfills that use
+     * {@link #backfillItems}. Items are rate limited against the configured capacity budget at this cost.
+     */
+    int getCapacityUnitsPerItem() {
+        return 1;
+    }
+
+    /**
+     * Backfills a single item for {@link #backfillItems}.
+     */
+    @FunctionalInterface
+    interface ItemBackfiller<T> {
+        void backfill(T item, BackfillCallback callback);
+    }
+
+    /**
+     * A task, as worked on by one run of the backfill. Holds the version of the task the run last wrote, which its
+     * next update is conditional on. Only the thread running the backfill updates the task.
+     */
+    static final class TaskRun implements BackfillTask {
+        private final BackfillTask task;
+        private long version;
+
+        TaskRun(BackfillTask task, long version) {
+            this.task = checkNotNull(task);
+            this.version = version;
+        }
+
+        @Override
+        public String getId() {
+            return task.getId();
+        }
+        @Override
+        public long getTimestamp() {
+            return task.getTimestamp();
+        }
+        @Override
+        public String getName() {
+            return task.getName();
+        }
+        @Override
+        public String getUser() {
+            return task.getUser();
+        }
+        @Override
+        public String getStatus() {
+            return task.getStatus();
+        }
+    }
+
+    /**
+     * The counts of a running backfill, updated by the worker threads.
+     */
+    private final class ItemProgress {
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger throttled = new AtomicInteger();
+
+        BackfillRecord toRecord(BackfillTask task, long checkpoint, long startMillis) {
+            int processedCount = processed.get();
+            long elapsedMillis = Math.max(1L, System.currentTimeMillis() - startMillis);
+            double itemsPerSecond = processedCount * 1000.0 / elapsedMillis;
+            return backfillRecordFactory.createProgress(task, checkpoint, processedCount, failed.get(),
+                    throttled.get(), itemsPerSecond);
+        }
+    }
+
+    /**
+     * Callbacks write to the response, which isn't safe to do from several worker threads at once.
+     */
+    private static final class SynchronizedCallback implements BackfillCallback {
+        private final BackfillCallback callback;
+
+        SynchronizedCallback(BackfillCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public synchronized void start(BackfillTask task) {
+            callback.start(task);
+        }
+
+        @Override
+        public synchronized void newRecords(BackfillRecord... records) {
+            callback.newRecords(records);
+        }
+
+        @Override
+        public synchronized void done() {
+            callback.done();
+        }
+    }
 }
@@ -93,4 +93,32 @@ public class BackfillRecordFactory {
             }
         };
     }
+
+    /**
+     * Creates a progress report for a running backfill. Like createOnly(), this isn't persisted anywhere.
+     */
+    public BackfillRecord createProgress(final BackfillTask task, final long checkpoint, final int processed,
+            final int failed, final int throttled, final double itemsPerSecond) {
+        checkNotNull(task);
+        return new BackfillRecord() {
+            @Override
+            public String getTaskId() {
+                return task.getId();
+            }
+            @Override
+            public long getTimestamp() {
+                return DateTime.now(DateTimeZone.UTC).getMillis();
+            }
+            @Override
+            public JsonNode toJsonNode() {
+                ObjectNode node = MAPPER.createObjectNode();
+                node.put("checkpoint", checkpoint);
+                node.put("processed", processed);
+                node.put("failed", failed);
+                node.put("throttled", throttled);
+                node.put("itemsPerSecond", Math.round(itemsPerSecond * 100.0) / 100.0);
+                return node;
+            }
+        };
+    }
 }
@@ -1,7 +1,5 @@
 package org.sagebionetworks.bridge.services.backfill;
 
-import java.util.Iterator;
-
 import org.sagebionetworks.bridge.dao.AccountDao;
 import org.sagebionetworks.bridge.models.accounts.AccountSummary;
 import org.sagebionetworks.bridge.models.backfill.BackfillTask;
@@ -36,12 +34,12 @@ public class HealthCodeBackfill extends AsyncBackfillTemplate {
 
     @Override
     void doBackfill(final BackfillTask task, BackfillCallback callback) {
-        for (Iterator<AccountSummary> i = accountDao.getAllAccounts(); i.hasNext();) {
-            AccountSummary summary = i.next();
+        backfillItems(task, callback, accountDao.getAllAccounts(), AccountSummary::getId,
+                (summary, itemCallback) -> {
             Study study = studyService.getStudy(summary.getStudyIdentifier());
-            
+
             // getting the individual account is sufficient to create a mapping if it does not exist.
             accountDao.getAccount(study, summary.getId());
-        }
+        });
     }
 }
@@ -2,8 +2,6 @@ package org.sagebionetworks.bridge.services.backfill;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
-import java.util.Iterator;
-
 import org.sagebionetworks.bridge.dao.AccountDao;
 import org.sagebionetworks.bridge.dao.HealthCodeDao;
 import org.sagebionetworks.bridge.models.accounts.Account;
@@ -51,10 +49,9 @@ public class StudyIdBackfill extends AsyncBackfillTemplate  {
 
     @Override
     void doBackfill(final BackfillTask task, final BackfillCallback callback) {
-        
-        for (Iterator<AccountSummary> i = accountDao.getAllAccounts(); i.hasNext();) {
+        backfillItems(task, callback, accountDao.getAllAccounts(), AccountSummary::getId,
+                (summary, itemCallback) -> {
             // This ensures the healthCode is created.
-            AccountSummary summary = i.next();
             Study study = studyService.getStudy(summary.getStudyIdentifier());
             Account account = accountDao.getAccount(study, summary.getId());
             try {
@@ -62,16 +59,16 @@ public class StudyIdBackfill extends AsyncBackfillTemplate  {
                 final String studyId = healthCodeDao.getStudyIdentifier(healthCode);
                 if (isBlank(studyId)) {
                     String msg = "Backfill needed as study ID is blank.";
-                    callback.newRecords(getBackfillRecordFactory().createOnly(task, study, account, msg));
+                    itemCallback.newRecords(getBackfillRecordFactory().createOnly(task, study, account, msg));
                 } else {
                     String msg = "Study ID already exists.";
-                    callback.newRecords(getBackfillRecordFactory().createOnly(task, study, account, msg));
+                    itemCallback.newRecords(getBackfillRecordFactory().createOnly(task, study, account, msg));
                 }
             } catch (final RuntimeException e) {
                 LOGGER.error(e.getMessage(), e);
                 String msg = e.getClass().getName() + " " + e.getMessage();
-                callback.newRecords(getBackfillRecordFactory().createOnly(task, study, account, msg));
+                itemCallback.newRecords(getBackfillRecordFactory().createOnly(task, study, account, msg));
             }
-        }
+        });
     }
 }
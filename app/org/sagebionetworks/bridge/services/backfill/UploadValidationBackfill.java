@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.services.backfill;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.function.Function;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
@@ -60,10 +61,18 @@ public abstract class UploadValidationBackfill extends AsyncBackfillTemplate {
 
     @Override
     int getLockExpireInSeconds() {
-        // We do roughly one upload per second. One hour should be enough for most cases.
+        // One hour should be enough for most cases. Longer backfills resume from their checkpoint when run again.
         return 3600;
     }
 
+    @Override
+    int getCapacityUnitsPerItem() {
+        // A fixed estimate: reading the upload and health code, writing the record and the upload's validation
+        // status, and a few reads of the study and schema along the way. The capacity validation actually consumes
+        // isn't reported back, and varies with the upload.
+        return 5;
+    }
+
     @Override
     void doBackfill(BackfillTask task, BackfillCallback callback) {
         // get list of upload IDs
@@ -75,34 +84,24 @@ public abstract class UploadValidationBackfill extends AsyncBackfillTemplate {
             throw new RuntimeException(ex);
         }
 
-        for (String oneUploadId : uploadIdList) {
-            // rate limit so we down starve threads or brown out DDB
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ex) {
-                logger.error("Interrupted while sleeping: " + ex.getMessage(), ex);
-            }
-
-            try {
-                // Get upload.
-                Upload oneUpload = uploadDao.getUpload(oneUploadId);
-
-                // Get study ID from health code. Upload validation needs this.
-                String studyId = healthCodeDao.getStudyIdentifier(oneUpload.getHealthCode());
-                StudyIdentifier studyIdentifier = new StudyIdentifierImpl(studyId);
-
-                // Kick off upload validation.
-                uploadValidationService.validateUpload(studyIdentifier, oneUpload);
-
-                recordMessage(task, callback, "Backfilled upload ID " + oneUploadId);
-                logger.info("Backfilled upload ID " + oneUploadId);
-            } catch (RuntimeException ex) {
-                // Ensure that errors won't fail the entire backfill. Log an error and move on.
-                String errMsg = "Error backfilling upload ID " + oneUploadId + ": " + ex.getMessage();
-                logger.error(errMsg, ex);
-                recordMessage(task, callback, errMsg);
-            }
-        }
+        // rate limited by backfillItems(), so we don't starve threads or brown out DDB. Errors are left to
+        // backfillItems(), which retries throttled uploads, and records and counts the uploads that fail.
+        backfillItems(task, callback, uploadIdList.iterator(), Function.identity(),
+                (oneUploadId, itemCallback) -> {
+            // Get upload.
+            Upload oneUpload = uploadDao.getUpload(oneUploadId);
+
+            // Get study ID from health code. Upload validation needs this.
+            String studyId = healthCodeDao.getStudyIdentifier(oneUpload.getHealthCode());
+            StudyIdentifier studyIdentifier = new StudyIdentifierImpl(studyId);
+
+            // Validate the upload in this worker, so the work is governed by backfillItems(). Handing it to the
+            // async thread pool would let the backfill queue validations as fast as it can read uploads.
+            uploadValidationService.validateUploadSynchronously(studyIdentifier, oneUpload);
+
+            recordMessage(task, itemCallback, "Backfilled upload ID " + oneUploadId);
+            logger.info("Backfilled upload ID " + oneUploadId);
+        });
 
         logger.info("UploadValidationBackfill complete");
     }
@@ -4,11 +4,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.sagebionetworks.bridge.BridgeConstants.STORMPATH_NAME_PLACEHOLDER_STRING;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.function.Supplier;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -16,22 +16,17 @@ import org.joda.time.DateTimeZone;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.crypto.BridgeEncryptor;
-import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
-import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.BridgeTypeName;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.AccountStatus;
+import org.sagebionetworks.bridge.models.accounts.EncryptedCustomData;
 import org.sagebionetworks.bridge.models.accounts.HealthId;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 
 /**
  * Account values are decrypted with the appropriate Encryptor implementation based on the version 
@@ -41,27 +36,20 @@ import com.google.common.collect.Maps;
  * and then save the account via the AccountDao.
  * 
  * There are historical exceptions including the "<studyId>version" key for the health ID and 
- * no version for the phone value; these are handled in the current implementation. Again, on 
+ * no version for the phone value; these are handled in EncryptedCustomData. Again, on 
  * updating these values, the version keys will be updated.
+ * 
+ * An account can also be read from a StormpathAccountSnapshot, shared with other readers. The Stormpath account 
+ * resource is then only retrieved when the account is changed, or when the resource itself is needed to save it.
  */
 @BridgeTypeName("Account")
 public class StormpathAccount implements Account {
     
-    private static final TypeReference<List<ConsentSignature>> CONSENT_SIGNATURES_TYPE = new TypeReference<List<ConsentSignature>>() {};
-    private static final ObjectMapper MAPPER = BridgeObjectMapper.get();
-    private static final String PHONE_ATTRIBUTE = "phone";
-    private static final String HEALTH_CODE_SUFFIX = "_code";
-    private static final String CONSENT_SIGNATURE_SUFFIX = "_consent_signature";
-    private static final String CONSENT_SIGNATURES_SUFFIX = "_consent_signatures";
-    private static final String VERSION_SUFFIX = "_version";
-    private static final String OLD_VERSION_SUFFIX = "version";
-    
     private final StudyIdentifier studyIdentifier;
-    private final SortedMap<Integer, BridgeEncryptor> encryptors;
-    private final String healthIdKey;
-    private final String oldHealthIdVersionKey;
-    private final String oldConsentSignatureKey;
-    private final Map<SubpopulationGuid, List<ConsentSignature>> allSignatures;
+    private final EncryptedCustomData encryptedData;
+
+    private final Supplier<com.stormpath.sdk.account.Account> accountLoader;
+    private final StormpathAccountSnapshot snapshot;
 
     private com.stormpath.sdk.account.Account acct;
     private ImmutableSet<Roles> roles;
@@ -69,90 +57,106 @@ public class StormpathAccount implements Account {
     
     StormpathAccount(StudyIdentifier studyIdentifier, List<? extends SubpopulationGuid> subpopGuids,
             com.stormpath.sdk.account.Account acct, SortedMap<Integer, BridgeEncryptor> encryptors) {
+        this(studyIdentifier, subpopGuids, null, null, encryptors);
+        checkNotNull(acct);
+        setAccount(acct);
+    }
+    
+    /**
+     * An account read from a snapshot. The accountLoader retrieves the Stormpath account resource the first time 
+     * the account is changed.
+     */
+    StormpathAccount(StudyIdentifier studyIdentifier, List<? extends SubpopulationGuid> subpopGuids,
+            StormpathAccountSnapshot snapshot, Supplier<com.stormpath.sdk.account.Account> accountLoader,
+            SortedMap<Integer, BridgeEncryptor> encryptors) {
         checkNotNull(studyIdentifier);
         checkNotNull(subpopGuids);
-        checkNotNull(acct);
         checkNotNull(encryptors);
 
-        String studyId = studyIdentifier.getIdentifier();
-        
-        setAccount(acct);
         this.studyIdentifier = studyIdentifier;
-        this.encryptors = encryptors;
-        this.healthIdKey = studyId + HEALTH_CODE_SUFFIX;
-        this.oldHealthIdVersionKey = studyId + OLD_VERSION_SUFFIX;
-        this.oldConsentSignatureKey = studyId + CONSENT_SIGNATURE_SUFFIX;
-        this.allSignatures = Maps.newHashMap();
-        
-        for (SubpopulationGuid subpopGuid : subpopGuids) {
-            List<ConsentSignature> signatures = decryptJSONFrom(subpopGuid.getGuid()+CONSENT_SIGNATURES_SUFFIX, CONSENT_SIGNATURES_TYPE);
-            if (signatures == null || signatures.isEmpty()) {
-                ConsentSignature sig = decryptJSONFrom(subpopGuid.getGuid()+CONSENT_SIGNATURE_SUFFIX, ConsentSignature.class);
-                if (sig != null) {
-                    getConsentSignatureHistory(subpopGuid).add(sig);
-                }
-            } else {
-                getConsentSignatureHistory(subpopGuid).addAll(signatures);
-            }
+        this.snapshot = snapshot;
+        this.accountLoader = accountLoader;
+        this.encryptedData = new EncryptedCustomData(studyIdentifier, subpopGuids,
+                () -> (this.acct != null) ? this.acct.getCustomData() : this.snapshot.getCustomData(), encryptors);
+        if (snapshot != null) {
+            checkNotNull(accountLoader);
+            this.roles = ImmutableSet.copyOf(snapshot.getRoles());
         }
     }
     
     public com.stormpath.sdk.account.Account getAccount() {
-        for (Map.Entry<SubpopulationGuid, List<ConsentSignature>> entry : allSignatures.entrySet()) {
-            encryptJSONTo(entry.getKey().getGuid()+CONSENT_SIGNATURES_SUFFIX, entry.getValue());
-        }
+        loadAccount();
+        encryptedData.writeConsentSignatureHistories();
         return acct;
     }
     public void setAccount(com.stormpath.sdk.account.Account acct) {
         this.acct = acct;
+        this.encryptedData.clearDecryptedValues();
         this.roles = ImmutableSet.copyOf(BridgeUtils.convertRolesQuietly(acct.getGroups()));
     }
     
+    /**
+     * Retrieve the Stormpath account resource of an account read from a snapshot, before it is changed. Changes 
+     * made so far (roles, and consent signatures that haven't been written to custom data) are kept.
+     */
+    private com.stormpath.sdk.account.Account loadAccount() {
+        if (acct == null) {
+            com.stormpath.sdk.account.Account loaded = accountLoader.get();
+            if (loaded == null) {
+                throw new EntityNotFoundException(Account.class);
+            }
+            this.acct = loaded;
+            this.encryptedData.clearDecryptedValues();
+        }
+        return acct;
+    }
+    
     @Override
     public String getFirstName() {
-        String firstName = acct.getGivenName();
+        String firstName = (acct != null) ? acct.getGivenName() : snapshot.getGivenName();
         return (STORMPATH_NAME_PLACEHOLDER_STRING.equals(firstName)) ? null : firstName;
     }
     @Override
     public void setFirstName(String firstName) {
         if (isBlank(firstName)) {
-            acct.setGivenName(STORMPATH_NAME_PLACEHOLDER_STRING);
+            loadAccount().setGivenName(STORMPATH_NAME_PLACEHOLDER_STRING);
         } else {
-            acct.setGivenName(firstName);    
+            loadAccount().setGivenName(firstName);    
         }
     }
     @Override
     public String getLastName() {
-        String lastName = acct.getSurname();
+        String lastName = (acct != null) ? acct.getSurname() : snapshot.getSurname();
         return (STORMPATH_NAME_PLACEHOLDER_STRING.equals(lastName)) ? null : lastName;
     }
     @Override
     public void setLastName(String lastName) {
         if (isBlank(lastName)) {
-            acct.setSurname(STORMPATH_NAME_PLACEHOLDER_STRING);
+            loadAccount().setSurname(STORMPATH_NAME_PLACEHOLDER_STRING);
         } else {
-            acct.setSurname(lastName);    
+            loadAccount().setSurname(lastName);    
         }
     }
     @Override
     public String getAttribute(String name) {
-        return decryptFrom(name);
+        return encryptedData.get(name);
     }
     @Override
     public void setAttribute(String name, String value) {
-        encryptTo(name, value);
+        loadAccount();
+        encryptedData.put(name, value);
     }
     @Override
     public String getEmail() {
-        return acct.getEmail();
+        return (acct != null) ? acct.getEmail() : snapshot.getEmail();
     }
     @Override
     public void setEmail(String email) {
-        acct.setEmail(email);
+        loadAccount().setEmail(email);
         acct.setUsername(email);
     }
     public String getHealthId(){
-        return decryptFrom(healthIdKey);
+        return encryptedData.getHealthId();
     }
     @Override
     public String getHealthCode(){
@@ -161,18 +165,21 @@ public class StormpathAccount implements Account {
     @Override
     public void setHealthId(HealthId healthId) {
         if (healthId != null) {
-            encryptTo(healthIdKey, healthId.getId());
+            // Setting the health ID an account read from a snapshot already has doesn't change the account
+            if (acct != null || !healthId.getId().equals(encryptedData.getHealthId())) {
+                loadAccount();
+                encryptedData.setHealthId(healthId.getId());
+            }
             this.healthCode = healthId.getCode();
         }
     };
     @Override
     public List<ConsentSignature> getConsentSignatureHistory(SubpopulationGuid subpopGuid) {
-        allSignatures.putIfAbsent(subpopGuid, Lists.newArrayList());
-        return allSignatures.get(subpopGuid);
+        return encryptedData.getConsentSignatureHistory(subpopGuid);
     }
     @Override
     public Map<SubpopulationGuid, List<ConsentSignature>> getAllConsentSignatureHistories() {
-        return allSignatures;
+        return encryptedData.getAllConsentSignatureHistories();
     }
     @Override
     public StudyIdentifier getStudyIdentifier() {
@@ -188,124 +195,22 @@ public class StormpathAccount implements Account {
     }
     @Override
     public String getId() {
-        return BridgeUtils.getIdFromStormpathHref(acct.getHref());
+        return BridgeUtils.getIdFromStormpathHref((acct != null) ? acct.getHref() : snapshot.getHref());
     }
     @Override
     public AccountStatus getStatus() {
-        return AccountStatus.valueOf(acct.getStatus().name());
+        com.stormpath.sdk.account.AccountStatus status = (acct != null) ? acct.getStatus() : snapshot.getStatus();
+        return AccountStatus.valueOf(status.name());
     };
     @Override
     public void setStatus(AccountStatus status) {
-        acct.setStatus(com.stormpath.sdk.account.AccountStatus.valueOf(status.name()));
+        loadAccount().setStatus(com.stormpath.sdk.account.AccountStatus.valueOf(status.name()));
     };
     @Override
     public DateTime getCreatedOn() {
-        java.util.Date javaDate = acct.getCreatedAt();
+        java.util.Date javaDate = (acct != null) ? acct.getCreatedAt() : snapshot.getCreatedAt();
         return (javaDate == null) ? null : new DateTime(javaDate).withZone(DateTimeZone.UTC); 
     }
-    private void encryptJSONTo(String key, Object value) {
-        if (value == null) {
-            acct.getCustomData().remove(key);
-            acct.getCustomData().remove(key+VERSION_SUFFIX);
-            return;
-        }
-        try {
-            String jsonString = MAPPER.writeValueAsString(value);
-            encryptTo(key, jsonString);
-        } catch(JsonProcessingException e) {
-            String message = String.format("Could not store %s due to malformed JSON: %s", key, e.getMessage());
-            throw new BridgeServiceException(message);
-        }
-    }
-    
-    private <T> T decryptJSONFrom(String key, TypeReference<T> reference) {
-        try {
-            String jsonString = decryptFrom(key);
-            if (jsonString == null) {
-                return null;
-            }
-            return MAPPER.readValue(jsonString, reference);
-        } catch(IOException e) {
-            String message = String.format("Could not retrieve %s due to malformed JSON: %s", key, e.getMessage());
-            throw new BridgeServiceException(message);
-        }
-    }
-    
-    private <T> T decryptJSONFrom(String key, Class<T> clazz) {
-        try {
-            String jsonString = decryptFrom(key);
-            if (jsonString == null) {
-                return null;
-            }
-            return MAPPER.readValue(jsonString, clazz);
-        } catch(IOException e) {
-            String message = String.format("Could not retrieve %s due to malformed JSON: %s", key, e.getMessage());
-            throw new BridgeServiceException(message);
-        }
-    }
-    
-    private void encryptTo(String key, String value) {
-        if (value == null) {
-            acct.getCustomData().remove(key);
-            acct.getCustomData().remove(key+VERSION_SUFFIX);
-            return;
-        }
-        // Encryption is always done with the most recent encryptor, which is last in the list (most revent version #)
-        Integer encryptorKey = encryptors.lastKey();
-        BridgeEncryptor encryptor = encryptors.get(encryptorKey);
-
-        String encrypted = encryptor.encrypt(value);
-        acct.getCustomData().put(key+VERSION_SUFFIX, encryptor.getVersion());
-        acct.getCustomData().put(key, encrypted);
-    }
-    
-    private String decryptFrom(String key) {
-        String encryptedString = (String)acct.getCustomData().get(key);
-        if (encryptedString == null) {
-            return null;
-        }
-        // Decryption is always done with the version that was used for encryption.
-        Integer version = getVersionAccountingForExceptions(key);
-        BridgeEncryptor encryptor = encryptors.get(version);
-        if (encryptor == null) {
-            throw new BridgeServiceException("No encryptor can be found for version " + version);
-        }
-        return encryptor.decrypt(encryptedString);
-    }
-    
-    /**
-     * Historically there have been two special cases: health Ids were stored with a format
-     * for the version that wasn't generically applicable to other attributes in the customData object,
-     * and phone numbers were stored with no separate version at all.
-     * @param key
-     * @return
-     */
-    private Integer getVersionAccountingForExceptions(String key) {
-        String versionKey = key+VERSION_SUFFIX;
-        Integer version = (Integer)acct.getCustomData().get(versionKey);
-        if (version == null) {
-            // Special case #1: the original health id version format is being used (studyIdversion), not the newer per-field key format
-            // (studyId_code_version)
-            if (healthIdKey.equals(key)) {
-                versionKey = oldHealthIdVersionKey;
-                version = (Integer)acct.getCustomData().get(versionKey);
-            } 
-            // Special case #2: phone without a version string
-            else if (PHONE_ATTRIBUTE.equals(key)) {
-                version = 2;
-            }
-            // Special case #3: existing consent signature has no version. Again, assume version 2 for now. 
-            else if (oldConsentSignatureKey.equals(key)) {
-                version = 2;
-            }
-        }
-        if (version == null) {
-            // Get the most recent key. We've only ever used v2 in production so in the rare case where we 
-            // don't have the version of the encryptor saved alongside the attribute, this should be correct.
-            version = encryptors.lastKey();
-        }
-        return version;
-    }
     
     @Override
     public String toString() {
@@ -16,13 +16,17 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Resource;
 
 import org.sagebionetworks.bridge.BridgeConstants;
+import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.Roles;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.config.Environment;
+import org.sagebionetworks.bridge.config.StormpathAccountDaoCondition;
 import org.sagebionetworks.bridge.crypto.BridgeEncryptor;
 import org.sagebionetworks.bridge.dao.AccountDao;
 import org.sagebionetworks.bridge.exceptions.AccountDisabledException;
@@ -41,12 +45,11 @@ import org.sagebionetworks.bridge.models.accounts.PasswordReset;
 import org.sagebionetworks.bridge.models.accounts.SignIn;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
-import org.sagebionetworks.bridge.models.subpopulations.Subpopulation;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
+import org.sagebionetworks.bridge.redis.RedisKey;
 import org.sagebionetworks.bridge.services.HealthCodeService;
 import org.sagebionetworks.bridge.services.StudyService;
 import org.sagebionetworks.bridge.services.SubpopulationService;
-import org.sagebionetworks.bridge.util.BridgeCollectors;
 
 import com.stormpath.sdk.directory.CustomData;
 
@@ -54,8 +57,11 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.stereotype.Component;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -78,6 +84,7 @@ import com.stormpath.sdk.impl.resource.AbstractResource;
 import com.stormpath.sdk.resource.ResourceException;
 
 @Component("stormpathAccountDao")
+@Conditional(StormpathAccountDaoCondition.class)
 public class StormpathAccountDao implements AccountDao {
 
     private static DateTime DISTANT_PAST = DateTime.parse("2000-01-01T00:00:00.000Z");
@@ -85,6 +92,11 @@ public class StormpathAccountDao implements AccountDao {
     
     private static Logger logger = LoggerFactory.getLogger(StormpathAccountDao.class);
 
+    /** How long a snapshot of an account read from Stormpath is reused before it is retrieved again. */
+    static final int ACCOUNT_CACHE_EXPIRE_IN_SECONDS = 30;
+    private static final int ACCOUNT_CACHE_MAX_SIZE = 5000;
+    static final int ACCOUNT_VERSION_EXPIRE_IN_SECONDS = 24 * 60 * 60;
+
     private Application application;
     private Client client;
     private boolean isProd;
@@ -92,6 +104,11 @@ public class StormpathAccountDao implements AccountDao {
     private SubpopulationService subpopService;
     private HealthCodeService healthCodeService;
     private SortedMap<Integer, BridgeEncryptor> encryptors = Maps.newTreeMap();
+    private CacheProvider cacheProvider;
+    // Snapshots are keyed by the account's version and ID, so an account that changes is read under a new key
+    private final Cache<String, StormpathAccountSnapshot> accountCache = CacheBuilder.newBuilder()
+            .maximumSize(ACCOUNT_CACHE_MAX_SIZE)
+            .expireAfterWrite(ACCOUNT_CACHE_EXPIRE_IN_SECONDS, TimeUnit.SECONDS).build();
 
     /** Grab some config attributes from our config object. */
     @Autowired
@@ -119,6 +136,10 @@ public class StormpathAccountDao implements AccountDao {
     final void setHealthCodeService(HealthCodeService healthCodeService) {
         this.healthCodeService = healthCodeService;
     }
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
     @Resource(name="encryptorList")
     final void setEncryptors(List<BridgeEncryptor> list) {
         for (BridgeEncryptor encryptor : list) {
@@ -152,6 +173,18 @@ public class StormpathAccountDao implements AccountDao {
         return new StormpathAccountIterator(study.getStudyIdentifier(), directory.getAccounts(criteria).iterator());
     }
 
+    @Override
+    public Iterator<Account> getFullStudyAccounts(Study study) {
+        checkNotNull(study);
+        
+        // Expand everything getAccount() expands, so constructing an account makes no further calls to Stormpath
+        AccountCriteria criteria = Accounts.criteria().limitTo(100).withCustomData().withGroups()
+                .withGroupMemberships();
+        
+        Directory directory = client.getResource(study.getStormpathHref(), Directory.class);
+        return Iterators.transform(directory.getAccounts(criteria).iterator(), acct -> constructAccount(study, acct));
+    }
+
     @Override
     public PagedResourceList<AccountSummary> getPagedAccountSummaries(Study study, int offsetBy, int pageSize,
             String emailFilter, DateTime startDate, DateTime endDate) {
@@ -202,7 +235,10 @@ public class StormpathAccountDao implements AccountDao {
         checkNotNull(verification);
         
         try {
-            client.verifyAccountEmail(verification.getSptoken());
+            com.stormpath.sdk.account.Account acct = client.verifyAccountEmail(verification.getSptoken());
+            if (acct != null) {
+                accountChanged(BridgeUtils.getIdFromStormpathHref(acct.getHref()));
+            }
         } catch(ResourceException e) {
             rethrowResourceException(e, null);
         }
@@ -288,11 +324,43 @@ public class StormpathAccountDao implements AccountDao {
         throw new BridgeServiceException("Authentication failed");
     }
 
+    /**
+     * Accounts are read from a short-lived, local cache of snapshots when possible. A snapshot is cached under the 
+     * account's current version in Redis, which changes whenever any server updates or deletes the account, so a 
+     * changed account is never read from an earlier snapshot. Each caller gets its own StormpathAccount, which 
+     * retrieves the Stormpath account resource only if it is changed.
+     */
     @Override
     public Account getAccount(Study study, String identifier) {
         checkNotNull(study);
         checkArgument(isNotBlank(identifier));
         
+        String cacheKey = CacheProvider.getVersionedKey(getAccountVersion(identifier), identifier);
+        StormpathAccountSnapshot snapshot = accountCache.getIfPresent(cacheKey);
+        if (snapshot != null) {
+            // Validate the user is in the correct directory
+            if (!snapshot.getDirectoryHref().equals(study.getStormpathHref())) {
+                return null;
+            }
+            List<SubpopulationGuid> subpopGuids = getSubpopulationGuids(study);
+            return constructAccount(study, new StormpathAccount(study.getStudyIdentifier(), subpopGuids, snapshot,
+                    () -> retrieveAccount(identifier), encryptors));
+        }
+        
+        com.stormpath.sdk.account.Account acct = retrieveAccount(identifier);
+        if (acct != null) {
+            snapshot = new StormpathAccountSnapshot(acct);
+            accountCache.put(cacheKey, snapshot);
+            // Validate the user is in the correct directory
+            if (snapshot.getDirectoryHref().equals(study.getStormpathHref())) {
+                return constructAccount(study, acct);
+            }
+        }
+        return null;
+    }
+    
+    /** Retrieve the account from Stormpath, or return null if it does not exist. */
+    private com.stormpath.sdk.account.Account retrieveAccount(String identifier) {
         String href = BridgeConstants.STORMPATH_ACCOUNT_BASE_HREF+identifier;
 
         AccountOptions<?> options = Accounts.options();
@@ -300,13 +368,7 @@ public class StormpathAccountDao implements AccountDao {
         options.withGroups();
         options.withGroupMemberships();
         try {
-            com.stormpath.sdk.account.Account acct = client.getResource(href, com.stormpath.sdk.account.Account.class, options);
-
-            // Validate the user is in the correct directory
-            Directory directory = acct.getDirectory();
-            if (directory.getHref().equals(study.getStormpathHref())) {
-                return constructAccount(study, acct);
-            }
+            return client.getResource(href, com.stormpath.sdk.account.Account.class, options);
         } catch(ResourceException e) {
             // In keeping with the email implementation, just return null
             logger.debug("Account ID " + identifier + " not found in Stormpath: " + e.getMessage());
@@ -394,6 +456,8 @@ public class StormpathAccountDao implements AccountDao {
             }
         } catch(ResourceException e) {
             rethrowResourceException(e, account);
+        } finally {
+            accountChanged(account.getId());
         }
 
         // validate custom data
@@ -463,7 +527,11 @@ public class StormpathAccountDao implements AccountDao {
         
         Account account = getAccount(study, id);
         com.stormpath.sdk.account.Account acct =((StormpathAccount)account).getAccount();
-        acct.delete();
+        try {
+            acct.delete();
+        } finally {
+            accountChanged(id);
+        }
     }
     
     /**
@@ -474,7 +542,10 @@ public class StormpathAccountDao implements AccountDao {
         checkNotNull(acct);
         
         List<SubpopulationGuid> subpopGuids = getSubpopulationGuids(studyId);
-        StormpathAccount account = new StormpathAccount(studyId, subpopGuids, acct, encryptors);
+        return constructAccount(studyId, new StormpathAccount(studyId, subpopGuids, acct, encryptors));
+    }
+    
+    private Account constructAccount(StudyIdentifier studyId, StormpathAccount account) {
         HealthId healthId = null;
         if (account.getHealthCode() == null) {
             healthId = healthCodeService.getMapping(account.getHealthId());
@@ -551,10 +622,26 @@ public class StormpathAccountDao implements AccountDao {
         removedGroupSet.forEach(acct::removeGroup);
     }
     
+    private String getAccountVersion(String id) {
+        String versionKey = RedisKey.ACCOUNT_VERSION.getRedisKey(id);
+        String version = cacheProvider.getString(versionKey);
+        if (version == null) {
+            // Start a new version rather than reuse an absent one, as the account may have changed under the 
+            // versions before it.
+            version = cacheProvider.incrementVersion(versionKey, ACCOUNT_VERSION_EXPIRE_IN_SECONDS);
+        }
+        return version;
+    }
+
+    /** Move the account to a new version, so no server reads it from a snapshot taken before the change. */
+    private void accountChanged(String id) {
+        if (id != null) {
+            cacheProvider.incrementVersion(RedisKey.ACCOUNT_VERSION.getRedisKey(id), 
+                    ACCOUNT_VERSION_EXPIRE_IN_SECONDS);
+        }
+    }
+
     private List<SubpopulationGuid> getSubpopulationGuids(StudyIdentifier studyId) {
-        return subpopService.getSubpopulations(studyId)
-                .stream()
-                .map(Subpopulation::getGuid)
-                .collect(BridgeCollectors.toImmutableList());
+        return subpopService.getSubpopulationGuids(studyId);
     }
 }
@@ -0,0 +1,74 @@
+package org.sagebionetworks.bridge.stormpath;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.Roles;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * An immutable copy of the values StormpathAccount reads from a Stormpath account resource. Stormpath resources are
+ * mutable and track unsaved changes, so they can't be shared between callers; a snapshot can be, and each caller
+ * wraps it in its own StormpathAccount.
+ */
+final class StormpathAccountSnapshot {
+    private final String href;
+    private final String directoryHref;
+    private final String givenName;
+    private final String surname;
+    private final String email;
+    private final com.stormpath.sdk.account.AccountStatus status;
+    private final Long createdAt;
+    private final Set<Roles> roles;
+    private final Map<String, Object> customData;
+
+    StormpathAccountSnapshot(com.stormpath.sdk.account.Account acct) {
+        this.href = acct.getHref();
+        this.directoryHref = acct.getDirectory().getHref();
+        this.givenName = acct.getGivenName();
+        this.surname = acct.getSurname();
+        this.email = acct.getEmail();
+        this.status = acct.getStatus();
+        this.createdAt = (acct.getCreatedAt() == null) ? null : acct.getCreatedAt().getTime();
+        this.roles = ImmutableSet.copyOf(BridgeUtils.convertRolesQuietly(acct.getGroups()));
+        // Custom data can hold null values, so it can't be copied into an ImmutableMap
+        Map<String, Object> customDataCopy = new HashMap<>();
+        for (Map.Entry<String, Object> entry : acct.getCustomData().entrySet()) {
+            customDataCopy.put(entry.getKey(), entry.getValue());
+        }
+        this.customData = Collections.unmodifiableMap(customDataCopy);
+    }
+
+    String getHref() {
+        return href;
+    }
+    String getDirectoryHref() {
+        return directoryHref;
+    }
+    String getGivenName() {
+        return givenName;
+    }
+    String getSurname() {
+        return surname;
+    }
+    String getEmail() {
+        return email;
+    }
+    com.stormpath.sdk.account.AccountStatus getStatus() {
+        return status;
+    }
+    Date getCreatedAt() {
+        return (createdAt == null) ? null : new Date(createdAt);
+    }
+    Set<Roles> getRoles() {
+        return roles;
+    }
+    Map<String, Object> getCustomData() {
+        return customData;
+    }
+}
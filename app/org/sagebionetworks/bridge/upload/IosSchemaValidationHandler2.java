@@ -1,8 +1,8 @@
 package org.sagebionetworks.bridge.upload;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -44,8 +44,9 @@ import org.sagebionetworks.bridge.services.UploadSchemaService;
 /**
  * <p>
  * Processes iOS data into health data records. This handler reads from
- * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUnzippedDataMap} and
- * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getJsonDataMap} and writes to
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUnzippedDataMap},
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getJsonDataMap} and
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getRawJsonDataMap} and writes to
  * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setHealthDataRecordBuilder} and
  * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setAttachmentsByFieldName}.
  * </p>
@@ -130,6 +131,10 @@ public class IosSchemaValidationHandler2 implements UploadValidationHandler {
             throws UploadValidationException {
         Map<String, JsonNode> jsonDataMap = context.getJsonDataMap();
         Map<String, byte[]> unzippedDataMap = context.getUnzippedDataMap();
+        Map<String, byte[]> rawJsonDataMap = context.getRawJsonDataMap();
+        if (rawJsonDataMap == null) {
+            rawJsonDataMap = new HashMap<>();
+        }
         Upload upload = context.getUpload();
         String uploadId = upload.getUploadId();
         StudyIdentifier study = context.getStudy();
@@ -158,8 +163,10 @@ public class IosSchemaValidationHandler2 implements UploadValidationHandler {
         recordBuilder.withMetadata(infoJson);
 
         // validate and normalize filenames
-        validateInfoJsonFileList(context, uploadId, jsonDataMap, unzippedDataMap, infoJson, recordBuilder);
+        validateInfoJsonFileList(context, uploadId, jsonDataMap, rawJsonDataMap, unzippedDataMap, infoJson,
+                recordBuilder);
         removeTimestampsFromFilenames(jsonDataMap);
+        removeTimestampsFromFilenames(rawJsonDataMap);
         removeTimestampsFromFilenames(unzippedDataMap);
 
         // schema
@@ -170,11 +177,16 @@ public class IosSchemaValidationHandler2 implements UploadValidationHandler {
         UploadSchemaType schemaType = schema.getSchemaType();
         if (schemaType == UploadSchemaType.IOS_SURVEY) {
             // Convert survey format to JSON data format. This means creating a JSON data map where the "filenames" are
-            // just the question names (items) and the file data is the answer JSON node.
-            Map<String, JsonNode> convertedSurveyMap = convertSurveyToJsonData(context, uploadId, jsonDataMap);
-            handleData(context, uploadId, convertedSurveyMap, unzippedDataMap, schema, dataMap, attachmentMap);
+            // just the question names (items) and the file data is the answer JSON node. Survey answers are small,
+            // and the conversion needs all of them, so we parse every file here.
+            Map<String, JsonNode> parsedJsonDataMap = parseRawJsonData(context, uploadId, jsonDataMap,
+                    rawJsonDataMap);
+            Map<String, JsonNode> convertedSurveyMap = convertSurveyToJsonData(context, uploadId, parsedJsonDataMap);
+            handleData(context, uploadId, convertedSurveyMap, ImmutableMap.<String, byte[]>of(), unzippedDataMap,
+                    schema, dataMap, attachmentMap);
         } else if (schemaType == UploadSchemaType.IOS_DATA) {
-            handleData(context, uploadId, jsonDataMap, unzippedDataMap, schema, dataMap, attachmentMap);
+            handleData(context, uploadId, jsonDataMap, rawJsonDataMap, unzippedDataMap, schema, dataMap,
+                    attachmentMap);
         } else {
             throw new UploadValidationException(String.format("Invalid schema type %s", schemaType));
         }
@@ -265,13 +277,14 @@ public class IosSchemaValidationHandler2 implements UploadValidationHandler {
     }
 
     private static void validateInfoJsonFileList(UploadValidationContext context, String uploadId,
-            Map<String, JsonNode> jsonDataMap, Map<String, byte[]> unzippedDataMap, JsonNode infoJson,
-            HealthDataRecordBuilder recordBuilder) {
+            Map<String, JsonNode> jsonDataMap, Map<String, byte[]> rawJsonDataMap, Map<String, byte[]> unzippedDataMap,
+            JsonNode infoJson, HealthDataRecordBuilder recordBuilder) {
         // Make sure all files specified by info.json are accounted for.
-        // Because ParseJsonHandler moves files from unzippedDataMap to jsonDataMap, there is no overlap between the
-        // two maps.
+        // Because ParseJsonHandler moves files from unzippedDataMap to jsonDataMap or rawJsonDataMap, there is no
+        // overlap between the three maps.
         Set<String> fileNameSet = new HashSet<>();
         fileNameSet.addAll(jsonDataMap.keySet());
+        fileNameSet.addAll(rawJsonDataMap.keySet());
         fileNameSet.addAll(unzippedDataMap.keySet());
 
         // fileList.size() should be exactly 1 less than fileNameSet.size(), because fileList.size() doesn't include
@@ -433,17 +446,50 @@ public class IosSchemaValidationHandler2 implements UploadValidationHandler {
         return convertedSurveyMap;
     }
 
+    private static Map<String, JsonNode> parseRawJsonData(UploadValidationContext context, String uploadId,
+            Map<String, JsonNode> jsonDataMap, Map<String, byte[]> rawJsonDataMap) {
+        Map<String, JsonNode> parsedJsonDataMap = new HashMap<>(jsonDataMap);
+        for (Map.Entry<String, byte[]> oneRawJsonFile : rawJsonDataMap.entrySet()) {
+            String filename = oneRawJsonFile.getKey();
+            try {
+                parsedJsonDataMap.put(filename, BridgeObjectMapper.get().readTree(oneRawJsonFile.getValue()));
+            } catch (IOException ex) {
+                context.addMessage(String.format("Upload ID %s file %s could not be parsed as JSON: %s", uploadId,
+                        filename, ex.getMessage()));
+            }
+        }
+        return parsedJsonDataMap;
+    }
+
     // Note that handleSurvey() converts the survey format into the data format, treating each answer as its own file
     // with filename equal to the question name and JsonNode equal to the answer.
     private static void handleData(UploadValidationContext context, String uploadId,
-            Map<String, JsonNode> jsonDataMap, Map<String, byte[]> unzippedDataMap, UploadSchema schema,
-            ObjectNode dataMap, Map<String, byte[]> attachmentMap) {
-        // Get flattened JSON data map (key is filename.fieldname), because schemas can reference fields either by
-        // filename.fieldname or wholly by filename.
-        // Note that this includes both the flattened map (filename.fieldname) and the whole file (filename).
-        Map<String, JsonNode> flattenedJsonDataMap = flattenJsonDataMap(jsonDataMap);
-
-        Map<String, JsonNode> sanitizedFlattenedJsonDataMap = sanitizeFieldNames(flattenedJsonDataMap);
+            Map<String, JsonNode> jsonDataMap, Map<String, byte[]> rawJsonDataMap,
+            Map<String, byte[]> unzippedDataMap, UploadSchema schema, ObjectNode dataMap,
+            Map<String, byte[]> attachmentMap) {
+        // Pull the values the schema references out of the JSON files, keyed by (sanitized) filename.fieldname or
+        // filename. Files that are still bytes are streamed, so only the referenced fields are ever built, and whole
+        // files referenced as attachments are kept as they were uploaded.
+        JsonExtractionPlan extractionPlan = new JsonExtractionPlan(schema);
+        Map<String, JsonNode> jsonFieldValueMap = new HashMap<>();
+        Map<String, byte[]> rawJsonAttachmentMap = new HashMap<>();
+        for (Map.Entry<String, JsonNode> oneJsonFile : jsonDataMap.entrySet()) {
+            String filename = oneJsonFile.getKey();
+            if (!filename.equals(FILENAME_INFO_JSON)) {
+                extractionPlan.extract(filename, oneJsonFile.getValue(), jsonFieldValueMap);
+            }
+        }
+        for (Map.Entry<String, byte[]> oneRawJsonFile : rawJsonDataMap.entrySet()) {
+            String filename = oneRawJsonFile.getKey();
+            try {
+                extractionPlan.extract(filename, oneRawJsonFile.getValue(), jsonFieldValueMap,
+                        rawJsonAttachmentMap);
+            } catch (IOException ex) {
+                context.addMessage(String.format("Upload ID %s file %s could not be parsed as JSON: %s", uploadId,
+                        filename, ex.getMessage()));
+            }
+        }
+
         Map<String, byte[]> sanitizedUnzippedDataMap = sanitizeFieldNames(unzippedDataMap);
 
         // Using schema, copy fields over to data map. Or if it's an attachment, add it to the attachment map.
@@ -452,38 +498,15 @@ public class IosSchemaValidationHandler2 implements UploadValidationHandler {
 
             if (sanitizedUnzippedDataMap.containsKey(fieldName)) {
                 addAttachment(attachmentMap, fieldName, sanitizedUnzippedDataMap.get(fieldName));
-            } else if (sanitizedFlattenedJsonDataMap.containsKey(fieldName)) {
-                copyJsonField(context, uploadId, sanitizedFlattenedJsonDataMap.get(fieldName), oneFieldDef, dataMap,
+            } else if (rawJsonAttachmentMap.containsKey(fieldName)) {
+                addAttachment(attachmentMap, fieldName, rawJsonAttachmentMap.get(fieldName));
+            } else if (jsonFieldValueMap.containsKey(fieldName)) {
+                copyJsonField(context, uploadId, jsonFieldValueMap.get(fieldName), oneFieldDef, dataMap,
                         attachmentMap);
             }
         }
     }
 
-    private static Map<String, JsonNode> flattenJsonDataMap(Map<String, JsonNode> jsonDataMap) {
-        Map<String, JsonNode> dataFieldMap = new HashMap<>();
-        for (Map.Entry<String, JsonNode> oneJsonFile : jsonDataMap.entrySet()) {
-            String filename = oneJsonFile.getKey();
-            if (filename.equals(FILENAME_INFO_JSON)) {
-                // Not info.json. Skip.
-                continue;
-            }
-
-            JsonNode oneJsonFileNode = oneJsonFile.getValue();
-            Iterator<String> fieldNameIter = oneJsonFileNode.fieldNames();
-            while (fieldNameIter.hasNext()) {
-                // Pre-pend file name with field name, so if there are duplicate filenames, they get disambiguated.
-                String oneFieldName = fieldNameIter.next();
-                dataFieldMap.put(filename + "." + oneFieldName, oneJsonFileNode.get(oneFieldName));
-            }
-
-            // Add the whole JSON file into the flattened map. This allows us to simplify some codepaths further down
-            // the chain.
-            dataFieldMap.put(filename, oneJsonFileNode);
-        }
-
-        return dataFieldMap;
-    }
-
     // Sanitize the field names from the upload to match the rules for sanitizing field names in schemas. (This hasn't
     // yet become a problem in Prod, but we're adding the safeguards to ensure it never becomes a problem.)
     private static <T> Map<String, T> sanitizeFieldNames(Map<String, T> rawFieldMap) {
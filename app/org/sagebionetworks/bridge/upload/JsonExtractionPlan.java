@@ -0,0 +1,97 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+import org.sagebionetworks.bridge.models.upload.UploadSchema;
+import org.sagebionetworks.bridge.schema.SchemaUtils;
+
+/**
+ * <p>
+ * An upload schema compiled into the list of values it needs from the JSON files of an upload. Schemas reference
+ * JSON data either as filename.fieldname (a top-level field of a file) or wholly by filename. The upload's names are
+ * sanitized the same way as the schema's field names before they are matched.
+ * </p>
+ * <p>
+ * Files given as bytes are streamed, and only the fields the schema declares are read into JSON nodes. Everything
+ * else is skipped without being built. A file the schema declares whole as an attachment is passed through as the
+ * bytes that were uploaded, rather than being parsed and written back out. A file the schema declares whole as an
+ * inline value still has to be parsed in full.
+ * </p>
+ */
+class JsonExtractionPlan {
+    private final Map<String, UploadFieldDefinition> fieldDefsByName = new HashMap<>();
+
+    JsonExtractionPlan(UploadSchema schema) {
+        for (UploadFieldDefinition oneFieldDef : schema.getFieldDefinitions()) {
+            fieldDefsByName.put(oneFieldDef.getName(), oneFieldDef);
+        }
+    }
+
+    /**
+     * Reads the values the schema needs from a JSON file that's already been parsed. Values are added to the given
+     * map, keyed by schema field name.
+     */
+    void extract(String filename, JsonNode fileNode, Map<String, JsonNode> fieldValueMap) {
+        Iterator<String> fieldNameIter = fileNode.fieldNames();
+        while (fieldNameIter.hasNext()) {
+            String oneFieldName = fieldNameIter.next();
+            String sanitizedFieldName = SchemaUtils.sanitizeFieldName(filename + "." + oneFieldName);
+            if (fieldDefsByName.containsKey(sanitizedFieldName)) {
+                fieldValueMap.put(sanitizedFieldName, fileNode.get(oneFieldName));
+            }
+        }
+
+        String sanitizedFilename = SchemaUtils.sanitizeFieldName(filename);
+        if (fieldDefsByName.containsKey(sanitizedFilename)) {
+            fieldValueMap.put(sanitizedFilename, fileNode);
+        }
+    }
+
+    /**
+     * Reads the values the schema needs from a JSON file given as bytes. Values are added to the field value map, and
+     * a file declared whole as an attachment is added, untouched, to the attachment map. Both are keyed by schema
+     * field name.
+     *
+     * @throws IOException
+     *         if the file isn't valid JSON
+     */
+    void extract(String filename, byte[] data, Map<String, JsonNode> fieldValueMap,
+            Map<String, byte[]> attachmentMap) throws IOException {
+        String sanitizedFilename = SchemaUtils.sanitizeFieldName(filename);
+        UploadFieldDefinition fileFieldDef = fieldDefsByName.get(sanitizedFilename);
+        if (fileFieldDef != null) {
+            if (!UploadFieldType.ATTACHMENT_TYPE_SET.contains(fileFieldDef.getType())) {
+                // The whole file is an inline value, so we need all of it anyway.
+                extract(filename, BridgeObjectMapper.get().readTree(data), fieldValueMap);
+                return;
+            }
+            attachmentMap.put(sanitizedFilename, data);
+        }
+
+        try (JsonParser parser = BridgeObjectMapper.get().getFactory().createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                // Only objects have fields the schema can reference.
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String sanitizedFieldName = SchemaUtils.sanitizeFieldName(filename + "." + parser.getCurrentName());
+                parser.nextToken();
+                if (fieldDefsByName.containsKey(sanitizedFieldName)) {
+                    fieldValueMap.put(sanitizedFieldName, BridgeObjectMapper.get().readTree(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+}
@@ -1,28 +1,41 @@
 package org.sagebionetworks.bridge.upload;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import javax.annotation.Nonnull;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 
 /**
+ * <p>
  * Validation handler for parsing the upload data into JSON, if applicable. This handler reads unzipped data from
- * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUnzippedDataMap}. As it iterates over the unzipped
- * data, if it's able to parse any entries into JSON, it will remove it from getUnzippedDataMap, and write it to
- * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getJsonDataMap}.
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUnzippedDataMap}. As it iterates over the
+ * unzipped data, if any entries are JSON, it will remove them from getUnzippedDataMap. info.json is parsed and
+ * written to {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getJsonDataMap}. All other JSON entries
+ * are written as bytes to {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getRawJsonDataMap}.
+ * </p>
+ * <p>
+ * Data files can be large (sensor data in particular), and the schema often only needs a few fields from them, or
+ * needs them only as attachments. So this handler only checks that these files are JSON, without building a tree for
+ * them, and leaves it to the schema validation handler to read what it needs.
+ * </p>
  */
 @Component
 public class ParseJsonHandler implements UploadValidationHandler {
+    private static final String FILENAME_INFO_JSON = "info.json";
+
     /** {@inheritDoc} */
     @Override
     public void handle(@Nonnull UploadValidationContext context) {
         Map<String, byte[]> unzippedDataMap = context.getUnzippedDataMap();
         Map<String, JsonNode> jsonDataMap = new HashMap<>();
+        Map<String, byte[]> rawJsonDataMap = new HashMap<>();
 
         // We use the iterator directly, because we may want to modify unzippedDataMap as we iterate it, and this is
         // the most straightforward way to do that without hitting a ConcurrentModificationException.
@@ -30,19 +43,73 @@ public class ParseJsonHandler implements UploadValidationHandler {
         while (unzippedDataIter.hasNext()) {
             Map.Entry<String, byte[]> oneUnzippedData = unzippedDataIter.next();
             String entryName = oneUnzippedData.getKey();
+            byte[] data = oneUnzippedData.getValue();
+
+            if (!mightBeJson(data)) {
+                // This is normal (for example, for audio files). Skip it without paying for a failed parse.
+                continue;
+            }
 
-            try {
-                // Try to parse it as JSON. If you can, remove the entry from unzippedDataMap and add it to
-                // jsonDataMap.
-                JsonNode jsonNode = BridgeObjectMapper.get().readTree(oneUnzippedData.getValue());
-                jsonDataMap.put(entryName, jsonNode);
+            if (FILENAME_INFO_JSON.equals(entryName)) {
+                try {
+                    jsonDataMap.put(entryName, BridgeObjectMapper.get().readTree(data));
+                    unzippedDataIter.remove();
+                } catch (IOException ex) {
+                    // Can't parse this as a JSON node. IosSchemaValidationHandler will report the missing info.json.
+                }
+            } else if (isJson(data)) {
+                rawJsonDataMap.put(entryName, data);
                 unzippedDataIter.remove();
-            } catch (Exception ex) {
-                // Can't parse this as a JSON node. This could be normal (for example, for audio files). Ignore the
-                // error and move on.
             }
         }
 
         context.setJsonDataMap(jsonDataMap);
+        context.setRawJsonDataMap(rawJsonDataMap);
+    }
+
+    // Checks the first byte that isn't whitespace. A JSON value can only start with one of a handful of characters.
+    // Bytes that mark a UTF-8 BOM or a UTF-16 or UTF-32 encoding are let through as well, since Jackson detects these
+    // encodings.
+    //
+    // This is package-scoped to facilitate unit tests.
+    static boolean mightBeJson(byte[] data) {
+        for (byte oneByte : data) {
+            switch (oneByte) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                    continue;
+                case '{':
+                case '[':
+                case '"':
+                case '-':
+                case 't':
+                case 'f':
+                case 'n':
+                case 0x00:
+                case (byte) 0xEF:
+                case (byte) 0xFE:
+                case (byte) 0xFF:
+                    return true;
+                default:
+                    return oneByte >= '0' && oneByte <= '9';
+            }
+        }
+        return false;
+    }
+
+    // Reads through the first JSON value in the data without building anything from it. This accepts the same data
+    // that ObjectMapper.readTree() would.
+    private static boolean isJson(byte[] data) {
+        try (JsonParser parser = BridgeObjectMapper.get().getFactory().createParser(data)) {
+            if (parser.nextToken() == null) {
+                return false;
+            }
+            parser.skipChildren();
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
     }
 }
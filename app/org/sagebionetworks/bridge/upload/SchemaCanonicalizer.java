@@ -0,0 +1,117 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
+
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+
+/**
+ * An upload schema's field definitions compiled for validating and canonicalizing record data. Everything that only
+ * depends on the schema (the canonicalizer for each field's type, which fields are attachments, and the set of valid
+ * multi-choice answers) is worked out once, when the schema is compiled, rather than for every field of every upload.
+ * StrictValidationHandler keeps these cached by schema revision.
+ */
+class SchemaCanonicalizer {
+    private final FieldCanonicalizer[] fieldCanonicalizers;
+
+    SchemaCanonicalizer(List<UploadFieldDefinition> fieldDefList) {
+        fieldCanonicalizers = new FieldCanonicalizer[fieldDefList.size()];
+        for (int i = 0; i < fieldCanonicalizers.length; i++) {
+            fieldCanonicalizers[i] = new FieldCanonicalizer(fieldDefList.get(i));
+        }
+    }
+
+    /**
+     * Validates the record data against the schema, and writes the canonicalized values back into the record data.
+     *
+     * @param attachmentFieldNameSet
+     *         set of attachment field names that we have attachments for
+     * @param recordDataNode
+     *         JSON node of the parsed data to validate
+     * @return list of error messages, empty if there are no errors
+     */
+    List<String> validateAndCanonicalize(Set<String> attachmentFieldNameSet, JsonNode recordDataNode) {
+        List<String> errorList = new ArrayList<>();
+        for (FieldCanonicalizer oneField : fieldCanonicalizers) {
+            oneField.validateAndCanonicalize(attachmentFieldNameSet, recordDataNode, errorList);
+        }
+        return errorList;
+    }
+
+    /** One field of the schema, with everything needed to validate and canonicalize its values. */
+    private static class FieldCanonicalizer {
+        private final String fieldName;
+        private final boolean isRequired;
+        private final boolean isAttachment;
+        private final Function<JsonNode, CanonicalizationResult> canonicalizer;
+
+        // Only set for MULTI_CHOICE fields that don't allow other choices.
+        private final Set<String> validAnswerSet;
+
+        FieldCanonicalizer(UploadFieldDefinition fieldDef) {
+            UploadFieldType fieldType = fieldDef.getType();
+            this.fieldName = fieldDef.getName();
+            this.isRequired = fieldDef.isRequired();
+            this.isAttachment = UploadFieldType.ATTACHMENT_TYPE_SET.contains(fieldType);
+            this.canonicalizer = UploadUtil.getCanonicalizer(fieldType);
+
+            if (fieldType == UploadFieldType.MULTI_CHOICE && !Boolean.TRUE.equals(fieldDef.getAllowOtherChoices())) {
+                List<String> multiChoiceAnswerList = fieldDef.getMultiChoiceAnswerList();
+                this.validAnswerSet = multiChoiceAnswerList != null ? ImmutableSet.copyOf(multiChoiceAnswerList)
+                        : ImmutableSet.of();
+            } else {
+                this.validAnswerSet = null;
+            }
+        }
+
+        void validateAndCanonicalize(Set<String> attachmentFieldNameSet, JsonNode recordDataNode,
+                List<String> errorList) {
+            if (isAttachment) {
+                // For attachment types, since they just get exported as raw files, we only need to check if it's
+                // required and present. Specifically, if it's required and it's not present, then that's an error.
+                if (isRequired && !attachmentFieldNameSet.contains(fieldName)) {
+                    errorList.add("Required attachment field " + fieldName + " missing");
+                }
+                return;
+            }
+
+            JsonNode fieldValueNode = recordDataNode.get(fieldName);
+            if (fieldValueNode == null || fieldValueNode.isNull()) {
+                if (isRequired) {
+                    errorList.add("Required field " + fieldName + " missing");
+                }
+                return;
+            }
+
+            // Canonicalize the field.
+            CanonicalizationResult canonicalizationResult = canonicalizer.apply(fieldValueNode);
+            if (!canonicalizationResult.isValid()) {
+                errorList.add("Canonicalization failed for field " + fieldName + ": " +
+                        canonicalizationResult.getErrorMessage());
+                return;
+            }
+            JsonNode canonicalizedValueNode = canonicalizationResult.getCanonicalizedValueNode();
+
+            // Special case: MULTI_CHOICE value validation (unless it allows other choices)
+            if (validAnswerSet != null) {
+                int numAnswers = canonicalizedValueNode.size();
+                for (int i = 0; i < numAnswers; i++) {
+                    String answer = canonicalizedValueNode.get(i).textValue();
+                    if (!validAnswerSet.contains(answer)) {
+                        errorList.add("Multi-Choice field " + fieldName + " contains invalid answer " + answer);
+                    }
+                }
+            }
+
+            // Write the canonicalization back into the field data map.
+            ((ObjectNode) recordDataNode).set(fieldName, canonicalizedValueNode);
+        }
+    }
+}
@@ -2,24 +2,24 @@ package org.sagebionetworks.bridge.upload;
 
 import javax.annotation.Nonnull;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecordBuilder;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
-import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
-import org.sagebionetworks.bridge.models.upload.UploadFieldType;
 import org.sagebionetworks.bridge.models.upload.UploadSchema;
 import org.sagebionetworks.bridge.services.StudyService;
 import org.sagebionetworks.bridge.services.UploadSchemaService;
@@ -47,6 +47,10 @@ import org.sagebionetworks.bridge.services.UploadSchemaService;
  * purposes, and failing strict validation can be configured on a per-study basis. Note that all new studies should be
  * created with strict validation turned on.
  * </p>
+ * <p>
+ * Each schema is compiled once into a {@link SchemaCanonicalizer} and cached by revision and version, so per-upload
+ * work is limited to the fields themselves.
+ * </p>
  */
 @Component
 public class StrictValidationHandler implements UploadValidationHandler {
@@ -54,6 +58,13 @@ public class StrictValidationHandler implements UploadValidationHandler {
 
     private static final Joiner ERROR_MESSAGE_JOINER = Joiner.on("; ");
 
+    // Compiled schemas, keyed by study, schema ID, revision, and version. The version changes whenever the schema is
+    // updated, so a cached entry never goes stale.
+    private final Cache<String, SchemaCanonicalizer> canonicalizerCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
     private StudyService studyService;
     private UploadSchemaService uploadSchemaService;
 
@@ -85,14 +96,29 @@ public class StrictValidationHandler implements UploadValidationHandler {
 
         // get schema
         UploadSchema schema = uploadSchemaService.getUploadSchemaByIdAndRev(studyIdentifier, schemaId, schemaRev);
-        List<UploadFieldDefinition> fieldDefList = schema.getFieldDefinitions();
 
-        List<String> errorList = validateAllFields(fieldDefList, attachmentFieldNameSet,
+        List<String> errorList = getCanonicalizer(schema).validateAndCanonicalize(attachmentFieldNameSet,
                 recordDataNode);
 
         handleErrors(context, schemaId, schemaRev, errorList);
     }
 
+    // Gets the compiled schema from the cache, or compiles it. Schemas that have never been saved have no version and
+    // aren't cached.
+    private SchemaCanonicalizer getCanonicalizer(UploadSchema schema) {
+        if (schema.getVersion() == null) {
+            return new SchemaCanonicalizer(schema.getFieldDefinitions());
+        }
+        String cacheKey = schema.getStudyId() + ":" + schema.getSchemaId() + ":" + schema.getRevision() + ":" +
+                schema.getVersion();
+        try {
+            return canonicalizerCache.get(cacheKey, () -> new SchemaCanonicalizer(schema.getFieldDefinitions()));
+        } catch (ExecutionException ex) {
+            // Compiling a schema doesn't throw checked exceptions.
+            throw new BridgeServiceException(ex.getCause());
+        }
+    }
+
     /**
      * Handles validation errors. Specifically, this logs a warning in the logs, writes the message to the upload
      * validation context, and (if shouldThrow is true) throws an UploadValidationException.
@@ -142,71 +168,4 @@ public class StrictValidationHandler implements UploadValidationHandler {
         Study study = studyService.getStudy(studyIdentifier);
         return study.isStrictUploadValidationEnabled();
     }
-
-    /**
-     * Given the schema, the attachments (all we need are names), and the JSON data nodes, we validate the data against
-     * the schema.
-     *
-     * @param fieldDefList
-     *         list of field definitions from the schema
-     * @param attachmentFieldNameSet
-     *         set of attachment field names that we have attachments for
-     * @param recordDataNode
-     *         JSON node of the parsed data to validate
-     * @return list of error messages, empty if there are no errors
-     */
-    private static List<String> validateAllFields(
-            @Nonnull List<UploadFieldDefinition> fieldDefList, @Nonnull Set<String> attachmentFieldNameSet,
-            @Nonnull JsonNode recordDataNode) {
-        // walk the field definitions and validate fields
-        List<String> errorList = new ArrayList<>();
-        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
-            String fieldName = oneFieldDef.getName();
-            UploadFieldType fieldType = oneFieldDef.getType();
-            boolean isRequired = oneFieldDef.isRequired();
-
-            if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(fieldType)) {
-                // For attachment types, since they just get exported as raw files, we only need to check if it's
-                // required and present. Specifically, if it's required and it's not present, then that's an error.
-                if (isRequired && !attachmentFieldNameSet.contains(fieldName)) {
-                    errorList.add("Required attachment field " + fieldName + " missing");
-                }
-            } else {
-                JsonNode fieldValueNode = recordDataNode.get(fieldName);
-
-                if (fieldValueNode != null && !fieldValueNode.isNull()) {
-                    // Canonicalize the field.
-                    CanonicalizationResult canonicalizationResult = UploadUtil.canonicalize(fieldValueNode, fieldType);
-                    if (canonicalizationResult.isValid()) {
-                        JsonNode canonicalizedValueNode = canonicalizationResult.getCanonicalizedValueNode();
-
-                        // Special case: MULTI_CHOICE value validation (unless it allows other choices)
-                        if (fieldType == UploadFieldType.MULTI_CHOICE &&
-                                !Boolean.TRUE.equals(oneFieldDef.getAllowOtherChoices())) {
-                            //noinspection ConstantConditions
-                            Set<String> validAnswerSet = new HashSet<>(oneFieldDef.getMultiChoiceAnswerList());
-                            int numAnswers = canonicalizedValueNode.size();
-                            for (int i = 0; i < numAnswers; i++) {
-                                String answer = canonicalizedValueNode.get(i).textValue();
-                                if (!validAnswerSet.contains(answer)) {
-                                    errorList.add("Multi-Choice field " + fieldName + " contains invalid answer " +
-                                            answer);
-                                }
-                            }
-                        }
-
-                        // Write the canonicalization back into the field data map.
-                        ((ObjectNode)recordDataNode).set(fieldName, canonicalizedValueNode);
-                    } else {
-                        errorList.add("Canonicalization failed for field " + fieldName + ": " +
-                                canonicalizationResult.getErrorMessage());
-                    }
-                } else if (isRequired) {
-                    errorList.add("Required field " + fieldName + " missing");
-                }
-            }
-        }
-
-        return errorList;
-    }
 }
@@ -1,10 +1,15 @@
 package org.sagebionetworks.bridge.upload;
 
 import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -17,6 +22,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDate;
 import org.joda.time.LocalTime;
 import org.joda.time.Period;
@@ -36,6 +42,7 @@ public class UploadUtil {
     private static final Pattern FIELD_NAME_MULTIPLE_SPECIAL_CHARS_PATTERN = Pattern.compile("[\\-\\._ ]{2,}");
     private static final Pattern FIELD_NAME_SPECIAL_CHARS_PATTERN = Pattern.compile("[\\-\\._ ]");
     private static final Pattern FIELD_NAME_VALID_CHARS_PATTERN = Pattern.compile("[a-zA-Z0-9\\-\\._ ]+");
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
     public static final String INVALID_ANSWER_CHOICE_ERROR_MESSAGE = "invalid value %s: must start and end with an " +
             "alphanumeric character, can only contain alphanumeric characters, spaces, dashes, underscores, and " +
             "periods, can't contain two or more non-alphanumeric characters in a row";
@@ -62,6 +69,33 @@ public class UploadUtil {
      */
     public static final String UNIT_FIELD_SUFFIX = "_unit";
 
+    // Canonicalizers by field type. Looking these up once per field type lets callers that canonicalize many values
+    // of the same field (see SchemaCanonicalizer) skip the type dispatch for each value.
+    private static final Map<UploadFieldType, Function<JsonNode, CanonicalizationResult>> CANONICALIZER_MAP;
+    static {
+        Map<UploadFieldType, Function<JsonNode, CanonicalizationResult>> canonicalizerMap = new EnumMap<>(
+                UploadFieldType.class);
+        // Attachments and inline JSON are always valid, always canonical.
+        for (UploadFieldType oneAsIsType : EnumSet.of(UploadFieldType.ATTACHMENT_BLOB, UploadFieldType.ATTACHMENT_CSV,
+                UploadFieldType.ATTACHMENT_JSON_BLOB, UploadFieldType.ATTACHMENT_JSON_TABLE,
+                UploadFieldType.ATTACHMENT_V2, UploadFieldType.INLINE_JSON_BLOB)) {
+            canonicalizerMap.put(oneAsIsType, CanonicalizationResult::makeResult);
+        }
+        canonicalizerMap.put(UploadFieldType.BOOLEAN, UploadUtil::canonicalizeBoolean);
+        canonicalizerMap.put(UploadFieldType.CALENDAR_DATE, UploadUtil::canonicalizeCalendarDate);
+        canonicalizerMap.put(UploadFieldType.DURATION_V2, UploadUtil::canonicalizeDuration);
+        canonicalizerMap.put(UploadFieldType.FLOAT, UploadUtil::canonicalizeFloat);
+        canonicalizerMap.put(UploadFieldType.INT, UploadUtil::canonicalizeInt);
+        canonicalizerMap.put(UploadFieldType.MULTI_CHOICE, UploadUtil::canonicalizeMultiChoice);
+        canonicalizerMap.put(UploadFieldType.SINGLE_CHOICE, UploadUtil::canonicalizeSingleChoice);
+        // If the value isn't a string, trivially convert it into a string.
+        canonicalizerMap.put(UploadFieldType.STRING, valueNode -> CanonicalizationResult.makeResult(
+                convertToStringNode(valueNode)));
+        canonicalizerMap.put(UploadFieldType.TIME_V2, UploadUtil::canonicalizeTime);
+        canonicalizerMap.put(UploadFieldType.TIMESTAMP, UploadUtil::canonicalizeTimestamp);
+        CANONICALIZER_MAP = Collections.unmodifiableMap(canonicalizerMap);
+    }
+
     /** Utility method for canonicalizing an upload JSON value given the schema's field type. */
     public static CanonicalizationResult canonicalize(final JsonNode valueNode, UploadFieldType type) {
         if (valueNode == null || valueNode.isNull()) {
@@ -69,198 +103,204 @@ public class UploadUtil {
             return CanonicalizationResult.makeResult(valueNode);
         }
 
-        switch (type) {
-            case ATTACHMENT_BLOB:
-            case ATTACHMENT_CSV:
-            case ATTACHMENT_JSON_BLOB:
-            case ATTACHMENT_JSON_TABLE:
-            case ATTACHMENT_V2:
-            case INLINE_JSON_BLOB: {
-                // always valid, always canonical
-                return CanonicalizationResult.makeResult(valueNode);
-            }
-            case BOOLEAN: {
-                if (valueNode.isIntegralNumber()) {
-                    // For numbers, 0 is false and everything else is true.
-                    boolean booleanValue = valueNode.intValue() != 0;
-                    return CanonicalizationResult.makeResult(BooleanNode.valueOf(booleanValue));
-                } else if (valueNode.isTextual()) {
-                    // We accept "true" and "false" (ignoring case), but not anything else.
-                    String boolStr = valueNode.textValue();
-                    if ("false".equalsIgnoreCase(boolStr)) {
-                        return CanonicalizationResult.makeResult(BooleanNode.FALSE);
-                    } else if ("true".equalsIgnoreCase(boolStr)) {
-                        return CanonicalizationResult.makeResult(BooleanNode.TRUE);
-                    } else {
-                        return CanonicalizationResult.makeError("Invalid boolean string " + boolStr);
-                    }
-                } else if (valueNode.isBoolean()) {
-                    // This is already canonicalized.
-                    return CanonicalizationResult.makeResult(valueNode);
-                } else {
-                    return CanonicalizationResult.makeError("Invalid boolean JSON value " + valueNode.toString());
-                }
-            }
-            case CALENDAR_DATE: {
-                if (!valueNode.isTextual()) {
-                    return CanonicalizationResult.makeError("Invalid calendar date JSON value " +
-                            valueNode.toString());
-                }
+        return getCanonicalizer(type).apply(valueNode);
+    }
 
-                // parseIosCalendarDate() will truncate full date-times to calendar dates as needed.
-                String dateStr = valueNode.textValue();
-                LocalDate parsedDate = parseIosCalendarDate(dateStr);
+    /**
+     * Gets the canonicalizer for the given field type, for callers that canonicalize many values of the same type.
+     * Unlike {@link #canonicalize}, the returned canonicalizer doesn't handle Java null or JSON null values. Callers
+     * must check for these first.
+     */
+    static Function<JsonNode, CanonicalizationResult> getCanonicalizer(UploadFieldType type) {
+        Function<JsonNode, CanonicalizationResult> canonicalizer = CANONICALIZER_MAP.get(type);
+        if (canonicalizer == null) {
+            // Should never happen, but just in case.
+            return valueNode -> CanonicalizationResult.makeError("Unknown field type " + type.name());
+        }
+        return canonicalizer;
+    }
 
-                if (parsedDate != null) {
-                    return CanonicalizationResult.makeResult(new TextNode(DateUtils.getCalendarDateString(
-                            parsedDate)));
-                } else {
-                    return CanonicalizationResult.makeError("Invalid calendar date string " + dateStr);
-                }
+    private static CanonicalizationResult canonicalizeBoolean(JsonNode valueNode) {
+        if (valueNode.isIntegralNumber()) {
+            // For numbers, 0 is false and everything else is true.
+            boolean booleanValue = valueNode.intValue() != 0;
+            return CanonicalizationResult.makeResult(BooleanNode.valueOf(booleanValue));
+        } else if (valueNode.isTextual()) {
+            // We accept "true" and "false" (ignoring case), but not anything else.
+            String boolStr = valueNode.textValue();
+            if ("false".equalsIgnoreCase(boolStr)) {
+                return CanonicalizationResult.makeResult(BooleanNode.FALSE);
+            } else if ("true".equalsIgnoreCase(boolStr)) {
+                return CanonicalizationResult.makeResult(BooleanNode.TRUE);
+            } else {
+                return CanonicalizationResult.makeError("Invalid boolean string " + boolStr);
             }
-            case DURATION_V2: {
-                if (!valueNode.isTextual()) {
-                    return CanonicalizationResult.makeError("Invalid duration JSON value " + valueNode.toString());
-                }
+        } else if (valueNode.isBoolean()) {
+            // This is already canonicalized.
+            return CanonicalizationResult.makeResult(valueNode);
+        } else {
+            return CanonicalizationResult.makeError("Invalid boolean JSON value " + valueNode.toString());
+        }
+    }
 
-                String durationStr = valueNode.textValue();
-                try {
-                    // Joda Duration only parses seconds and milliseconds. Use Period to get an ISO 8601 duration.
-                    // Period.parse() never returns null.
-                    Period parsedPeriod = Period.parse(durationStr);
-                    return CanonicalizationResult.makeResult(new TextNode(parsedPeriod.toString()));
-                } catch (IllegalArgumentException ex) {
-                    return CanonicalizationResult.makeError("Invalid duration string " + durationStr);
-                }
-            }
-            case FLOAT: {
-                if (valueNode.isNumber()) {
-                    // Already canonicalized.
-                    return CanonicalizationResult.makeResult(valueNode);
-                } else if (valueNode.isTextual()) {
-                    // Convert to decimal.
-                    String decimalStr = valueNode.textValue();
-                    try {
-                        BigDecimal parsedDecimal = new BigDecimal(decimalStr);
-                        return CanonicalizationResult.makeResult(new DecimalNode(parsedDecimal));
-                    } catch (IllegalArgumentException ex) {
-                        return CanonicalizationResult.makeError("Invalid decimal string " + decimalStr);
-                    }
-                } else {
-                    return CanonicalizationResult.makeError("Invalid decimal JSON value " + valueNode.toString());
-                }
-            }
-            case INT: {
-                if (valueNode.isIntegralNumber()) {
-                    // Already canonicalized
-                    return CanonicalizationResult.makeResult(valueNode);
-                } else if (valueNode.isFloatingPointNumber()) {
-                    // Convert floats to ints.
-                    return CanonicalizationResult.makeResult(new BigIntegerNode(valueNode.bigIntegerValue()));
-                } else if (valueNode.isTextual()) {
-                    // Parse as a big decimal, truncate to big int.
-                    String numberStr = valueNode.textValue();
-                    try {
-                        BigDecimal parsedNumber = new BigDecimal(numberStr);
-                        return CanonicalizationResult.makeResult(new BigIntegerNode(parsedNumber.toBigInteger()));
-                    } catch (IllegalArgumentException ex) {
-                        return CanonicalizationResult.makeError("Invalid int string " + numberStr);
-                    }
-                } else {
-                    return CanonicalizationResult.makeError("Invalid int JSON value " + valueNode.toString());
-                }
-            }
-            case MULTI_CHOICE: {
-                // Expect it in the format ["foo", "bar", "baz"]
-                if (!valueNode.isArray()) {
-                    return CanonicalizationResult.makeError("Invalid multi-choice JSON value " + valueNode.toString());
-                }
+    private static CanonicalizationResult canonicalizeCalendarDate(JsonNode valueNode) {
+        if (!valueNode.isTextual()) {
+            return CanonicalizationResult.makeError("Invalid calendar date JSON value " + valueNode.toString());
+        }
 
-                // Fields inside might not be strings. Trivially convert them to strings if they are not.
-                ArrayNode convertedValueNode = BridgeObjectMapper.get().createArrayNode();
-                int numValues = valueNode.size();
-                for (int i = 0; i < numValues; i++) {
-                    // Sanitize the multi-choice answers so they match up with the field def's multi-choice answer list
-                    String rawAnswer = getAsString(valueNode.get(i));
-                    String sanitizedAnswer = SchemaUtils.sanitizeFieldName(rawAnswer);
-                    convertedValueNode.add(sanitizedAnswer);
-                }
+        // parseIosCalendarDate() will truncate full date-times to calendar dates as needed.
+        String dateStr = valueNode.textValue();
+        LocalDate parsedDate = parseIosCalendarDate(dateStr);
 
-                return CanonicalizationResult.makeResult(convertedValueNode);
+        if (parsedDate != null) {
+            return CanonicalizationResult.makeResult(new TextNode(DateUtils.getCalendarDateString(parsedDate)));
+        } else {
+            return CanonicalizationResult.makeError("Invalid calendar date string " + dateStr);
+        }
+    }
+
+    private static CanonicalizationResult canonicalizeDuration(JsonNode valueNode) {
+        if (!valueNode.isTextual()) {
+            return CanonicalizationResult.makeError("Invalid duration JSON value " + valueNode.toString());
+        }
+
+        String durationStr = valueNode.textValue();
+        try {
+            // Joda Duration only parses seconds and milliseconds. Use Period to get an ISO 8601 duration.
+            // Period.parse() never returns null.
+            Period parsedPeriod = Period.parse(durationStr);
+            return CanonicalizationResult.makeResult(new TextNode(parsedPeriod.toString()));
+        } catch (IllegalArgumentException ex) {
+            return CanonicalizationResult.makeError("Invalid duration string " + durationStr);
+        }
+    }
+
+    private static CanonicalizationResult canonicalizeFloat(JsonNode valueNode) {
+        if (valueNode.isNumber()) {
+            // Already canonicalized.
+            return CanonicalizationResult.makeResult(valueNode);
+        } else if (valueNode.isTextual()) {
+            // Convert to decimal.
+            String decimalStr = valueNode.textValue();
+            try {
+                BigDecimal parsedDecimal = new BigDecimal(decimalStr);
+                return CanonicalizationResult.makeResult(new DecimalNode(parsedDecimal));
+            } catch (IllegalArgumentException ex) {
+                return CanonicalizationResult.makeError("Invalid decimal string " + decimalStr);
             }
-            case SINGLE_CHOICE: {
-                // Older versions would send a single-element array (example: ["foo"]) as a single-choice answer. For
-                // backwards compatibility, accept arrays, but use just the single element.
-                JsonNode convertedValueNode;
-                if (valueNode.isArray()) {
-                    if (valueNode.size() == 1) {
-                        convertedValueNode = valueNode.get(0);
-                    } else {
-                        return CanonicalizationResult.makeError("Single-choice array doesn't have exactly 1 element: "
-                                + valueNode.toString());
-                    }
-                } else {
-                    // Not an array. Pass this straight through to the next step.
-                    convertedValueNode = valueNode;
-                }
+        } else {
+            return CanonicalizationResult.makeError("Invalid decimal JSON value " + valueNode.toString());
+        }
+    }
 
-                // If the value isn't a string, trivially convert it into a string.
-                return CanonicalizationResult.makeResult(convertToStringNode(convertedValueNode));
+    private static CanonicalizationResult canonicalizeInt(JsonNode valueNode) {
+        if (valueNode.isIntegralNumber()) {
+            // Already canonicalized
+            return CanonicalizationResult.makeResult(valueNode);
+        } else if (valueNode.isFloatingPointNumber()) {
+            // Convert floats to ints.
+            return CanonicalizationResult.makeResult(new BigIntegerNode(valueNode.bigIntegerValue()));
+        } else if (valueNode.isTextual()) {
+            // Parse as a big decimal, truncate to big int.
+            String numberStr = valueNode.textValue();
+            try {
+                BigDecimal parsedNumber = new BigDecimal(numberStr);
+                return CanonicalizationResult.makeResult(new BigIntegerNode(parsedNumber.toBigInteger()));
+            } catch (IllegalArgumentException ex) {
+                return CanonicalizationResult.makeError("Invalid int string " + numberStr);
             }
-            case STRING: {
-                // If the value isn't a string, trivially convert it into a string.
-                return CanonicalizationResult.makeResult(convertToStringNode(valueNode));
+        } else {
+            return CanonicalizationResult.makeError("Invalid int JSON value " + valueNode.toString());
+        }
+    }
+
+    private static CanonicalizationResult canonicalizeMultiChoice(JsonNode valueNode) {
+        // Expect it in the format ["foo", "bar", "baz"]
+        if (!valueNode.isArray()) {
+            return CanonicalizationResult.makeError("Invalid multi-choice JSON value " + valueNode.toString());
+        }
+
+        // Fields inside might not be strings. Trivially convert them to strings if they are not.
+        ArrayNode convertedValueNode = BridgeObjectMapper.get().createArrayNode();
+        int numValues = valueNode.size();
+        for (int i = 0; i < numValues; i++) {
+            // Sanitize the multi-choice answers so they match up with the field def's multi-choice answer list
+            String rawAnswer = getAsString(valueNode.get(i));
+            String sanitizedAnswer = SchemaUtils.sanitizeFieldName(rawAnswer);
+            convertedValueNode.add(sanitizedAnswer);
+        }
+
+        return CanonicalizationResult.makeResult(convertedValueNode);
+    }
+
+    private static CanonicalizationResult canonicalizeSingleChoice(JsonNode valueNode) {
+        // Older versions would send a single-element array (example: ["foo"]) as a single-choice answer. For
+        // backwards compatibility, accept arrays, but use just the single element.
+        JsonNode convertedValueNode;
+        if (valueNode.isArray()) {
+            if (valueNode.size() == 1) {
+                convertedValueNode = valueNode.get(0);
+            } else {
+                return CanonicalizationResult.makeError("Single-choice array doesn't have exactly 1 element: "
+                        + valueNode.toString());
             }
-            case TIME_V2: {
-                if (!valueNode.isTextual()) {
-                    return CanonicalizationResult.makeError("Invalid time JSON value " + valueNode.toString());
-                }
+        } else {
+            // Not an array. Pass this straight through to the next step.
+            convertedValueNode = valueNode;
+        }
 
-                // This is a time without date or time-zone, akin to Joda LocalTime. First parse it as a LocalTime.
-                String timeStr = valueNode.textValue();
-                LocalTime parsedLocalTime = null;
-                try {
-                    parsedLocalTime = LocalTime.parse(timeStr);
-                } catch (IllegalArgumentException ex) {
-                    // Swallow exception. We have better logging later in the chain.
-                }
+        // If the value isn't a string, trivially convert it into a string.
+        return CanonicalizationResult.makeResult(convertToStringNode(convertedValueNode));
+    }
 
-                if (parsedLocalTime == null) {
-                    // If that doesn't work, fall back to parsing a full timestamp and use just the LocalTime part.
-                    DateTime parsedDateTime = parseIosTimestamp(timeStr);
-                    if (parsedDateTime != null) {
-                        parsedLocalTime = parsedDateTime.toLocalTime();
-                    }
-                }
+    private static CanonicalizationResult canonicalizeTime(JsonNode valueNode) {
+        if (!valueNode.isTextual()) {
+            return CanonicalizationResult.makeError("Invalid time JSON value " + valueNode.toString());
+        }
 
-                if (parsedLocalTime != null) {
-                    return CanonicalizationResult.makeResult(new TextNode(parsedLocalTime.toString()));
-                } else {
-                    return CanonicalizationResult.makeError("Invalid time string " + timeStr);
-                }
+        // This is a time without date or time-zone, akin to Joda LocalTime. First parse it as a LocalTime. Most
+        // times are plain HH:mm:ss.SSS, which we can parse without Joda's parser and its exceptions.
+        String timeStr = valueNode.textValue();
+        LocalTime parsedLocalTime = parseSimpleLocalTime(timeStr);
+        if (parsedLocalTime == null && !looksLikeTimestamp(timeStr)) {
+            try {
+                parsedLocalTime = LocalTime.parse(timeStr);
+            } catch (IllegalArgumentException ex) {
+                // Swallow exception. We have better logging later in the chain.
             }
-            case TIMESTAMP: {
-                if (valueNode.isNumber()) {
-                    // If this is a number, then it's epoch milliseconds (implicitly in UTC).
-                    return CanonicalizationResult.makeResult(new TextNode(DateUtils.convertToISODateTime(
-                            valueNode.longValue())));
-                } else if (valueNode.isTextual()) {
-                    String dateTimeStr = valueNode.textValue();
-                    DateTime parsedDateTime = parseIosTimestamp(dateTimeStr);
-                    if (parsedDateTime != null) {
-                        return CanonicalizationResult.makeResult(new TextNode(parsedDateTime.toString()));
-                    } else {
-                        return CanonicalizationResult.makeError("Invalid date-time (timestamp) string " + dateTimeStr);
-                    }
-                } else {
-                    return CanonicalizationResult.makeError("Invalid date-time (timestamp) JSON value " +
-                            valueNode.toString());
-                }
+        }
+
+        if (parsedLocalTime == null) {
+            // If that doesn't work, fall back to parsing a full timestamp and use just the LocalTime part.
+            DateTime parsedDateTime = parseIosTimestamp(timeStr);
+            if (parsedDateTime != null) {
+                parsedLocalTime = parsedDateTime.toLocalTime();
             }
-            default: {
-                // Should never happen, but just in case.
-                return CanonicalizationResult.makeError("Unknown field type " + type.name());
+        }
+
+        if (parsedLocalTime != null) {
+            return CanonicalizationResult.makeResult(new TextNode(parsedLocalTime.toString()));
+        } else {
+            return CanonicalizationResult.makeError("Invalid time string " + timeStr);
+        }
+    }
+
+    private static CanonicalizationResult canonicalizeTimestamp(JsonNode valueNode) {
+        if (valueNode.isNumber()) {
+            // If this is a number, then it's epoch milliseconds (implicitly in UTC).
+            return CanonicalizationResult.makeResult(new TextNode(DateUtils.convertToISODateTime(
+                    valueNode.longValue())));
+        } else if (valueNode.isTextual()) {
+            String dateTimeStr = valueNode.textValue();
+            DateTime parsedDateTime = parseIosTimestamp(dateTimeStr);
+            if (parsedDateTime != null) {
+                return CanonicalizationResult.makeResult(new TextNode(parsedDateTime.toString()));
+            } else {
+                return CanonicalizationResult.makeError("Invalid date-time (timestamp) string " + dateTimeStr);
             }
+        } else {
+            return CanonicalizationResult.makeError("Invalid date-time (timestamp) JSON value " +
+                    valueNode.toString());
         }
     }
 
@@ -490,6 +530,12 @@ public class UploadUtil {
             dateStr = dateStr.substring(0, 10);
         }
 
+        // Most dates are plain YYYY-MM-DD, which we can parse without Joda's parser and its exceptions.
+        LocalDate parsedDate = parseSimpleCalendarDate(dateStr);
+        if (parsedDate != null) {
+            return parsedDate;
+        }
+
         try {
             return DateUtils.parseCalendarDate(dateStr);
         } catch (IllegalArgumentException ex) {
@@ -514,13 +560,23 @@ public class UploadUtil {
         }
 
         // Detect if this is iOS non-standard format by checking to see if the 10th char is a space.
-        if (timestampStr.charAt(10) == ' ') {
+        boolean isIosFormat = timestampStr.charAt(10) == ' ';
+        if (isIosFormat) {
             // Log something, so we can keep track of how often this happens.
             logger.warn("Non-standard timestamp in upload data: " + timestampStr);
+        }
+
+        // Most timestamps are in one of a handful of forms, which we can parse without Joda's general ISO parser and
+        // its exceptions. Anything else goes through the general parser.
+        DateTime parsedDateTime = parseSimpleTimestamp(timestampStr, isIosFormat);
+        if (parsedDateTime != null) {
+            return parsedDateTime;
+        }
 
+        if (isIosFormat) {
             // Attempt to convert this by replacing the 10th char with a T and then stripping out all spaces.
             timestampStr = timestampStr.substring(0, 10) + 'T' + timestampStr.substring(11);
-            timestampStr = timestampStr.replaceAll("\\s+", "");
+            timestampStr = WHITESPACE_PATTERN.matcher(timestampStr).replaceAll("");
         }
 
         try {
@@ -530,4 +586,188 @@ public class UploadUtil {
             return null;
         }
     }
+
+    // Parses dates in exactly the form YYYY-MM-DD. Returns null for anything else, including dates that don't exist,
+    // so the caller can fall back to the general parser (which will also reject them, but reports why).
+    private static LocalDate parseSimpleCalendarDate(String dateStr) {
+        if (dateStr.length() != 10 || dateStr.charAt(4) != '-' || dateStr.charAt(7) != '-') {
+            return null;
+        }
+
+        int year = parseDigits(dateStr, 0, 4);
+        int month = parseDigits(dateStr, 5, 7);
+        int day = parseDigits(dateStr, 8, 10);
+        if (year < 0 || !isValidDate(year, month, day)) {
+            return null;
+        }
+        return new LocalDate(year, month, day);
+    }
+
+    // Parses times in the form HH:mm, HH:mm:ss, or HH:mm:ss followed by a fraction of up to 9 digits. Returns null for
+    // anything else, so the caller can fall back to LocalTime.parse().
+    private static LocalTime parseSimpleLocalTime(String timeStr) {
+        int[] timeFields = new int[4];
+        if (parseSimpleTime(timeStr, 0, timeFields) != timeStr.length()) {
+            return null;
+        }
+        return new LocalTime(timeFields[0], timeFields[1], timeFields[2], timeFields[3]);
+    }
+
+    // A LocalTime never contains a dash, so anything that does (most likely a full timestamp) can go straight to the
+    // timestamp parser.
+    private static boolean looksLikeTimestamp(String timeStr) {
+        return timeStr.indexOf('-') >= 0;
+    }
+
+    // Parses timestamps in the form YYYY-MM-DDThh:mm[:ss[.SSS]] followed by Z or an offset of the form +hh, +hh:mm,
+    // or +hhmm. For iOS timestamps, the T is a space, and there may be spaces before the offset. This gives the same
+    // result as DateUtils.parseISODateTime(). Returns null for anything else, including timestamps that don't exist, so
+    // the caller can fall back to the general parser.
+    private static DateTime parseSimpleTimestamp(String timestampStr, boolean isIosFormat) {
+        int length = timestampStr.length();
+        if (length < 17 || timestampStr.charAt(4) != '-' || timestampStr.charAt(7) != '-') {
+            return null;
+        }
+        int year = parseDigits(timestampStr, 0, 4);
+        int month = parseDigits(timestampStr, 5, 7);
+        int day = parseDigits(timestampStr, 8, 10);
+        if (year < 0 || !isValidDate(year, month, day)) {
+            return null;
+        }
+        if (!isIosFormat && timestampStr.charAt(10) != 'T') {
+            return null;
+        }
+
+        int[] timeFields = new int[4];
+        int idx = parseSimpleTime(timestampStr, 11, timeFields);
+        if (idx < 0) {
+            return null;
+        }
+        if (isIosFormat) {
+            while (idx < length && timestampStr.charAt(idx) == ' ') {
+                idx++;
+            }
+        }
+        if (idx >= length) {
+            // No offset. The general parser falls back to the default time zone.
+            return null;
+        }
+
+        int offsetMillis;
+        char offsetSign = timestampStr.charAt(idx);
+        if (offsetSign == 'Z' && idx + 1 == length) {
+            offsetMillis = 0;
+        } else if (offsetSign == '+' || offsetSign == '-') {
+            int offsetHours = parseDigits(timestampStr, idx + 1, idx + 3);
+            int offsetMinutes;
+            int remaining = length - (idx + 3);
+            if (remaining == 0) {
+                offsetMinutes = 0;
+            } else if (remaining == 3 && timestampStr.charAt(idx + 3) == ':') {
+                offsetMinutes = parseDigits(timestampStr, idx + 4, idx + 6);
+            } else if (remaining == 2) {
+                offsetMinutes = parseDigits(timestampStr, idx + 3, idx + 5);
+            } else {
+                return null;
+            }
+            if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+                return null;
+            }
+            offsetMillis = (offsetHours * 60 + offsetMinutes) * 60 * 1000;
+            if (offsetSign == '-') {
+                offsetMillis = -offsetMillis;
+            }
+        } else {
+            return null;
+        }
+
+        return new DateTime(year, month, day, timeFields[0], timeFields[1], timeFields[2], timeFields[3],
+                DateTimeZone.forOffsetMillis(offsetMillis));
+    }
+
+    // Parses hh:mm[:ss[.fraction]] starting at the given index, writing hour, minute, second and millis to timeFields.
+    // Fractions of up to 9 digits are truncated to millis, as Joda does. Returns the index after the time, or -1 if
+    // there's no valid time there.
+    private static int parseSimpleTime(String str, int start, int[] timeFields) {
+        int length = str.length();
+        if (start + 5 > length || str.charAt(start + 2) != ':') {
+            return -1;
+        }
+        int hour = parseDigits(str, start, start + 2);
+        int minute = parseDigits(str, start + 3, start + 5);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return -1;
+        }
+        int second = 0;
+        int millis = 0;
+        int idx = start + 5;
+        if (idx < length && str.charAt(idx) == ':') {
+            second = parseDigits(str, idx + 1, idx + 3);
+            if (second < 0 || second > 59) {
+                return -1;
+            }
+            idx += 3;
+
+            if (idx < length && str.charAt(idx) == '.') {
+                int fractionStart = ++idx;
+                while (idx < length && isDigit(str.charAt(idx))) {
+                    if (idx - fractionStart < 3) {
+                        millis = millis * 10 + (str.charAt(idx) - '0');
+                    }
+                    idx++;
+                }
+                int numDigits = idx - fractionStart;
+                if (numDigits == 0 || numDigits > 9) {
+                    return -1;
+                }
+                for (int i = numDigits; i < 3; i++) {
+                    millis *= 10;
+                }
+            }
+        }
+
+        timeFields[0] = hour;
+        timeFields[1] = minute;
+        timeFields[2] = second;
+        timeFields[3] = millis;
+        return idx;
+    }
+
+    // Parses the digits from start (inclusive) to end (exclusive) as a non-negative int. Returns -1 if the range runs
+    // past the end of the string or contains anything but digits.
+    private static int parseDigits(String str, int start, int end) {
+        if (end > str.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Checks a proleptic Gregorian (ISO) date, so we never ask Joda to build a date that doesn't exist.
+    private static boolean isValidDate(int year, int month, int day) {
+        if (month < 1 || month > 12 || day < 1) {
+            return false;
+        }
+        int daysInMonth;
+        if (month == 2) {
+            boolean isLeapYear = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+            daysInMonth = isLeapYear ? 29 : 28;
+        } else if (month == 4 || month == 6 || month == 9 || month == 11) {
+            daysInMonth = 30;
+        } else {
+            daysInMonth = 31;
+        }
+        return day <= daysInMonth;
+    }
 }
@@ -21,6 +21,7 @@ public class UploadValidationContext {
     private byte[] decryptedData;
     private Map<String, byte[]> unzippedDataMap;
     private Map<String, JsonNode> jsonDataMap;
+    private Map<String, byte[]> rawJsonDataMap;
     private Integer appVersion;
     private HealthDataRecordBuilder healthDataRecordBuilder;
     private Map<String, byte[]> attachmentsByFieldName;
@@ -117,7 +118,8 @@ public class UploadValidationContext {
 
     /**
      * Parsed JSON data, keyed by filename. This is created by the ParseJsonHandler and read by the
-     * IosSchemaValidationHandler.
+     * IosSchemaValidationHandler. The ParseJsonHandler only parses info.json into this map. The other JSON files are
+     * left unparsed in {@link #getRawJsonDataMap}.
      */
     public Map<String, JsonNode> getJsonDataMap() {
         return jsonDataMap;
@@ -128,6 +130,21 @@ public class UploadValidationContext {
         this.jsonDataMap = jsonDataMap;
     }
 
+    /**
+     * JSON data files as bytes, keyed by filename. These are the files the ParseJsonHandler found to be JSON, other
+     * than info.json. They are kept as bytes so the IosSchemaValidationHandler can read only the fields its schema
+     * needs, and can pass JSON attachments through untouched. There is no overlap between this map, the
+     * unzippedDataMap and the jsonDataMap.
+     */
+    public Map<String, byte[]> getRawJsonDataMap() {
+        return rawJsonDataMap;
+    }
+
+    /** @see #getRawJsonDataMap */
+    public void setRawJsonDataMap(Map<String, byte[]> rawJsonDataMap) {
+        this.rawJsonDataMap = rawJsonDataMap;
+    }
+
     /**
      * Health Data Record Builder, used to build a health data record that will be written to the health data record
      * table. This is initially created by IosSchemaValidationHandler, is further updated by the
@@ -192,6 +209,7 @@ public class UploadValidationContext {
         copy.decryptedData = this.decryptedData;
         copy.unzippedDataMap = this.unzippedDataMap;
         copy.jsonDataMap = this.jsonDataMap;
+        copy.rawJsonDataMap = this.rawJsonDataMap;
         copy.appVersion = this.appVersion;
         copy.healthDataRecordBuilder = this.healthDataRecordBuilder;
         copy.attachmentsByFieldName = this.attachmentsByFieldName;
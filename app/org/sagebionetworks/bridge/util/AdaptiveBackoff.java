@@ -0,0 +1,46 @@
+package org.sagebionetworks.bridge.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A delay shared by workers that call a throttled service in parallel. Every throttled call doubles the delay (up to
+ * a maximum) and every successful call halves it, and each worker waits out the current delay before making a call.
+ * So the workers as a whole slow down while the service is throttling them, and speed back up as it recovers.
+ */
+public class AdaptiveBackoff {
+
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+    private final AtomicLong delayMillis = new AtomicLong();
+
+    public AdaptiveBackoff(long minDelayMillis, long maxDelayMillis) {
+        checkArgument(minDelayMillis > 0);
+        checkArgument(maxDelayMillis >= minDelayMillis);
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Wait out the current delay, if there is one.
+     */
+    public void pause() throws InterruptedException {
+        long delay = delayMillis.get();
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    public void onThrottled() {
+        delayMillis.updateAndGet(delay -> Math.min(maxDelayMillis, Math.max(minDelayMillis, delay * 2)));
+    }
+
+    public void onSuccess() {
+        delayMillis.updateAndGet(delay -> (delay <= minDelayMillis) ? 0L : delay / 2);
+    }
+
+    public long getDelayMillis() {
+        return delayMillis.get();
+    }
+}
@@ -0,0 +1,58 @@
+package org.sagebionetworks.bridge.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs tasks on an executor with no more than a fixed number of them in flight at once. submit() waits while that
+ * many tasks are running, so a caller reading items from a stream (a request body, a table scan) can't run ahead of
+ * the workers and queue up work without limit. Call awaitCompletion() in a finally block, so the caller doesn't
+ * return (or report its results) while tasks are still running, even if it stopped submitting them early.
+ */
+public class BoundedFanOut {
+
+    private final Executor executor;
+    private final int parallelism;
+    private final Semaphore permits;
+
+    public BoundedFanOut(Executor executor, int parallelism) {
+        checkNotNull(executor);
+        checkArgument(parallelism > 0);
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.permits = new Semaphore(parallelism);
+    }
+
+    /**
+     * Run the task on the executor, once fewer than the maximum number of tasks are in flight. If the executor
+     * rejects the task, the exception is thrown here.
+     */
+    public void submit(Runnable task) throws InterruptedException {
+        checkNotNull(task);
+
+        permits.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch(RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for all the tasks that have been submitted to finish.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        permits.acquire(parallelism);
+        permits.release(parallelism);
+    }
+}
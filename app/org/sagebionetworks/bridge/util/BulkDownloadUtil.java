@@ -4,6 +4,7 @@ import static org.sagebionetworks.bridge.BridgeUtils.COMMA_SPACE_JOINER;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -150,7 +151,11 @@ public class BulkDownloadUtil {
                 parseJsonHandler.handle(ctx);
 
                 try {
-                    Map<String, JsonNode> jsonDataMap = ctx.getJsonDataMap();
+                    // ParseJsonHandler only parses info.json. Parse the other JSON files for the bundle.
+                    Map<String, JsonNode> jsonDataMap = new HashMap<>(ctx.getJsonDataMap());
+                    for (Map.Entry<String, byte[]> oneRawJsonEntry : ctx.getRawJsonDataMap().entrySet()) {
+                        jsonDataMap.put(oneRawJsonEntry.getKey(), mapper.readTree(oneRawJsonEntry.getValue()));
+                    }
                     String jsonBundle = prettyPrinter.writeValueAsString(jsonDataMap);
                     File jsonFile = new File(tmpDir, basename + ".json");
                     Files.write(jsonBundle, jsonFile, Charsets.UTF_8);
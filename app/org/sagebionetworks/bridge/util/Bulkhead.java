@@ -0,0 +1,81 @@
+package org.sagebionetworks.bridge.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
+import org.sagebionetworks.bridge.models.BulkheadStats;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A pool of threads, with a bounded queue, for work that blocks on one dependency (Stormpath, DynamoDB, S3). Requests
+ * that wait on a slow dependency hold threads in its bulkhead rather than Play's request threads, so requests that
+ * don't use it aren't held up. Once the queue is full, further work is rejected with a ServiceUnavailableException
+ * rather than queued without limit behind a dependency that isn't responding.
+ */
+public class Bulkhead implements Executor {
+
+    private final String name;
+    private final int queueSize;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    public Bulkhead(String name, int threadCount, int queueSize) {
+        checkNotNull(name);
+        checkArgument(threadCount > 0);
+        checkArgument(queueSize > 0);
+        this.name = name;
+        this.queueSize = queueSize;
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(name + "-bulkhead-%d")
+                .setDaemon(true).build();
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), threadFactory);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        checkNotNull(task);
+        final long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt);
+                totalWaitMillis.addAndGet(waitMillis);
+                maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+                task.run();
+            });
+        } catch(RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new ServiceUnavailableException("Too many requests are waiting on " + name + ", try again later.");
+        }
+    }
+
+    /**
+     * The current use of this bulkhead's threads and queue, and how long work has waited in the queue.
+     */
+    public BulkheadStats getStats() {
+        long completed = executor.getCompletedTaskCount();
+        long averageWaitMillis = (completed == 0) ? 0 : totalWaitMillis.get() / completed;
+        return new BulkheadStats(name, executor.getMaximumPoolSize(), executor.getActiveCount(), queueSize,
+                executor.getQueue().size(), completed, rejected.get(), averageWaitMillis, maxWaitMillis.get());
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,361 @@
+package org.sagebionetworks.bridge.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.reflect.Method;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.util.ReflectionUtils;
+
+import org.sagebionetworks.bridge.models.DependencyStats;
+import org.sagebionetworks.bridge.models.Metrics;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.RetryPolicy.RetryCondition;
+import com.amazonaws.retry.RetryUtils;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.stormpath.sdk.resource.ResourceException;
+
+import play.mvc.Http;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * Latency, errors, throttles, retries and payload sizes of the calls this server makes to its dependencies
+ * (DynamoDB, Redis, Stormpath, S3 and SES). A client wrapped by instrument() records each call it makes twice: here,
+ * in a latency histogram for the operation that was called, and in the metrics of the request the call was made for,
+ * so the request's log line shows how much of its time was spent on each dependency. Calls made on another executor
+ * are attributed to the request if the executor was wrapped by forRequest() on the request's thread. Other calls off
+ * the request's thread (or with no request at all, like background refreshes) are only recorded here.
+ */
+public class DependencyMetrics {
+
+    /** The key of the request's metrics in the Play context's args. */
+    public static final String REQUEST_METRICS_ARG = Metrics.class.getName();
+
+    /** Upper bounds (in milliseconds) of the histogram's buckets. Slower calls are counted in a final bucket. */
+    static final long[] LATENCY_BUCKET_MILLIS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /** Methods of a Jedis connection that don't send a command to Redis. */
+    private static final Set<String> JEDIS_CONNECTION_METHODS = ImmutableSet.of("close", "connect", "disconnect",
+            "getClient", "getDB", "isConnected", "resetState", "setDataSource");
+
+    /** The metrics of the request a task was submitted for, on threads running tasks given to forRequest(). */
+    private static final ThreadLocal<Metrics> TASK_METRICS = new ThreadLocal<>();
+
+    private final ConcurrentMap<String, OperationStats> operations = Maps.newConcurrentMap();
+
+    /**
+     * Wraps the target so that each call to one of its public methods is recorded as a call to the dependency. If
+     * the type is a class, the proxy is a subclass of it; if an interface, the proxy implements it.
+     */
+    public <T> T instrument(String dependency, Class<T> type, T target) {
+        checkNotNull(dependency);
+        checkNotNull(type);
+        checkNotNull(target);
+
+        ProxyFactory factory = new ProxyFactory(target);
+        factory.setProxyTargetClass(!type.isInterface());
+        factory.addAdvice(new CallInterceptor(dependency));
+        return type.cast(factory.getProxy());
+    }
+
+    /**
+     * Wraps a Jedis pool, so that the connections it lends out are instrumented like a client wrapped by instrument().
+     * Each command sent on a connection is recorded as a call. The commands queued on a pipeline are recorded as one
+     * call, when the pipeline is synced. Use this for Redis commands that JedisOps doesn't provide.
+     */
+    public JedisPool instrument(String dependency, JedisPool pool) {
+        checkNotNull(dependency);
+        checkNotNull(pool);
+
+        return proxy(pool, invocation -> {
+            Object result = invocation.proceed();
+            if (result instanceof Jedis) {
+                return proxy((Jedis)result, new JedisInterceptor(dependency));
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Wraps an AWS client's retry condition, so the retries it allows are recorded. The AWS SDK retries calls
+     * (throttled calls in particular) within the one call to the client, so they can't be seen from outside it.
+     */
+    public RetryCondition retryCondition(String dependency, RetryCondition condition) {
+        checkNotNull(dependency);
+        checkNotNull(condition);
+
+        return (originalRequest, exception, retriesAttempted) -> {
+            boolean retry = condition.shouldRetry(originalRequest, exception, retriesAttempted);
+            if (retry) {
+                recordRetry(dependency, getOperation(originalRequest), isThrottle(exception));
+            }
+            return retry;
+        };
+    }
+
+    /**
+     * Calls to each dependency operation on this server, ordered by dependency and operation.
+     */
+    public List<DependencyStats> getStats() {
+        return operations.values().stream().map(OperationStats::getStats)
+                .sorted(Comparator.comparing(DependencyStats::getDependency)
+                        .thenComparing(DependencyStats::getOperation))
+                .collect(Collectors.toList());
+    }
+
+    void recordCall(String dependency, String operation, long latencyMillis, long payloadBytes, Throwable error) {
+        boolean throttled = isThrottle(error);
+        getOperationStats(dependency, operation).recordCall(latencyMillis, payloadBytes, error != null, throttled);
+
+        Metrics metrics = getRequestMetrics();
+        if (metrics != null) {
+            metrics.recordDependencyCall(dependency, latencyMillis, payloadBytes, error != null, throttled);
+        }
+    }
+
+    void recordRetry(String dependency, String operation, boolean throttled) {
+        getOperationStats(dependency, operation).recordRetry(throttled);
+
+        Metrics metrics = getRequestMetrics();
+        if (metrics != null) {
+            metrics.recordDependencyRetry(dependency, throttled);
+        }
+    }
+
+    private OperationStats getOperationStats(String dependency, String operation) {
+        return operations.computeIfAbsent(dependency + ":" + operation,
+                key -> new OperationStats(dependency, operation));
+    }
+
+    /**
+     * Wraps an executor so that the tasks given to it run with the metrics of the current request, and the calls they
+     * make to dependencies are recorded in that request's metrics. Call this on the request's thread, for the tasks
+     * of that request. If there is no current request, the executor is returned as is.
+     */
+    public static Executor forRequest(Executor executor) {
+        checkNotNull(executor);
+
+        Metrics metrics = getRequestMetrics();
+        if (metrics == null) {
+            return executor;
+        }
+        return task -> executor.execute(() -> {
+            Metrics previous = TASK_METRICS.get();
+            TASK_METRICS.set(metrics);
+            try {
+                task.run();
+            } finally {
+                if (previous == null) {
+                    TASK_METRICS.remove();
+                } else {
+                    TASK_METRICS.set(previous);
+                }
+            }
+        });
+    }
+
+    /**
+     * The metrics of the request being handled on this thread, which MetricsInterceptor puts in the Play context.
+     * Play carries the context over to the threads that run a request's asynchronous actions, but not to other
+     * executors, so tasks run by an executor from forRequest() carry the request's metrics themselves.
+     */
+    static Metrics getRequestMetrics() {
+        Metrics taskMetrics = TASK_METRICS.get();
+        if (taskMetrics != null) {
+            return taskMetrics;
+        }
+        Http.Context context = Http.Context.current.get();
+        if (context == null || context.args == null) {
+            return null;
+        }
+        return (Metrics)context.args.get(REQUEST_METRICS_ARG);
+    }
+
+    static boolean isThrottle(Throwable error) {
+        if (error instanceof AmazonServiceException) {
+            return RetryUtils.isThrottlingException((AmazonServiceException)error);
+        }
+        if (error instanceof ResourceException) {
+            return ((ResourceException)error).getStatus() == TOO_MANY_REQUESTS;
+        }
+        return false;
+    }
+
+    /** The name of the client method that makes the request, e.g. "getItem" for a GetItemRequest. */
+    static String getOperation(AmazonWebServiceRequest request) {
+        if (request == null) {
+            return "unknown";
+        }
+        String name = request.getClass().getSimpleName();
+        if (name.endsWith("Request")) {
+            name = name.substring(0, name.length() - "Request".length());
+        }
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /** The size of the values written (as byte arrays) and read (as strings or byte arrays) by one call. */
+    static long getPayloadBytes(Object[] arguments, Object result) {
+        long bytes = 0;
+        for (Object argument : arguments) {
+            if (argument instanceof byte[]) {
+                bytes += ((byte[])argument).length;
+            }
+        }
+        if (result instanceof byte[]) {
+            bytes += ((byte[])result).length;
+        } else if (result instanceof String) {
+            bytes += ((String)result).length();
+        }
+        return bytes;
+    }
+
+    private static <T> T proxy(T target, MethodInterceptor interceptor) {
+        ProxyFactory factory = new ProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAdvice(interceptor);
+        @SuppressWarnings("unchecked")
+        T proxy = (T)factory.getProxy();
+        return proxy;
+    }
+
+    private class CallInterceptor implements MethodInterceptor {
+        final String dependency;
+
+        CallInterceptor(String dependency) {
+            this.dependency = dependency;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            Method method = invocation.getMethod();
+            if (ReflectionUtils.isObjectMethod(method)) {
+                return invocation.proceed();
+            }
+            final long start = System.nanoTime();
+            Object result = null;
+            Throwable error = null;
+            try {
+                result = invocation.proceed();
+                return result;
+            } catch(Throwable throwable) {
+                error = throwable;
+                throw throwable;
+            } finally {
+                long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                recordCall(dependency, method.getName(), latencyMillis,
+                        getPayloadBytes(invocation.getArguments(), result), error);
+            }
+        }
+    }
+
+    /** Records the commands sent on a connection, but not the management of the connection itself. */
+    private class JedisInterceptor extends CallInterceptor {
+        JedisInterceptor(String dependency) {
+            super(dependency);
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            String name = invocation.getMethod().getName();
+            if ("pipelined".equals(name)) {
+                return proxy((Pipeline)invocation.proceed(), new PipelineInterceptor(dependency));
+            }
+            if (JEDIS_CONNECTION_METHODS.contains(name)) {
+                return invocation.proceed();
+            }
+            return super.invoke(invocation);
+        }
+    }
+
+    /** Commands on a pipeline are only queued until it is synced, so only syncing is recorded. */
+    private class PipelineInterceptor extends CallInterceptor {
+        PipelineInterceptor(String dependency) {
+            super(dependency);
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            if (invocation.getMethod().getName().startsWith("sync")) {
+                return super.invoke(invocation);
+            }
+            return invocation.proceed();
+        }
+    }
+
+    private static class OperationStats {
+        private final String dependency;
+        private final String operation;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong throttles = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong payloadBytes = new AtomicLong();
+        private final AtomicLong totalLatencyMillis = new AtomicLong();
+        private final AtomicLong maxLatencyMillis = new AtomicLong();
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKET_MILLIS.length + 1);
+
+        OperationStats(String dependency, String operation) {
+            this.dependency = dependency;
+            this.operation = operation;
+        }
+
+        void recordCall(long latencyMillis, long bytes, boolean failed, boolean throttled) {
+            calls.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            if (throttled) {
+                throttles.incrementAndGet();
+            }
+            payloadBytes.addAndGet(bytes);
+            totalLatencyMillis.addAndGet(latencyMillis);
+            maxLatencyMillis.accumulateAndGet(latencyMillis, Math::max);
+
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKET_MILLIS.length && latencyMillis > LATENCY_BUCKET_MILLIS[bucket]) {
+                bucket++;
+            }
+            latencyBuckets.incrementAndGet(bucket);
+        }
+
+        void recordRetry(boolean throttled) {
+            retries.incrementAndGet();
+            if (throttled) {
+                throttles.incrementAndGet();
+            }
+        }
+
+        DependencyStats getStats() {
+            Map<String, Long> histogram = Maps.newLinkedHashMap();
+            for (int i = 0; i < LATENCY_BUCKET_MILLIS.length; i++) {
+                histogram.put("<=" + LATENCY_BUCKET_MILLIS[i], latencyBuckets.get(i));
+            }
+            histogram.put(">" + LATENCY_BUCKET_MILLIS[LATENCY_BUCKET_MILLIS.length - 1],
+                    latencyBuckets.get(LATENCY_BUCKET_MILLIS.length));
+
+            long count = calls.get();
+            long averageLatencyMillis = (count == 0) ? 0 : totalLatencyMillis.get() / count;
+            return new DependencyStats(dependency, operation, count, errors.get(), throttles.get(), retries.get(),
+                    payloadBytes.get(), averageLatencyMillis, maxLatencyMillis.get(), histogram);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.sagebionetworks.bridge.validators;
+
+import java.util.Set;
+
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.models.notifications.CohortNotification;
+
+public class CohortNotificationValidator implements Validator {
+
+    private final Set<String> studyDataGroups;
+    
+    public CohortNotificationValidator(Set<String> studyDataGroups) {
+        this.studyDataGroups = studyDataGroups;
+    }
+    
+    @Override
+    public boolean supports(Class<?> clazz) {
+        return CohortNotification.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public void validate(Object object, Errors errors) {
+        CohortNotification notification = (CohortNotification)object;
+        
+        for (String dataGroup : notification.getDataGroups()) {
+            if (!studyDataGroups.contains(dataGroup)) {
+                errors.rejectValue("dataGroups", String.format("'%s' is not defined for study (use %s)", 
+                        dataGroup, BridgeUtils.COMMA_SPACE_JOINER.join(studyDataGroups)));
+            }
+        }
+        if (notification.getMessage() == null) {
+            errors.rejectValue("message", "is required");
+        } else {
+            errors.pushNestedPath("message");
+            NotificationMessageValidator.INSTANCE.validate(notification.getMessage(), errors);
+            errors.popNestedPath();
+        }
+    }
+}
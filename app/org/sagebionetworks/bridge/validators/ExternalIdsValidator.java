@@ -34,6 +34,13 @@ public class ExternalIdsValidator implements Validator {
     
     private final int addLimit;
     
+    /**
+     * True if the identifier contains only digits, letters, underscores and dashes.
+     */
+    public static boolean isValidIdentifier(String identifier) {
+        return identifier != null && identifier.matches(IDENTIFIER_PATTERN);
+    }
+    
     public ExternalIdsValidator(int addLimit) {
         this.addLimit = addLimit;
     }
@@ -64,7 +71,7 @@ public class ExternalIdsValidator implements Validator {
                 contents.add(id);
                 if (StringUtils.isBlank(id)) {
                     errors.rejectValue(path, "cannot be null or blank");
-                } else if (!id.matches(IDENTIFIER_PATTERN)) {
+                } else if (!isValidIdentifier(id)) {
                     String msg = String.format("'%s' must contain only digits, letters, underscores and dashes", id);
                     errors.rejectValue(path, msg);
                 }
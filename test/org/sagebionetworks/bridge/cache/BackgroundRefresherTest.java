@@ -0,0 +1,113 @@
+package org.sagebionetworks.bridge.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.RefreshStats;
+
+public class BackgroundRefresherTest {
+
+    private ScheduledExecutorService executor;
+    private BackgroundRefresher refresher;
+
+    @Before
+    public void before() {
+        executor = mock(ScheduledExecutorService.class);
+        refresher = new BackgroundRefresher();
+        refresher.setRefreshExecutorService(executor);
+    }
+
+    @Test
+    public void refreshIsRescheduledAfterEachRun() {
+        AtomicInteger refreshes = new AtomicInteger();
+        refresher.schedule("task", 600, refreshes::incrementAndGet);
+
+        // Nothing is run until the first interval has passed
+        assertEquals(0, refreshes.get());
+        Runnable task = verifyScheduled(1, 600);
+
+        task.run();
+        task.run();
+        assertEquals(2, refreshes.get());
+        verifyScheduled(3, 600);
+
+        RefreshStats stats = refresher.getStats().get(0);
+        assertEquals("task", stats.getName());
+        assertEquals(600, stats.getIntervalInSeconds());
+        assertEquals(2, stats.getRefreshes());
+        assertEquals(0, stats.getFailures());
+        assertNotNull(stats.getLastRefreshedOn());
+    }
+
+    @Test
+    public void failedRefreshIsRetriedSooner() {
+        refresher.schedule("task", 600, () -> {
+            throw new BridgeServiceException("STS is unavailable");
+        });
+        Runnable task = verifyScheduled(1, 600);
+
+        // The failure isn't thrown to the executor, which would stop running the task
+        task.run();
+        verifyScheduled(1, BackgroundRefresher.RETRY_DELAY_IN_SECONDS);
+
+        RefreshStats stats = refresher.getStats().get(0);
+        assertEquals(1, stats.getRefreshes());
+        assertEquals(1, stats.getFailures());
+        assertNull(stats.getLastRefreshedOn());
+    }
+
+    @Test
+    public void retryIsNoLongerThanInterval() {
+        refresher.schedule("task", 10, () -> {
+            throw new BridgeServiceException("STS is unavailable");
+        });
+        Runnable task = verifyScheduled(1, 10);
+
+        task.run();
+        verifyScheduled(2, 10);
+    }
+
+    @Test
+    public void statsAreOrderedByName() {
+        refresher.schedule("second", 60, () -> {});
+        refresher.schedule("first", 60, () -> {});
+
+        List<RefreshStats> stats = refresher.getStats();
+        assertEquals("first", stats.get(0).getName());
+        assertEquals("second", stats.get(1).getName());
+        assertEquals(0, stats.get(0).getRefreshes());
+    }
+
+    @Test
+    public void namesMustBeUnique() {
+        refresher.schedule("task", 60, () -> {});
+        try {
+            refresher.schedule("task", 60, () -> {});
+            fail("Should have thrown exception");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private Runnable verifyScheduled(int times, long delayInSeconds) {
+        ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(times)).schedule(taskCaptor.capture(), eq(delayInSeconds), eq(TimeUnit.SECONDS));
+        return taskCaptor.getValue();
+    }
+}
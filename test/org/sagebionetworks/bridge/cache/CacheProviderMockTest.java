@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.cache;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
@@ -11,17 +12,22 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.Roles;
@@ -32,6 +38,7 @@ import org.sagebionetworks.bridge.crypto.AesGcmEncryptor;
 import org.sagebionetworks.bridge.crypto.Encryptor;
 import org.sagebionetworks.bridge.dao.ParticipantOption.SharingScope;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.RequestInfo;
 import org.sagebionetworks.bridge.models.accounts.ConsentStatus;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
@@ -41,8 +48,14 @@ import org.sagebionetworks.bridge.redis.JedisOps;
 import org.sagebionetworks.bridge.redis.JedisTransaction;
 import org.sagebionetworks.bridge.redis.RedisKey;
 
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -293,6 +306,120 @@ public class CacheProviderMockTest {
         assertFalse(status.isConsented());
     }
     
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void requestInfoUpdatesAreCombinedAndWrittenAsHash() throws Exception {
+        Jedis jedis = mock(Jedis.class);
+        Pipeline pipeline = mock(Pipeline.class);
+        when(pipeline.hmset(anyString(), any())).thenReturn(mock(Response.class));
+        when(jedis.pipelined()).thenReturn(pipeline);
+        JedisPool jedisPool = mock(JedisPool.class);
+        when(jedisPool.getResource()).thenReturn(jedis);
+        cacheProvider.setJedisPool(jedisPool);
+        
+        JedisOps jedisOps = mock(JedisOps.class);
+        cacheProvider.setJedisOps(jedisOps);
+        
+        LinkedHashSet<String> languages = TestUtils.newLinkedHashSet("en");
+        cacheProvider.updateRequestInfo(new RequestInfo.Builder().withUserId(USER_ID).withUserAgent("userAgent").build());
+        cacheProvider.updateRequestInfo(new RequestInfo.Builder().withUserId(USER_ID).withLanguages(languages).build());
+        
+        // Nothing has been written to Redis yet
+        verify(jedisPool, never()).getResource();
+        verify(jedisOps, never()).set(anyString(), anyString());
+        
+        cacheProvider.flushRequestInfo();
+        
+        ArgumentCaptor<Map> fieldsCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(pipeline).hmset(eq(RedisKey.REQUEST_INFO.getRedisKey(USER_ID)), fieldsCaptor.capture());
+        verify(pipeline).sync();
+        
+        Map<String,String> fields = fieldsCaptor.getValue();
+        assertEquals("\"userAgent\"", fields.get("userAgent"));
+        assertEquals("[\"en\"]", fields.get("languages"));
+        assertFalse(fields.containsKey("signedInOn"));
+        
+        // A second flush has nothing to write
+        cacheProvider.flushRequestInfo();
+        verify(jedisPool, times(1)).getResource();
+    }
+    
+    @Test
+    public void getRequestInfoIncludesPendingUpdates() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.hgetAll(RedisKey.REQUEST_INFO.getRedisKey(USER_ID))).thenReturn(
+                ImmutableMap.of("userId", "\"userId\"", "userAgent", "\"userAgent\""));
+        JedisPool jedisPool = mock(JedisPool.class);
+        when(jedisPool.getResource()).thenReturn(jedis);
+        cacheProvider.setJedisPool(jedisPool);
+        
+        LinkedHashSet<String> languages = TestUtils.newLinkedHashSet("en");
+        cacheProvider.updateRequestInfo(new RequestInfo.Builder().withUserId(USER_ID).withLanguages(languages).build());
+        
+        RequestInfo requestInfo = cacheProvider.getRequestInfo(USER_ID);
+        assertEquals("userAgent", requestInfo.getUserAgent());
+        assertEquals(languages, requestInfo.getLanguages());
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void countersAreOnlyIncrementedIfPresent() {
+        Jedis jedis = mock(Jedis.class);
+        JedisPool jedisPool = mock(JedisPool.class);
+        when(jedisPool.getResource()).thenReturn(jedis);
+        cacheProvider.setJedisPool(jedisPool);
+        
+        String cacheKey = RedisKey.ACTIVITY_COUNT.getRedisKey("healthCode");
+        cacheProvider.incrementCountIfPresent(cacheKey, 3);
+        
+        ArgumentCaptor<List> keysCaptor = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List> argsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(jedis).eval(anyString(), keysCaptor.capture(), argsCaptor.capture());
+        assertEquals(ImmutableList.of(cacheKey), keysCaptor.getValue());
+        assertEquals(ImmutableList.of("3"), argsCaptor.getValue());
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void counterUpdateFailureIsNotThrown() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.eval(anyString(), any(List.class), any(List.class))).thenThrow(new JedisDataException("error"));
+        JedisPool jedisPool = mock(JedisPool.class);
+        when(jedisPool.getResource()).thenReturn(jedis);
+        cacheProvider.setJedisPool(jedisPool);
+        
+        cacheProvider.incrementCountIfPresent(RedisKey.ACTIVITY_COUNT.getRedisKey("healthCode"), 3);
+    }
+    
+    @Test
+    public void setAndGetBytes() {
+        byte[] keyBytes = "view:gzip".getBytes(StandardCharsets.UTF_8);
+        byte[] value = new byte[] { 0x1f, (byte) 0x8b, 0x08 };
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.setex(keyBytes, 60, value)).thenReturn("OK");
+        when(jedis.get(keyBytes)).thenReturn(value);
+        JedisPool jedisPool = mock(JedisPool.class);
+        when(jedisPool.getResource()).thenReturn(jedis);
+        cacheProvider.setJedisPool(jedisPool);
+        
+        cacheProvider.setBytes("view:gzip", value, 60);
+        verify(jedis).setex(keyBytes, 60, value);
+        
+        assertArrayEquals(value, cacheProvider.getBytes("view:gzip"));
+    }
+    
+    @Test
+    public void getCount() {
+        CacheProvider simpleCacheProvider = new CacheProvider();
+        simpleCacheProvider.setJedisOps(getJedisOps());
+        
+        String cacheKey = RedisKey.ACTIVITY_COUNT.getRedisKey("healthCode");
+        assertNull(simpleCacheProvider.getCount(cacheKey));
+        
+        simpleCacheProvider.setString(cacheKey, "42", 60);
+        assertEquals(new Long(42), simpleCacheProvider.getCount(cacheKey));
+    }
+    
     private JedisOps getJedisOps() {
         return new JedisOps(new JedisPool()) {
             private Map<String,String> map = Maps.newHashMap();
@@ -63,6 +63,9 @@ public class CacheProviderTest {
     @Autowired
     private JedisOps testJedisOps;
     
+    @Autowired
+    private JedisPool testJedisPool;
+    
     @Resource(name = "redisProviders")
     private List<String> redisProviders;
     
@@ -70,6 +73,7 @@ public class CacheProviderTest {
     public void after() {
         // restore in the in memory redis implementation
         cacheProvider.setJedisOps(testJedisOps);
+        cacheProvider.setJedisPool(testJedisPool);
     }
     
     @Before
@@ -77,6 +81,7 @@ public class CacheProviderTest {
         JedisPool jedisPool = constructJedisPool();
         JedisOps jedisOps = new JedisOps(jedisPool);
         cacheProvider.setJedisOps(jedisOps);
+        cacheProvider.setJedisPool(jedisPool);
         cacheProvider.setSessionExpireInSeconds(4);
     }
     
@@ -160,6 +165,7 @@ public class CacheProviderTest {
                 .withUserDataGroups(TestConstants.USER_DATA_GROUPS)
                 .build();
         cacheProvider.updateRequestInfo(requestInfo);
+        cacheProvider.flushRequestInfo();
         
         // Add different information, rewriting one value
         RequestInfo extraRequestInfo = new RequestInfo.Builder()
@@ -171,8 +177,19 @@ public class CacheProviderTest {
                 .build();
         cacheProvider.updateRequestInfo(extraRequestInfo);
         
-        // Data is combined in cache.
+        // Data is combined with the pending update before it is written, and in the cache after it is written.
         RequestInfo combinedRequestInfo = cacheProvider.getRequestInfo(USER_ID);
+        assertCombinedRequestInfo(combinedRequestInfo);
+        
+        cacheProvider.flushRequestInfo();
+        combinedRequestInfo = cacheProvider.getRequestInfo(USER_ID);
+        assertCombinedRequestInfo(combinedRequestInfo);
+        
+        cacheProvider.removeRequestInfo(USER_ID);
+        assertNull(cacheProvider.getRequestInfo(USER_ID));
+    }
+    
+    private void assertCombinedRequestInfo(RequestInfo combinedRequestInfo) {
         assertEquals(USER_ID, combinedRequestInfo.getUserId());
         assertEquals(USER_AGENT_STRING, combinedRequestInfo.getUserAgent());
         assertEquals(STUDY_ID, combinedRequestInfo.getStudyIdentifier());
@@ -181,9 +198,6 @@ public class CacheProviderTest {
         assertEquals(MST, combinedRequestInfo.getTimeZone());
         assertEquals(ACTIVITIES_REQUESTED_ON.withZone(MST), combinedRequestInfo.getActivitiesAccessedOn());
         assertEquals(SIGNED_IN_ON.withZone(MST), combinedRequestInfo.getSignedInOn());
-        
-        cacheProvider.removeRequestInfo(USER_ID);
-        assertNull(cacheProvider.getRequestInfo(USER_ID));
     }
     
 }
@@ -0,0 +1,58 @@
+package org.sagebionetworks.bridge.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A CacheProvider that keeps strings, binary values and versions in memory, for tests of the classes that use the 
+ * view cache. Expiration is ignored.
+ */
+public class InMemoryCacheProvider extends CacheProvider {
+    
+    private final Map<String,String> strings = new ConcurrentHashMap<>();
+    private final Map<String,byte[]> values = new ConcurrentHashMap<>();
+    
+    @Override
+    public String getString(String cacheKey) {
+        return strings.get(cacheKey);
+    }
+    
+    @Override
+    public void setString(String cacheKey, String value, int expireInSeconds) {
+        strings.put(cacheKey, value);
+    }
+    
+    @Override
+    public void removeString(String cacheKey) {
+        strings.remove(cacheKey);
+        values.remove(cacheKey);
+    }
+    
+    @Override
+    public byte[] getBytes(String cacheKey) {
+        return values.get(cacheKey);
+    }
+    
+    @Override
+    public void setBytes(String cacheKey, byte[] value, int expireInSeconds) {
+        values.put(cacheKey, value);
+    }
+    
+    @Override
+    public VersionedBytes getVersionedBytes(String versionKey, String key) {
+        String version = strings.getOrDefault(versionKey, "0");
+        return new VersionedBytes(version, values.get(getVersionedKey(version, key)));
+    }
+    
+    @Override
+    public synchronized String incrementVersion(String versionKey, int expireInSeconds) {
+        String version = Long.toString(Long.parseLong(strings.getOrDefault(versionKey, "0")) + 1);
+        strings.put(versionKey, version);
+        return version;
+    }
+    
+    /** The number of binary values (such as cached views, of any version) stored. */
+    public int getValueCount() {
+        return values.size();
+    }
+}
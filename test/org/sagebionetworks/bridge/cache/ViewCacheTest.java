@@ -1,44 +1,64 @@
 package org.sagebionetworks.bridge.cache;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
-import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.cache.ViewCache.ViewCacheKey;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.ViewCacheStats;
 import org.sagebionetworks.bridge.models.studies.Study;
 
 import com.google.common.base.Supplier;
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
 
 public class ViewCacheTest {
-    
+
     private BridgeObjectMapper mapper;
     private Study study;
-    
+    private InMemoryCacheProvider provider;
+    private ViewCache cache;
+
     @Before
     public void before() {
         mapper = BridgeObjectMapper.get();
-        
+
         study = TestUtils.getValidStudy(ViewCacheTest.class);
+
+        provider = new InMemoryCacheProvider();
+        cache = createViewCache(mock(DistributedLockDao.class));
+    }
+
+    @After
+    public void after() {
+        DateTimeUtils.setCurrentMillisSystem();
     }
-    
+
     @Test
     public void nothingWasCached() throws Exception {
-        ViewCache cache = new ViewCache();
         ViewCacheKey<Study> cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
-        CacheProvider provider = mock(CacheProvider.class);
-        when(provider.getString(cacheKey.getKey())).thenReturn(null);
-        cache.setCacheProvider(provider);
-        
+
         String json = cache.getView(cacheKey, new Supplier<Study>() {
             @Override public Study get() {
                 Study study = TestUtils.getValidStudy(ViewCacheTest.class);
@@ -46,20 +66,16 @@ public class ViewCacheTest {
                 return study;
             }
         });
-        
+
         Study foundStudy = BridgeObjectMapper.get().readValue(json, DynamoStudy.class);
         assertEquals("Test Study 2", foundStudy.getName());
+        assertStats(cache.getStats(), 0, 0, 1, 0, 0, 1);
     }
-    
+
     @Test
     public void nothingWasCachedAndThereIsAnException() {
-        ViewCache cache = new ViewCache();
         ViewCacheKey<Study> cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
-        
-        CacheProvider provider = mock(CacheProvider.class);
-        when(provider.getString(cacheKey.getKey())).thenReturn(null);
-        cache.setCacheProvider(provider);
-        
+
         // It doesn't get wrapped or transformed or anything
         try {
             cache.getView(cacheKey, new Supplier<Study>() {
@@ -71,40 +87,34 @@ public class ViewCacheTest {
         } catch(BridgeServiceException e) {
             assertEquals("There has been a problem retrieving the study", e.getMessage());
         }
+        assertEquals(0, provider.getValueCount());
     }
-    
+
     @Test
     public void somethingIsCached() throws Exception {
-        
-        String originalStudyJson = mapper.writeValueAsString(study);
-        
-        ViewCache cache = new ViewCache();
         ViewCacheKey<Study> cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
-        CacheProvider provider = mock(CacheProvider.class);
-        when(provider.getString(cacheKey.getKey())).thenReturn(originalStudyJson);
-        cache.setCacheProvider(provider);
-        
+        String originalStudyJson = cache.getView(cacheKey, () -> study);
+
         String json = cache.getView(cacheKey, new Supplier<Study>() {
             @Override public Study get() {
                 fail("This should not be called");
                 return null;
             }
         });
-        
+
+        assertEquals(originalStudyJson, json);
         Study foundStudy = BridgeObjectMapper.get().readValue(json, DynamoStudy.class);
         assertEquals("Test Study [ViewCacheTest]", foundStudy.getName());
+        assertStats(cache.getStats(), 1, 0, 1, 0, 0, 1);
     }
-    
+
     @Test
     public void removeFromCacheWorks() throws Exception {
-        
-        final String originalStudyJson = mapper.writeValueAsString(study);
-        ViewCache cache = new ViewCache();
         final ViewCacheKey<Study> cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
-        cache.setCacheProvider(getSimpleCacheProvider(cacheKey.getKey(), originalStudyJson));
-        
+        cache.getView(cacheKey, () -> study);
+
         cache.removeView(cacheKey);
-        
+
         String json = cache.getView(cacheKey, new Supplier<Study>() {
             @Override public Study get() {
                 Study study = TestUtils.getValidStudy(ViewCacheTest.class);
@@ -115,31 +125,180 @@ public class ViewCacheTest {
         Study foundStudy = BridgeObjectMapper.get().readValue(json, DynamoStudy.class);
         assertEquals("Test Study 2", foundStudy.getName());
     }
-    
+
+    @Test
+    public void viewLoadedWhileRemovedIsNotRead() throws Exception {
+        ViewCacheKey<Study> cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
+
+        // The view is removed while it is being loaded, so what was loaded may be out of date
+        cache.getView(cacheKey, () -> {
+            cache.removeView(cacheKey);
+            return study;
+        });
+
+        String json = cache.getView(cacheKey, () -> {
+            Study study = TestUtils.getValidStudy(ViewCacheTest.class);
+            study.setName("Test Study 2");
+            return study;
+        });
+        Study foundStudy = BridgeObjectMapper.get().readValue(json, DynamoStudy.class);
+        assertEquals("Test Study 2", foundStudy.getName());
+    }
+
+    @Test
+    public void viewsInGroupAreRemovedTogether() throws Exception {
+        ViewCacheKey<Study> firstKey = cache.getGroupCacheKey(Study.class, "group", "first");
+        ViewCacheKey<Study> secondKey = cache.getGroupCacheKey(Study.class, "group", "second");
+        ViewCacheKey<Study> otherKey = cache.getGroupCacheKey(Study.class, "other", "first");
+        cache.getView(firstKey, () -> study);
+        cache.getView(secondKey, () -> study);
+        cache.getView(otherKey, () -> study);
+
+        cache.removeViewGroup(Study.class, "group");
+
+        AtomicInteger loads = new AtomicInteger();
+        cache.getView(firstKey, () -> { loads.incrementAndGet(); return study; });
+        cache.getView(secondKey, () -> { loads.incrementAndGet(); return study; });
+        cache.getView(otherKey, () -> { loads.incrementAndGet(); return study; });
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void concurrentLoadsAreCoalesced() throws Exception {
+        ViewCacheKey<Study> cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = executor.submit(() -> cache.getView(cacheKey, () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch(InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return study;
+            }));
+            loading.await();
+
+            // The second caller waits for the first load rather than loading the view again
+            Thread second = new Thread(() -> cache.getView(cacheKey, () -> {
+                loads.incrementAndGet();
+                return study;
+            }));
+            second.start();
+            while (cache.getStats().getCoalescedLoads() == 0) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            second.join();
+
+            assertEquals(mapper.writeValueAsString(study), first.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+            assertStats(cache.getStats(), 0, 0, 2, 1, 0, 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitsForViewLoadedOnAnotherServer() throws Exception {
+        ViewCache otherServer = createViewCache(mock(DistributedLockDao.class));
+        DistributedLockDao lockDao = mock(DistributedLockDao.class);
+        ViewCacheKey<Study> cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
+        when(lockDao.acquireLock(any(), anyString(), anyInt())).thenAnswer(invocation -> {
+            // The other server holds the lock, and caches the view
+            otherServer.getView(cacheKey, () -> study);
+            throw new ConcurrentModificationException("Lock already set.");
+        });
+        cache = createViewCache(lockDao);
+
+        String json = cache.getView(cacheKey, () -> {
+            fail("This should not be called");
+            return null;
+        });
+
+        assertEquals(mapper.writeValueAsString(study), json);
+        assertStats(cache.getStats(), 0, 0, 1, 0, 1, 0);
+    }
+
+    @Test
+    public void staleViewIsReturnedWhileItIsRefreshed() throws Exception {
+        DateTimeUtils.setCurrentMillisFixed(1000000L);
+        ViewCacheKey<Study> cacheKey = cache.getCacheKey(Study.class, study.getIdentifier()).withRefreshAfter(60);
+        String originalJson = cache.getView(cacheKey, () -> study);
+
+        Study updatedStudy = TestUtils.getValidStudy(ViewCacheTest.class);
+        updatedStudy.setName("Test Study 2");
+
+        // Not yet due to be refreshed
+        DateTimeUtils.setCurrentMillisFixed(1000000L + 59000L);
+        assertEquals(originalJson, cache.getView(cacheKey, () -> updatedStudy));
+
+        // Due to be refreshed: the cached view is returned, and it is reloaded in the background
+        DateTimeUtils.setCurrentMillisFixed(1000000L + 61000L);
+        assertEquals(originalJson, cache.getView(cacheKey, () -> updatedStudy));
+
+        String json = cache.getView(cacheKey, () -> {
+            fail("This should not be called");
+            return null;
+        });
+        assertEquals(mapper.writeValueAsString(updatedStudy), json);
+        assertStats(cache.getStats(), 2, 1, 1, 0, 0, 2);
+    }
+
+    @Test
+    public void compressedViewIsCachedAndRemoved() throws Exception {
+        ViewCacheKey<Study> cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
+
+        byte[] compressed = cache.getCompressedView(cacheKey, () -> study);
+
+        Study foundStudy = BridgeObjectMapper.get().readValue(ViewCache.decompress(compressed), DynamoStudy.class);
+        assertEquals("Test Study [ViewCacheTest]", foundStudy.getName());
+
+        // Once cached, the supplier isn't called
+        byte[] cached = cache.getCompressedView(cacheKey, () -> {
+            fail("This should not be called");
+            return null;
+        });
+        assertArrayEquals(compressed, cached);
+
+        cache.removeView(cacheKey);
+        AtomicInteger loads = new AtomicInteger();
+        cache.getCompressedView(cacheKey, () -> { loads.incrementAndGet(); return study; });
+        assertEquals(1, loads.get());
+    }
+
     @Test
     public void getCacheKeyWorks() {
-        ViewCache cache = new ViewCache();
-        
         ViewCacheKey<Study> cacheKey = cache.getCacheKey(Study.class, "mostRandom", "leastRandom");
         assertEquals("mostRandom:leastRandom:org.sagebionetworks.bridge.models.studies.Study:view", cacheKey.getKey());
+        assertEquals("mostRandom:leastRandom:org.sagebionetworks.bridge.models.studies.Study:view-version",
+                cacheKey.getVersionKey());
+
+        cacheKey = cache.getGroupCacheKey(Study.class, "group", "mostRandom");
+        assertEquals("group:mostRandom:org.sagebionetworks.bridge.models.studies.Study:view", cacheKey.getKey());
+        assertEquals("group:org.sagebionetworks.bridge.models.studies.Study:view-version", cacheKey.getVersionKey());
     }
-    
-    private CacheProvider getSimpleCacheProvider(final String cacheKey, final String originalStudyJson) {
-        return new CacheProvider() {
-            private Map<String,String> map = Maps.newHashMap();
-            {
-                map.put(cacheKey, originalStudyJson);
-            }
-            public String getString(String cacheKey) {
-                return map.get(cacheKey);
-            }
-            public void setString(String cacheKey, String value, int secondsUntilExpire) {
-                map.put(cacheKey, value);
-            }
-            public void removeString(String cacheKey) {
-                map.remove(cacheKey);
-            }
-        };   
+
+    private ViewCache createViewCache(DistributedLockDao lockDao) {
+        ViewCache viewCache = new ViewCache();
+        viewCache.setCacheProvider(provider);
+        viewCache.setDistributedLockDao(lockDao);
+        viewCache.setAsyncExecutorService(MoreExecutors.newDirectExecutorService());
+        return viewCache;
+    }
+
+    private void assertStats(ViewCacheStats stats, long hits, long staleHits, long misses, long coalescedLoads,
+            long lockWaits, long loads) {
+        assertEquals(hits, stats.getHits());
+        assertEquals(staleHits, stats.getStaleHits());
+        assertEquals(misses, stats.getMisses());
+        assertEquals(coalescedLoads, stats.getCoalescedLoads());
+        assertEquals(lockWaits, stats.getLockWaits());
+        assertEquals(loads, stats.getLoads());
     }
-    
 }
@@ -29,6 +29,11 @@ public class BridgeTestSpringConfig {
         return mock(JedisPool.class);
     }
 
+    @Bean(name = "instrumentedJedisPool")
+    public JedisPool instrumentedJedisPool() {
+        return jedisPool();
+    }
+
     @Bean(name = "testUserAdminHelper")
     public TestUserAdminHelper getTestUserAdminHelper() {
         return new TestUserAdminHelper();
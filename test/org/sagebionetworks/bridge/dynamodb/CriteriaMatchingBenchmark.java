@@ -0,0 +1,168 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static org.mockito.Mockito.mock;
+import static org.sagebionetworks.bridge.models.OperatingSystem.ANDROID;
+import static org.sagebionetworks.bridge.models.OperatingSystem.IOS;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.models.ClientInfo;
+import org.sagebionetworks.bridge.models.Criteria;
+import org.sagebionetworks.bridge.models.CriteriaContext;
+import org.sagebionetworks.bridge.models.CriteriaUtils;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>
+ * Compares matching a set of criteria (as a study's subpopulations or a CriteriaScheduleStrategy would declare them)
+ * with the compiled CriteriaMatcher, against the set-based implementation of CriteriaUtils.matchCriteria that it 
+ * replaced. The baseline is reproduced here so the two can still be compared.
+ * </p>
+ * <p>
+ * Criteria are loaded from DynamoDB again on each request, so the matcher held by criteria that are reused only 
+ * shows the cost of matching. The "loaded" benchmarks load each criteria through DynamoCriteriaDao first (from a 
+ * mapper that returns a new copy, as DynamoDB would), with the previous behavior of compiling every loaded criteria 
+ * compared to the DAO's cache of compiled matchers. 
+ * </p>
+ * <p>
+ * Run with: sbt "test:runMain org.sagebionetworks.bridge.dynamodb.CriteriaMatchingBenchmark"
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CriteriaMatchingBenchmark {
+
+    private static final int CRITERIA_COUNT = 20;
+
+    private List<Criteria> criteriaList;
+    private CriteriaContext context;
+    private DynamoCriteriaDao criteriaDao;
+
+    @Setup
+    public void setup() {
+        criteriaList = Lists.newArrayListWithCapacity(CRITERIA_COUNT);
+        for (int i=0; i < CRITERIA_COUNT; i++) {
+            Criteria criteria = Criteria.create();
+            criteria.setAllOfGroups(Sets.newHashSet("group" + (i % 4)));
+            criteria.setNoneOfGroups(Sets.newHashSet("group" + ((i+1) % 5), "group" + ((i+2) % 5)));
+            criteria.setMinAppVersion(IOS, i % 3);
+            criteria.setMaxAppVersion(ANDROID, 10 + i);
+            if (i % 2 == 0) {
+                criteria.setLanguage((i % 4 == 0) ? "EN" : "de");
+            }
+            criteria.setKey("subpopulation:guid" + i);
+            criteriaList.add(criteria);
+        }
+        Map<String, DynamoCriteria> table = Maps.newHashMap();
+        for (Criteria criteria : criteriaList) {
+            table.put(criteria.getKey(), (DynamoCriteria)criteria);
+        }
+        criteriaDao = new DynamoCriteriaDao();
+        criteriaDao.setCriteriaMapper(new DynamoDBMapper(mock(AmazonDynamoDB.class)) {
+            @SuppressWarnings("unchecked")
+            @Override
+            public <T> T load(T keyObject) {
+                return (T)table.get(((DynamoCriteria)keyObject).getKey()).copy();
+            }
+        });
+        context = new CriteriaContext.Builder()
+                .withStudyIdentifier(TestConstants.TEST_STUDY)
+                .withClientInfo(ClientInfo.fromUserAgentCache("app/4 (deviceName; iPhone OS/3.9) BridgeJavaSDK/12"))
+                .withLanguages(TestUtils.newLinkedHashSet("en", "fr"))
+                .withUserDataGroups(Sets.newHashSet("group0", "group2", "group6")).build();
+    }
+
+    @Benchmark
+    public void setBased(Blackhole blackhole) {
+        for (Criteria criteria : criteriaList) {
+            blackhole.consume(setBasedMatchCriteria(context, criteria));
+        }
+    }
+
+    @Benchmark
+    public void compiled(Blackhole blackhole) {
+        for (Criteria criteria : criteriaList) {
+            blackhole.consume(CriteriaUtils.matchCriteria(context, criteria));
+        }
+    }
+
+    @Benchmark
+    public void loadedAndCompiled(Blackhole blackhole) {
+        for (Criteria criteria : criteriaList) {
+            Criteria loaded = ((DynamoCriteria)criteria).copy();
+            blackhole.consume(CriteriaUtils.matchCriteria(context, loaded));
+        }
+    }
+
+    @Benchmark
+    public void loadedWithCachedMatcher(Blackhole blackhole) {
+        for (Criteria criteria : criteriaList) {
+            Criteria loaded = criteriaDao.getCriteria(criteria.getKey());
+            blackhole.consume(CriteriaUtils.matchCriteria(context, loaded));
+        }
+    }
+
+    /** The implementation of CriteriaUtils.matchCriteria before criteria were compiled. */
+    private static boolean setBasedMatchCriteria(CriteriaContext context, Criteria criteria) {
+        Integer appVersion = context.getClientInfo().getAppVersion();
+        String appOs = context.getClientInfo().getOsName();
+        if (appVersion != null && appOs != null) {
+            Integer minAppVersion = criteria.getMinAppVersion(appOs);
+            Integer maxAppVersion = criteria.getMaxAppVersion(appOs);
+            if ((minAppVersion != null && appVersion < minAppVersion) ||
+                (maxAppVersion != null && appVersion > maxAppVersion)) {
+                return false;
+            }
+        }
+        Set<String> dataGroups = context.getUserDataGroups();
+        if (!dataGroups.containsAll(criteria.getAllOfGroups())) {
+            return false;
+        }
+        if (!Collections.disjoint(dataGroups, criteria.getNoneOfGroups())) {
+            return false;
+        }
+        String targetLanguage = criteria.getLanguage();
+        if (targetLanguage == null) {
+            return true;
+        }
+        for (String prefLang : context.getLanguages()) {
+            if (targetLanguage.equalsIgnoreCase(prefLang)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(CriteriaMatchingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
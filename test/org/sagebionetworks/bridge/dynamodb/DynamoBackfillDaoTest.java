@@ -3,7 +3,9 @@ package org.sagebionetworks.bridge.dynamodb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.Iterator;
 import java.util.List;
@@ -16,6 +18,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.models.backfill.BackfillRecord;
 import org.sagebionetworks.bridge.models.backfill.BackfillStatus;
 import org.sagebionetworks.bridge.models.backfill.BackfillTask;
@@ -73,11 +77,58 @@ public class DynamoBackfillDaoTest {
         assertEquals("user", tasks.get(0).getUser());
         assertEquals("user2", tasks.get(1).getUser());
         // Update
-        backfillDao.updateTaskStatus(task.getId(), BackfillStatus.COMPLETED);
+        long version = backfillDao.startTask(task.getId());
+        assertEquals(BackfillStatus.IN_PROCESS.name(), backfillDao.getTask(task.getId()).getStatus());
+        backfillDao.updateTaskStatus(task.getId(), version, BackfillStatus.COMPLETED);
         task = backfillDao.getTask(task.getId());
         assertEquals(BackfillStatus.COMPLETED.name(), task.getStatus());
     }
 
+    @Test
+    public void testTaskCheckpoint() {
+        BackfillTask task = backfillDao.createTask("name", "user");
+        assertNull(backfillDao.getTaskCheckpoint(task.getId()));
+        assertNull(backfillDao.getTaskHeartbeat(task.getId()));
+
+        long version = backfillDao.startTask(task.getId());
+        long startedHeartbeat = backfillDao.getTaskHeartbeat(task.getId());
+        version = backfillDao.updateTaskCheckpoint(task.getId(), version, 100L, "item99");
+        assertEquals(100L, backfillDao.getTaskCheckpoint(task.getId()).longValue());
+        assertEquals("item99", backfillDao.getTaskCheckpointKey(task.getId()));
+        assertTrue(backfillDao.getTaskHeartbeat(task.getId()) >= startedHeartbeat);
+
+        // Updating the status keeps the checkpoint
+        backfillDao.updateTaskStatus(task.getId(), version, BackfillStatus.FAILED);
+        assertEquals(100L, backfillDao.getTaskCheckpoint(task.getId()).longValue());
+        assertEquals(BackfillStatus.FAILED.name(), backfillDao.getTask(task.getId()).getStatus());
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void updateCheckpointOfMissingTask() {
+        backfillDao.updateTaskCheckpoint("name:1000", 1L, 100L, "item99");
+    }
+
+    @Test
+    public void taskStartedByAnotherRunIsNotUpdated() {
+        BackfillTask task = backfillDao.createTask("name", "user");
+        long version = backfillDao.startTask(task.getId());
+        backfillDao.startTask(task.getId());
+        try {
+            backfillDao.updateTaskCheckpoint(task.getId(), version, 100L, "item99");
+            fail("Should have thrown exception");
+        } catch(ConcurrentModificationException e) {
+            // expected
+        }
+        try {
+            backfillDao.updateTaskStatus(task.getId(), version, BackfillStatus.FAILED);
+            fail("Should have thrown exception");
+        } catch(ConcurrentModificationException e) {
+            // expected
+        }
+        assertNull(backfillDao.getTaskCheckpoint(task.getId()));
+        assertEquals(BackfillStatus.IN_PROCESS.name(), backfillDao.getTask(task.getId()).getStatus());
+    }
+
     @Test
     public void testRecord() throws Exception {
         // Create
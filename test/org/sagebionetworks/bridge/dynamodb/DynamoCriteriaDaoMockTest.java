@@ -0,0 +1,72 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.models.Criteria;
+import org.sagebionetworks.bridge.models.CriteriaMatcher;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.google.common.collect.Sets;
+
+public class DynamoCriteriaDaoMockTest {
+
+    private static final String KEY = "subpopulation:AAA";
+
+    private DynamoDBMapper mockMapper;
+
+    private DynamoCriteriaDao dao;
+
+    @Before
+    public void before() {
+        mockMapper = mock(DynamoDBMapper.class);
+        dao = new DynamoCriteriaDao();
+        dao.setCriteriaMapper(mockMapper);
+    }
+
+    @Test
+    public void criteriaWithSameContentShareMatcher() {
+        when(mockMapper.load(any(DynamoCriteria.class))).thenReturn(criteria("a"), criteria("a"));
+
+        Criteria first = dao.getCriteria(KEY);
+        Criteria second = dao.getCriteria(KEY);
+
+        assertNotSame(first, second);
+        assertSame(first.getMatcher(), second.getMatcher());
+    }
+
+    @Test
+    public void changedCriteriaAreCompiledAgain() {
+        when(mockMapper.load(any(DynamoCriteria.class))).thenReturn(criteria("a"), criteria("b"));
+
+        CriteriaMatcher first = dao.getCriteria(KEY).getMatcher();
+        CriteriaMatcher second = dao.getCriteria(KEY).getMatcher();
+
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void changingLoadedCriteriaDoesNotChangeCachedMatcher() {
+        when(mockMapper.load(any(DynamoCriteria.class))).thenReturn(criteria("a"), criteria("a"));
+
+        Criteria first = dao.getCriteria(KEY);
+        CriteriaMatcher matcher = first.getMatcher();
+        first.setAllOfGroups(Sets.newHashSet("b"));
+        assertNotSame(matcher, first.getMatcher());
+
+        assertSame(matcher, dao.getCriteria(KEY).getMatcher());
+    }
+
+    private DynamoCriteria criteria(String dataGroup) {
+        DynamoCriteria criteria = new DynamoCriteria();
+        criteria.setKey(KEY);
+        criteria.setAllOfGroups(Sets.newHashSet(dataGroup));
+        return criteria;
+    }
+}
@@ -3,18 +3,22 @@ package org.sagebionetworks.bridge.dynamodb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 import static org.sagebionetworks.bridge.models.OperatingSystem.ANDROID;
 import static org.sagebionetworks.bridge.models.OperatingSystem.IOS;
 
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
+import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.json.JsonUtils;
 import org.sagebionetworks.bridge.models.Criteria;
+import org.sagebionetworks.bridge.models.CriteriaContext;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Maps;
@@ -121,6 +125,50 @@ public class DynamoCriteriaTest {
         assertFalse(criteria.getMaxAppVersions().containsKey(IOS));
     }
     
+    @Test
+    public void dataGroupsCannotBeChangedOutsideSetters() {
+        HashSet<String> groups = Sets.newHashSet("a");
+        DynamoCriteria criteria = new DynamoCriteria();
+        criteria.setAllOfGroups(groups);
+        criteria.setNoneOfGroups(groups);
+        assertFalse(criteria.getMatcher().matches(context(Sets.newHashSet("a"))));
+        
+        // Changing the set that was passed in doesn't change the criteria, or leave the matcher out of date
+        groups.add("b");
+        assertEquals(Sets.newHashSet("a"), criteria.getAllOfGroups());
+        assertEquals(Sets.newHashSet("a"), criteria.getNoneOfGroups());
+        try {
+            criteria.getAllOfGroups().add("b");
+            fail("Should have thrown exception");
+        } catch(UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            criteria.getNoneOfGroups().add("b");
+            fail("Should have thrown exception");
+        } catch(UnsupportedOperationException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void copyIsEqualButIndependent() {
+        DynamoCriteria criteria = (DynamoCriteria)TestUtils.createCriteria(2, 8, SET_A, SET_B);
+        criteria.setKey("subpopulation:AAA");
+        criteria.setLanguage("fr");
+        
+        DynamoCriteria copy = criteria.copy();
+        assertEquals(criteria, copy);
+        
+        copy.setMinAppVersion(IOS, 4);
+        assertEquals(new Integer(2), criteria.getMinAppVersion(IOS));
+    }
+    
+    private CriteriaContext context(Set<String> dataGroups) {
+        return new CriteriaContext.Builder().withStudyIdentifier(TestConstants.TEST_STUDY)
+                .withUserDataGroups(dataGroups).build();
+    }
+    
     private String makeJson(String string) {
         return string.replaceAll("'", "\"");
     }
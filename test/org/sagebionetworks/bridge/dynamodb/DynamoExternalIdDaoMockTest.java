@@ -0,0 +1,240 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.dao.ExternalIdDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.accounts.ExternalIdImportResult;
+import org.sagebionetworks.bridge.models.accounts.ExternalIdentifierInfo;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.redis.RedisKey;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class DynamoExternalIdDaoMockTest {
+
+    private static final StudyIdentifier STUDY_ID = new StudyIdentifierImpl("test-study");
+    private static final String TOTAL_KEY = RedisKey.EXTERNAL_ID_COUNT.getRedisKey("test-study:total");
+    private static final String ASSIGNED_KEY = RedisKey.EXTERNAL_ID_COUNT.getRedisKey("test-study:assigned");
+
+    private DynamoDBMapper mapper;
+
+    private CacheProvider cacheProvider;
+
+    private DynamoExternalIdDao dao;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void before() {
+        Config config = mock(Config.class);
+        when(config.getInt(ExternalIdDao.CONFIG_KEY_ADD_LIMIT)).thenReturn(10);
+        when(config.getInt(ExternalIdDao.CONFIG_KEY_LOCK_DURATION)).thenReturn(30000);
+        when(config.getInt(ExternalIdDao.CONFIG_KEY_IMPORT_PARALLELISM)).thenReturn(4);
+
+        List<DynamoExternalIdentifier> ids = Lists.newArrayList(new DynamoExternalIdentifier(STUDY_ID, "AAA"),
+                new DynamoExternalIdentifier(STUDY_ID, "BBB"));
+        PaginatedQueryList<DynamoExternalIdentifier> queryResults = mock(PaginatedQueryList.class);
+        when(queryResults.iterator()).thenReturn(ids.iterator());
+
+        mapper = mock(DynamoDBMapper.class);
+        when(mapper.query(any(Class.class), any(DynamoDBQueryExpression.class))).thenReturn(queryResults);
+
+        cacheProvider = mock(CacheProvider.class);
+
+        dao = new DynamoExternalIdDao();
+        dao.setConfig(config);
+        dao.setMapper(mapper);
+        dao.setCacheProvider(cacheProvider);
+        dao.setExecutorService(MoreExecutors.newDirectExecutorService());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void totalUsesMaintainedCounts() {
+        when(cacheProvider.getCount(TOTAL_KEY)).thenReturn(1000L);
+        when(cacheProvider.getCount(ASSIGNED_KEY)).thenReturn(400L);
+
+        assertEquals(1000, dao.getExternalIds(STUDY_ID, null, 10, null, null).getTotal());
+        assertEquals(400, dao.getExternalIds(STUDY_ID, null, 10, null, Boolean.TRUE).getTotal());
+        assertEquals(600, dao.getExternalIds(STUDY_ID, null, 10, null, Boolean.FALSE).getTotal());
+
+        verify(mapper, never()).count(any(Class.class), any(DynamoDBQueryExpression.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void absentCountsAreCountedAndStored() {
+        when(mapper.count(any(Class.class), any(DynamoDBQueryExpression.class))).thenReturn(20, 5);
+
+        PagedResourceList<ExternalIdentifierInfo> page = dao.getExternalIds(STUDY_ID, null, 10, null, Boolean.FALSE);
+        assertEquals(15, page.getTotal());
+        assertEquals(2, page.getItems().size());
+
+        verify(mapper, times(2)).count(any(Class.class), any(DynamoDBQueryExpression.class));
+        verify(cacheProvider).setString(TOTAL_KEY, "20", DynamoExternalIdDao.COUNTS_EXPIRE_IN_SECONDS);
+        verify(cacheProvider).setString(ASSIGNED_KEY, "5", DynamoExternalIdDao.COUNTS_EXPIRE_IN_SECONDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void idFilterIsCounted() {
+        when(mapper.count(any(Class.class), any(DynamoDBQueryExpression.class))).thenReturn(2);
+
+        assertEquals(2, dao.getExternalIds(STUDY_ID, null, 10, "A", null).getTotal());
+
+        verify(cacheProvider, never()).getCount(anyString());
+    }
+
+    @Test
+    public void addingIdsIncrementsTotalForNewIdsOnly() {
+        mockExistingIds("AAA");
+
+        dao.addExternalIds(STUDY_ID, Lists.newArrayList("AAA", "BBB", "CCC"));
+
+        verify(cacheProvider).incrementCountIfPresent(TOTAL_KEY, 2);
+    }
+
+    @Test
+    public void importInsertsNewIdsAndSkipsExistingIds() {
+        mockExistingIds("BBB");
+
+        ExternalIdImportResult result = dao.importExternalIds(STUDY_ID,
+                Lists.newArrayList("AAA", "BBB", "CCC", "DDD").iterator());
+
+        assertEquals(3, result.getInserted());
+        assertEquals(1, result.getSkipped());
+        verify(mapper, times(4)).save(any(DynamoExternalIdentifier.class), any(DynamoDBSaveExpression.class));
+        verify(mapper, never()).batchSave(anyListOf(DynamoExternalIdentifier.class));
+        verify(cacheProvider).incrementCountIfPresent(TOTAL_KEY, 3);
+    }
+
+    @Test
+    public void importRetriesThrottledPuts() {
+        AtomicInteger calls = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (calls.getAndIncrement() == 0) {
+                throw new ProvisionedThroughputExceededException("throttled");
+            }
+            return null;
+        }).when(mapper).save(any(DynamoExternalIdentifier.class), any(DynamoDBSaveExpression.class));
+
+        ExternalIdImportResult result = dao.importExternalIds(STUDY_ID, Lists.newArrayList("AAA").iterator());
+
+        assertEquals(1, result.getInserted());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void importFailureReportsProgressAndKeepsCountsAccurate() {
+        doAnswer(invocation -> {
+            DynamoExternalIdentifier id = invocation.getArgumentAt(0, DynamoExternalIdentifier.class);
+            if ("BBB".equals(id.getIdentifier())) {
+                throw new AmazonServiceException("Service unavailable");
+            }
+            return null;
+        }).when(mapper).save(any(DynamoExternalIdentifier.class), any(DynamoDBSaveExpression.class));
+
+        try {
+            dao.importExternalIds(STUDY_ID, Lists.newArrayList("AAA", "BBB", "CCC").iterator());
+            fail("Should have thrown exception");
+        } catch(BridgeServiceException e) {
+            assertTrue(e.getMessage().contains("after 1 IDs were added"));
+        }
+        // Puts run in order on the direct executor, so the import stops before CCC
+        verify(mapper, times(2)).save(any(DynamoExternalIdentifier.class), any(DynamoDBSaveExpression.class));
+        verify(cacheProvider).incrementCountIfPresent(TOTAL_KEY, 1);
+    }
+
+    @Test
+    public void assigningIdIncrementsAssigned() {
+        when(mapper.load(any(DynamoExternalIdentifier.class))).thenReturn(new DynamoExternalIdentifier(STUDY_ID, "AAA"));
+
+        dao.assignExternalId(STUDY_ID, "AAA", "healthCode");
+
+        verify(cacheProvider).incrementCountIfPresent(ASSIGNED_KEY, 1);
+    }
+
+    @Test
+    public void reassigningToSameHealthCodeDoesNotChangeCount() {
+        DynamoExternalIdentifier identifier = new DynamoExternalIdentifier(STUDY_ID, "AAA");
+        identifier.setHealthCode("healthCode");
+        when(mapper.load(any(DynamoExternalIdentifier.class))).thenReturn(identifier);
+
+        dao.assignExternalId(STUDY_ID, "AAA", "healthCode");
+
+        verify(cacheProvider, never()).incrementCountIfPresent(anyString(), anyLong());
+    }
+
+    @Test
+    public void unassigningAssignedIdDecrementsAssigned() {
+        DynamoExternalIdentifier identifier = new DynamoExternalIdentifier(STUDY_ID, "AAA");
+        identifier.setHealthCode("healthCode");
+        when(mapper.load(any(DynamoExternalIdentifier.class))).thenReturn(identifier);
+
+        dao.unassignExternalId(STUDY_ID, "AAA");
+
+        verify(cacheProvider).incrementCountIfPresent(ASSIGNED_KEY, -1);
+    }
+
+    @Test
+    public void unassigningUnassignedIdDoesNotChangeCount() {
+        when(mapper.load(any(DynamoExternalIdentifier.class))).thenReturn(new DynamoExternalIdentifier(STUDY_ID, "AAA"));
+
+        dao.unassignExternalId(STUDY_ID, "AAA");
+
+        verify(cacheProvider, never()).incrementCountIfPresent(anyString(), anyLong());
+    }
+
+    @Test
+    public void deletingIdsClearsCounts() {
+        dao.deleteExternalIds(STUDY_ID, Lists.newArrayList("AAA"));
+
+        verify(cacheProvider).removeString(TOTAL_KEY);
+        verify(cacheProvider).removeString(ASSIGNED_KEY);
+        verify(cacheProvider, never()).setString(anyString(), anyString(), anyInt());
+        verify(cacheProvider, never()).incrementCountIfPresent(eq(TOTAL_KEY), anyLong());
+    }
+
+    private void mockExistingIds(String... existingIds) {
+        List<String> existing = Lists.newArrayList(existingIds);
+        doAnswer(invocation -> {
+            DynamoExternalIdentifier id = invocation.getArgumentAt(0, DynamoExternalIdentifier.class);
+            if (existing.contains(id.getIdentifier())) {
+                throw new ConditionalCheckFailedException("exists");
+            }
+            return null;
+        }).when(mapper).save(any(DynamoExternalIdentifier.class), any(DynamoDBSaveExpression.class));
+    }
+}
@@ -1,8 +1,11 @@
 package org.sagebionetworks.bridge.dynamodb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 
+import java.util.Map;
+
 import org.joda.time.LocalDate;
 import org.junit.After;
 import org.junit.Before;
@@ -20,6 +23,7 @@ import org.sagebionetworks.bridge.models.reports.ReportType;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
 
 @ContextConfiguration("classpath:test-context.xml")
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -105,6 +109,37 @@ public class DynamoReportDataDaoTest {
         assertEquals(0, dao.getReportData(reportDataKey, START_DATE, END_DATE).getTotal());
     }
     
+    @Test
+    public void canSaveBatch() {
+        ReportData report1 = createReport(LocalDate.parse("2016-03-30"), "a", "b");
+        ReportData report2 = createReport(LocalDate.parse("2016-03-31"), "c", "d");
+
+        Map<Integer, String> errors = dao.saveReportDataBatch(ImmutableList.of(report1, report2));
+        assertTrue(errors.isEmpty());
+
+        DateRangeResourceList<? extends ReportData> results = dao.getReportData(
+                reportDataKey, START_DATE, END_DATE);
+        assertResourceList(results, 2);
+        assertReportDataEqual(report1, results.getItems().get(0));
+        assertReportDataEqual(report2, results.getItems().get(1));
+    }
+
+    @Test
+    public void saveBatchWritesLastRecordForADate() {
+        ReportData report1 = createReport(LocalDate.parse("2016-03-30"), "a", "b");
+        ReportData report2 = createReport(LocalDate.parse("2016-03-31"), "c", "d");
+        ReportData report3 = createReport(LocalDate.parse("2016-03-30"), "e", "f");
+
+        Map<Integer, String> errors = dao.saveReportDataBatch(ImmutableList.of(report1, report2, report3));
+        assertTrue(errors.isEmpty());
+
+        DateRangeResourceList<? extends ReportData> results = dao.getReportData(
+                reportDataKey, START_DATE, END_DATE);
+        assertResourceList(results, 2);
+        assertReportDataEqual(report3, results.getItems().get(0));
+        assertReportDataEqual(report2, results.getItems().get(1));
+    }
+
     private ReportData createReport(LocalDate date, String fieldValue1, String fieldValue2) {
         ObjectNode node = JsonNodeFactory.instance.objectNode();
         node.put("field1", fieldValue1);
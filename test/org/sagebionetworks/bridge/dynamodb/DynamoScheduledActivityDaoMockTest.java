@@ -1,9 +1,11 @@
 package org.sagebionetworks.bridge.dynamodb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -11,6 +13,7 @@ import static org.sagebionetworks.bridge.TestConstants.ENROLLMENT;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -26,17 +29,24 @@ import org.mockito.ArgumentCaptor;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.models.ClientInfo;
+import org.sagebionetworks.bridge.models.PagedResourceList;
 import org.sagebionetworks.bridge.models.schedules.ActivityType;
 import org.sagebionetworks.bridge.models.schedules.ScheduleContext;
 import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
+import org.sagebionetworks.bridge.redis.RedisKey;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -52,7 +62,11 @@ public class DynamoScheduledActivityDaoMockTest {
     private static final String ACTIVITY_2_REF = BASE_URL + "/v3/surveys/BBB/revisions/published";
     private static final String ACTIVITY_3_REF = TestConstants.TEST_3_ACTIVITY.getTask().getIdentifier();
     
+    private static final String ACTIVITY_COUNT_KEY = RedisKey.ACTIVITY_COUNT.getRedisKey(HEALTH_CODE);
+    
     private DynamoDBMapper mapper;
+    
+    private CacheProvider cacheProvider;
 
     private DynamoScheduledActivityDao activityDao;
     
@@ -67,8 +81,10 @@ public class DynamoScheduledActivityDaoMockTest {
         // This is the part that will need to be expanded per test.
         mapper = mock(DynamoDBMapper.class);
         when(mapper.load(any(DynamoScheduledActivity.class))).thenReturn(testSchActivity);
+        cacheProvider = mock(CacheProvider.class);
         activityDao = new DynamoScheduledActivityDao();
         activityDao.setDdbMapper(mapper);
+        activityDao.setCacheProvider(cacheProvider);
     }
 
     @After
@@ -232,6 +248,92 @@ public class DynamoScheduledActivityDaoMockTest {
         assertEquals(activities, argument.getValue());
     }
     
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getActivityHistoryUsesMaintainedCount() {
+        mockQueryPage("BBB");
+        when(cacheProvider.getCount(ACTIVITY_COUNT_KEY)).thenReturn(123L);
+        
+        PagedResourceList<? extends ScheduledActivity> page = activityDao.getActivityHistory(HEALTH_CODE, "AAA", 10);
+        
+        assertEquals(123, page.getTotal());
+        assertEquals("BBB", page.getOffsetKey());
+        assertEquals(DateTimeZone.UTC, page.getItems().get(0).getTimeZone());
+        verify(mapper, never()).count(any(Class.class), any(DynamoDBQueryExpression.class));
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getActivityHistoryCountsOnceWhenCountIsAbsent() {
+        mockQueryPage(null);
+        when(mapper.count(any(Class.class), any(DynamoDBQueryExpression.class))).thenReturn(37);
+        
+        PagedResourceList<? extends ScheduledActivity> page = activityDao.getActivityHistory(HEALTH_CODE, null, 10);
+        
+        assertEquals(37, page.getTotal());
+        assertNull(page.getOffsetKey());
+        verify(cacheProvider).setString(ACTIVITY_COUNT_KEY, "37",
+                DynamoScheduledActivityDao.ACTIVITY_COUNT_EXPIRE_IN_SECONDS);
+    }
+    
+    @Test
+    public void saveActivitiesIncrementsCount() {
+        DynamoScheduledActivity activity = new DynamoScheduledActivity();
+        activity.setHealthCode(HEALTH_CODE);
+        activity.setGuid("AAA");
+        
+        activityDao.saveActivities(Lists.newArrayList(activity, activity));
+        
+        verify(cacheProvider).incrementCountIfPresent(ACTIVITY_COUNT_KEY, 2);
+    }
+    
+    @Test
+    public void deleteActivitiesRemovesCount() {
+        mockMapperResults(Lists.newArrayList());
+        
+        activityDao.deleteActivitiesForUser(HEALTH_CODE);
+        
+        verify(cacheProvider).removeString(ACTIVITY_COUNT_KEY);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getActivityHistoryIteratorIteratesAllPages() {
+        DynamoScheduledActivity activity1 = new DynamoScheduledActivity();
+        DynamoScheduledActivity activity2 = new DynamoScheduledActivity();
+        PaginatedQueryList<DynamoScheduledActivity> queryResults = mock(PaginatedQueryList.class);
+        when(queryResults.iterator()).thenReturn(Lists.newArrayList(activity1, activity2).iterator());
+        when(mapper.query(any(Class.class), any(DynamoDBQueryExpression.class), any(DynamoDBMapperConfig.class)))
+                .thenReturn(queryResults);
+        
+        Iterator<? extends ScheduledActivity> iterator = activityDao.getActivityHistoryIterator(HEALTH_CODE);
+        List<ScheduledActivity> results = Lists.newArrayList(iterator);
+        
+        assertEquals(2, results.size());
+        assertEquals(DateTimeZone.UTC, results.get(0).getTimeZone());
+        
+        ArgumentCaptor<DynamoDBMapperConfig> configCaptor = ArgumentCaptor.forClass(DynamoDBMapperConfig.class);
+        verify(mapper).query(any(Class.class), any(DynamoDBQueryExpression.class), configCaptor.capture());
+        assertEquals(DynamoDBMapperConfig.PaginationLoadingStrategy.ITERATION_ONLY,
+                configCaptor.getValue().getPaginationLoadingStrategy());
+        // History iteration never counts the records
+        verify(mapper, never()).count(any(Class.class), any(DynamoDBQueryExpression.class));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void mockQueryPage(String lastEvaluatedGuid) {
+        DynamoScheduledActivity activity = new DynamoScheduledActivity();
+        activity.setHealthCode(HEALTH_CODE);
+        activity.setGuid("AAA");
+        
+        QueryResultPage<DynamoScheduledActivity> page = new QueryResultPage<>();
+        page.setResults(Lists.newArrayList(activity));
+        if (lastEvaluatedGuid != null) {
+            page.setLastEvaluatedKey(ImmutableMap.of("guid", new AttributeValue().withS(lastEvaluatedGuid)));
+        }
+        when(mapper.queryPage(any(Class.class), any(DynamoDBQueryExpression.class))).thenReturn(page);
+    }
+    
     @Test
     public void callGetActivitiesWithEmptyListReturnsEmptyList() {
         List<ScheduledActivity> activities = activityDao.getActivities(DateTimeZone.UTC, new ArrayList<>());
@@ -0,0 +1,146 @@
+package org.sagebionetworks.bridge.load;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import org.sagebionetworks.bridge.Roles;
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
+import org.sagebionetworks.bridge.models.CriteriaContext;
+import org.sagebionetworks.bridge.models.accounts.SignIn;
+import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.services.AuthenticationService;
+import org.sagebionetworks.bridge.services.ParticipantService;
+import org.sagebionetworks.bridge.services.StudyService;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * A load harness that drives AuthenticationService.signIn() and ParticipantService.getParticipant() against the
+ * local account store. It boots the production Spring context, so Redis and DynamoDB (local) must be available, and
+ * account.dao must be set to "local" in the Bridge configuration. No Stormpath calls are made.
+ * </p>
+ * <p>
+ * Usage: AccountLoadHarness [studyId] [participants] [threads] [iterationsPerThread]
+ * </p>
+ */
+public class AccountLoadHarness {
+
+    private static final String PASSWORD = "P4ssword!";
+    private static final double[] PERCENTILES = new double[] {0.5, 0.9, 0.99, 0.999};
+
+    public static void main(String[] args) throws Exception {
+        if (!BridgeConfigFactory.getConfig().isLocalAccountDao()) {
+            System.err.println("account.dao must be set to \"local\" to run the load harness");
+            System.exit(1);
+        }
+        String studyId = (args.length > 0) ? args[0] : "api";
+        int participantCount = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int threadCount = (args.length > 2) ? Integer.parseInt(args[2]) : 16;
+        int iterations = (args.length > 3) ? Integer.parseInt(args[3]) : 1000;
+
+        try (ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("application-context.xml")) {
+            StudyService studyService = context.getBean(StudyService.class);
+            AuthenticationService authService = context.getBean(AuthenticationService.class);
+            ParticipantService participantService = context.getBean(ParticipantService.class);
+
+            Study study = studyService.getStudy(studyId);
+            List<String> emails = Lists.newArrayListWithCapacity(participantCount);
+            List<String> ids = Lists.newArrayListWithCapacity(participantCount);
+
+            long start = System.nanoTime();
+            for (int i=0; i < participantCount; i++) {
+                String email = String.format("load-harness-%s-%d@sagebridge.org", Long.toString(start, 36), i);
+                StudyParticipant participant = new StudyParticipant.Builder().withEmail(email)
+                        .withPassword(PASSWORD).build();
+                ids.add(participantService.createParticipant(study, ImmutableSet.of(Roles.ADMIN), participant, false)
+                        .getIdentifier());
+                emails.add(email);
+            }
+            report("createParticipant", participantCount, System.nanoTime() - start, null);
+
+            CriteriaContext criteriaContext = new CriteriaContext.Builder()
+                    .withStudyIdentifier(study.getStudyIdentifier()).build();
+
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            try {
+                long[] signInLatencies = run(executor, threadCount, iterations, index -> {
+                    authService.signIn(study, criteriaContext, new SignIn(emails.get(index), PASSWORD));
+                }, participantCount);
+                long[] getLatencies = run(executor, threadCount, iterations, index -> {
+                    participantService.getParticipant(study, ids.get(index), false);
+                }, participantCount);
+                report("signIn", signInLatencies.length-1, signInLatencies[signInLatencies.length-1], signInLatencies);
+                report("getParticipant", getLatencies.length-1, getLatencies[getLatencies.length-1], getLatencies);
+            } finally {
+                executor.shutdown();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void call(int index) throws Exception;
+    }
+
+    /**
+     * Run the operation against randomly selected participants on all threads. Returns the sorted latencies of every
+     * call, with the wall clock time of the whole run appended as the last element.
+     */
+    private static long[] run(ExecutorService executor, int threadCount, int iterations, Operation operation,
+            int participantCount) throws Exception {
+        List<Future<long[]>> futures = Lists.newArrayListWithCapacity(threadCount);
+        long start = System.nanoTime();
+        for (int t=0; t < threadCount; t++) {
+            futures.add(executor.submit(() -> {
+                long[] latencies = new long[iterations];
+                for (int i=0; i < iterations; i++) {
+                    int index = ThreadLocalRandom.current().nextInt(participantCount);
+                    long callStart = System.nanoTime();
+                    operation.call(index);
+                    latencies[i] = System.nanoTime() - callStart;
+                }
+                return latencies;
+            }));
+        }
+        long[] all = new long[threadCount * iterations + 1];
+        int pos = 0;
+        for (Future<long[]> future : futures) {
+            long[] latencies = future.get();
+            System.arraycopy(latencies, 0, all, pos, latencies.length);
+            pos += latencies.length;
+        }
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(all, 0, pos);
+        all[pos] = elapsed;
+        return all;
+    }
+
+    private static void report(String name, int calls, long elapsedNanos, long[] latencies) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-18s %8d calls in %8.2fs (%10.1f/s)", name, calls, seconds, calls / seconds));
+        if (latencies != null) {
+            int count = latencies.length-1;
+            for (double percentile : PERCENTILES) {
+                int index = Math.min(count-1, (int)Math.ceil(percentile * count) - 1);
+                sb.append(String.format("  p%s=%.2fms", trim(percentile*100), latencies[index] / 1e6));
+            }
+        }
+        System.out.println(sb.toString());
+    }
+
+    private static String trim(double value) {
+        return (value == Math.floor(value)) ? Long.toString((long)value) : Double.toString(value);
+    }
+}
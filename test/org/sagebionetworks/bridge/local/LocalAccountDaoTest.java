@@ -0,0 +1,238 @@
+package org.sagebionetworks.bridge.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.sagebionetworks.bridge.Roles;
+import org.sagebionetworks.bridge.crypto.BridgeEncryptor;
+import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
+import org.sagebionetworks.bridge.exceptions.AccountDisabledException;
+import org.sagebionetworks.bridge.exceptions.EntityAlreadyExistsException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.accounts.Account;
+import org.sagebionetworks.bridge.models.accounts.AccountStatus;
+import org.sagebionetworks.bridge.models.accounts.AccountSummary;
+import org.sagebionetworks.bridge.models.accounts.HealthIdImpl;
+import org.sagebionetworks.bridge.models.accounts.SignIn;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
+import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
+import org.sagebionetworks.bridge.services.HealthCodeService;
+import org.sagebionetworks.bridge.services.SubpopulationService;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LocalAccountDaoTest {
+
+    private static final String PASSWORD = "P4ssword!";
+    private static final SubpopulationGuid SUBPOP_GUID = SubpopulationGuid.create("test-study");
+
+    @Mock
+    SubpopulationService subpopService;
+
+    @Mock
+    HealthCodeService healthCodeService;
+
+    @Mock
+    BridgeEncryptor encryptor;
+
+    LocalAccountDao dao;
+
+    Study study;
+
+    @Before
+    public void before() {
+        study = new DynamoStudy();
+        study.setIdentifier("test-study");
+
+        when(subpopService.getSubpopulationGuids(study.getStudyIdentifier())).thenReturn(Lists.newArrayList(SUBPOP_GUID));
+        when(healthCodeService.createMapping(any())).thenReturn(new HealthIdImpl("healthId", "healthCode"));
+        when(healthCodeService.getMapping("healthId")).thenReturn(new HealthIdImpl("healthId", "healthCode"));
+
+        when(encryptor.getVersion()).thenReturn(2);
+        when(encryptor.encrypt(any())).thenAnswer(invocation -> "encrypted-" + invocation.getArgumentAt(0, String.class));
+        when(encryptor.decrypt(any())).thenAnswer(
+                invocation -> invocation.getArgumentAt(0, String.class).replace("encrypted-", ""));
+
+        dao = new LocalAccountDao();
+        dao.setSubpopulationService(subpopService);
+        dao.setHealthCodeService(healthCodeService);
+        dao.setEncryptors(Lists.newArrayList(encryptor));
+    }
+
+    private Account createAccount(String email, boolean sendVerifyEmail) {
+        Account account = dao.constructAccount(study, email, PASSWORD);
+        dao.createAccount(study, account, sendVerifyEmail);
+        return account;
+    }
+
+    @Test
+    public void createAndAuthenticate() {
+        Account account = dao.constructAccount(study, "email@email.com", PASSWORD);
+        account.setFirstName("First");
+        account.setAttribute("phone", "555-555-5555");
+        account.setRoles(Sets.newHashSet(Roles.DEVELOPER));
+        dao.createAccount(study, account, false);
+        assertNotNull(account.getId());
+
+        Account authed = dao.authenticate(study, new SignIn("EMAIL@email.com", PASSWORD));
+        assertEquals(account.getId(), authed.getId());
+        assertEquals("First", authed.getFirstName());
+        assertEquals("555-555-5555", authed.getAttribute("phone"));
+        assertEquals("healthCode", authed.getHealthCode());
+        assertEquals(Sets.newHashSet(Roles.DEVELOPER), authed.getRoles());
+        assertEquals(AccountStatus.ENABLED, authed.getStatus());
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void badPasswordIsNotFound() {
+        createAccount("email@email.com", false);
+
+        dao.authenticate(study, new SignIn("email@email.com", "not-the-password"));
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void unverifiedAccountIsNotFound() {
+        createAccount("email@email.com", true);
+
+        dao.authenticate(study, new SignIn("email@email.com", PASSWORD));
+    }
+
+    @Test(expected = AccountDisabledException.class)
+    public void disabledAccountCannotAuthenticate() {
+        Account account = createAccount("email@email.com", false);
+        account.setStatus(AccountStatus.DISABLED);
+        dao.updateAccount(account);
+
+        dao.authenticate(study, new SignIn("email@email.com", PASSWORD));
+    }
+
+    @Test(expected = EntityAlreadyExistsException.class)
+    public void duplicateEmailRejected() {
+        createAccount("email@email.com", false);
+        createAccount("Email@Email.com", false);
+    }
+
+    @Test
+    public void changesAreNotVisibleUntilSaved() {
+        Account account = createAccount("email@email.com", false);
+
+        Account retrieved = dao.getAccount(study, account.getId());
+        retrieved.setLastName("Last");
+        retrieved.getConsentSignatureHistory(SUBPOP_GUID).add(new ConsentSignature.Builder().withName("Test")
+                .withBirthdate("1970-01-01").withSignedOn(DateTime.now().getMillis()).build());
+        assertNull(dao.getAccount(study, account.getId()).getLastName());
+
+        dao.updateAccount(retrieved);
+        Account updated = dao.getAccount(study, account.getId());
+        assertEquals("Last", updated.getLastName());
+        assertEquals("Test", updated.getActiveConsentSignature(SUBPOP_GUID).getName());
+    }
+
+    @Test
+    public void accountInOtherStudyNotReturned() {
+        Account account = createAccount("email@email.com", false);
+
+        Study otherStudy = new DynamoStudy();
+        otherStudy.setIdentifier("other-study");
+        assertNull(dao.getAccount(otherStudy, account.getId()));
+    }
+
+    @Test
+    public void deleteAccount() {
+        Account account = createAccount("email@email.com", false);
+
+        dao.deleteAccount(study, account.getId());
+        assertNull(dao.getAccount(study, account.getId()));
+        assertNull(dao.getHealthCodeForEmail(study, "email@email.com"));
+    }
+
+    @Test
+    public void pagedAccountSummaries() {
+        createAccount("ccc@email.com", false);
+        createAccount("aaa@email.com", false);
+        createAccount("bbb@email.com", false);
+        createAccount("other@email.com", false);
+
+        PagedResourceList<AccountSummary> page = dao.getPagedAccountSummaries(study, 1, 5, "@EMAIL.com", null, null);
+        assertEquals(4, page.getTotal());
+        assertEquals(3, page.getItems().size());
+        assertEquals("bbb@email.com", page.getItems().get(0).getEmail());
+        assertEquals("ccc@email.com", page.getItems().get(1).getEmail());
+
+        page = dao.getPagedAccountSummaries(study, 0, 5, "aaa", null, null);
+        assertEquals(1, page.getTotal());
+        assertEquals("aaa@email.com", page.getItems().get(0).getEmail());
+
+        page = dao.getPagedAccountSummaries(study, 0, 5, null, DateTime.now().plusDays(1), null);
+        assertEquals(0, page.getTotal());
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws Exception {
+        File file = File.createTempFile("local-accounts", ".json");
+        file.deleteOnExit();
+        try {
+            dao.setSnapshotFile(file.getAbsolutePath());
+            Account account = createAccount("email@email.com", false);
+            account.setAttribute("phone", "555-555-5555");
+            dao.updateAccount(account);
+            dao.saveSnapshot();
+
+            LocalAccountDao restored = new LocalAccountDao();
+            restored.setSubpopulationService(subpopService);
+            restored.setHealthCodeService(healthCodeService);
+            restored.setEncryptors(Lists.newArrayList(encryptor));
+            restored.setSnapshotFile(file.getAbsolutePath());
+            restored.loadSnapshot();
+
+            Account authed = restored.authenticate(study, new SignIn("email@email.com", PASSWORD));
+            assertEquals(account.getId(), authed.getId());
+            assertEquals("555-555-5555", authed.getAttribute("phone"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void passwordHashIsSalted() {
+        String hash1 = LocalAccountDao.hashPassword(PASSWORD);
+        String hash2 = LocalAccountDao.hashPassword(PASSWORD);
+        assertNotEquals(hash1, hash2);
+        assertTrue(LocalAccountDao.passwordMatches(PASSWORD, hash1));
+        assertTrue(LocalAccountDao.passwordMatches(PASSWORD, hash2));
+        assertFalse(LocalAccountDao.passwordMatches("wrong", hash1));
+    }
+
+    @Test
+    public void missingAccountCannotBeDeleted() {
+        try {
+            dao.deleteAccount(study, "does-not-exist");
+            fail("Should have thrown exception");
+        } catch(EntityNotFoundException e) {
+            // expected
+        }
+        List<AccountSummary> summaries = Lists.newArrayList(dao.getStudyAccounts(study));
+        assertTrue(summaries.isEmpty());
+    }
+}
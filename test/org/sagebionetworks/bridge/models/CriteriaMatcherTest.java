@@ -0,0 +1,84 @@
+package org.sagebionetworks.bridge.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.sagebionetworks.bridge.models.OperatingSystem.IOS;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.TestUtils;
+
+import com.google.common.collect.Sets;
+
+public class CriteriaMatcherTest {
+
+    private static final ClientInfo IOS_CLIENT_INFO = ClientInfo
+            .fromUserAgentCache("app/4 (deviceName; iPhone OS/3.9) BridgeJavaSDK/12");
+
+    private static CriteriaContext context(String... dataGroups) {
+        return new CriteriaContext.Builder()
+                .withStudyIdentifier(TestConstants.TEST_STUDY)
+                .withClientInfo(IOS_CLIENT_INFO)
+                .withLanguages(TestUtils.newLinkedHashSet("EN", "fr"))
+                .withUserDataGroups(Sets.newHashSet(dataGroups)).build();
+    }
+
+    @Test
+    public void matcherIsCachedUntilCriteriaChange() {
+        Criteria criteria = Criteria.create();
+        CriteriaMatcher matcher = criteria.getMatcher();
+        assertSame(matcher, criteria.getMatcher());
+
+        criteria.setAllOfGroups(Sets.newHashSet("matcher-group-a"));
+        CriteriaMatcher changed = criteria.getMatcher();
+        assertNotSame(matcher, changed);
+        assertFalse(changed.matches(context()));
+        assertTrue(changed.matches(context("matcher-group-a")));
+
+        criteria.setMaxAppVersion(IOS, 2);
+        assertNotSame(changed, criteria.getMatcher());
+        assertFalse(criteria.getMatcher().matches(context("matcher-group-a")));
+    }
+
+    @Test
+    public void dataGroupsAddedAfterContextIsBuiltStillMatch() {
+        // The context is built before any criteria has used these data groups
+        CriteriaContext context = context("matcher-group-b", "matcher-group-c");
+
+        Criteria criteria = Criteria.create();
+        criteria.setAllOfGroups(Sets.newHashSet("matcher-group-c"));
+        criteria.setNoneOfGroups(Sets.newHashSet("matcher-group-d"));
+        assertTrue(CriteriaMatcher.compile(criteria).matches(context));
+
+        criteria.setNoneOfGroups(Sets.newHashSet("matcher-group-b"));
+        assertFalse(CriteriaMatcher.compile(criteria).matches(context));
+    }
+
+    @Test
+    public void languagesMatchRegardlessOfCase() {
+        Criteria criteria = Criteria.create();
+        criteria.setLanguage("en");
+        assertTrue(criteria.getMatcher().matches(context()));
+
+        criteria.setLanguage("FR");
+        assertTrue(criteria.getMatcher().matches(context()));
+
+        criteria.setLanguage("de");
+        assertFalse(criteria.getMatcher().matches(context()));
+    }
+
+    @Test
+    public void contextDerivesBitsetAndLowerCaseLanguages() {
+        CriteriaContext context = context("matcher-group-e");
+        assertEquals(Sets.newHashSet("en", "fr"), context.getLowerCaseLanguages());
+
+        BitSet bits = DataGroupIndex.toBitSet(Sets.newHashSet("matcher-group-e"));
+        assertEquals(bits, context.getUserDataGroupBits());
+    }
+}
@@ -5,9 +5,18 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 import org.sagebionetworks.bridge.models.Metrics;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 public class MetricsTest {
 
     @Test
@@ -79,4 +88,61 @@ public class MetricsTest {
     public void testGetCacheKeyRequestIdMustNotBeEmpty() {
         Metrics.getCacheKey(" ");
     }
+
+    @Test
+    public void testSetStageDuration() {
+        Metrics metrics = new Metrics("12345");
+        metrics.setStageDuration("activity_events", 12L);
+        metrics.setStageDuration("schedule_plans", 7L);
+        
+        ObjectNode json = metrics.getJson();
+        assertEquals(12L, json.get("stage_durations").get("activity_events").asLong());
+        assertEquals(7L, json.get("stage_durations").get("schedule_plans").asLong());
+    }
+
+    @Test
+    public void stageDurationsCanBeSetFromManyThreads() throws Exception {
+        Metrics metrics = new Metrics("12345");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                final int threadIndex = thread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        metrics.setStageDuration("stage_" + threadIndex + "_" + i, i);
+                        metrics.setUserId("userId");
+                        metrics.toJsonString();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(800, metrics.getJson().get("stage_durations").size());
+    }
+
+    @Test
+    public void testRecordDependencyCalls() {
+        Metrics metrics = new Metrics("12345");
+        metrics.recordDependencyCall("dynamo", 12L, 0L, false, false);
+        metrics.recordDependencyRetry("dynamo", true);
+        metrics.recordDependencyCall("dynamo", 30L, 0L, true, false);
+        metrics.recordDependencyCall("s3", 100L, 2048L, false, false);
+        
+        JsonNode dynamo = metrics.getJson().get("dependencies").get("dynamo");
+        assertEquals(2L, dynamo.get("calls").asLong());
+        assertEquals(42L, dynamo.get("millis").asLong());
+        assertEquals(1L, dynamo.get("errors").asLong());
+        assertEquals(1L, dynamo.get("throttles").asLong());
+        assertEquals(1L, dynamo.get("retries").asLong());
+        
+        JsonNode s3 = metrics.getJson().get("dependencies").get("s3");
+        assertEquals(1L, s3.get("calls").asLong());
+        assertEquals(2048L, s3.get("bytes").asLong());
+        assertEquals(0L, s3.get("errors").asLong());
+    }
 }
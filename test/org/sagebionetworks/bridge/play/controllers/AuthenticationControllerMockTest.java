@@ -13,6 +13,7 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.TestConstants.TEST_CONTEXT;
+import static org.sagebionetworks.bridge.TestConstants.TIMEOUT;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -47,6 +48,7 @@ import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
 import org.sagebionetworks.bridge.services.AuthenticationService;
 import org.sagebionetworks.bridge.services.StudyService;
+import org.sagebionetworks.bridge.util.Bulkhead;
 
 import play.mvc.Result;
 import play.test.Helpers;
@@ -88,6 +90,9 @@ public class AuthenticationControllerMockTest {
         controller = spy(new AuthenticationController());
         controller.setAuthenticationService(authenticationService);
         controller.setCacheProvider(cacheProvider);
+        controller.setStormpathBulkhead(new Bulkhead("stormpath", 1, 10));
+        // Asynchronous actions record their wait for the bulkhead in the request's metrics, if there are any
+        doReturn(null).when(controller).getMetrics();
         
         study = new DynamoStudy();
         study.setDataGroups(TestConstants.USER_DATA_GROUPS);
@@ -209,7 +214,7 @@ public class AuthenticationControllerMockTest {
         
         TestUtils.mockPlayContextWithJson(node.toString());
         
-        Result result = controller.signUp();
+        Result result = controller.signUp().get(TIMEOUT);
         TestUtils.assertResult(result, 201, "Signed up.");
         
         verify(authenticationService).signUp(eq(study), participantCaptor.capture());
@@ -241,7 +246,7 @@ public class AuthenticationControllerMockTest {
 
         // execute and validate
         try {
-            Result result = controller.signIn();
+            Result result = controller.signIn().get(TIMEOUT);
             if (shouldThrow) {
                 fail("expected exception");
             }
@@ -315,7 +320,7 @@ public class AuthenticationControllerMockTest {
 
         // execute and validate
         try {
-            Result result = controller.signIn();
+            Result result = controller.signIn().get(TIMEOUT);
             if (shouldThrow) {
                 fail("expected exception");
             }
@@ -429,7 +434,7 @@ public class AuthenticationControllerMockTest {
         ArgumentCaptor<EmailVerification> emailVerifyCaptor = ArgumentCaptor.forClass(EmailVerification.class);
 
         // execute and validate
-        Result result = controller.verifyEmail();
+        Result result = controller.verifyEmail().get(TIMEOUT);
         TestUtils.assertResult(result, 200, "Email address verified.");
 
         // validate email verification
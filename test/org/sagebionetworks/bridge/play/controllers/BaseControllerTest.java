@@ -10,13 +10,19 @@ import static org.sagebionetworks.bridge.dao.ParticipantOption.LANGUAGES;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.sagebionetworks.bridge.TestUtils.createJson;
 import static org.sagebionetworks.bridge.TestUtils.mockPlayContext;
 import static org.sagebionetworks.bridge.TestUtils.newLinkedHashSet;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 
@@ -24,10 +30,13 @@ import org.junit.Test;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import play.mvc.Http;
+import play.mvc.Result;
+import play.test.Helpers;
 
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.ConsentRequiredException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
 import org.sagebionetworks.bridge.exceptions.NotAuthenticatedException;
@@ -44,7 +53,9 @@ import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 import org.sagebionetworks.bridge.services.ParticipantOptionsService;
 import org.sagebionetworks.bridge.services.StudyService;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 /** Test class for basic utility functions in BaseController. */
@@ -627,6 +638,100 @@ public class BaseControllerTest {
         assertEquals(session, returned);
     }
     
+    @Test
+    public void writeJsonItemsWritesResourceList() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        BaseController.writeJsonItems(BridgeObjectMapper.get().writer(),
+                Lists.newArrayList("a", "b", "c").iterator(), stream);
+        
+        JsonNode node = BridgeObjectMapper.get().readTree(stream.toByteArray());
+        assertEquals(3, node.get("items").size());
+        assertEquals("c", node.get("items").get(2).asText());
+        assertEquals(3, node.get("total").asInt());
+        assertEquals("ResourceList", node.get("type").asText());
+    }
+    
+    @Test
+    public void writeJsonItemsWritesEmptyResourceList() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        BaseController.writeJsonItems(BridgeObjectMapper.get().writer(), Collections.emptyIterator(), stream);
+        
+        JsonNode node = BridgeObjectMapper.get().readTree(stream.toByteArray());
+        assertEquals(0, node.get("items").size());
+        assertEquals(0, node.get("total").asInt());
+    }
+    
+    @Test
+    public void okStreamedResultReturnsShortListWhole() throws Exception {
+        Result result = new SchedulePlanController().okStreamedResult(BridgeObjectMapper.get().writer(),
+                Lists.newArrayList("a", "b", "c").iterator());
+        
+        JsonNode node = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result));
+        assertEquals(3, node.get("items").size());
+        assertEquals(3, node.get("total").asInt());
+        assertEquals("application/json", result.contentType());
+    }
+    
+    @Test
+    public void okStreamedResultFailsBeforeResponseStarts() throws Exception {
+        Iterator<String> iterator = mock(Iterator.class);
+        when(iterator.hasNext()).thenReturn(true);
+        when(iterator.next()).thenReturn("a").thenThrow(new BridgeServiceException("Read failed"));
+        try {
+            new SchedulePlanController().okStreamedResult(BridgeObjectMapper.get().writer(), iterator);
+            fail("Should have thrown exception");
+        } catch(BridgeServiceException e) {
+            assertEquals("Read failed", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void conditionalResultReturnsContentWithETag() throws Exception {
+        mockHeader("If-None-Match", null);
+        byte[] json = DUMMY_JSON.getBytes(StandardCharsets.UTF_8);
+        
+        Result result = new SchedulePlanController().conditionalResult(json, "private, no-cache");
+        assertEquals(200, result.status());
+        assertEquals(DUMMY_JSON, Helpers.contentAsString(result));
+        
+        Http.Response response = Http.Context.current().response();
+        verify(response).setHeader("ETag", BaseController.getETag(json));
+        verify(response).setHeader("Cache-Control", "private, no-cache");
+    }
+    
+    @Test
+    public void conditionalResultReturnsNotModifiedForMatchingETag() throws Exception {
+        byte[] json = DUMMY_JSON.getBytes(StandardCharsets.UTF_8);
+        mockHeader("If-None-Match", BaseController.getETag(json));
+        
+        Result result = new SchedulePlanController().conditionalResult(json, "private, no-cache");
+        assertEquals(304, result.status());
+        
+        Http.Response response = Http.Context.current().response();
+        verify(response).setHeader("ETag", BaseController.getETag(json));
+    }
+    
+    @Test
+    public void getETagChangesWithContent() {
+        String etag = BaseController.getETag(DUMMY_JSON.getBytes(StandardCharsets.UTF_8));
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        assertEquals(etag, BaseController.getETag(DUMMY_JSON.getBytes(StandardCharsets.UTF_8)));
+        assertNotEquals(etag, BaseController.getETag("{}".getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    @Test
+    public void matchesETag() {
+        assertTrue(BaseController.matchesETag("\"abc\"", "\"abc\""));
+        assertTrue(BaseController.matchesETag("W/\"abc\"", "\"abc\""));
+        assertTrue(BaseController.matchesETag("\"def\", \"abc\"", "\"abc\""));
+        assertTrue(BaseController.matchesETag("*", "\"abc\""));
+        
+        assertFalse(BaseController.matchesETag(null, "\"abc\""));
+        assertFalse(BaseController.matchesETag("", "\"abc\""));
+        assertFalse(BaseController.matchesETag("\"def\"", "\"abc\""));
+        assertFalse(BaseController.matchesETag("abc", "\"abc\""));
+    }
+    
     private BaseController setupForSessionTest(UserSession session) {
         BaseController controller = spy(new SchedulePlanController());
         doReturn(session).when(controller).getSessionIfItExists();
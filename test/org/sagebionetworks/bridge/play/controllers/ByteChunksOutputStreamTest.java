@@ -0,0 +1,88 @@
+package org.sagebionetworks.bridge.play.controllers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import play.mvc.Results.Chunks;
+
+public class ByteChunksOutputStreamTest {
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void writesFixedSizeChunks() throws Exception {
+        Chunks.Out<byte[]> out = mock(Chunks.Out.class);
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        
+        ByteChunksOutputStream stream = new ByteChunksOutputStream(out, 4);
+        stream.write("abcdef".getBytes(), 0, 6);
+        stream.write('g');
+        stream.write("hij".getBytes(), 1, 2);
+        stream.close();
+        stream.close();
+        
+        verify(out, times(3)).write(captor.capture());
+        verify(out).close();
+        verifyNoMoreInteractions(out);
+        
+        List<byte[]> chunks = captor.getAllValues();
+        assertEquals(3, chunks.size());
+        assertArrayEquals("abcd".getBytes(), chunks.get(0));
+        assertArrayEquals("efgi".getBytes(), chunks.get(1));
+        assertArrayEquals("j".getBytes(), chunks.get(2));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void emptyStreamOnlyCloses() throws Exception {
+        Chunks.Out<byte[]> out = mock(Chunks.Out.class);
+        
+        new ByteChunksOutputStream(out, 4).close();
+        
+        verify(out).close();
+        verifyNoMoreInteractions(out);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void chunksAreHeldUntilAttached() throws Exception {
+        Chunks.Out<byte[]> out = mock(Chunks.Out.class);
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        
+        ByteChunksOutputStream stream = new ByteChunksOutputStream(4);
+        stream.write("abcdef".getBytes(), 0, 6);
+        assertArrayEquals("abcdef".getBytes(), stream.getHeldBytes());
+        
+        stream.attach(out);
+        stream.write('g');
+        stream.close();
+        
+        verify(out, times(2)).write(captor.capture());
+        verify(out).close();
+        assertArrayEquals("abcd".getBytes(), captor.getAllValues().get(0));
+        assertArrayEquals("efg".getBytes(), captor.getAllValues().get(1));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void abortDoesNotEndResponse() throws Exception {
+        Chunks.Out<byte[]> out = mock(Chunks.Out.class);
+        
+        ByteChunksOutputStream stream = new ByteChunksOutputStream(out, 4);
+        stream.write("abcdef".getBytes(), 0, 6);
+        stream.abort();
+        stream.write('g');
+        stream.close();
+        
+        verify(out).write("abcd".getBytes());
+        verifyNoMoreInteractions(out);
+    }
+}
@@ -0,0 +1,105 @@
+package org.sagebionetworks.bridge.play.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.sagebionetworks.bridge.Roles.RESEARCHER;
+import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.accounts.UserSession;
+import org.sagebionetworks.bridge.models.notifications.CohortNotification;
+import org.sagebionetworks.bridge.models.notifications.NotificationJob;
+import org.sagebionetworks.bridge.models.notifications.NotificationJobStatus;
+import org.sagebionetworks.bridge.models.studies.Study;
+import org.sagebionetworks.bridge.services.CohortNotificationService;
+import org.sagebionetworks.bridge.services.StudyService;
+
+import com.google.common.collect.ImmutableSet;
+
+import play.mvc.Result;
+import play.test.Helpers;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CohortNotificationControllerTest {
+
+    private static final NotificationJob JOB = new NotificationJob("job-guid", NotificationJobStatus.IN_PROCESS,
+            DateTime.parse("2016-10-01T10:00:00.000Z"), null, 0, 0, 0, null);
+    
+    @Spy
+    private CohortNotificationController controller;
+    
+    @Mock
+    private CohortNotificationService mockService;
+    
+    @Mock
+    private StudyService mockStudyService;
+    
+    @Mock
+    private UserSession mockUserSession;
+    
+    @Captor
+    private ArgumentCaptor<CohortNotification> notificationCaptor;
+    
+    private Study study;
+    
+    @Before
+    public void before() {
+        study = new DynamoStudy();
+        study.setIdentifier(TEST_STUDY.getIdentifier());
+        
+        controller.setCohortNotificationService(mockService);
+        controller.setStudyService(mockStudyService);
+        
+        when(mockStudyService.getStudy(TEST_STUDY)).thenReturn(study);
+        doReturn(TEST_STUDY).when(mockUserSession).getStudyIdentifier();
+        doReturn(mockUserSession).when(controller).getAuthenticatedSession(RESEARCHER);
+    }
+    
+    @Test
+    public void sendNotification() throws Exception {
+        TestUtils.mockPlayContextWithJson("{\"dataGroups\":[\"group1\"],"+
+                "\"message\":{\"subject\":\"a subject\",\"message\":\"a message\"}}");
+        when(mockService.startJob(eq(study), notificationCaptor.capture())).thenReturn(JOB);
+        
+        Result result = controller.sendNotification();
+        assertEquals(202, result.status());
+        
+        NotificationJob job = BridgeObjectMapper.get().readValue(Helpers.contentAsString(result),
+                NotificationJob.class);
+        assertEquals("job-guid", job.getGuid());
+        assertEquals(NotificationJobStatus.IN_PROCESS, job.getStatus());
+        
+        CohortNotification notification = notificationCaptor.getValue();
+        assertEquals(ImmutableSet.of("group1"), notification.getDataGroups());
+        assertEquals("a subject", notification.getMessage().getSubject());
+    }
+    
+    @Test
+    public void getNotificationJob() throws Exception {
+        TestUtils.mockPlayContext();
+        when(mockService.getJob(TEST_STUDY, "job-guid")).thenReturn(JOB);
+        
+        Result result = controller.getNotificationJob("job-guid");
+        assertEquals(200, result.status());
+        
+        NotificationJob job = BridgeObjectMapper.get().readValue(Helpers.contentAsString(result),
+                NotificationJob.class);
+        assertEquals("job-guid", job.getGuid());
+        verify(mockService).getJob(TEST_STUDY, "job-guid");
+    }
+}
@@ -10,6 +10,9 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.TestUtils.assertResult;
 
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +31,7 @@ import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.PagedResourceList;
+import org.sagebionetworks.bridge.models.accounts.ExternalIdImportResult;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifierInfo;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
@@ -38,6 +42,7 @@ import org.sagebionetworks.bridge.services.StudyService;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.io.Files;
 
 import play.mvc.Http;
 import play.mvc.Result;
@@ -163,6 +168,65 @@ public class ExternalIdControllerTest {
         controller.deleteExternalIds();
     }
     
+    @Test
+    public void importExternalIds() throws Exception {
+        File file = File.createTempFile("external-ids", ".json");
+        try {
+            Files.write("[\"AAA\",\"BBB\"]", file, StandardCharsets.UTF_8);
+            mockRequestWithRawBody(file, "application/json; charset=UTF-8");
+            when(externalIdService.importExternalIds(eq(study), any(InputStream.class), eq(true)))
+                    .thenReturn(new ExternalIdImportResult(1, 1, 0));
+            
+            Result result = controller.importExternalIds();
+            assertEquals(200, result.status());
+            
+            ExternalIdImportResult importResult = MAPPER.readValue(Helpers.contentAsString(result),
+                    ExternalIdImportResult.class);
+            assertEquals(1, importResult.getInserted());
+            assertEquals(1, importResult.getSkipped());
+            assertEquals(0, importResult.getInvalid());
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void importExternalIdsAsCsv() throws Exception {
+        File file = File.createTempFile("external-ids", ".csv");
+        try {
+            Files.write("AAA\nBBB\n", file, StandardCharsets.UTF_8);
+            mockRequestWithRawBody(file, "text/csv");
+            when(externalIdService.importExternalIds(eq(study), any(InputStream.class), eq(false)))
+                    .thenReturn(new ExternalIdImportResult(2, 0, 0));
+            
+            Result result = controller.importExternalIds();
+            assertEquals(200, result.status());
+            
+            verify(externalIdService).importExternalIds(eq(study), any(InputStream.class), eq(false));
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void importExternalIdsWithoutBody() throws Exception {
+        controller.importExternalIds();
+    }
+    
+    private void mockRequestWithRawBody(File file, String contentType) {
+        Http.RawBuffer rawBuffer = mock(Http.RawBuffer.class);
+        when(rawBuffer.size()).thenReturn(file.length());
+        when(rawBuffer.asFile()).thenReturn(file);
+        
+        Http.RequestBody body = mock(Http.RequestBody.class);
+        when(body.asRaw()).thenReturn(rawBuffer);
+        
+        Http.Request request = mock(Http.Request.class);
+        when(request.body()).thenReturn(body);
+        when(request.getHeader("Content-Type")).thenReturn(contentType);
+        TestUtils.mockPlayContext(request);
+    }
+    
     private void mockRequestWithQueryString(Map<String,String[]> query) {
         Http.Request request = mock(Http.Request.class);
         
@@ -579,6 +579,20 @@ public class ParticipantControllerTest {
         verify(mockParticipantService).getActivityHistory(study, ID, null, null);
     }
     
+    @Test
+    public void canExportActivityHistory() throws Exception {
+        DynamoScheduledActivity activity = new DynamoScheduledActivity();
+        activity.setHealthCode("healthCode");
+        activity.setSchedulePlanGuid("schedulePlanGuid");
+        doReturn(Lists.newArrayList(activity).iterator()).when(mockParticipantService)
+                .getActivityHistoryIterator(study, ID);
+        
+        Result result = controller.exportActivityHistory(ID);
+        assertEquals(200, result.status());
+        
+        verify(mockParticipantService).getActivityHistoryIterator(study, ID);
+    }
+    
     @Test
     public void deleteActivities() throws Exception {
         Result result = controller.deleteActivities(ID);
@@ -3,15 +3,21 @@ package org.sagebionetworks.bridge.play.controllers;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY_IDENTIFIER;
 
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -39,6 +45,7 @@ import org.sagebionetworks.bridge.models.accounts.ConsentStatus;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.reports.ReportData;
+import org.sagebionetworks.bridge.models.reports.ReportDataImportResult;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
 import org.sagebionetworks.bridge.models.reports.ReportIndex;
 import org.sagebionetworks.bridge.models.reports.ReportType;
@@ -51,9 +58,11 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.Lists;
+import com.google.common.io.Files;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import play.mvc.Http;
 import play.mvc.Result;
 import play.test.Helpers;
 
@@ -76,6 +85,8 @@ public class ReportControllerTest {
     
     private static final LocalDate END_DATE = LocalDate.parse("2015-02-02");
     
+    private static final String REPORT_VERSION = "1476900000000:2015-01-02:2015-02-02";
+    
     @Mock
     ReportService mockReportService;
     
@@ -333,6 +344,51 @@ public class ReportControllerTest {
         }
     }
     
+    @Test
+    public void importParticipantReportsForWorker() throws Exception {
+        File file = File.createTempFile("report-data", ".json");
+        try {
+            Files.write("[{\"healthCode\":\"ABC\",\"identifier\":\"foo\",\"date\":\"2015-02-12\",\"data\":{}}]",
+                    file, StandardCharsets.UTF_8);
+            mockRequestWithRawBody(file);
+            ReportDataImportResult importResult = new ReportDataImportResult(1, 1,
+                    Lists.newArrayList(new ReportDataImportResult.RowError(2, "invalid date February")));
+            doReturn(importResult).when(mockReportService).importParticipantReports(eq(TEST_STUDY),
+                    any(InputStream.class));
+            
+            Result result = controller.importParticipantReportsForWorker();
+            assertEquals(200, result.status());
+            
+            ReportDataImportResult returned = BridgeObjectMapper.get().readValue(Helpers.contentAsString(result),
+                    ReportDataImportResult.class);
+            assertEquals(1, returned.getSaved());
+            assertEquals(1, returned.getFailed());
+            assertEquals(2, returned.getErrors().get(0).getRow());
+            assertEquals("invalid date February", returned.getErrors().get(0).getMessage());
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void importParticipantReportsForWorkerWithoutBody() throws Exception {
+        TestUtils.mockPlayContext();
+        controller.importParticipantReportsForWorker();
+    }
+    
+    private void mockRequestWithRawBody(File file) {
+        Http.RawBuffer rawBuffer = mock(Http.RawBuffer.class);
+        when(rawBuffer.size()).thenReturn(file.length());
+        when(rawBuffer.asFile()).thenReturn(file);
+        
+        Http.RequestBody body = mock(Http.RequestBody.class);
+        when(body.asRaw()).thenReturn(rawBuffer);
+        
+        Http.Request request = mock(Http.Request.class);
+        when(request.body()).thenReturn(body);
+        TestUtils.mockPlayContext(request);
+    }
+    
     @Test
     public void saveStudyReportData() throws Exception {
         String json = TestUtils.createJson("{'date':'2015-02-12','data':{'field1':'Last','field2':'Name'}}");
@@ -485,6 +541,7 @@ public class ReportControllerTest {
     
     @Test
     public void canGetPublicStudyReport() throws Exception {
+        setupContext();
         ReportDataKey key = new ReportDataKey.Builder().withStudyIdentifier(TEST_STUDY).withIdentifier(REPORT_ID)
                 .withReportType(ReportType.STUDY).build();
         
@@ -493,6 +550,8 @@ public class ReportControllerTest {
         index.setIdentifier(REPORT_ID);
         doReturn(index).when(mockReportService).getReportIndex(key);
         
+        doReturn(REPORT_VERSION).when(mockReportService).getStudyReportVersion(TEST_STUDY, REPORT_ID, START_DATE,
+                END_DATE);
         doReturn(makeResults(START_DATE, END_DATE)).when(mockReportService).getStudyReport(session.getStudyIdentifier(),
                 REPORT_ID, START_DATE, END_DATE);
         
@@ -506,6 +565,45 @@ public class ReportControllerTest {
         
         verify(mockReportService).getReportIndex(key);
         verify(mockReportService).getStudyReport(TEST_STUDY, REPORT_ID, START_DATE, END_DATE);
+        
+        Http.Response response = Http.Context.current().response();
+        verify(response).setHeader("ETag", BaseController.getETag(REPORT_VERSION));
+        verify(response).setHeader("Cache-Control", ReportController.PUBLIC_REPORT_CACHE_CONTROL);
+    }
+    
+    @Test
+    public void publicStudyReportNotModified() throws Exception {
+        ReportDataKey key = new ReportDataKey.Builder().withStudyIdentifier(TEST_STUDY).withIdentifier(REPORT_ID)
+                .withReportType(ReportType.STUDY).build();
+        
+        ReportIndex index = ReportIndex.create();
+        index.setPublic(true);
+        index.setIdentifier(REPORT_ID);
+        doReturn(index).when(mockReportService).getReportIndex(key);
+        
+        doReturn(REPORT_VERSION).when(mockReportService).getStudyReportVersion(TEST_STUDY, REPORT_ID, START_DATE,
+                END_DATE);
+        doReturn(makeResults(START_DATE, END_DATE)).when(mockReportService).getStudyReport(TEST_STUDY,
+                REPORT_ID, START_DATE, END_DATE);
+        
+        // The client's copy of the report is still current, so the records aren't queried
+        Map<String,String[]> headers = Maps.newHashMap();
+        headers.put("If-None-Match", new String[] {BaseController.getETag(REPORT_VERSION)});
+        TestUtils.mockPlayContextWithJson("{}", headers);
+        
+        Result result = controller.getPublicStudyReport(
+                TEST_STUDY.getIdentifier(), REPORT_ID, START_DATE.toString(), END_DATE.toString());
+        assertEquals(304, result.status());
+        verify(mockReportService, never()).getStudyReport(any(), any(), any(), any());
+        
+        // Once the report changes, the whole report is returned
+        doReturn("2" + REPORT_VERSION).when(mockReportService).getStudyReportVersion(TEST_STUDY, REPORT_ID,
+                START_DATE, END_DATE);
+        
+        result = controller.getPublicStudyReport(
+                TEST_STUDY.getIdentifier(), REPORT_ID, START_DATE.toString(), END_DATE.toString());
+        assertEquals(200, result.status());
+        verify(mockReportService).getStudyReport(TEST_STUDY, REPORT_ID, START_DATE, END_DATE);
     }
     
     @Test(expected = EntityNotFoundException.class)
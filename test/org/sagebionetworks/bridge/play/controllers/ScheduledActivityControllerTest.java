@@ -7,11 +7,13 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+import static org.sagebionetworks.bridge.TestConstants.TIMEOUT;
 
 import java.util.List;
 
@@ -35,6 +37,7 @@ import org.sagebionetworks.bridge.exceptions.NotAuthenticatedException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.ClientInfo;
 import org.sagebionetworks.bridge.models.CriteriaContext;
+import org.sagebionetworks.bridge.models.Metrics;
 import org.sagebionetworks.bridge.models.RequestInfo;
 import org.sagebionetworks.bridge.models.accounts.Account;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
@@ -45,6 +48,7 @@ import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.play.controllers.ScheduledActivityController;
 import org.sagebionetworks.bridge.services.ScheduledActivityService;
 import org.sagebionetworks.bridge.services.StudyService;
+import org.sagebionetworks.bridge.util.Bulkhead;
 
 import play.mvc.Result;
 import play.test.Helpers;
@@ -88,6 +92,8 @@ public class ScheduledActivityControllerTest {
     
     UserSession session;
     
+    Metrics metrics;
+    
     @Before
     public void before() throws Exception {
         DynamoScheduledActivity schActivity = new DynamoScheduledActivity();
@@ -107,9 +113,10 @@ public class ScheduledActivityControllerTest {
                 .withCreatedOn(ACCOUNT_CREATED_ON)
                 .withId(ID).build();
         session = new UserSession(participant);
+        metrics = new Metrics("requestId");
         session.setStudyIdentifier(TestConstants.TEST_STUDY);
         
-        when(scheduledActivityService.getScheduledActivities(any(ScheduleContext.class))).thenReturn(list);
+        when(scheduledActivityService.getScheduledActivities(any(ScheduleContext.class), any())).thenReturn(list);
 
         doReturn(ACCOUNT_CREATED_ON).when(account).getCreatedOn();
         doReturn(study).when(studyService).getStudy(TestConstants.TEST_STUDY_IDENTIFIER);
@@ -118,7 +125,9 @@ public class ScheduledActivityControllerTest {
         controller.setScheduledActivityService(scheduledActivityService);
         controller.setStudyService(studyService);
         controller.setCacheProvider(cacheProvider);
+        controller.setDynamoBulkhead(new Bulkhead("dynamo", 1, 10));
         doReturn(session).when(controller).getAuthenticatedAndConsentedSession();
+        doReturn(metrics).when(controller).getMetrics();
         
         clientInfo = ClientInfo.fromUserAgentCache("App Name/4 SDK/2");
         doReturn(clientInfo).when(controller).getClientInfoFromUserAgentHeader();
@@ -130,12 +139,12 @@ public class ScheduledActivityControllerTest {
         
         List<ScheduledActivity> list = Lists.newArrayList();
         scheduledActivityService = mock(ScheduledActivityService.class);
-        when(scheduledActivityService.getScheduledActivities(any(ScheduleContext.class))).thenReturn(list);
+        when(scheduledActivityService.getScheduledActivities(any(ScheduleContext.class), any())).thenReturn(list);
         controller.setScheduledActivityService(scheduledActivityService);
         
-        controller.getScheduledActivities(null, "+03:00", "3", "5");
+        controller.getScheduledActivities(null, "+03:00", "3", "5").get(TIMEOUT);
         
-        verify(scheduledActivityService).getScheduledActivities(captor.capture());
+        verify(scheduledActivityService).getScheduledActivities(captor.capture(), eq(metrics));
         
         ScheduleContext context = captor.getValue();
         assertEquals(DateTimeZone.forOffsetHours(3), context.getZone());
@@ -162,7 +171,7 @@ public class ScheduledActivityControllerTest {
     public void getScheduledActivitiesAsScheduledActivitiesReturnsCorrectType() throws Exception {
         DateTime now = DateTime.parse("2011-05-13T12:37:31.985+03:00");
         
-        Result result = controller.getScheduledActivities(now.toString(), null, null, null);
+        Result result = controller.getScheduledActivities(now.toString(), null, null, null).get(TIMEOUT);
         String output = Helpers.contentAsString(result);
 
         JsonNode results = BridgeObjectMapper.get().readTree(output);
@@ -177,7 +186,7 @@ public class ScheduledActivityControllerTest {
     public void getScheduledActivitesAsTasks() throws Exception {
         DateTime now = DateTime.parse("2011-05-13T12:37:31.985+03:00");
         
-        Result result = controller.getTasks(now.toString(), null, null);
+        Result result = controller.getTasks(now.toString(), null, null).get(TIMEOUT);
         String output = Helpers.contentAsString(result);
         
         // Verify that even without the writer, we are not leaking these values
@@ -190,6 +199,24 @@ public class ScheduledActivityControllerTest {
             assertNull(item.get("healthCode"));
             assertNull(item.get("schedulePlanGuid"));
             assertEquals("Task", item.get("type").asText());
+            // Only the scheduled activity is renamed, not the activity it contains
+            assertEquals("Activity", item.get("activity").get("type").asText());
+        }
+        assertEquals("application/json", result.contentType());
+    }
+    
+    @Test
+    public void getScheduledActivitiesDoesNotLeakFilteredFields() throws Exception {
+        DateTime now = DateTime.parse("2011-05-13T12:37:31.985+03:00");
+        
+        Result result = controller.getScheduledActivities(now.toString(), null, null, null).get(TIMEOUT);
+        assertEquals("application/json", result.contentType());
+        
+        JsonNode items = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result)).get("items");
+        assertTrue(items.size() > 0);
+        for (int i=0; i < items.size(); i++) {
+            assertNull(items.get(i).get("healthCode"));
+            assertNull(items.get(i).get("schedulePlanGuid"));
         }
     }
     
@@ -198,8 +225,8 @@ public class ScheduledActivityControllerTest {
         // Until value is simply passed along as is to the scheduler.
         DateTime now = DateTime.parse("2011-05-13T12:37:31.985+03:00");
         
-        controller.getScheduledActivities(now.toString(), null, null, null);
-        verify(scheduledActivityService).getScheduledActivities(contextCaptor.capture());
+        controller.getScheduledActivities(now.toString(), null, null, null).get(TIMEOUT);
+        verify(scheduledActivityService).getScheduledActivities(contextCaptor.capture(), any());
         verifyNoMoreInteractions(scheduledActivityService);
         assertEquals(now, contextCaptor.getValue().getEndsOn());
         assertEquals(now.getZone(), contextCaptor.getValue().getZone());
@@ -213,8 +240,8 @@ public class ScheduledActivityControllerTest {
             .withZone(DateTimeZone.forOffsetHours(3)).plusDays(3)
             .withHourOfDay(23).withMinuteOfHour(59).withSecondOfMinute(59).withMillisOfSecond(0);
         
-        controller.getScheduledActivities(null, "+03:00", "3", null);
-        verify(scheduledActivityService).getScheduledActivities(contextCaptor.capture());
+        controller.getScheduledActivities(null, "+03:00", "3", null).get(TIMEOUT);
+        verify(scheduledActivityService).getScheduledActivities(contextCaptor.capture(), any());
         verifyNoMoreInteractions(scheduledActivityService);
         assertEquals(expectedEndsOn, contextCaptor.getValue().getEndsOn().withMillisOfSecond(0));
         assertEquals(expectedEndsOn.getZone(), contextCaptor.getValue().getZone());
@@ -225,21 +252,23 @@ public class ScheduledActivityControllerTest {
     @SuppressWarnings("unchecked")
     @Test
     public void updateScheduledActivities() throws Exception {
-        controller.updateScheduledActivities();
+        controller.updateScheduledActivities().get(TIMEOUT);
         verify(scheduledActivityService).updateScheduledActivities(anyString(), any(List.class));
         verifyNoMoreInteractions(scheduledActivityService);
     }
     
     @Test(expected = NotAuthenticatedException.class)
     public void mustBeAuthenticated() throws Exception {
-        controller = new ScheduledActivityController();
-        controller.getScheduledActivities(DateTime.now().toString(), null, null, null);
+        controller = spy(new ScheduledActivityController());
+        controller.setDynamoBulkhead(new Bulkhead("dynamo", 1, 10));
+        doReturn(null).when(controller).getMetrics();
+        controller.getScheduledActivities(DateTime.now().toString(), null, null, null).get(TIMEOUT);
     }
     
     @Test
     public void fullyInitializedSessionProvidesAccountCreatedOnInScheduleContext() throws Exception {
-        controller.getScheduledActivities(null, "-07:00", "3", null);
-        verify(scheduledActivityService).getScheduledActivities(contextCaptor.capture());
+        controller.getScheduledActivities(null, "-07:00", "3", null).get(TIMEOUT);
+        verify(scheduledActivityService).getScheduledActivities(contextCaptor.capture(), any());
         ScheduleContext context = contextCaptor.getValue();
         assertEquals(ACCOUNT_CREATED_ON.withZone(DateTimeZone.UTC), context.getAccountCreatedOn());
     }
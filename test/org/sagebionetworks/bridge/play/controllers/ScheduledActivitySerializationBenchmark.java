@@ -0,0 +1,116 @@
+package org.sagebionetworks.bridge.play.controllers;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.dynamodb.DynamoScheduledActivity;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.ResourceList;
+import org.sagebionetworks.bridge.models.schedules.Activity;
+import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Compares serializing a list of scheduled activities by building a JsonNode tree (the way BaseController used to 
+ * produce results) against writing the list straight to bytes with a JsonGenerator. The "tasks" variants include 
+ * the field removal and type renaming done for the deprecated tasks API.
+ * </p>
+ * <p>
+ * Run with: sbt "test:runMain org.sagebionetworks.bridge.play.controllers.ScheduledActivitySerializationBenchmark"
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ScheduledActivitySerializationBenchmark {
+
+    private static final ObjectMapper MAPPER = BridgeObjectMapper.get();
+    private static final UnaryOperator<JsonGenerator> TASK_TYPE_RENAMER = 
+            generator -> new TypeRenamingJsonGenerator(generator, "ScheduledActivity", "Task");
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    private List<ScheduledActivity> activities;
+
+    @Setup
+    public void setup() {
+        Activity activity = new Activity.Builder().withLabel("Activity").withGuid(BridgeUtils.generateGuid())
+                .withPublishedSurvey("identifier", BridgeUtils.generateGuid()).build();
+        activities = Lists.newArrayListWithCapacity(size);
+        for (int i=0; i < size; i++) {
+            DynamoScheduledActivity schActivity = new DynamoScheduledActivity();
+            schActivity.setTimeZone(DateTimeZone.UTC);
+            schActivity.setGuid(BridgeUtils.generateGuid());
+            schActivity.setHealthCode("healthCode");
+            schActivity.setSchedulePlanGuid(BridgeUtils.generateGuid());
+            schActivity.setLocalScheduledOn(LocalDateTime.now().plusHours(i));
+            schActivity.setActivity(activity);
+            activities.add(schActivity);
+        }
+    }
+
+    @Benchmark
+    public byte[] tree() throws Exception {
+        JsonNode node = MAPPER.valueToTree(new ResourceList<>(activities));
+        return MAPPER.writeValueAsBytes(node);
+    }
+
+    @Benchmark
+    public byte[] streaming() {
+        return BaseController.writeJson(ScheduledActivity.SCHEDULED_ACTIVITY_WRITER, 
+                new ResourceList<>(activities), null);
+    }
+
+    @Benchmark
+    public byte[] treeAsTasks() throws Exception {
+        JsonNode node = MAPPER.valueToTree(new ResourceList<>(activities));
+        ArrayNode items = (ArrayNode)node.get("items");
+        for (int i=0; i < items.size(); i++) {
+            ObjectNode object = (ObjectNode)items.get(i);
+            object.put("type", "Task");
+            object.remove("healthCode");
+            object.remove("schedulePlanGuid");
+        }
+        return MAPPER.writeValueAsBytes(node);
+    }
+
+    @Benchmark
+    public byte[] streamingAsTasks() {
+        return BaseController.writeJson(ScheduledActivity.SCHEDULED_ACTIVITY_WRITER, 
+                new ResourceList<>(activities), TASK_TYPE_RENAMER);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(ScheduledActivitySerializationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
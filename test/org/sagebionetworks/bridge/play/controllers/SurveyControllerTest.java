@@ -4,12 +4,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
-import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.anyString;
-import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -27,14 +26,13 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.invocation.InvocationOnMock;
-import org.mockito.stubbing.Answer;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.TestUtils;
-import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.InMemoryCacheProvider;
 import org.sagebionetworks.bridge.cache.ViewCache;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.dynamodb.DynamoSurvey;
 import org.sagebionetworks.bridge.exceptions.ConsentRequiredException;
@@ -58,6 +56,8 @@ import org.sagebionetworks.bridge.services.SurveyService;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import play.mvc.Http;
 import play.mvc.Result;
 import play.test.Helpers;
 
@@ -92,8 +92,6 @@ public class SurveyControllerTest {
     
     private ViewCache viewCache;
     
-    private Map<String,String> cacheMap;
-    
     private UserSession session;
     
     @Before
@@ -102,34 +100,10 @@ public class SurveyControllerTest {
         service = mock(SurveyService.class);
         
         // Dummy this out so it works and we can forget about it as a dependency
-        cacheMap = Maps.newHashMap();
         viewCache = new ViewCache();
-        CacheProvider provider = mock(CacheProvider.class);
-        when(provider.getString(anyString())).thenAnswer(new Answer<String>() {
-            @Override
-            public String answer(InvocationOnMock invocation) throws Throwable {
-                String key = invocation.getArgumentAt(0, String.class);
-                return cacheMap.get(key);
-            }
-        });
-        doAnswer(new Answer<Void>() {
-            @Override
-            public Void answer(InvocationOnMock invocation) throws Throwable {
-                String key = invocation.getArgumentAt(0, String.class);
-                String value = invocation.getArgumentAt(1, String.class);
-                cacheMap.put(key, value);
-                return null;
-            }
-        }).when(provider).setString(anyString(), anyString(), anyInt());
-        doAnswer(new Answer<Void>() {
-            @Override
-            public Void answer(InvocationOnMock invocation) throws Throwable {
-                String key = invocation.getArgumentAt(0, String.class);
-                cacheMap.remove(key);
-                return null;
-            }
-        }).when(provider).removeString(anyString());
-        viewCache.setCacheProvider(provider);
+        viewCache.setCacheProvider(new InMemoryCacheProvider());
+        viewCache.setDistributedLockDao(mock(DistributedLockDao.class));
+        viewCache.setAsyncExecutorService(MoreExecutors.newDirectExecutorService());
         
         studyService = mock(StudyService.class);
         DynamoStudy study = new DynamoStudy();
@@ -291,6 +265,55 @@ public class SurveyControllerTest {
         verifyNoMoreInteractions(service);
     }
     
+    @Test
+    public void getSurveyMostRecentlyPublishedVersionForUserNotModified() throws Exception {
+        setupContext(API_STUDY_ID, DEVELOPER, CONSENTED, null);
+        when(service.getSurveyMostRecentlyPublishedVersion(API_STUDY_ID, SURVEY_GUID)).thenReturn(getSurvey(false));
+        
+        Result result = controller.getSurveyMostRecentlyPublishedVersionForUser(SURVEY_GUID);
+        assertEquals(200, result.status());
+        String etag = BaseController.getETag(Helpers.contentAsBytes(result));
+        verify(Http.Context.current().response()).setHeader("ETag", etag);
+        verify(Http.Context.current().response()).setHeader("Cache-Control", SurveyController.SURVEY_CACHE_CONTROL);
+        
+        Map<String,String[]> headers = Maps.newHashMap();
+        headers.put("If-None-Match", new String[] {etag});
+        TestUtils.mockPlayContextWithJson("{}", headers);
+        
+        result = controller.getSurveyMostRecentlyPublishedVersionForUser(SURVEY_GUID);
+        assertEquals(304, result.status());
+        
+        // Served from the view cache both times
+        verify(service).getSurveyMostRecentlyPublishedVersion(API_STUDY_ID, SURVEY_GUID);
+    }
+    
+    @Test
+    public void getSurveySendsCompressedViewWhenGzipAccepted() throws Exception {
+        setupContext(API_STUDY_ID, DEVELOPER, CONSENTED, null);
+        Survey survey = getSurvey(false);
+        when(service.getSurvey(KEYS)).thenReturn(survey);
+        
+        Map<String,String[]> headers = Maps.newHashMap();
+        headers.put("Accept-Encoding", new String[] {"gzip, deflate"});
+        TestUtils.mockPlayContextWithJson("{}", headers);
+        
+        Result result = controller.getSurvey(SURVEY_GUID, CREATED_ON.toString());
+        assertEquals(200, result.status());
+        verify(Http.Context.current().response()).setHeader("Content-Encoding", "gzip");
+        
+        byte[] json = ViewCache.decompress(Helpers.contentAsBytes(result));
+        Survey returned = BridgeObjectMapper.get().readValue(json, Survey.class);
+        assertEquals(survey.getName(), returned.getName());
+        
+        // Clients that don't accept gzip get the JSON from the same cache entry
+        TestUtils.mockPlayContext();
+        result = controller.getSurvey(SURVEY_GUID, CREATED_ON.toString());
+        assertEquals(survey.getName(), BridgeObjectMapper.get().readValue(Helpers.contentAsString(result),
+                Survey.class).getName());
+        verify(Http.Context.current().response(), never()).setHeader("Content-Encoding", "gzip");
+        verify(service).getSurvey(KEYS);
+    }
+    
     @Test
     public void cannotGetSurveyMostRecentlyPublishedVersionForUserFromOtherStudy() throws Exception {
         setupContext(SECONDSTUDY_STUDY_ID, DEVELOPER, CONSENTED, null);
@@ -809,8 +832,8 @@ public class SurveyControllerTest {
         
         setupContext(API_STUDY_ID, DEVELOPER, false, survey);
         
-        viewCache.getView(viewCache.getCacheKey(
-                Survey.class, SURVEY_GUID, CREATED_ON.toString(), "api"), () -> { return survey; });
+        viewCache.getCompressedView(viewCache.getGroupCacheKey(
+                Survey.class, SURVEY_GUID + ":api", CREATED_ON.toString()), () -> { return survey; });
         
         // Verify this call hits the cache not the service
         controller.getSurvey(SURVEY_GUID, CREATED_ON.toString());
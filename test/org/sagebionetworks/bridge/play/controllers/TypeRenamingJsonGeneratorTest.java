@@ -0,0 +1,39 @@
+package org.sagebionetworks.bridge.play.controllers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TypeRenamingJsonGeneratorTest {
+
+    private static final ObjectMapper MAPPER = BridgeObjectMapper.get();
+
+    @Test
+    public void renamesOnlyMatchingTypeFields() throws Exception {
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = new TypeRenamingJsonGenerator(MAPPER.getFactory().createGenerator(writer),
+                "ScheduledActivity", "Task");
+        
+        generator.writeStartObject();
+        generator.writeStringField("type", "ScheduledActivity");
+        generator.writeStringField("label", "ScheduledActivity");
+        generator.writeObjectFieldStart("activity");
+        generator.writeStringField("type", "Activity");
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.close();
+        
+        JsonNode node = MAPPER.readTree(writer.toString());
+        assertEquals("Task", node.get("type").asText());
+        assertEquals("ScheduledActivity", node.get("label").asText());
+        assertEquals("Activity", node.get("activity").get("type").asText());
+    }
+}
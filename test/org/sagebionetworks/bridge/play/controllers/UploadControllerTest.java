@@ -8,6 +8,7 @@ import static org.mockito.Mockito.eq;
 
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.sagebionetworks.bridge.TestConstants.TIMEOUT;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -33,6 +34,7 @@ import org.sagebionetworks.bridge.models.upload.UploadCompletionClient;
 import org.sagebionetworks.bridge.models.upload.UploadStatus;
 import org.sagebionetworks.bridge.models.upload.UploadValidationStatus;
 import org.sagebionetworks.bridge.services.UploadService;
+import org.sagebionetworks.bridge.util.Bulkhead;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Lists;
@@ -77,6 +79,8 @@ public class UploadControllerTest {
     public void before() {
         controller.setUploadService(uploadService);
         controller.setHealthCodeDao(healthCodeDao);
+        controller.setDynamoBulkhead(new Bulkhead("dynamo", 1, 10));
+        controller.setS3Bulkhead(new Bulkhead("s3", 1, 10));
         
         DynamoUpload2 upload = new DynamoUpload2();
         upload.setHealthCode("consented-user-health-code");
@@ -116,7 +120,7 @@ public class UploadControllerTest {
         doReturn(workerSession).when(controller).getAuthenticatedSession();
         TestUtils.mockPlayContext();
         
-        Result result = controller.uploadComplete(UPLOAD_ID);
+        Result result = controller.uploadComplete(UPLOAD_ID).get(TIMEOUT);
         TestUtils.assertResult(result, 200, "Upload upload-id complete!");
         
         verify(uploadService).uploadComplete(eq(new StudyIdentifierImpl("consented-user-study-id")), eq(UploadCompletionClient.S3_WORKER), uploadCaptor.capture());
@@ -131,7 +135,7 @@ public class UploadControllerTest {
         doReturn(consentedUserSession).when(controller).getAuthenticatedAndConsentedSession();
         TestUtils.mockPlayContext();
         
-        Result result = controller.uploadComplete(UPLOAD_ID);
+        Result result = controller.uploadComplete(UPLOAD_ID).get(TIMEOUT);
         TestUtils.assertResult(result, 200, "Upload upload-id complete!");
         
         verify(uploadService).uploadComplete(eq(new StudyIdentifierImpl("consented-user-study-id")), eq(UploadCompletionClient.APP), uploadCaptor.capture());
@@ -151,7 +155,7 @@ public class UploadControllerTest {
         TestUtils.mockPlayContext();
         
         try {
-            controller.uploadComplete(UPLOAD_ID);
+            controller.uploadComplete(UPLOAD_ID).get(TIMEOUT);
             fail("Should have thrown exception");
         } catch(UnauthorizedException e) {
             
@@ -170,7 +174,7 @@ public class UploadControllerTest {
         
         doReturn(status).when(uploadService).getUploadValidationStatus(UPLOAD_ID);
         
-        Result result = controller.getValidationStatus(UPLOAD_ID);
+        Result result = controller.getValidationStatus(UPLOAD_ID).get(TIMEOUT);
         assertEquals(200, result.status());
         
         JsonNode node = BridgeObjectMapper.get().readTree(Helpers.contentAsString(result));
@@ -192,7 +196,7 @@ public class UploadControllerTest {
 
         doReturn(status).when(uploadService).getUploadValidationStatus(UPLOAD_ID);
 
-        Result result = controller.getValidationStatus(UPLOAD_ID);
+        Result result = controller.getValidationStatus(UPLOAD_ID).get(TIMEOUT);
         assertEquals(200, result.status());
     }    
     
@@ -207,6 +211,6 @@ public class UploadControllerTest {
         
         doReturn(status).when(uploadService).getUploadValidationStatus(UPLOAD_ID);
         
-        controller.getValidationStatus(UPLOAD_ID);
+        controller.getValidationStatus(UPLOAD_ID).get(TIMEOUT);
     }
 }
@@ -106,4 +106,12 @@ public class UserManagementControllerTest {
         assertResult(result, 200, "User deleted.");
         verify(userAdminService).deleteUser(study, "ASDF");
     }
+    
+    @Test
+    public void deleteAllTestUsers() throws Exception {
+        Result result = controller.deleteAllTestUsers();
+        
+        assertResult(result, 202, "Deletion of test users has started.");
+        verify(userAdminService).deleteAllTestUsers(study);
+    }
 }
@@ -11,6 +11,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
@@ -30,7 +31,9 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.InMemoryCacheProvider;
 import org.sagebionetworks.bridge.cache.ViewCache;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
@@ -53,6 +56,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import play.mvc.Result;
 import play.test.Helpers;
@@ -115,7 +119,9 @@ public class UserProfileControllerTest {
         when(studyService.getStudy((StudyIdentifier)any())).thenReturn(study);
         
         ViewCache viewCache = new ViewCache();
-        viewCache.setCacheProvider(cacheProvider);
+        viewCache.setCacheProvider(new InMemoryCacheProvider());
+        viewCache.setDistributedLockDao(mock(DistributedLockDao.class));
+        viewCache.setAsyncExecutorService(MoreExecutors.newDirectExecutorService());
         
         controller = spy(new UserProfileController());
         controller.setStudyService(studyService);
@@ -15,9 +15,12 @@ import org.junit.Test;
 import org.sagebionetworks.bridge.config.Environment;
 import org.sagebionetworks.bridge.dao.ParticipantOption.SharingScope;
 import org.sagebionetworks.bridge.exceptions.ConsentRequiredException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
+import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.play.controllers.AuthenticationController;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -25,6 +28,7 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import play.libs.F.Promise;
 import play.mvc.Http;
 import play.mvc.Result;
 
@@ -81,6 +85,7 @@ public class ExceptionInterceptorTest {
         ConsentRequiredException exception = new ConsentRequiredException(session);
         
         MethodInvocation invocation = mock(MethodInvocation.class);
+        when(invocation.getMethod()).thenReturn(AuthenticationController.class.getMethod("signOut"));
         when(invocation.proceed()).thenThrow(exception);
         
         Result result = (Result)interceptor.invoke(invocation);
@@ -107,4 +112,30 @@ public class ExceptionInterceptorTest {
         // And no further properties
         assertEquals(19, node.size());
     }
-}    
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void asyncExceptionCompletesPromiseWithResult() throws Throwable {
+        MethodInvocation invocation = mock(MethodInvocation.class);
+        when(invocation.getMethod()).thenReturn(AuthenticationController.class.getMethod("signIn"));
+        when(invocation.proceed()).thenReturn(Promise.throwing(new EntityNotFoundException(Study.class)));
+        
+        Result result = ((Promise<Result>)interceptor.invoke(invocation)).get(5000);
+        
+        assertEquals(404, result.status());
+        JsonNode node = new ObjectMapper().readTree(contentAsString(result));
+        assertEquals("Study not found.", node.get("message").asText());
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void exceptionBeforeAsyncActionStartsReturnsPromise() throws Throwable {
+        MethodInvocation invocation = mock(MethodInvocation.class);
+        when(invocation.getMethod()).thenReturn(AuthenticationController.class.getMethod("signIn"));
+        when(invocation.proceed()).thenThrow(new EntityNotFoundException(Study.class));
+        
+        Result result = ((Promise<Result>)interceptor.invoke(invocation)).get(5000);
+        
+        assertEquals(404, result.status());
+    }
+}
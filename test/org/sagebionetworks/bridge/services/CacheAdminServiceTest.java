@@ -1,96 +1,257 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.CacheNamespaceStats;
+import org.sagebionetworks.bridge.models.PagedResourceList;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 
 public class CacheAdminServiceTest {
 
     private static final String REQUEST_INFO_KEY = "10E9SFUz9BYrqCrTzfiaNW:request-info";
-    
-    private final static Set<String> KEYS = Sets.newHashSet("foo:study", "bar:session", "baz:Survey:view",
-            "xh7YDmjGQuTKnfdv9iJb0:session:user", REQUEST_INFO_KEY);
-    
+
+    // The stub returns this many keys for each SCAN, regardless of the COUNT hint.
+    private static final int SCAN_BATCH = 3;
+
+    private Set<String> keys;
+
+    private Set<String> scanOrder;
+
     private CacheAdminService adminService;
-    
+
     @Before
     public void before() {
+        keys = Sets.newLinkedHashSet(Lists.newArrayList("foo:study", "bar:session", "baz:Survey:view",
+                "xh7YDmjGQuTKnfdv9iJb0:session:user", REQUEST_INFO_KEY));
+        scanOrder = Sets.newLinkedHashSet();
+
         adminService = new CacheAdminService();
-        
+
         JedisPool pool = mock(JedisPool.class);
         when(pool.getResource()).thenReturn(createStubJedis());
 
         adminService.setJedisPool(pool);
     }
-    
+
     @Test
     public void listsItemsWithoutSessions() {
-        Set<String> set = adminService.listItems();
-        assertEquals(2, set.size());
-        assertTrue(set.contains("foo:study"));
-        assertTrue(set.contains("baz:Survey:view"));
+        List<String> items = listAllItems(null);
+        assertEquals(2, items.size());
+        assertTrue(items.contains("foo:study"));
+        assertTrue(items.contains("baz:Survey:view"));
+    }
+
+    @Test
+    public void listsItemsInNamespace() {
+        keys.add("api:Survey:view");
+        keys.add("api:view:study");
+
+        List<String> items = listAllItems("view");
+        assertEquals(Sets.newHashSet("baz:Survey:view", "api:Survey:view"), Sets.newHashSet(items));
+    }
+
+    @Test
+    public void pagesThroughKeysWithCursor() {
+        for (int i=0; i < 12; i++) {
+            keys.add("study"+i+":study");
+        }
+        PagedResourceList<String> page = adminService.listItems(null, null, 5);
+        assertTrue(page.getItems().size() >= 5);
+        assertEquals(page.getItems().size(), page.getTotal());
+        assertNotNull(page.getOffsetKey());
+
+        List<String> items = listAllItems(null);
+        assertEquals(14, items.size());
+        assertEquals(14, Sets.newHashSet(items).size());
     }
-    
-    
+
+    @Test
+    public void lastPageHasNoOffsetKey() {
+        PagedResourceList<String> page = adminService.listItems(null, null, 100);
+        assertEquals(2, page.getItems().size());
+        assertNull(page.getOffsetKey());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void pageSizeIsValidated() {
+        adminService.listItems(null, null, 1000);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void offsetKeyIsValidated() {
+        adminService.listItems(null, "not-a-cursor", null);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void unknownNamespaceRejected() {
+        adminService.listItems("not-a-namespace", null, null);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void sessionsCannotBeListed() {
+        adminService.listItems("session", null, null);
+    }
+
     @Test
     public void canRemoveItem() {
         adminService.removeItem("foo:study");
-        Set<String> set = adminService.listItems();
-        assertEquals(1, set.size());
+        List<String> items = listAllItems(null);
+        assertEquals(1, items.size());
     }
-    
+
     @Test(expected = BridgeServiceException.class)
     public void doesNotRemoveSessions() {
         adminService.removeItem("bar:session");
     }
-    
+
     @Test(expected = BridgeServiceException.class)
     public void doesNotRemoveUserSessions() {
         adminService.removeItem("xh7YDmjGQuTKnfdv9iJb0:session:user");
     }
-    
+
     @Test(expected = BridgeServiceException.class)
     public void throwsExceptionWhenThereIsNoKey() {
         adminService.removeItem("not:a:key");
     }
-    
+
     @Test(expected = IllegalArgumentException.class)
     public void throwsExceptionWhenKeyIsEmpty() {
         adminService.removeItem(" ");
     }
-    
+
     @Test(expected = IllegalArgumentException.class)
     public void throwsExceptionWhenKeyIsNull() {
         adminService.removeItem(null);
     }
-    
+
     @Test(expected = BridgeServiceException.class)
     public void cannotRemoveRequestInfo() {
         adminService.removeItem(REQUEST_INFO_KEY);
     }
-    
+
+    @Test
+    public void removesItemsByPattern() {
+        keys.add("api:Survey:view");
+        keys.add("api:Schedule:view");
+        keys.add("api:study");
+
+        long removed = adminService.removeItems("view", "api:*");
+        assertEquals(2, removed);
+        assertFalse(keys.contains("api:Survey:view"));
+        assertFalse(keys.contains("api:Schedule:view"));
+        assertTrue(keys.contains("api:study"));
+        assertTrue(keys.contains("baz:Survey:view"));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void cannotRemoveSessionsByPattern() {
+        adminService.removeItems("session:user", "*");
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void removeItemsRequiresPattern() {
+        adminService.removeItems("view", " ");
+    }
+
+    @Test
+    public void reportsNamespaceStats() {
+        keys.add("api:Schedule:view");
+        keys.add("unknown-key");
+
+        List<CacheNamespaceStats> stats = adminService.getNamespaceStats();
+        assertEquals(Lists.newArrayList("other", "request-info", "session", "session:user", "study", "view"),
+                stats.stream().map(CacheNamespaceStats::getNamespace).collect(Collectors.toList()));
+
+        CacheNamespaceStats viewStats = stats.get(5);
+        assertEquals(2, viewStats.getKeyCount());
+        assertEquals(2, viewStats.getSampleSize());
+        // Each key's estimate is the key length plus the stub's 10 byte dump
+        assertEquals("baz:Survey:view".length() + "api:Schedule:view".length() + 20, viewStats.getEstimatedBytes());
+    }
+
+    @Test
+    public void compoundKeysAreAttributedToTheirOwnNamespace() {
+        assertEquals("session:user", CacheAdminService.getNamespace("xh7YDmjGQuTKnfdv9iJb0:session:user"));
+        assertEquals("session", CacheAdminService.getNamespace("bar:session"));
+        assertEquals("lock:user", CacheAdminService.getNamespace("email:lock:user"));
+        assertEquals("user", CacheAdminService.getNamespace("email:user"));
+        assertEquals("other", CacheAdminService.getNamespace("no-namespace"));
+    }
+
+    private List<String> listAllItems(String namespace) {
+        List<String> items = Lists.newArrayList();
+        String offsetKey = null;
+        do {
+            PagedResourceList<String> page = adminService.listItems(namespace, offsetKey, 5);
+            items.addAll(page.getItems());
+            offsetKey = page.getOffsetKey();
+        } while (offsetKey != null);
+        return items;
+    }
+
     private Jedis createStubJedis() {
         return new Jedis("") {
             @Override
-            public Set<String> keys(String pattern) {
-                return KEYS;
+            public ScanResult<String> scan(String cursor, ScanParams params) {
+                // Like Redis, deleting keys during a scan does not move the cursor past keys not yet returned
+                scanOrder.addAll(keys);
+                String regex = getMatch(params).replace("*", ".*");
+                List<String> all = Lists.newArrayList(scanOrder);
+                int start = Integer.parseInt(cursor);
+                int end = Math.min(start + SCAN_BATCH, all.size());
+                List<String> results = all.subList(start, end).stream()
+                        .filter(key -> keys.contains(key) && key.matches(regex)).collect(Collectors.toList());
+                return new ScanResult<String>((end == all.size()) ? "0" : Integer.toString(end), results);
+            }
+            @Override
+            public byte[] dump(String key) {
+                return keys.contains(key) ? new byte[10] : null;
             }
             @Override
             public Long del(String key) {
-                return (KEYS.remove(key)) ? 1L : 0L;
+                return (keys.remove(key)) ? 1L : 0L;
+            }
+            @Override
+            public Long del(String... keysToDelete) {
+                long count = 0;
+                for (String key : keysToDelete) {
+                    count += del(key);
+                }
+                return count;
             }
         };
     }
+
+    private static String getMatch(ScanParams params) {
+        Iterator<byte[]> iterator = params.getParams().iterator();
+        while (iterator.hasNext()) {
+            if ("MATCH".equalsIgnoreCase(new String(iterator.next(), StandardCharsets.UTF_8))) {
+                return new String(iterator.next(), StandardCharsets.UTF_8);
+            }
+        }
+        return "*";
+    }
 }
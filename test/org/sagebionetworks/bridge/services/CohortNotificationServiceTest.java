@@ -0,0 +1,220 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.dao.NotificationRegistrationDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoNotificationRegistration;
+import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
+import org.sagebionetworks.bridge.local.LocalNotificationPublisher;
+import org.sagebionetworks.bridge.models.notifications.CohortNotification;
+import org.sagebionetworks.bridge.models.notifications.NotificationJob;
+import org.sagebionetworks.bridge.models.notifications.NotificationJobStatus;
+import org.sagebionetworks.bridge.models.notifications.NotificationMessage;
+import org.sagebionetworks.bridge.models.notifications.NotificationRegistration;
+import org.sagebionetworks.bridge.models.studies.Study;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sns.model.EndpointDisabledException;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class CohortNotificationServiceTest {
+
+    private static final NotificationMessage MESSAGE = new NotificationMessage.Builder()
+            .withSubject("a subject").withMessage("a message").build();
+
+    private Study study;
+    private Map<String, String> cache;
+    private ParticipantOptionsService optionsService;
+    private NotificationRegistrationDao registrationDao;
+    private LocalNotificationPublisher publisher;
+    private CohortNotificationService service;
+
+    @Before
+    public void before() {
+        study = new DynamoStudy();
+        study.setIdentifier(TestConstants.TEST_STUDY_IDENTIFIER);
+        study.setDataGroups(ImmutableSet.of("group1", "group2"));
+
+        // Jobs are saved as JSON strings, so a map is enough to stand in for Redis
+        cache = Maps.newHashMap();
+        CacheProvider cacheProvider = mock(CacheProvider.class);
+        when(cacheProvider.getString(anyString())).thenAnswer(invocation -> cache.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> {
+            cache.put((String)invocation.getArguments()[0], (String)invocation.getArguments()[1]);
+            return null;
+        }).when(cacheProvider).setString(anyString(), anyString(), anyInt());
+
+        Config config = mock(Config.class);
+        when(config.getInt(CohortNotificationService.CONFIG_KEY_PUBLISH_THREAD_COUNT)).thenReturn(4);
+        when(config.getInt(CohortNotificationService.CONFIG_KEY_PUBLISH_RATE)).thenReturn(1000);
+
+        optionsService = mock(ParticipantOptionsService.class);
+        registrationDao = mock(NotificationRegistrationDao.class);
+        publisher = new LocalNotificationPublisher();
+
+        service = new CohortNotificationService();
+        service.setParticipantOptionsService(optionsService);
+        service.setNotificationRegistrationDao(registrationDao);
+        service.setNotificationPublisher(publisher);
+        service.setCacheProvider(cacheProvider);
+        service.setConfig(config);
+        // Run the job and its publishes on the calling thread, so the job is finished when startJob() returns
+        service.setAsyncExecutorService(MoreExecutors.newDirectExecutorService());
+        service.setPublishExecutorService(MoreExecutors.newDirectExecutorService());
+    }
+
+    @Test
+    public void publishesToEveryDeviceInCohort() {
+        mockCohort(ImmutableSet.of("group1"), "healthCode1", "healthCode2");
+        mockRegistrations("endpoint1", "endpoint2", "endpoint3");
+
+        NotificationJob started = service.startJob(study, notification("group1"));
+        assertNotNull(started.getGuid());
+        assertEquals(NotificationJobStatus.IN_PROCESS, started.getStatus());
+
+        NotificationJob job = service.getJob(study.getStudyIdentifier(), started.getGuid());
+        assertEquals(NotificationJobStatus.COMPLETED, job.getStatus());
+        assertEquals(3, job.getPublished());
+        assertEquals(0, job.getFailed());
+        assertEquals(0, job.getRetried());
+        assertNotNull(job.getFinishedOn());
+
+        List<Map.Entry<String, NotificationMessage>> published = publisher.getPublished();
+        assertEquals(3, published.size());
+        assertEquals("endpoint1", published.get(0).getKey());
+        assertEquals(MESSAGE, published.get(0).getValue());
+    }
+
+    @Test
+    public void throttledPublishesAreRetried() {
+        mockCohort(ImmutableSet.of(), "healthCode1");
+        mockRegistrations("endpoint1");
+        publisher.throttleEndpoint("endpoint1", 2);
+
+        NotificationJob job = runJob(notification());
+
+        assertEquals(NotificationJobStatus.COMPLETED, job.getStatus());
+        assertEquals(1, job.getPublished());
+        assertEquals(2, job.getRetried());
+        assertEquals(1, publisher.getPublished().size());
+    }
+
+    @Test
+    public void publishFailuresAreCountedAndDoNotStopJob() {
+        mockCohort(ImmutableSet.of(), "healthCode1");
+        mockRegistrations("endpoint1", "endpoint2");
+        publisher.disableEndpoint("endpoint1");
+
+        NotificationJob job = runJob(notification());
+
+        assertEquals(NotificationJobStatus.COMPLETED, job.getStatus());
+        assertEquals(1, job.getPublished());
+        assertEquals(1, job.getFailed());
+        assertEquals(0, job.getRetried());
+    }
+
+    @Test
+    public void errorReadingCohortFailsJob() {
+        when(optionsService.getHealthCodesInDataGroups(any(), any())).thenThrow(new AmazonServiceException("boom"));
+
+        NotificationJob job = runJob(notification());
+
+        assertEquals(NotificationJobStatus.FAILED, job.getStatus());
+        assertNotNull(job.getErrorMessage());
+        assertNotNull(job.getFinishedOn());
+    }
+
+    @Test
+    public void invalidDataGroupIsRejected() {
+        try {
+            service.startJob(study, notification("not-a-group"));
+            fail("Should have thrown exception");
+        } catch(InvalidEntityException e) {
+            assertTrue(e.getMessage().contains("not-a-group"));
+        }
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void unknownJobIsNotFound() {
+        service.getJob(study.getStudyIdentifier(), "not-a-job");
+    }
+
+    @Test
+    public void onlyThrottlingAndServerErrorsAreRetryable() {
+        AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        throttled.setErrorCode("Throttling");
+        throttled.setStatusCode(400);
+        assertTrue(CohortNotificationService.isRetryable(throttled));
+
+        AmazonServiceException serverError = new AmazonServiceException("Internal error");
+        serverError.setStatusCode(500);
+        assertTrue(CohortNotificationService.isRetryable(serverError));
+
+        assertTrue(CohortNotificationService.isRetryable(new AmazonClientException("Unable to connect")));
+
+        EndpointDisabledException disabled = new EndpointDisabledException("Endpoint is disabled");
+        disabled.setStatusCode(400);
+        assertFalse(CohortNotificationService.isRetryable(disabled));
+    }
+
+    private NotificationJob runJob(CohortNotification notification) {
+        NotificationJob started = service.startJob(study, notification);
+        assertNull(started.getFinishedOn());
+        return service.getJob(study.getStudyIdentifier(), started.getGuid());
+    }
+
+    private void mockCohort(Set<String> dataGroups, String... healthCodes) {
+        when(optionsService.getHealthCodesInDataGroups(study.getStudyIdentifier(), dataGroups))
+                .thenReturn(Iterators.forArray(healthCodes));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockRegistrations(String... endpointARNs) {
+        List<NotificationRegistration> registrations = Lists.newArrayList();
+        for (String endpointARN : endpointARNs) {
+            NotificationRegistration registration = new DynamoNotificationRegistration();
+            registration.setEndpointARN(endpointARN);
+            registrations.add(registration);
+        }
+        when(registrationDao.getRegistrations(any(Iterator.class))).thenAnswer(invocation -> {
+            // Consume the health codes, as the DAO would
+            Iterators.size(invocation.getArgumentAt(0, Iterator.class));
+            return registrations.iterator();
+        });
+    }
+
+    private static CohortNotification notification(String... dataGroups) {
+        return new CohortNotification.Builder().withDataGroups(ImmutableSet.copyOf(dataGroups))
+                .withMessage(MESSAGE).build();
+    }
+}
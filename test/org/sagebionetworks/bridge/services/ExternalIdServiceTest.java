@@ -1,6 +1,9 @@
 package org.sagebionetworks.bridge.services;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -9,6 +12,10 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.EXTERNAL_IDENTIFIER;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.Before;
@@ -23,6 +30,7 @@ import org.sagebionetworks.bridge.dao.ExternalIdDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.models.accounts.ExternalIdImportResult;
 import org.sagebionetworks.bridge.models.accounts.ExternalIdentifier;
 import org.sagebionetworks.bridge.models.studies.Study;
 
@@ -156,4 +164,73 @@ public class ExternalIdServiceTest {
         }
         verifyNoMoreInteractions(externalIdDao);
     }
+    
+    @Test
+    public void importExternalIdsFromCsv() throws Exception {
+        List<String> imported = mockImport();
+        
+        ExternalIdImportResult result = externalIdService.importExternalIds(STUDY,
+                stream("externalId,notes\n\"AAA\",first\n\nBBB\nnot valid!\nCCC , last\n"), false);
+        
+        assertEquals(Lists.newArrayList("AAA", "BBB", "CCC"), imported);
+        assertEquals(3, result.getInserted());
+        assertEquals(0, result.getSkipped());
+        assertEquals(1, result.getInvalid());
+    }
+    
+    @Test
+    public void importExternalIdsFromCsvWithoutHeader() throws Exception {
+        List<String> imported = mockImport();
+        
+        externalIdService.importExternalIds(STUDY, stream("AAA\nBBB"), false);
+        
+        assertEquals(Lists.newArrayList("AAA", "BBB"), imported);
+    }
+    
+    @Test
+    public void importExternalIdsFromJson() throws Exception {
+        List<String> imported = mockImport();
+        
+        ExternalIdImportResult result = externalIdService.importExternalIds(STUDY,
+                stream("[\"AAA\", \"BBB\", \"not valid!\", \"\"]"), true);
+        
+        assertEquals(Lists.newArrayList("AAA", "BBB"), imported);
+        assertEquals(2, result.getInvalid());
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void importExternalIdsRejectsJsonObject() throws Exception {
+        mockImport();
+        externalIdService.importExternalIds(STUDY, stream("{\"ids\":[\"AAA\"]}"), true);
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void importExternalIdsRejectsNonStringJson() throws Exception {
+        mockImport();
+        externalIdService.importExternalIds(STUDY, stream("[\"AAA\", 123]"), true);
+    }
+    
+    @Test(expected = BadRequestException.class)
+    public void importExternalIdsRejectsMalformedJson() throws Exception {
+        mockImport();
+        externalIdService.importExternalIds(STUDY, stream("[\"AAA\", "), true);
+    }
+    
+    /**
+     * Drains the iterator passed to the DAO, as the DAO would, and records the identifiers it was given.
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> mockImport() {
+        List<String> imported = Lists.newArrayList();
+        when(externalIdDao.importExternalIds(eq(STUDY.getStudyIdentifier()), any(Iterator.class))).thenAnswer(invocation -> {
+            Iterator<String> iterator = invocation.getArgumentAt(1, Iterator.class);
+            iterator.forEachRemaining(imported::add);
+            return new ExternalIdImportResult(imported.size(), 0, 0);
+        });
+        return imported;
+    }
+    
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
 }
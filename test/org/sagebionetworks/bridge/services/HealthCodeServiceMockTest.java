@@ -3,6 +3,8 @@ package org.sagebionetworks.bridge.services;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
@@ -42,4 +44,30 @@ public class HealthCodeServiceMockTest {
         HealthId id2 = healthCodeService.getMapping("456");
         assertNull(id2);
     }
+
+    @Test
+    public void mappingIsCachedAfterFirstLookup() {
+        HealthIdDao dao = mock(HealthIdDao.class);
+        when(dao.getCode("123")).thenReturn("abc");
+
+        HealthCodeService healthCodeService = new HealthCodeService();
+        healthCodeService.setHealthIdDao(dao);
+
+        assertEquals("abc", healthCodeService.getMapping("123").getCode());
+        assertEquals("abc", healthCodeService.getMapping("123").getCode());
+        verify(dao, times(1)).getCode("123");
+    }
+
+    @Test
+    public void missingMappingIsNotCached() {
+        HealthIdDao dao = mock(HealthIdDao.class);
+        when(dao.getCode("456")).thenReturn(null, "def");
+
+        HealthCodeService healthCodeService = new HealthCodeService();
+        healthCodeService.setHealthIdDao(dao);
+
+        assertNull(healthCodeService.getMapping("456"));
+        assertEquals("def", healthCodeService.getMapping("456").getCode());
+        verify(dao, times(2)).getCode("456");
+    }
 }
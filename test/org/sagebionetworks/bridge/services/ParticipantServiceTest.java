@@ -806,6 +806,20 @@ public class ParticipantServiceTest {
         participantService.getActivityHistory(STUDY, ID, null, 40);
     }
     
+    @Test
+    public void canGetActivityHistoryIterator() {
+        mockHealthCodeAndAccountRetrieval();
+        
+        participantService.getActivityHistoryIterator(STUDY, ID);
+        
+        verify(activityDao).getActivityHistoryIterator(HEALTH_CODE);
+    }
+    
+    @Test(expected = EntityNotFoundException.class)
+    public void getActivityHistoryIteratorNoUserThrowsCorrectException() {
+        participantService.getActivityHistoryIterator(STUDY, ID);
+    }
+    
     @Test
     public void deleteActivities() {
         mockHealthCodeAndAccountRetrieval();
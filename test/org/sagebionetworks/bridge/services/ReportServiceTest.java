@@ -4,12 +4,20 @@ import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import org.joda.time.DateTime;
@@ -24,6 +32,9 @@ import org.mockito.Mock;
 
 import org.mockito.runners.MockitoJUnitRunner;
 
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.dao.ReportDataDao;
 import org.sagebionetworks.bridge.dao.ReportIndexDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
@@ -31,13 +42,18 @@ import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
 import org.sagebionetworks.bridge.models.DateRangeResourceList;
 import org.sagebionetworks.bridge.models.ReportTypeResourceList;
 import org.sagebionetworks.bridge.models.reports.ReportData;
+import org.sagebionetworks.bridge.models.reports.ReportDataImportResult;
 import org.sagebionetworks.bridge.models.reports.ReportDataKey;
 import org.sagebionetworks.bridge.models.reports.ReportIndex;
 import org.sagebionetworks.bridge.models.reports.ReportType;
+import org.sagebionetworks.bridge.redis.RedisKey;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ReportServiceTest {
@@ -59,6 +75,9 @@ public class ReportServiceTest {
             .withReportType(ReportType.PARTICIPANT).withStudyIdentifier(TEST_STUDY).withHealthCode(HEALTH_CODE)
             .withIdentifier(IDENTIFIER).build();
     
+    private static final String STUDY_REPORT_VERSION_KEY = RedisKey.STUDY_REPORT_VERSION.getRedisKey(
+            STUDY_REPORT_DATA_KEY.getKeyString());
+    
     private static final ReportData CANNED_REPORT = createReport(LocalDate.parse("2015-02-10"), "First", "Name");
     
     @Mock
@@ -67,12 +86,18 @@ public class ReportServiceTest {
     @Mock
     ReportIndexDao mockReportIndexDao;
     
+    @Mock
+    CacheProvider mockCacheProvider;
+    
     @Captor
     ArgumentCaptor<ReportData> reportDataCaptor;
     
     @Captor
     ArgumentCaptor<ReportIndex> reportIndexCaptor;
     
+    @Captor
+    ArgumentCaptor<List<ReportData>> reportDataListCaptor;
+    
     @Captor
     ArgumentCaptor<ReportDataKey> reportDataKeyCaptor;
     
@@ -87,6 +112,12 @@ public class ReportServiceTest {
         service = new ReportService();
         service.setReportDataDao(mockReportDataDao);
         service.setReportIndexDao(mockReportIndexDao);
+        service.setCacheProvider(mockCacheProvider);
+        service.setImportExecutorService(MoreExecutors.newDirectExecutorService());
+        
+        Config config = mock(Config.class);
+        when(config.getInt(ReportService.CONFIG_KEY_IMPORT_PARALLELISM)).thenReturn(2);
+        service.setConfig(config);
 
         List<ReportData> list = Lists.newArrayList();
         list.add(createReport(LocalDate.parse("2015-02-10"), "First", "Name"));
@@ -135,6 +166,40 @@ public class ReportServiceTest {
         verify(mockReportDataDao).getReportData(STUDY_REPORT_DATA_KEY, START_DATE, END_DATE);
         assertEquals(results, retrieved);
     }
+    
+    @Test
+    public void getStudyReportVersion() {
+        when(mockCacheProvider.getString(STUDY_REPORT_VERSION_KEY)).thenReturn("12");
+        
+        String version = service.getStudyReportVersion(TEST_STUDY, IDENTIFIER, START_DATE, END_DATE);
+        
+        assertEquals("12:2015-01-02:2015-02-02", version);
+        verify(mockCacheProvider, never()).incrementVersion(any(), anyInt());
+        verifyNoMoreInteractions(mockReportDataDao);
+    }
+    
+    @Test
+    public void getStudyReportVersionStartsNewVersionIfAbsent() {
+        when(mockCacheProvider.incrementVersion(STUDY_REPORT_VERSION_KEY,
+                ReportService.STUDY_REPORT_VERSION_EXPIRE_IN_SECONDS)).thenReturn("1476900000000");
+        
+        String version = service.getStudyReportVersion(TEST_STUDY, IDENTIFIER, START_DATE, END_DATE);
+        
+        assertEquals("1476900000000:2015-01-02:2015-02-02", version);
+    }
+    
+    @Test
+    public void getStudyReportVersionNoDates() {
+        when(mockCacheProvider.getString(STUDY_REPORT_VERSION_KEY)).thenReturn("12");
+        DateTimeUtils.setCurrentMillisFixed(DateTime.parse("2015-05-05T12:00:00.000Z").getMillis());
+        try {
+            String version = service.getStudyReportVersion(TEST_STUDY, IDENTIFIER, null, null);
+            
+            assertEquals("12:2015-05-04:2015-05-05", version);
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+    }
 
     @Captor
     private ArgumentCaptor<LocalDate> localDateCaptor;
@@ -215,6 +280,8 @@ public class ReportServiceTest {
                 .withStudyIdentifier(TEST_STUDY)
                 .withReportType(ReportType.STUDY)
                 .withIdentifier(IDENTIFIER).build());
+        verify(mockCacheProvider, times(2)).incrementVersion(STUDY_REPORT_VERSION_KEY,
+                ReportService.STUDY_REPORT_VERSION_EXPIRE_IN_SECONDS);
     }
     
     @Test
@@ -247,6 +314,8 @@ public class ReportServiceTest {
         
         verify(mockReportDataDao).deleteReportData(STUDY_REPORT_DATA_KEY);
         verify(mockReportIndexDao).removeIndex(STUDY_REPORT_DATA_KEY);
+        verify(mockCacheProvider).incrementVersion(STUDY_REPORT_VERSION_KEY,
+                ReportService.STUDY_REPORT_VERSION_EXPIRE_IN_SECONDS);
     }
     
     @Test
@@ -255,6 +324,7 @@ public class ReportServiceTest {
         
         verify(mockReportDataDao).deleteReportData(PARTICIPANT_REPORT_DATA_KEY);
         verifyNoMoreInteractions(mockReportIndexDao);
+        verifyNoMoreInteractions(mockCacheProvider);
     }
     
     
@@ -302,6 +372,8 @@ public class ReportServiceTest {
             verify(mockReportDataDao).deleteReportDataRecord(STUDY_REPORT_DATA_KEY, DATE);
             verify(mockReportDataDao).getReportData(STUDY_REPORT_DATA_KEY, startDate, endDate);
             verify(mockReportIndexDao).removeIndex(STUDY_REPORT_DATA_KEY);
+            verify(mockCacheProvider).incrementVersion(STUDY_REPORT_VERSION_KEY,
+                    ReportService.STUDY_REPORT_VERSION_EXPIRE_IN_SECONDS);
         } finally {
             DateTimeUtils.setCurrentMillisSystem();
         }
@@ -538,6 +610,104 @@ public class ReportServiceTest {
         assertFalse(captured.isPublic());
     }
     
+    @Test
+    public void importParticipantReportsFromJsonArray() throws Exception {
+        // Report index keys are cached across tests, so use a report of our own.
+        String identifier = "import-" + BridgeUtils.generateGuid();
+        List<String> rows = Lists.newArrayList();
+        for (int i = 0; i < ReportService.IMPORT_BATCH_SIZE + 5; i++) {
+            rows.add(importRow("healthCode" + i, identifier, "2015-02-01"));
+        }
+        String json = "[" + Joiner.on(",").join(rows) + "]";
+        
+        ReportDataImportResult result = service.importParticipantReports(TEST_STUDY, toStream(json));
+        assertEquals(ReportService.IMPORT_BATCH_SIZE + 5, result.getSaved());
+        assertEquals(0, result.getFailed());
+        assertTrue(result.getErrors().isEmpty());
+        
+        // Written in two batches, with the index created once
+        verify(mockReportDataDao, times(2)).saveReportDataBatch(reportDataListCaptor.capture());
+        List<List<ReportData>> batches = reportDataListCaptor.getAllValues();
+        assertEquals(ReportService.IMPORT_BATCH_SIZE, batches.get(0).size());
+        assertEquals(5, batches.get(1).size());
+        
+        ReportData reportData = batches.get(0).get(0);
+        ReportDataKey key = new ReportDataKey.Builder().withReportType(ReportType.PARTICIPANT)
+                .withStudyIdentifier(TEST_STUDY).withHealthCode("healthCode0").withIdentifier(identifier).build();
+        assertEquals(key.getKeyString(), reportData.getKey());
+        assertEquals(LocalDate.parse("2015-02-01"), reportData.getDate());
+        assertEquals("A", reportData.getData().get("field1").textValue());
+        
+        verify(mockReportIndexDao, times(1)).addIndex(reportDataKeyCaptor.capture());
+        assertEquals(identifier, reportDataKeyCaptor.getValue().getIdentifier());
+    }
+    
+    @Test
+    public void importParticipantReportsReportsInvalidRows() throws Exception {
+        String identifier = "import-" + BridgeUtils.generateGuid();
+        String ndjson = importRow(HEALTH_CODE, identifier, "2015-02-01") + "\n" +
+                importRow(null, identifier, "2015-02-02") + "\n" +
+                importRow(HEALTH_CODE, identifier, "February") + "\n" +
+                "\"not an object\"\n" +
+                importRow(HEALTH_CODE, identifier, "2015-02-05") + "\n";
+        
+        ReportDataImportResult result = service.importParticipantReports(TEST_STUDY, toStream(ndjson));
+        assertEquals(2, result.getSaved());
+        assertEquals(3, result.getFailed());
+        
+        List<ReportDataImportResult.RowError> errors = result.getErrors();
+        assertEquals(3, errors.size());
+        assertEquals(2, errors.get(0).getRow());
+        assertTrue(errors.get(0).getMessage().contains("healthCode"));
+        assertEquals(3, errors.get(1).getRow());
+        assertEquals("invalid date February", errors.get(1).getMessage());
+        assertEquals(4, errors.get(2).getRow());
+        assertEquals("Report data must be a JSON object", errors.get(2).getMessage());
+        
+        verify(mockReportDataDao).saveReportDataBatch(reportDataListCaptor.capture());
+        assertEquals(2, reportDataListCaptor.getValue().size());
+    }
+    
+    @Test
+    public void importParticipantReportsReportsRowsNotWritten() throws Exception {
+        String identifier = "import-" + BridgeUtils.generateGuid();
+        String json = "[" + importRow(HEALTH_CODE, identifier, "2015-02-01") + "," +
+                importRow(HEALTH_CODE, identifier, "2015-02-02") + "]";
+        when(mockReportDataDao.saveReportDataBatch(any())).thenReturn(ImmutableMap.of(1, "Throttled"));
+        
+        ReportDataImportResult result = service.importParticipantReports(TEST_STUDY, toStream(json));
+        assertEquals(1, result.getSaved());
+        assertEquals(1, result.getFailed());
+        assertEquals(2, result.getErrors().get(0).getRow());
+        assertEquals("Throttled", result.getErrors().get(0).getMessage());
+    }
+    
+    @Test
+    public void importParticipantReportsStopsAtMalformedJson() throws Exception {
+        String identifier = "import-" + BridgeUtils.generateGuid();
+        String json = "[" + importRow(HEALTH_CODE, identifier, "2015-02-01") + ",{\"healthCode\":";
+        
+        ReportDataImportResult result = service.importParticipantReports(TEST_STUDY, toStream(json));
+        // The rows before the malformed one are still saved
+        assertEquals(1, result.getSaved());
+        assertEquals(1, result.getFailed());
+        assertEquals(2, result.getErrors().get(0).getRow());
+        verify(mockReportDataDao).saveReportDataBatch(any());
+    }
+    
+    private static String importRow(String healthCode, String identifier, String date) {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("healthCode", healthCode);
+        node.put("identifier", identifier);
+        node.put("date", date);
+        node.set("data", JsonNodeFactory.instance.objectNode().put("field1", "A"));
+        return node.toString();
+    }
+    
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+    
     private void invalid(Runnable runnable, String fieldName, String message) {
         try {
             runnable.run();
@@ -38,6 +38,7 @@ import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * This test extensively reproduces Erin's test account in Lily (1232) where there are currently duplicates, and uses that 
@@ -159,6 +160,7 @@ public class ScheduledActivityServiceDuplicateTest {
         DateTimeUtils.setCurrentMillisFixed(ACTIVITIES_LAST_RETRIEVED_ON.getMillis());
         
         service = new ScheduledActivityService();
+        service.setDaoExecutorService(MoreExecutors.newDirectExecutorService());
         service.setScheduledActivityDao(activityDao);
         service.setActivityEventService(activityEventService);
         service.setSchedulePlanService(schedulePlanService);
@@ -2,11 +2,14 @@ package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -36,27 +39,34 @@ import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.dao.ScheduledActivityDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoSchedulePlan;
 import org.sagebionetworks.bridge.dynamodb.DynamoScheduledActivity;
-import org.sagebionetworks.bridge.dynamodb.DynamoSurvey;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.ClientInfo;
+import org.sagebionetworks.bridge.models.Criteria;
+import org.sagebionetworks.bridge.models.Metrics;
 import org.sagebionetworks.bridge.models.schedules.Activity;
 import org.sagebionetworks.bridge.models.schedules.ActivityType;
+import org.sagebionetworks.bridge.models.schedules.CriteriaScheduleStrategy;
 import org.sagebionetworks.bridge.models.schedules.Schedule;
 import org.sagebionetworks.bridge.models.schedules.ScheduleContext;
+import org.sagebionetworks.bridge.models.schedules.ScheduleCriteria;
 import org.sagebionetworks.bridge.models.schedules.SchedulePlan;
 import org.sagebionetworks.bridge.models.schedules.ScheduleType;
 import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
 import org.sagebionetworks.bridge.models.schedules.SimpleScheduleStrategy;
+import org.sagebionetworks.bridge.models.schedules.SurveyReference;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
 import org.sagebionetworks.bridge.models.surveys.Survey;
 import org.sagebionetworks.bridge.validators.ScheduleContextValidator;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ScheduledActivityServiceMockTest {
@@ -87,9 +97,6 @@ public class ScheduledActivityServiceMockTest {
     @Mock
     private SurveyService surveyService;
     
-    @Mock
-    private Survey survey;
-    
     private DateTime endsOn;
     
     @SuppressWarnings("unchecked")
@@ -101,6 +108,7 @@ public class ScheduledActivityServiceMockTest {
         endsOn = DateTime.now().plusDays(2);
         
         service = new ScheduledActivityService();
+        service.setDaoExecutorService(MoreExecutors.newDirectExecutorService());
         
         when(schedulePlanService.getSchedulePlans(ClientInfo.UNKNOWN_CLIENT, TEST_STUDY)).thenReturn(TestUtils.getSchedulePlans(TEST_STUDY));
 
@@ -119,11 +127,9 @@ public class ScheduledActivityServiceMockTest {
         });
         when(activityDao.getActivities(context.getZone(), scheduledActivities)).thenReturn(scheduledActivities);
         
-        doReturn(SURVEY_GUID).when(survey).getGuid();
-        doReturn(SURVEY_CREATED_ON.getMillis()).when(survey).getCreatedOn();
-        doReturn("identifier").when(survey).getIdentifier();
-        when(surveyService.getSurveyMostRecentlyPublishedVersion(
-                eq(TEST_STUDY), any())).thenReturn(survey);
+        SurveyReference surveyReference = new SurveyReference("identifier", SURVEY_GUID, SURVEY_CREATED_ON);
+        when(surveyService.getSurveyReferenceMostRecentlyPublishedVersion(
+                eq(TEST_STUDY), any())).thenReturn(surveyReference);
         
         service.setSchedulePlanService(schedulePlanService);
         service.setScheduledActivityDao(activityDao);
@@ -534,10 +540,8 @@ public class ScheduledActivityServiceMockTest {
     
     @Test
     public void surveysAreCached() {
-        DynamoSurvey survey = new DynamoSurvey();
-        survey.setIdentifier("surveyId");
-        survey.setGuid("guid");
-        doReturn(survey).when(surveyService).getSurveyMostRecentlyPublishedVersion(any(), any());
+        SurveyReference surveyReference = new SurveyReference("surveyId", "guid", DateTime.now());
+        doReturn(surveyReference).when(surveyService).getSurveyReferenceMostRecentlyPublishedVersion(any(), any());
         
         ScheduleContext context = new ScheduleContext.Builder()
                 .withTimeZone(DateTimeZone.UTC)
@@ -572,7 +576,59 @@ public class ScheduledActivityServiceMockTest {
             assertEquals("guid", act.getActivity().getSurvey().getGuid());
         }
         
-        verify(surveyService, times(1)).getSurveyMostRecentlyPublishedVersion(any(), any());
+        verify(surveyService, times(1)).getSurveyReferenceMostRecentlyPublishedVersion(any(), any());
+    }
+    
+    @Test
+    public void stageDurationsRecordedInMetrics() {
+        ScheduleContext context = createScheduleContext(endsOn);
+        Metrics metrics = new Metrics("requestId");
+        
+        service.getScheduledActivities(context, metrics);
+        
+        JsonNode durations = metrics.getJson().get("stage_durations");
+        for (String stage : new String[] {"activity_events", "schedule_plans", "survey_references", "db_activities",
+                "save_activities"}) {
+            assertTrue(stage + " should be recorded", durations.has(stage));
+        }
+    }
+    
+    @Test
+    public void exceptionFromParallelReadIsRethrown() {
+        when(activityEventService.getActivityEventMap(anyString())).thenThrow(new BridgeServiceException("Events failed"));
+        try {
+            service.getScheduledActivities(createScheduleContext(endsOn));
+            fail("Should have thrown exception");
+        } catch(BridgeServiceException e) {
+            assertEquals("Events failed", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void unresolvableSurveyIsOnlyAnErrorIfScheduled() {
+        ScheduleContext context = createScheduleContext(endsOn);
+        
+        Activity activity = new Activity.Builder().withLabel("Label").withSurvey("surveyId", "badGuid", null).build();
+        Schedule unscheduled = new Schedule();
+        unscheduled.setScheduleType(ScheduleType.ONCE);
+        unscheduled.setActivities(Lists.newArrayList(activity));
+        
+        // The user never matches this criteria, so the survey that can't be resolved is never scheduled
+        Criteria criteria = Criteria.create();
+        criteria.setAllOfGroups(Sets.newHashSet("group-the-user-lacks"));
+        CriteriaScheduleStrategy strategy = new CriteriaScheduleStrategy();
+        strategy.addCriteria(new ScheduleCriteria(unscheduled, criteria));
+        DynamoSchedulePlan plan = new DynamoSchedulePlan();
+        plan.setStrategy(strategy);
+        
+        List<SchedulePlan> plans = Lists.newArrayList(TestUtils.getSchedulePlans(TEST_STUDY));
+        plans.add(plan);
+        doReturn(plans).when(schedulePlanService).getSchedulePlans(any(), any());
+        doThrow(new EntityNotFoundException(Survey.class)).when(surveyService)
+                .getSurveyReferenceMostRecentlyPublishedVersion(any(), eq("badGuid"));
+        
+        List<ScheduledActivity> activities = service.getScheduledActivities(context);
+        assertFalse(activities.isEmpty());
     }
     
     private List<ScheduledActivity> createActivities(String... guids) {
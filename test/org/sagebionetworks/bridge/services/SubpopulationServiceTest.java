@@ -6,17 +6,22 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY_IDENTIFIER;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
 
@@ -28,7 +33,10 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.CacheProvider.VersionedBytes;
 import org.sagebionetworks.bridge.dao.StudyConsentDao;
 import org.sagebionetworks.bridge.dao.SubpopulationDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
@@ -44,6 +52,7 @@ import org.sagebionetworks.bridge.models.subpopulations.StudyConsentForm;
 import org.sagebionetworks.bridge.models.subpopulations.StudyConsentView;
 import org.sagebionetworks.bridge.models.subpopulations.Subpopulation;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
+import org.sagebionetworks.bridge.redis.RedisKey;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -54,6 +63,9 @@ public class SubpopulationServiceTest {
 
     private static final SubpopulationGuid SUBPOP_GUID = SubpopulationGuid.create("AAA");
     private static final long CONSENT_CREATED_ON = DateTime.now().getMillis();
+    private static final String GUIDS_KEY = RedisKey.SUBPOPULATION_GUIDS.getRedisKey(TEST_STUDY_IDENTIFIER);
+    private static final String GUIDS_VERSION_KEY = RedisKey.SUBPOPULATION_GUIDS_VERSION
+            .getRedisKey(TEST_STUDY_IDENTIFIER);
     
     SubpopulationService service;
     
@@ -78,6 +90,9 @@ public class SubpopulationServiceTest {
     @Mock
     StudyConsent consent;
     
+    @Mock
+    CacheProvider cacheProvider;
+    
     Subpopulation subpop;
     
     @Before
@@ -87,6 +102,7 @@ public class SubpopulationServiceTest {
         service.setStudyConsentService(studyConsentService);
         service.setStudyConsentDao(studyConsentDao);
         service.setDefaultConsentForm(form);
+        service.setCacheProvider(cacheProvider);
         
         subpop = Subpopulation.create();
         subpop.setGuidString(BridgeUtils.generateGuid());
@@ -289,4 +305,44 @@ public class SubpopulationServiceTest {
         verify(subpopDao).deleteSubpopulation(TEST_STUDY, SUBPOP_GUID, true);
     }
     
+    @Test
+    public void getSubpopulationGuidsCachesGuids() {
+        Subpopulation subpop1 = Subpopulation.create();
+        subpop1.setGuidString("AAA");
+        Subpopulation subpop2 = Subpopulation.create();
+        subpop2.setGuidString("BBB");
+        when(subpopDao.getSubpopulations(TEST_STUDY, true, false)).thenReturn(Lists.newArrayList(subpop1, subpop2));
+        when(cacheProvider.getVersionedBytes(GUIDS_VERSION_KEY, GUIDS_KEY)).thenReturn(new VersionedBytes("3", null));
+        
+        List<SubpopulationGuid> results = service.getSubpopulationGuids(TEST_STUDY);
+        assertEquals(Lists.newArrayList(SubpopulationGuid.create("AAA"), SubpopulationGuid.create("BBB")), results);
+        
+        // The GUIDs are stored under the version that was read before they were loaded
+        verify(cacheProvider).setBytes(eq(CacheProvider.getVersionedKey("3", GUIDS_KEY)),
+                aryEq("AAA,BBB".getBytes(StandardCharsets.UTF_8)), eq(BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS));
+    }
+    
+    @Test
+    public void getSubpopulationGuidsFromCache() {
+        when(cacheProvider.getVersionedBytes(GUIDS_VERSION_KEY, GUIDS_KEY))
+                .thenReturn(new VersionedBytes("3", "AAA,BBB".getBytes(StandardCharsets.UTF_8)));
+        
+        List<SubpopulationGuid> results = service.getSubpopulationGuids(TEST_STUDY);
+        assertEquals(Lists.newArrayList(SubpopulationGuid.create("AAA"), SubpopulationGuid.create("BBB")), results);
+        
+        verify(subpopDao, never()).getSubpopulations(any(), anyBoolean(), anyBoolean());
+        verify(cacheProvider, never()).setBytes(any(), any(), anyInt());
+    }
+    
+    @Test
+    public void writesChangeVersionOfCachedSubpopulationGuids() {
+        service.deleteSubpopulation(TEST_STUDY, SUBPOP_GUID, false);
+        verify(cacheProvider).incrementVersion(GUIDS_VERSION_KEY, SubpopulationService.GUIDS_VERSION_EXPIRE_IN_SECONDS);
+        
+        service.deleteAllSubpopulations(TEST_STUDY);
+        verify(cacheProvider, times(2)).incrementVersion(GUIDS_VERSION_KEY,
+                SubpopulationService.GUIDS_VERSION_EXPIRE_IN_SECONDS);
+        verify(cacheProvider, never()).removeString(any());
+    }
+    
 }
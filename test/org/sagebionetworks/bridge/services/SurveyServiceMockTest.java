@@ -1,19 +1,56 @@
 package org.sagebionetworks.bridge.services;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import org.joda.time.DateTime;
+import org.junit.Before;
 import org.junit.Test;
 
 import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.CacheProvider.VersionedBytes;
 import org.sagebionetworks.bridge.dao.SurveyDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoSurvey;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.GuidCreatedOnVersionHolder;
 import org.sagebionetworks.bridge.models.GuidCreatedOnVersionHolderImpl;
+import org.sagebionetworks.bridge.models.schedules.SurveyReference;
 import org.sagebionetworks.bridge.models.surveys.Survey;
+import org.sagebionetworks.bridge.redis.RedisKey;
 
 public class SurveyServiceMockTest {
+    
+    private static final String REFERENCE_KEY = RedisKey.PUBLISHED_SURVEY_REFERENCE
+            .getRedisKey(TestConstants.TEST_STUDY_IDENTIFIER + ":test-guid");
+    
+    private static final String VERSION_KEY = RedisKey.PUBLISHED_SURVEY_REFERENCE_VERSION
+            .getRedisKey(TestConstants.TEST_STUDY_IDENTIFIER + ":test-guid");
+    
+    private SurveyDao mockDao;
+    
+    private CacheProvider mockCacheProvider;
+    
+    private SurveyService svc;
+    
+    @Before
+    public void before() {
+        mockDao = mock(SurveyDao.class);
+        mockCacheProvider = mock(CacheProvider.class);
+        when(mockCacheProvider.getVersionedBytes(VERSION_KEY, REFERENCE_KEY)).thenReturn(new VersionedBytes("3", null));
+        
+        svc = new SurveyService();
+        svc.setSurveyDao(mockDao);
+        svc.setCacheProvider(mockCacheProvider);
+    }
+    
     @Test
     public void publishSurvey() {
         // test inputs and outputs
@@ -21,15 +58,72 @@ public class SurveyServiceMockTest {
         Survey survey = new DynamoSurvey();
 
         // mock DAO
-        SurveyDao mockDao = mock(SurveyDao.class);
         when(mockDao.publishSurvey(TestConstants.TEST_STUDY, keys, true)).thenReturn(survey);
 
-        // set up test
-        SurveyService svc = new SurveyService();
-        svc.setSurveyDao(mockDao);
-
         // execute and validate
         Survey retval = svc.publishSurvey(TestConstants.TEST_STUDY, keys, true);
         assertSame(survey, retval);
+        verify(mockCacheProvider).incrementVersion(eq(VERSION_KEY), anyInt());
+    }
+    
+    @Test
+    public void surveyReferenceIsLoadedAndCached() {
+        Survey survey = new DynamoSurvey();
+        survey.setIdentifier("identifier");
+        survey.setGuid("test-guid");
+        survey.setCreatedOn(1337L);
+        when(mockDao.getSurveyMostRecentlyPublishedVersion(TestConstants.TEST_STUDY, "test-guid")).thenReturn(survey);
+        
+        SurveyReference reference = svc.getSurveyReferenceMostRecentlyPublishedVersion(TestConstants.TEST_STUDY,
+                "test-guid");
+        
+        assertEquals("identifier", reference.getIdentifier());
+        assertEquals("test-guid", reference.getGuid());
+        assertEquals(1337L, reference.getCreatedOn().getMillis());
+        // Stored under the version that was read before the survey was loaded
+        verify(mockCacheProvider).setBytes(eq("3:" + REFERENCE_KEY), any(byte[].class), anyInt());
+    }
+    
+    @Test
+    public void surveyReferenceIsReadFromCache() throws Exception {
+        SurveyReference cached = new SurveyReference("identifier", "test-guid", new DateTime(1337L));
+        when(mockCacheProvider.getVersionedBytes(VERSION_KEY, REFERENCE_KEY)).thenReturn(
+                new VersionedBytes("3", BridgeObjectMapper.get().writeValueAsBytes(cached)));
+        
+        SurveyReference reference = svc.getSurveyReferenceMostRecentlyPublishedVersion(TestConstants.TEST_STUDY,
+                "test-guid");
+        
+        assertEquals("identifier", reference.getIdentifier());
+        assertEquals("test-guid", reference.getGuid());
+        assertEquals(1337L, reference.getCreatedOn().getMillis());
+        verify(mockDao, never()).getSurveyMostRecentlyPublishedVersion(TestConstants.TEST_STUDY, "test-guid");
+    }
+    
+    @Test
+    public void deleteSurveyRemovesSurveyReference() {
+        GuidCreatedOnVersionHolder keys = new GuidCreatedOnVersionHolderImpl("test-guid", 1337);
+        Survey survey = new DynamoSurvey();
+        survey.setGuid("test-guid");
+        survey.setStudyIdentifier(TestConstants.TEST_STUDY_IDENTIFIER);
+        when(mockDao.getSurvey(keys)).thenReturn(survey);
+        
+        svc.deleteSurvey(keys);
+        
+        verify(mockDao).deleteSurvey(keys);
+        verify(mockCacheProvider).incrementVersion(eq(VERSION_KEY), anyInt());
+    }
+    
+    @Test
+    public void deleteSurveyPermanentlyRemovesSurveyReference() {
+        GuidCreatedOnVersionHolder keys = new GuidCreatedOnVersionHolderImpl("test-guid", 1337);
+        Survey survey = new DynamoSurvey();
+        survey.setGuid("test-guid");
+        survey.setStudyIdentifier(TestConstants.TEST_STUDY_IDENTIFIER);
+        when(mockDao.getSurvey(keys)).thenReturn(survey);
+        
+        svc.deleteSurveyPermanently(keys);
+        
+        verify(mockDao).deleteSurveyPermanently(keys);
+        verify(mockCacheProvider).incrementVersion(eq(VERSION_KEY), anyInt());
     }
 }
@@ -0,0 +1,95 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.cache.BackgroundRefresher;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.s3.S3Helper;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+
+public class UploadCertificateServiceMockTest {
+
+    private static final StudyIdentifier STUDY_ID = new StudyIdentifierImpl("test-study");
+    private static final String PEM_FILE = "test-study.pem";
+
+    private S3Helper s3CmsHelper;
+    private BackgroundRefresher refresher;
+    private UploadCertificateService service;
+
+    @Before
+    public void before() {
+        s3CmsHelper = mock(S3Helper.class);
+        refresher = mock(BackgroundRefresher.class);
+
+        service = new UploadCertificateService();
+        service.setS3CmsHelper(s3CmsHelper);
+        service.setBackgroundRefresher(refresher);
+        service.schedulePublicKeyRefresh();
+    }
+
+    @Test
+    public void publicKeyIsReadOnce() throws Exception {
+        when(s3CmsHelper.readS3FileAsString(anyString(), eq(PEM_FILE))).thenReturn("pem");
+
+        assertEquals("pem", service.getPublicKeyAsPem(STUDY_ID));
+        assertEquals("pem", service.getPublicKeyAsPem(STUDY_ID));
+
+        verify(s3CmsHelper).readS3FileAsString(anyString(), eq(PEM_FILE));
+        verify(refresher).schedule(eq(UploadCertificateService.PUBLIC_KEY_REFRESH_NAME),
+                eq((long) UploadCertificateService.PUBLIC_KEY_REFRESH_INTERVAL_IN_SECONDS), any());
+    }
+
+    @Test
+    public void publicKeysAreRefreshed() throws Exception {
+        when(s3CmsHelper.readS3FileAsString(anyString(), eq(PEM_FILE))).thenReturn("pem", "new pem");
+        service.getPublicKeyAsPem(STUDY_ID);
+
+        service.refreshPublicKeys();
+
+        assertEquals("new pem", service.getPublicKeyAsPem(STUDY_ID));
+        verify(s3CmsHelper, times(2)).readS3FileAsString(anyString(), eq(PEM_FILE));
+    }
+
+    @Test
+    public void failedRefreshKeepsPublicKey() throws Exception {
+        when(s3CmsHelper.readS3FileAsString(anyString(), eq(PEM_FILE))).thenReturn("pem")
+                .thenThrow(new AmazonS3Exception("Slow down"));
+        service.getPublicKeyAsPem(STUDY_ID);
+
+        try {
+            service.refreshPublicKeys();
+            fail("Should have thrown exception");
+        } catch(BridgeServiceException e) {
+            // expected, so the refresh is retried
+        }
+        assertEquals("pem", service.getPublicKeyAsPem(STUDY_ID));
+    }
+
+    @Test
+    public void deletedPublicKeyIsNotRefreshed() throws Exception {
+        AmazonS3Exception notFound = new AmazonS3Exception("Not found");
+        notFound.setStatusCode(404);
+        when(s3CmsHelper.readS3FileAsString(anyString(), eq(PEM_FILE))).thenReturn("pem").thenThrow(notFound)
+                .thenReturn("new pem");
+        service.getPublicKeyAsPem(STUDY_ID);
+
+        service.refreshPublicKeys();
+
+        // It's read again the next time it is requested
+        assertEquals("new pem", service.getPublicKeyAsPem(STUDY_ID));
+    }
+}
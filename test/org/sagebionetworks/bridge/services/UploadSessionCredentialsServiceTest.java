@@ -0,0 +1,95 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.sagebionetworks.bridge.cache.BackgroundRefresher;
+import org.sagebionetworks.bridge.local.LocalSecurityTokenServiceClient;
+import org.sagebionetworks.bridge.models.RefreshStats;
+
+import com.amazonaws.auth.AWSSessionCredentials;
+
+public class UploadSessionCredentialsServiceTest {
+
+    private static final long NOW = 1460000000000L;
+
+    private LocalSecurityTokenServiceClient tokenServiceClient;
+    private ScheduledExecutorService executor;
+    private BackgroundRefresher refresher;
+    private UploadSessionCredentialsService service;
+
+    @Before
+    public void before() {
+        DateTimeUtils.setCurrentMillisFixed(NOW);
+
+        tokenServiceClient = new LocalSecurityTokenServiceClient();
+        executor = mock(ScheduledExecutorService.class);
+        refresher = new BackgroundRefresher();
+        refresher.setRefreshExecutorService(executor);
+
+        service = new UploadSessionCredentialsService(tokenServiceClient, refresher);
+    }
+
+    @After
+    public void after() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void credentialsAreReusedUntilRefreshed() {
+        AWSSessionCredentials credentials = service.getSessionCredentials();
+        assertEquals(credentials.getAWSAccessKeyId(), service.getSessionCredentials().getAWSAccessKeyId());
+        assertEquals(1, tokenServiceClient.getSessionTokenCount());
+
+        DateTimeUtils.setCurrentMillisFixed(NOW + UploadSessionCredentialsService.REFRESH_INTERVAL_IN_SECONDS * 1000);
+        getRefreshTask().run();
+
+        assertEquals(2, tokenServiceClient.getSessionTokenCount());
+        assertNotEquals(credentials.getAWSAccessKeyId(), service.getSessionCredentials().getAWSAccessKeyId());
+        // Refreshed in the background, not while the request waited
+        assertEquals(2, tokenServiceClient.getSessionTokenCount());
+    }
+
+    @Test
+    public void failedRefreshKeepsCredentials() {
+        AWSSessionCredentials credentials = service.getSessionCredentials();
+
+        tokenServiceClient.failNext(1);
+        getRefreshTask().run();
+
+        assertEquals(credentials.getAWSAccessKeyId(), service.getSessionCredentials().getAWSAccessKeyId());
+        RefreshStats stats = refresher.getStats().get(0);
+        assertEquals(UploadSessionCredentialsService.REFRESH_NAME, stats.getName());
+        assertEquals(1, stats.getFailures());
+    }
+
+    @Test
+    public void expiringCredentialsAreRenewedIfRefreshHasFailed() {
+        AWSSessionCredentials credentials = service.getSessionCredentials();
+
+        // 16 minutes on, without a refresh, the credentials are within 5 minutes of expiring
+        DateTimeUtils.setCurrentMillisFixed(NOW + 16 * 60 * 1000);
+
+        assertNotEquals(credentials.getAWSAccessKeyId(), service.getSessionCredentials().getAWSAccessKeyId());
+        assertEquals(2, tokenServiceClient.getSessionTokenCount());
+    }
+
+    private Runnable getRefreshTask() {
+        ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(taskCaptor.capture(),
+                eq((long) UploadSessionCredentialsService.REFRESH_INTERVAL_IN_SECONDS), eq(TimeUnit.SECONDS));
+        return taskCaptor.getValue();
+    }
+}
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -45,4 +46,25 @@ public class UploadValidationServiceTest {
         // validate
         verify(mockExecutor).execute(mockTask);
     }
+
+    @Test
+    public void validateUploadSynchronously() {
+        Study study = TestUtils.getValidStudy(UploadValidationServiceTest.class);
+        Upload upload = new DynamoUpload2();
+
+        UploadValidationTask mockTask = mock(UploadValidationTask.class);
+        UploadValidationTaskFactory mockTaskFactory = mock(UploadValidationTaskFactory.class);
+        when(mockTaskFactory.newTask(study, upload)).thenReturn(mockTask);
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+
+        UploadValidationService svc = new UploadValidationService();
+        svc.setAsyncExecutorService(mockExecutor);
+        svc.setTaskFactory(mockTaskFactory);
+
+        svc.validateUploadSynchronously(study, upload);
+
+        // The task runs in the calling thread, not the async thread pool.
+        verify(mockTask).run();
+        verifyZeroInteractions(mockExecutor);
+    }
 }
@@ -1,34 +1,48 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyObject;
 import static org.mockito.Mockito.anySet;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.sagebionetworks.bridge.BridgeConstants.TEST_USER_GROUP;
+import static org.sagebionetworks.bridge.dao.ParticipantOption.DATA_GROUPS;
 import static org.sagebionetworks.bridge.dao.ParticipantOption.EXTERNAL_IDENTIFIER;
 
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import org.sagebionetworks.bridge.Roles;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.dao.AccountDao;
 import org.sagebionetworks.bridge.dao.ParticipantOption.SharingScope;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.models.CriteriaContext;
 import org.sagebionetworks.bridge.models.accounts.Account;
+import org.sagebionetworks.bridge.models.accounts.AccountStatus;
 import org.sagebionetworks.bridge.models.accounts.ConsentStatus;
 import org.sagebionetworks.bridge.models.accounts.IdentifierHolder;
 import org.sagebionetworks.bridge.models.accounts.ParticipantOptionsLookup;
@@ -37,13 +51,17 @@ import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
+import org.sagebionetworks.bridge.redis.RedisKey;
 
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 
 @RunWith(MockitoJUnitRunner.class)
 public class UserAdminServiceMockTest {
     
+    
     @Mock
     private AuthenticationService authenticationService;
     
@@ -108,6 +126,12 @@ public class UserAdminServiceMockTest {
         service.setActivityEventService(activityEventService);
         service.setParticipantOptionsService(participantOptionsService);
         service.setExternalIdService(externalIdService);
+        service.setUserDeletionExecutorService(MoreExecutors.newDirectExecutorService());
+        service.setAsyncExecutorService(MoreExecutors.newDirectExecutorService());
+        
+        Config config = mock(Config.class);
+        when(config.getInt(UserAdminService.CONFIG_KEY_DELETION_PARALLELISM)).thenReturn(2);
+        service.setConfig(config);
 
         // Make a user with multiple consent statuses, and just verify that we call the 
         // consent service that many times.
@@ -198,4 +222,193 @@ public class UserAdminServiceMockTest {
         verify(accountDao).deleteAccount(study, "userId");
     }
     
+    @Test
+    public void deleteUserDisablesAccountBeforeDeletingData() {
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        Account account = mockAccount(study, "userId", "healthCode");
+        
+        service.deleteUser(study, "userId");
+        
+        InOrder inOrder = inOrder(account, accountDao, healthDataService);
+        inOrder.verify(account).setStatus(AccountStatus.DISABLED);
+        inOrder.verify(accountDao).updateAccount(account);
+        inOrder.verify(healthDataService).deleteRecordsForHealthCode("healthCode");
+        inOrder.verify(accountDao).deleteAccount(study, "userId");
+    }
+    
+    @Test
+    public void failedStageLeavesDisabledAccount() {
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        Account account = mockAccount(study, "userId", "healthCode");
+        doThrow(new BridgeServiceException("Throttled")).when(uploadService).deleteUploadsForHealthCode("healthCode");
+        
+        try {
+            service.deleteUser(study, "userId");
+            fail("Should have thrown exception");
+        } catch(BridgeServiceException e) {
+            assertTrue(e.getMessage().contains("Throttled"));
+        }
+        // The other stages still ran
+        verify(healthDataService).deleteRecordsForHealthCode("healthCode");
+        verify(scheduledActivityService).deleteActivitiesForUser("healthCode");
+        verify(activityEventService).deleteActivityEvents("healthCode");
+        // But the user's options and account remain, disabled, so deletion can be repeated
+        verify(account).setStatus(AccountStatus.DISABLED);
+        verify(accountDao).updateAccount(account);
+        verify(participantOptionsService, never()).deleteAllParticipantOptions(any());
+        verify(accountDao, never()).deleteAccount(any(), any());
+    }
+    
+    @Test
+    public void deletingAgainSkipsCompletedStages() {
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        Account account = mockAccount(study, "userId", "healthCode");
+        doReturn(AccountStatus.DISABLED).when(account).getStatus();
+        doReturn("HEALTH_DATA,SCHEDULED_ACTIVITIES").when(cacheProvider)
+                .getString(RedisKey.USER_DELETION.getRedisKey("userId"));
+        
+        service.deleteUser(study, "userId");
+        
+        // Already disabled by the earlier attempt
+        verify(accountDao, never()).updateAccount(any());
+        verify(healthDataService, never()).deleteRecordsForHealthCode(any());
+        verify(scheduledActivityService, never()).deleteActivitiesForUser(any());
+        verify(uploadService).deleteUploadsForHealthCode("healthCode");
+        verify(activityEventService).deleteActivityEvents("healthCode");
+        verify(accountDao).deleteAccount(study, "userId");
+        verify(cacheProvider).removeString(RedisKey.USER_DELETION.getRedisKey("userId"));
+    }
+    
+    @Test
+    public void completedStagesAreCheckpointed() {
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        mockAccount(study, "userId", "healthCode");
+        doThrow(new BridgeServiceException("Throttled")).when(uploadService).deleteUploadsForHealthCode("healthCode");
+        
+        try {
+            service.deleteUser(study, "userId");
+            fail("Should have thrown exception");
+        } catch(BridgeServiceException e) {
+            assertTrue(e.getMessage().contains("resume"));
+        }
+        // Stages run in order on the direct executor, so the last checkpoint has every stage but the failed one
+        verify(cacheProvider).setString(RedisKey.USER_DELETION.getRedisKey("userId"),
+                "HEALTH_DATA,SCHEDULED_ACTIVITIES,ACTIVITY_EVENTS,EXTERNAL_ID",
+                UserAdminService.DELETION_CHECKPOINT_EXPIRE_IN_SECONDS);
+        verify(cacheProvider, never()).removeString(RedisKey.USER_DELETION.getRedisKey("userId"));
+    }
+    
+    @Test
+    public void unreadableCheckpointRunsEveryStage() {
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        mockAccount(study, "userId", "healthCode");
+        doThrow(new BridgeServiceException("Redis down")).when(cacheProvider)
+                .getString(RedisKey.USER_DELETION.getRedisKey("userId"));
+        
+        service.deleteUser(study, "userId");
+        
+        verify(healthDataService).deleteRecordsForHealthCode("healthCode");
+        verify(uploadService).deleteUploadsForHealthCode("healthCode");
+        verify(scheduledActivityService).deleteActivitiesForUser("healthCode");
+        verify(activityEventService).deleteActivityEvents("healthCode");
+        verify(accountDao).deleteAccount(study, "userId");
+    }
+    
+    @Test
+    public void deleteTestUsersOnlyDeletesUsersInTestGroup() {
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        Account testAccount = mockTestAccount(study, "testUserId", "testHealthCode");
+        Account account = mockAccount(study, "userId", "healthCode");
+        doReturn(Iterators.forArray(testAccount, account)).when(accountDao).getFullStudyAccounts(study);
+        
+        assertEquals(1, service.deleteTestUsers(study));
+        
+        verify(accountDao).deleteAccount(study, "testUserId");
+        verify(accountDao, never()).deleteAccount(study, "userId");
+        verify(healthDataService, never()).deleteRecordsForHealthCode("healthCode");
+        // Accounts are read once, while listing them
+        verify(accountDao, never()).getAccount(any(), any());
+    }
+    
+    @Test
+    public void deleteTestUsersContinuesPastFailures() {
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        Account testAccount1 = mockTestAccount(study, "testUserId1", "testHealthCode1");
+        Account testAccount2 = mockTestAccount(study, "testUserId2", "testHealthCode2");
+        doReturn(Iterators.forArray(testAccount1, testAccount2)).when(accountDao).getFullStudyAccounts(study);
+        doThrow(new BridgeServiceException("Throttled")).when(uploadService)
+                .deleteUploadsForHealthCode("testHealthCode1");
+        
+        assertEquals(1, service.deleteTestUsers(study));
+        
+        verify(accountDao, never()).deleteAccount(study, "testUserId1");
+        verify(accountDao).deleteAccount(study, "testUserId2");
+    }
+    
+    @Test
+    public void deleteUserRunsStagesOnDeletionExecutor() {
+        ExecutorService executor = mockDirectExecutor();
+        service.setUserDeletionExecutorService(executor);
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        mockAccount(study, "userId", "healthCode");
+        
+        service.deleteUser(study, "userId");
+        
+        verify(executor, times(UserAdminService.DeletionStage.values().length)).execute(any());
+    }
+    
+    @Test
+    public void deleteTestUsersRunsEachUserAsOneTask() {
+        ExecutorService executor = mockDirectExecutor();
+        service.setUserDeletionExecutorService(executor);
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        Account testAccount = mockTestAccount(study, "testUserId", "testHealthCode");
+        doReturn(Iterators.forArray(testAccount)).when(accountDao).getFullStudyAccounts(study);
+        
+        assertEquals(1, service.deleteTestUsers(study));
+        
+        // The user's stages ran in the user's task, not as further tasks in the same pool
+        verify(executor, times(1)).execute(any());
+        verify(accountDao).deleteAccount(study, "testUserId");
+    }
+    
+    @Test
+    public void noTestUsersToDelete() {
+        Study study = TestUtils.getValidStudy(UserAdminServiceMockTest.class);
+        Account account = mockAccount(study, "userId", "healthCode");
+        doReturn(Iterators.forArray(account)).when(accountDao).getFullStudyAccounts(study);
+        
+        assertEquals(0, service.deleteTestUsers(study));
+        
+        verify(accountDao, never()).deleteAccount(any(), any());
+    }
+    
+    private Account mockAccount(Study study, String id, String healthCode) {
+        Account account = mock(Account.class);
+        doReturn(id).when(account).getId();
+        doReturn(healthCode).when(account).getHealthCode();
+        doReturn(account).when(accountDao).getAccount(study, id);
+        doReturn(new ParticipantOptionsLookup(Maps.newHashMap())).when(participantOptionsService)
+                .getOptions(healthCode);
+        return account;
+    }
+    
+    private Account mockTestAccount(Study study, String id, String healthCode) {
+        Account account = mockAccount(study, id, healthCode);
+        Map<String,String> options = Maps.newHashMap();
+        options.put(DATA_GROUPS.name(), TEST_USER_GROUP);
+        doReturn(new ParticipantOptionsLookup(options)).when(participantOptionsService).getOptions(healthCode);
+        return account;
+    }
+    
+    // Runs each task on the calling thread, and records how many tasks were run
+    private static ExecutorService mockDirectExecutor() {
+        ExecutorService executor = mock(ExecutorService.class);
+        doAnswer(invocation -> {
+            invocation.getArgumentAt(0, Runnable.class).run();
+            return null;
+        }).when(executor).execute(any());
+        return executor;
+    }
+    
 }
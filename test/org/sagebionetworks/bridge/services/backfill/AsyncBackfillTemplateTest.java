@@ -1,35 +1,47 @@
 package org.sagebionetworks.bridge.services.backfill;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.longThat;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hamcrest.Matcher;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.dao.BackfillDao;
 import org.sagebionetworks.bridge.dao.DistributedLockDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
 import org.sagebionetworks.bridge.models.backfill.BackfillRecord;
 import org.sagebionetworks.bridge.models.backfill.BackfillStatus;
 import org.sagebionetworks.bridge.models.backfill.BackfillTask;
 
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,6 +71,7 @@ public class AsyncBackfillTemplateTest {
         final BackfillTask backfillTask = createBackfillTask(taskName, user, timestamp, taskId, BackfillStatus.SUBMITTED);
         BackfillDao backfillDao = mock(BackfillDao.class);
         when(backfillDao.createTask(taskName, user)).thenReturn(backfillTask);
+        when(backfillDao.startTask(taskId)).thenReturn(2L);
         backfillTemplate.setBackfillDao(backfillDao);
 
         // Mock callback
@@ -78,8 +91,8 @@ public class AsyncBackfillTemplateTest {
 
         // Verify backfill dao
         verify(backfillDao, times(1)).createTask(taskName, user);
-        verify(backfillDao, times(1)).updateTaskStatus(taskId, BackfillStatus.IN_PROCESS);
-        verify(backfillDao, times(1)).updateTaskStatus(taskId, BackfillStatus.COMPLETED);
+        verify(backfillDao, times(1)).startTask(taskId);
+        verify(backfillDao, times(1)).updateTaskStatus(taskId, 2L, BackfillStatus.COMPLETED);
     }
 
     @SuppressWarnings("unchecked")
@@ -203,7 +216,282 @@ public class AsyncBackfillTemplateTest {
         Thread.sleep(200L);
 
         // Verify
-        verify(backfillDao, times(1)).updateTaskStatus(taskId, BackfillStatus.FAILED);
+        verify(backfillDao, times(1)).updateTaskStatus(taskId, 0L, BackfillStatus.FAILED);
+    }
+
+    @Test
+    public void backfillItems() {
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        BackfillCallback callback = mock(BackfillCallback.class);
+        BackfillTask task = createBackfillTask("taskName", "user", 1000L, "taskId", BackfillStatus.IN_PROCESS);
+
+        // Every item is backfilled, and item 2 fails
+        List<String> backfilledItems = new ArrayList<>();
+        List<String> items = ImmutableList.of("item0", "item1", "item2", "item3", "item4");
+        AsyncBackfillTemplate backfillTemplate = createItemBackfillTemplate(backfillDao, items,
+                (item, itemCallback) -> {
+                    if (item.equals("item2")) {
+                        throw new RuntimeException("test exception");
+                    }
+                    backfilledItems.add(item);
+                });
+        backfillTemplate.doBackfill(new AsyncBackfillTemplate.TaskRun(task, 1L), callback);
+
+        assertEquals(ImmutableList.of("item0", "item1", "item3", "item4"), backfilledItems);
+        verify(backfillDao).updateTaskCheckpoint("taskId", 1L, 5L, "item4");
+
+        // The error is recorded, followed by the final progress
+        ArgumentCaptor<BackfillRecord> recordCaptor = ArgumentCaptor.forClass(BackfillRecord.class);
+        verify(callback, times(2)).newRecords(recordCaptor.capture());
+        List<BackfillRecord> records = recordCaptor.getAllValues();
+        assertEquals("Error backfilling item 2 (item2): test exception", records.get(0).toJsonNode().textValue());
+        JsonNode progressNode = records.get(1).toJsonNode();
+        assertEquals(5L, progressNode.get("checkpoint").longValue());
+        assertEquals(4, progressNode.get("processed").intValue());
+        assertEquals(1, progressNode.get("failed").intValue());
+        assertEquals(0, progressNode.get("throttled").intValue());
+    }
+
+    @Test
+    public void backfillItemsResumesFromCheckpoint() {
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        when(backfillDao.getTaskCheckpoint("taskId")).thenReturn(3L);
+        when(backfillDao.getTaskCheckpointKey("taskId")).thenReturn("item2");
+        BackfillCallback callback = mock(BackfillCallback.class);
+        BackfillTask task = createBackfillTask("taskName", "user", 1000L, "taskId", BackfillStatus.IN_PROCESS);
+
+        List<String> backfilledItems = new ArrayList<>();
+        List<String> items = ImmutableList.of("item0", "item1", "item2", "item3", "item4");
+        AsyncBackfillTemplate backfillTemplate = createItemBackfillTemplate(backfillDao, items,
+                (item, itemCallback) -> backfilledItems.add(item));
+        backfillTemplate.doBackfill(new AsyncBackfillTemplate.TaskRun(task, 1L), callback);
+
+        // Items before the checkpoint are skipped
+        assertEquals(ImmutableList.of("item3", "item4"), backfilledItems);
+        verify(backfillDao).updateTaskCheckpoint("taskId", 1L, 5L, "item4");
+    }
+
+    @Test
+    public void backfillItemsDoesNotResumeChangedInput() {
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        when(backfillDao.getTaskCheckpoint("taskId")).thenReturn(3L);
+        // The checkpoint was saved after a different item
+        when(backfillDao.getTaskCheckpointKey("taskId")).thenReturn("item9");
+        BackfillCallback callback = mock(BackfillCallback.class);
+        BackfillTask task = createBackfillTask("taskName", "user", 1000L, "taskId", BackfillStatus.IN_PROCESS);
+
+        List<String> backfilledItems = new ArrayList<>();
+        List<String> items = ImmutableList.of("item0", "item1", "item2", "item3", "item4");
+        AsyncBackfillTemplate backfillTemplate = createItemBackfillTemplate(backfillDao, items,
+                (item, itemCallback) -> backfilledItems.add(item));
+        try {
+            backfillTemplate.doBackfill(new AsyncBackfillTemplate.TaskRun(task, 1L), callback);
+            fail("Should have thrown exception");
+        } catch (BridgeServiceException e) {
+            // expected
+        }
+
+        // Nothing is backfilled, and the checkpoint is reset so the next run starts over
+        assertTrue(backfilledItems.isEmpty());
+        verify(backfillDao).updateTaskCheckpoint("taskId", 1L, 0L, null);
+    }
+
+    @Test
+    public void backfillItemsDoesNotResumeShorterInput() {
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        when(backfillDao.getTaskCheckpoint("taskId")).thenReturn(3L);
+        when(backfillDao.getTaskCheckpointKey("taskId")).thenReturn("item2");
+        BackfillCallback callback = mock(BackfillCallback.class);
+        BackfillTask task = createBackfillTask("taskName", "user", 1000L, "taskId", BackfillStatus.IN_PROCESS);
+
+        AsyncBackfillTemplate backfillTemplate = createItemBackfillTemplate(backfillDao,
+                ImmutableList.of("item0", "item1"), (item, itemCallback) -> {});
+        try {
+            backfillTemplate.doBackfill(new AsyncBackfillTemplate.TaskRun(task, 1L), callback);
+            fail("Should have thrown exception");
+        } catch (BridgeServiceException e) {
+            // expected
+        }
+        verify(backfillDao).updateTaskCheckpoint("taskId", 1L, 0L, null);
+    }
+
+    @Test
+    public void backfillItemsRetriesThrottledItems() {
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        BackfillCallback callback = mock(BackfillCallback.class);
+        BackfillTask task = createBackfillTask("taskName", "user", 1000L, "taskId", BackfillStatus.IN_PROCESS);
+
+        // The first attempt is throttled
+        AtomicInteger attempts = new AtomicInteger();
+        AsyncBackfillTemplate backfillTemplate = createItemBackfillTemplate(backfillDao, ImmutableList.of("item0"),
+                (item, itemCallback) -> {
+                    if (attempts.incrementAndGet() == 1) {
+                        throw new ProvisionedThroughputExceededException("test exception");
+                    }
+                });
+        backfillTemplate.doBackfill(new AsyncBackfillTemplate.TaskRun(task, 1L), callback);
+
+        assertEquals(2, attempts.get());
+        ArgumentCaptor<BackfillRecord> recordCaptor = ArgumentCaptor.forClass(BackfillRecord.class);
+        verify(callback).newRecords(recordCaptor.capture());
+        JsonNode progressNode = recordCaptor.getValue().toJsonNode();
+        assertEquals(1, progressNode.get("processed").intValue());
+        assertEquals(0, progressNode.get("failed").intValue());
+        assertEquals(1, progressNode.get("throttled").intValue());
+    }
+
+    @Test
+    public void resumesInterruptedTask() throws Exception {
+        final AsyncBackfillTemplate backfillTemplate = new TestBackfillService();
+
+        final DistributedLockDao lockDao = mock(DistributedLockDao.class);
+        when(lockDao.acquireLock(TestBackfillService.class, TestBackfillService.class.getSimpleName(),
+                TestBackfillService.EXPIRE)).thenReturn("lock");
+        backfillTemplate.setDistributedLockDao(lockDao);
+
+        // The most recent task was cut off after saving a checkpoint
+        final BackfillTask interruptedTask = createBackfillTask("taskName", "user", 1000L, "taskId",
+                BackfillStatus.IN_PROCESS);
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        Answer<List<BackfillTask>> tasks = new Answer<List<BackfillTask>>() {
+            @Override
+            public List<BackfillTask> answer(InvocationOnMock invocation) throws Throwable {
+                return ImmutableList.of(interruptedTask);
+            }
+        };
+        when(backfillDao.getTasks(eq("taskName"), anyLong())).thenAnswer(tasks);
+        when(backfillDao.getTaskCheckpoint("taskId")).thenReturn(100L);
+        backfillTemplate.setBackfillDao(backfillDao);
+
+        BackfillCallback callback = mock(BackfillCallback.class);
+        backfillTemplate.backfill("user2", "taskName", callback);
+        Thread.sleep(200L);
+
+        // The task is resumed rather than a new one created
+        verify(backfillDao, never()).createTask(any(String.class), any(String.class));
+        verify(callback, times(1)).start(interruptedTask);
+        verify(backfillDao, times(1)).startTask("taskId");
+        verify(backfillDao, times(1)).updateTaskStatus("taskId", 0L, BackfillStatus.COMPLETED);
+    }
+
+    @Test
+    public void resumesTaskWithStaleHeartbeat() throws Exception {
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        BackfillTask task = mockRecentTask(backfillDao, BackfillStatus.IN_PROCESS);
+        long heartbeat = DateTime.now(DateTimeZone.UTC).getMillis() - AsyncBackfillTemplate.HEARTBEAT_STALE_MILLIS;
+        when(backfillDao.getTaskHeartbeat("taskId")).thenReturn(heartbeat - 1000L);
+
+        BackfillCallback callback = mock(BackfillCallback.class);
+        backfillTemplateWithLock(backfillDao).backfill("user2", "taskName", callback);
+        Thread.sleep(200L);
+
+        verify(backfillDao, never()).createTask(any(String.class), any(String.class));
+        verify(callback, times(1)).start(task);
+        verify(backfillDao, times(1)).startTask("taskId");
+    }
+
+    @Test
+    public void doesNotResumeTaskWithRecentHeartbeat() throws Exception {
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        mockRecentTask(backfillDao, BackfillStatus.IN_PROCESS);
+        when(backfillDao.getTaskHeartbeat("taskId")).thenReturn(DateTime.now(DateTimeZone.UTC).getMillis());
+
+        BackfillCallback callback = mock(BackfillCallback.class);
+        backfillTemplateWithLock(backfillDao).backfill("user2", "taskName", callback);
+        Thread.sleep(200L);
+
+        // The run that is still working on the task is left to it
+        verify(backfillDao, never()).createTask(any(String.class), any(String.class));
+        verify(backfillDao, never()).startTask(any(String.class));
+        verify(callback, never()).start(any(BackfillTask.class));
+        verify(callback, times(1)).done();
+    }
+
+    @Test
+    public void resumesFailedTaskRegardlessOfHeartbeat() throws Exception {
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        BackfillTask task = mockRecentTask(backfillDao, BackfillStatus.FAILED);
+        when(backfillDao.getTaskHeartbeat("taskId")).thenReturn(DateTime.now(DateTimeZone.UTC).getMillis());
+
+        BackfillCallback callback = mock(BackfillCallback.class);
+        backfillTemplateWithLock(backfillDao).backfill("user2", "taskName", callback);
+        Thread.sleep(200L);
+
+        verify(callback, times(1)).start(task);
+        verify(backfillDao, times(1)).startTask("taskId");
+    }
+
+    @Test
+    public void backfillStopsWhenTaskIsTakenOver() throws Exception {
+        BackfillDao backfillDao = mock(BackfillDao.class);
+        BackfillTask task = createBackfillTask("taskName", "user", 1000L, "taskId", BackfillStatus.SUBMITTED);
+        when(backfillDao.createTask("taskName", "user")).thenReturn(task);
+        when(backfillDao.startTask("taskId")).thenReturn(1L);
+        // Another run has started the task since this run did
+        when(backfillDao.updateTaskCheckpoint("taskId", 1L, 1L, "item0")).thenThrow(
+                new ConcurrentModificationException("test exception"));
+        doThrow(new ConcurrentModificationException("test exception")).when(backfillDao)
+                .updateTaskStatus("taskId", 1L, BackfillStatus.FAILED);
+
+        AsyncBackfillTemplate backfillTemplate = createItemBackfillTemplate(backfillDao, ImmutableList.of("item0"),
+                (item, itemCallback) -> {});
+        backfillTemplate.setDistributedLockDao(mock(DistributedLockDao.class));
+        BackfillCallback callback = mock(BackfillCallback.class);
+        backfillTemplate.backfill("user", "taskName", callback);
+        Thread.sleep(200L);
+
+        verify(backfillDao, never()).updateTaskStatus("taskId", 1L, BackfillStatus.COMPLETED);
+        verify(callback, times(1)).done();
+    }
+
+    private BackfillTask mockRecentTask(BackfillDao backfillDao, BackfillStatus status) {
+        final BackfillTask task = createBackfillTask("taskName", "user", 1000L, "taskId", status);
+        Answer<List<BackfillTask>> tasks = new Answer<List<BackfillTask>>() {
+            @Override
+            public List<BackfillTask> answer(InvocationOnMock invocation) throws Throwable {
+                return ImmutableList.of(task);
+            }
+        };
+        when(backfillDao.getTasks(eq("taskName"), anyLong())).thenAnswer(tasks);
+        when(backfillDao.getTaskCheckpoint("taskId")).thenReturn(100L);
+        return task;
+    }
+
+    private static AsyncBackfillTemplate backfillTemplateWithLock(BackfillDao backfillDao) {
+        AsyncBackfillTemplate backfillTemplate = new TestBackfillService();
+        DistributedLockDao lockDao = mock(DistributedLockDao.class);
+        when(lockDao.acquireLock(TestBackfillService.class, TestBackfillService.class.getSimpleName(),
+                TestBackfillService.EXPIRE)).thenReturn("lock");
+        backfillTemplate.setDistributedLockDao(lockDao);
+        backfillTemplate.setBackfillDao(backfillDao);
+        BackfillRecordFactory recordFactory = new BackfillRecordFactory();
+        recordFactory.setBackfillDao(backfillDao);
+        backfillTemplate.setBackfillRecordFactory(recordFactory);
+        return backfillTemplate;
+    }
+
+    private static <T> AsyncBackfillTemplate createItemBackfillTemplate(BackfillDao backfillDao, final List<T> items,
+            final AsyncBackfillTemplate.ItemBackfiller<T> backfiller) {
+        AsyncBackfillTemplate backfillTemplate = new AsyncBackfillTemplate() {
+            @Override
+            int getLockExpireInSeconds() {
+                return TestBackfillService.EXPIRE;
+            }
+            @Override
+            void doBackfill(BackfillTask task, BackfillCallback callback) {
+                backfillItems(task, callback, items.iterator(), Object::toString, backfiller);
+            }
+        };
+        Config config = mock(Config.class);
+        when(config.getInt(AsyncBackfillTemplate.CONFIG_KEY_THREAD_COUNT)).thenReturn(2);
+        when(config.getInt(AsyncBackfillTemplate.CONFIG_KEY_CAPACITY_UNITS_PER_SECOND)).thenReturn(1000);
+        backfillTemplate.setConfig(config);
+        backfillTemplate.setWorkerExecutorService(MoreExecutors.newDirectExecutorService());
+        backfillTemplate.setBackfillDao(backfillDao);
+        BackfillRecordFactory recordFactory = new BackfillRecordFactory();
+        recordFactory.setBackfillDao(backfillDao);
+        backfillTemplate.setBackfillRecordFactory(recordFactory);
+        return backfillTemplate;
     }
 
     private BackfillTask createBackfillTask(final String taskName, final String user, final long timestamp,
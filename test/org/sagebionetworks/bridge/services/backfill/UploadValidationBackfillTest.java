@@ -0,0 +1,95 @@
+package org.sagebionetworks.bridge.services.backfill;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.dao.BackfillDao;
+import org.sagebionetworks.bridge.dao.HealthCodeDao;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.models.backfill.BackfillRecord;
+import org.sagebionetworks.bridge.models.backfill.BackfillTask;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.services.UploadValidationService;
+
+public class UploadValidationBackfillTest {
+    @Test
+    public void failedUploadsAreCounted() {
+        // Mock uploads. The second upload fails validation.
+        UploadDao mockUploadDao = mock(UploadDao.class);
+        Upload upload1 = mockUpload(mockUploadDao, "upload1");
+        Upload upload2 = mockUpload(mockUploadDao, "upload2");
+
+        HealthCodeDao mockHealthCodeDao = mock(HealthCodeDao.class);
+        when(mockHealthCodeDao.getStudyIdentifier("healthCode")).thenReturn("test-study");
+
+        UploadValidationService mockUploadValidationService = mock(UploadValidationService.class);
+        doThrow(new RuntimeException("test exception")).when(mockUploadValidationService)
+                .validateUploadSynchronously(any(StudyIdentifier.class), any(Upload.class));
+        doNothing().when(mockUploadValidationService).validateUploadSynchronously(any(StudyIdentifier.class),
+                eq(upload1));
+
+        BackfillDao mockBackfillDao = mock(BackfillDao.class);
+        UploadValidationBackfill backfill = new UploadValidationBackfill() {
+            @Override
+            protected List<String> getUploadIdList(BackfillTask task, BackfillCallback callback) {
+                return ImmutableList.of("upload1", "upload2");
+            }
+        };
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(AsyncBackfillTemplate.CONFIG_KEY_THREAD_COUNT)).thenReturn(2);
+        when(mockConfig.getInt(AsyncBackfillTemplate.CONFIG_KEY_CAPACITY_UNITS_PER_SECOND)).thenReturn(1000);
+        backfill.setConfig(mockConfig);
+        backfill.setWorkerExecutorService(MoreExecutors.newDirectExecutorService());
+        backfill.setBackfillDao(mockBackfillDao);
+        BackfillRecordFactory recordFactory = new BackfillRecordFactory();
+        recordFactory.setBackfillDao(mockBackfillDao);
+        backfill.setBackfillRecordFactory(recordFactory);
+        backfill.setHealthCodeDao(mockHealthCodeDao);
+        backfill.setUploadDao(mockUploadDao);
+        backfill.setUploadValidationService(mockUploadValidationService);
+
+        // execute
+        BackfillTask mockTask = mock(BackfillTask.class);
+        when(mockTask.getId()).thenReturn("taskId");
+        BackfillCallback mockCallback = mock(BackfillCallback.class);
+        backfill.doBackfill(new AsyncBackfillTemplate.TaskRun(mockTask, 1L), mockCallback);
+
+        // The second upload was validated, and failed
+        verify(mockUploadValidationService).validateUploadSynchronously(any(StudyIdentifier.class),
+                eq(upload2));
+
+        // The failure is recorded with the upload ID and counted in the final progress
+        ArgumentCaptor<BackfillRecord> recordCaptor = ArgumentCaptor.forClass(BackfillRecord.class);
+        verify(mockCallback, times(3)).newRecords(recordCaptor.capture());
+        List<BackfillRecord> records = recordCaptor.getAllValues();
+        assertEquals("Backfilled upload ID upload1", records.get(0).toJsonNode().textValue());
+        assertEquals("Error backfilling item 1 (upload2): test exception", records.get(1).toJsonNode().textValue());
+        JsonNode progressNode = records.get(2).toJsonNode();
+        assertEquals(1, progressNode.get("processed").intValue());
+        assertEquals(1, progressNode.get("failed").intValue());
+    }
+
+    private static Upload mockUpload(UploadDao mockUploadDao, String uploadId) {
+        Upload upload = mock(Upload.class);
+        when(upload.getHealthCode()).thenReturn("healthCode");
+        when(mockUploadDao.getUpload(uploadId)).thenReturn(upload);
+        return upload;
+    }
+}
@@ -2,6 +2,8 @@ package org.sagebionetworks.bridge.stormpath;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyMapOf;
@@ -43,6 +45,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.Roles;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.config.Environment;
 import org.sagebionetworks.bridge.crypto.BridgeEncryptor;
@@ -57,6 +60,7 @@ import org.sagebionetworks.bridge.models.accounts.SignIn;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.subpopulations.Subpopulation;
+import org.sagebionetworks.bridge.redis.RedisKey;
 import org.sagebionetworks.bridge.services.HealthCodeService;
 import org.sagebionetworks.bridge.services.SubpopulationService;
 
@@ -110,6 +114,9 @@ public class StormpathAccountDaoMockTest {
     @Mock
     CustomData customData;
 
+    @Mock
+    CacheProvider cacheProvider;
+
     StormpathAccountDao dao;
     
     Study study;
@@ -124,7 +131,7 @@ public class StormpathAccountDaoMockTest {
         
         Subpopulation subpop = Subpopulation.create();
         subpop.setGuidString(study.getIdentifier());
-        when(subpopService.getSubpopulations(study.getStudyIdentifier())).thenReturn(Lists.newArrayList(subpop));
+        when(subpopService.getSubpopulationGuids(study.getStudyIdentifier())).thenReturn(Lists.newArrayList(subpop.getGuid()));
         
         when(encryptor.decrypt("2")).thenReturn("2");
         when(encryptor.decrypt("healthId")).thenReturn("healthId");
@@ -139,6 +146,7 @@ public class StormpathAccountDaoMockTest {
         dao.setStormpathApplication(application);
         dao.setHealthCodeService(healthCodeService);
         dao.setEncryptors(encryptors);
+        dao.setCacheProvider(cacheProvider);
 
         // mock validateSavedCustomData(), otherwise it'll get triggered in lots of places and be cumbersome.
         doNothing().when(dao).validateSavedCustomData(anyMapOf(String.class, Object.class), any(Account.class));
@@ -396,6 +404,108 @@ public class StormpathAccountDaoMockTest {
         verify(healthCodeService).createMapping(study);
     }
 
+    @Test
+    public void getAccountIsCached() {
+        mockAccountWithHealthCode();
+        
+        Account account = dao.getAccount(study, "id");
+        Account cachedAccount = dao.getAccount(study, "id");
+        
+        assertNotSame(account, cachedAccount);
+        assertEquals("ABC", cachedAccount.getHealthCode());
+        assertEquals("Test", cachedAccount.getFirstName());
+        assertEquals("id", cachedAccount.getId());
+        verify(client, times(1)).getResource(any(), eq(com.stormpath.sdk.account.Account.class), any());
+    }
+    
+    @Test
+    public void cachedAccountNotReturnedForOtherStudy() {
+        mockAccountWithHealthCode();
+        dao.getAccount(study, "id");
+        
+        Study otherStudy = new DynamoStudy();
+        otherStudy.setIdentifier("other-study");
+        otherStudy.setStormpathHref("http://some/other.href");
+        
+        assertNull(dao.getAccount(otherStudy, "id"));
+        verify(client, times(1)).getResource(any(), eq(com.stormpath.sdk.account.Account.class), any());
+    }
+    
+    @Test
+    public void changedAccountVersionRetrievesAccountAgain() {
+        mockAccountWithHealthCode();
+        when(cacheProvider.getString(RedisKey.ACCOUNT_VERSION.getRedisKey("id"))).thenReturn("1", "2");
+        
+        dao.getAccount(study, "id");
+        dao.getAccount(study, "id");
+        
+        verify(client, times(2)).getResource(any(), eq(com.stormpath.sdk.account.Account.class), any());
+    }
+    
+    @Test
+    public void absentAccountVersionStartsNewVersion() {
+        mockAccountWithHealthCode();
+        when(cacheProvider.getString(RedisKey.ACCOUNT_VERSION.getRedisKey("id"))).thenReturn(null);
+        when(cacheProvider.incrementVersion(RedisKey.ACCOUNT_VERSION.getRedisKey("id"),
+                StormpathAccountDao.ACCOUNT_VERSION_EXPIRE_IN_SECONDS)).thenReturn("2");
+        
+        dao.getAccount(study, "id");
+        
+        verify(cacheProvider).incrementVersion(RedisKey.ACCOUNT_VERSION.getRedisKey("id"),
+                StormpathAccountDao.ACCOUNT_VERSION_EXPIRE_IN_SECONDS);
+    }
+    
+    @Test
+    public void cachedAccountIsRetrievedWhenChanged() {
+        mockAccountWithHealthCode();
+        dao.getAccount(study, "id");
+        
+        Account cachedAccount = dao.getAccount(study, "id");
+        verify(client, times(1)).getResource(any(), eq(com.stormpath.sdk.account.Account.class), any());
+        
+        // The change is made to a Stormpath account retrieved for this caller, not to a shared copy
+        cachedAccount.setFirstName("Changed");
+        verify(client, times(2)).getResource(any(), eq(com.stormpath.sdk.account.Account.class), any());
+        verify(stormpathAccount).setGivenName("Changed");
+    }
+    
+    @Test
+    public void updateAccountChangesAccountVersion() {
+        mockAccountWithHealthCode();
+        Account account = dao.getAccount(study, "id");
+        
+        dao.updateAccount(account);
+        
+        verify(cacheProvider).incrementVersion(RedisKey.ACCOUNT_VERSION.getRedisKey("id"),
+                StormpathAccountDao.ACCOUNT_VERSION_EXPIRE_IN_SECONDS);
+    }
+    
+    @Test
+    public void deleteAccountChangesAccountVersion() {
+        mockAccountWithHealthCode();
+        
+        dao.deleteAccount(study, "id");
+        
+        verify(stormpathAccount).delete();
+        verify(cacheProvider).incrementVersion(RedisKey.ACCOUNT_VERSION.getRedisKey("id"),
+                StormpathAccountDao.ACCOUNT_VERSION_EXPIRE_IN_SECONDS);
+    }
+    
+    private void mockAccountWithHealthCode() {
+        mockAccountWithoutHealthCode();
+        doReturn("1").when(cacheProvider).getString(RedisKey.ACCOUNT_VERSION.getRedisKey("id"));
+        doReturn(BridgeConstants.STORMPATH_ACCOUNT_BASE_HREF + "id").when(stormpathAccount).getHref();
+        doReturn("Test").when(stormpathAccount).getGivenName();
+        
+        doReturn(2).when(customData).get("test-study_version");
+        doReturn("healthId").when(customData).get("test-study_code");
+        doReturn(ImmutableMap.<String,Object>of("test-study_version", 2, "test-study_code", "healthId").entrySet())
+                .when(customData).entrySet();
+        doReturn(healthId).when(healthCodeService).getMapping("healthId");
+        doReturn("ABC").when(healthId).getCode();
+        doReturn("healthId").when(healthId).getId();
+    }
+    
     private void mockAccountWithoutHealthCode() {
         // Necessary to override this method where we do a cast that fails on the mock stormpathAccount
         doReturn(false).when(dao).isAccountDirty(any());
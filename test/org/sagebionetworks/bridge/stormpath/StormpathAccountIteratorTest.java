@@ -14,7 +14,7 @@ import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.models.accounts.AccountSummary;
 import org.sagebionetworks.bridge.models.studies.Study;
-import org.sagebionetworks.bridge.models.subpopulations.Subpopulation;
+import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 import org.sagebionetworks.bridge.services.StudyService;
 import org.sagebionetworks.bridge.services.SubpopulationService;
 
@@ -87,9 +87,9 @@ public class StormpathAccountIteratorTest {
         when(studyService.getStudies()).thenReturn(studyList);
 
         SubpopulationService subpopService = mock(SubpopulationService.class);
-        when(subpopService.getSubpopulations(study1.getStudyIdentifier())).thenReturn(getSubpopulationList());
-        when(subpopService.getSubpopulations(study2.getStudyIdentifier())).thenReturn(getSubpopulationList());
-        when(subpopService.getSubpopulations(study3.getStudyIdentifier())).thenReturn(getSubpopulationList());
+        when(subpopService.getSubpopulationGuids(study1.getStudyIdentifier())).thenReturn(getSubpopulationGuidList());
+        when(subpopService.getSubpopulationGuids(study2.getStudyIdentifier())).thenReturn(getSubpopulationGuidList());
+        when(subpopService.getSubpopulationGuids(study3.getStudyIdentifier())).thenReturn(getSubpopulationGuidList());
         
         accountDao.setStormpathClient(client);
         accountDao.setStudyService(studyService);
@@ -98,10 +98,8 @@ public class StormpathAccountIteratorTest {
         return accountDao;
     }
     
-    private List<Subpopulation> getSubpopulationList() {
-        Subpopulation subpop = Subpopulation.create();
-        subpop.setGuidString(BridgeUtils.generateGuid());
-        return Lists.newArrayList(subpop);
+    private List<SubpopulationGuid> getSubpopulationGuidList() {
+        return Lists.newArrayList(SubpopulationGuid.create(BridgeUtils.generateGuid()));
     }
     
     private Study createStudy(String href) {
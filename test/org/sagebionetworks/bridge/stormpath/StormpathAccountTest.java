@@ -1,10 +1,13 @@
 package org.sagebionetworks.bridge.stormpath;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.Roles.DEVELOPER;
@@ -16,6 +19,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.function.Supplier;
 
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -27,6 +31,7 @@ import org.sagebionetworks.bridge.crypto.BridgeEncryptor;
 import org.sagebionetworks.bridge.crypto.Encryptor;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.accounts.HealthIdImpl;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
 import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
@@ -39,6 +44,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.stormpath.sdk.account.Account;
 import com.stormpath.sdk.directory.CustomData;
+import com.stormpath.sdk.directory.Directory;
 import com.stormpath.sdk.group.Group;
 import com.stormpath.sdk.group.GroupList;
 
@@ -383,6 +389,65 @@ public class StormpathAccountTest {
         verifyOneConsentStream(SUBPOP_GUID_2, sig2);
     }
 
+    @Test
+    public void valueIsOnlyDecryptedOnce() {
+        data.put("phone", "encrypted-2-555-555-5555");
+        data.put("phone_version", 2);
+        
+        assertEquals("555-555-5555", acct.getAttribute("phone"));
+        assertEquals("555-555-5555", acct.getAttribute("phone"));
+        
+        verify(encryptors.get(2), times(1)).decrypt("encrypted-2-555-555-5555");
+    }
+    
+    @Test
+    public void consentSignaturesNotDecryptedUntilAccessed() throws Exception {
+        data.put("foo_consent_signatures", "encrypted-2-"+MAPPER.writeValueAsString(Lists.newArrayList(sig)));
+        data.put("foo_consent_signatures_version", 2);
+        
+        acct = new StormpathAccount(STUDY_ID, SUBPOP_GUIDS, account, encryptors);
+        verify(encryptors.get(2), never()).decrypt(any());
+        
+        assertEquals(sig, acct.getActiveConsentSignature(SUBPOP_GUID));
+        verify(encryptors.get(2), times(1)).decrypt(any());
+    }
+    
+    @Test
+    public void unchangedConsentSignaturesNotReencrypted() throws Exception {
+        data.put("foo_consent_signatures", "encrypted-2-"+MAPPER.writeValueAsString(Lists.newArrayList(sig)));
+        data.put("foo_consent_signatures_version", 2);
+        
+        acct = new StormpathAccount(STUDY_ID, SUBPOP_GUIDS, account, encryptors);
+        acct.getAllConsentSignatureHistories();
+        acct.getAccount();
+        
+        verify(encryptors.get(2), never()).encrypt(any());
+        assertFalse(data.containsKey("foo2_consent_signatures"));
+        
+        acct.getConsentSignatureHistory(SUBPOP_GUID_2).add(sig);
+        acct.getAccount();
+        
+        verify(encryptors.get(2), times(1)).encrypt(any());
+        verifyOneConsentStream(SUBPOP_GUID_2, sig);
+    }
+
+    @Test
+    public void emptyConsentSignatureHistoriesNotReturned() throws Exception {
+        data.put("foo_consent_signatures", "encrypted-2-"+MAPPER.writeValueAsString(Lists.newArrayList(sig)));
+        data.put("foo_consent_signatures_version", 2);
+        
+        acct = new StormpathAccount(STUDY_ID, SUBPOP_GUIDS, account, encryptors);
+        // Reading a history that has no signatures doesn't add it to the histories that are returned
+        assertTrue(acct.getConsentSignatureHistory(SUBPOP_GUID_2).isEmpty());
+        
+        Map<SubpopulationGuid,List<ConsentSignature>> signatures = acct.getAllConsentSignatureHistories();
+        assertEquals(Sets.newHashSet(SUBPOP_GUID), signatures.keySet());
+        assertEquals(Lists.newArrayList(sig), signatures.get(SUBPOP_GUID));
+        
+        acct.getConsentSignatureHistory(SUBPOP_GUID_2).add(sig);
+        assertEquals(Sets.newHashSet(SUBPOP_GUID, SUBPOP_GUID_2), acct.getAllConsentSignatureHistories().keySet());
+    }
+    
     @Test
     public void ifEncryptorVersionMissingDefaultToLastEncryptor() {
         // no _version for this attribute, throws NPE without setting the version
@@ -445,6 +510,73 @@ public class StormpathAccountTest {
         verify(updatedAcct).setStatus(com.stormpath.sdk.account.AccountStatus.DISABLED);
     }
     
+    @Test
+    public void accountReadFromSnapshotIsNotRetrieved() throws Exception {
+        data.put("foo_code", "encrypted-2-healthId");
+        data.put("foo_code_version", 2);
+        data.put("foo_consent_signatures", "encrypted-2-"+MAPPER.writeValueAsString(Lists.newArrayList(sig)));
+        data.put("foo_consent_signatures_version", 2);
+        mockSnapshotAccount();
+        
+        @SuppressWarnings("unchecked")
+        Supplier<Account> loader = mock(Supplier.class);
+        acct = new StormpathAccount(STUDY_ID, SUBPOP_GUIDS, new StormpathAccountSnapshot(account), loader, encryptors);
+        
+        assertEquals("email@email.com", acct.getEmail());
+        assertEquals("firstName", acct.getFirstName());
+        assertEquals("123", acct.getId());
+        assertEquals(Sets.newHashSet(Roles.DEVELOPER), acct.getRoles());
+        assertEquals("healthId", acct.getHealthId());
+        assertEquals(sig, acct.getActiveConsentSignature(SUBPOP_GUID));
+        
+        // Setting the health ID the account already has does not change it
+        acct.setHealthId(new HealthIdImpl("healthId", "healthCode"));
+        assertEquals("healthCode", acct.getHealthCode());
+        
+        verify(loader, never()).get();
+    }
+    
+    @Test
+    public void accountReadFromSnapshotIsRetrievedWhenChanged() throws Exception {
+        mockSnapshotAccount();
+        StormpathAccountSnapshot snapshot = new StormpathAccountSnapshot(account);
+        
+        // Changes are made to the retrieved account, and not to the snapshot
+        StubCustomData retrievedData = new StubCustomData();
+        Account retrieved = mock(Account.class);
+        when(retrieved.getCustomData()).thenReturn(retrievedData);
+        
+        acct = new StormpathAccount(STUDY_ID, SUBPOP_GUIDS, snapshot, () -> retrieved, encryptors);
+        acct.getConsentSignatureHistory(SUBPOP_GUID).add(sig);
+        acct.setRoles(Sets.newHashSet(Roles.RESEARCHER));
+        acct.setFirstName("New First Name");
+        acct.setAttribute("phone", "555-555-5555");
+        
+        assertEquals(retrieved, acct.getAccount());
+        verify(retrieved).setGivenName("New First Name");
+        assertEquals("encrypted-2-555-555-5555", retrievedData.get("phone"));
+        assertTrue(retrievedData.containsKey("foo_consent_signatures"));
+        assertEquals(Sets.newHashSet(Roles.RESEARCHER), acct.getRoles());
+        assertTrue(snapshot.getCustomData().isEmpty());
+    }
+    
+    private void mockSnapshotAccount() {
+        Group group = mock(Group.class);
+        when(group.getName()).thenReturn("developer");
+        GroupList groupList = mock(GroupList.class);
+        when(groupList.iterator()).thenReturn(Lists.newArrayList(group).iterator());
+        
+        Directory directory = mock(Directory.class);
+        when(directory.getHref()).thenReturn("directoryHref");
+        
+        when(account.getDirectory()).thenReturn(directory);
+        when(account.getStatus()).thenReturn(com.stormpath.sdk.account.AccountStatus.ENABLED);
+        when(account.getEmail()).thenReturn("email@email.com");
+        when(account.getGivenName()).thenReturn("firstName");
+        when(account.getGroups()).thenReturn(groupList);
+        when(account.getHref()).thenReturn(BridgeConstants.STORMPATH_ACCOUNT_BASE_HREF+"123");
+    }
+    
     private void verifyOneConsentStream(SubpopulationGuid guid, ConsentSignature sig1)
             throws IOException, JsonParseException, JsonMappingException {
         Integer version = (Integer)data.get(guid.getGuid()+"_consent_signatures_version");
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.upload;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
@@ -594,6 +595,154 @@ public class IosSchemaValidationHandler2Test {
         assertTrue(context.getMessageList().isEmpty());
     }
 
+    @Test
+    public void surveyFromRawJson() throws Exception {
+        // fill in context with survey data, as ParseJsonHandler leaves it
+        String infoJsonText = "{\n" +
+                "   \"files\":[{\n" +
+                "       \"filename\":\"foo.json\",\n" +
+                "       \"timestamp\":\"2015-04-02T03:26:59-07:00\"\n" +
+                "   }],\n" +
+                "   \"item\":\"test-survey\"\n" +
+                "}";
+        JsonNode infoJsonNode = BridgeObjectMapper.get().readTree(infoJsonText);
+
+        String fooAnswerJsonText = "{\n" +
+                "   \"questionType\":0,\n" +
+                "   \"textAnswer\":\"foo answer\",\n" +
+                "   \"questionTypeName\":\"Text\",\n" +
+                "   \"item\":\"foo\"\n" +
+                "}";
+
+        context.setJsonDataMap(ImmutableMap.of("info.json", infoJsonNode));
+        context.setRawJsonDataMap(ImmutableMap.of("foo.json", fooAnswerJsonText.getBytes(Charsets.UTF_8)));
+        context.setUnzippedDataMap(ImmutableMap.<String, byte[]>of());
+
+        // execute
+        handler.handle(context);
+
+        // validate
+        validateCommonProps(context);
+
+        JsonNode dataNode = context.getHealthDataRecordBuilder().getData();
+        assertEquals(1, dataNode.size());
+        assertEquals("foo answer", dataNode.get("foo").textValue());
+        assertTrue(context.getAttachmentsByFieldName().isEmpty());
+
+        // We should have no messages.
+        assertTrue(context.getMessageList().isEmpty());
+    }
+
+    @Test
+    public void mixedRawJsonData() throws Exception {
+        // fill in context, with the JSON data files as bytes, as ParseJsonHandler leaves them
+        String infoJsonText = "{\n" +
+                "   \"files\":[{\n" +
+                "       \"filename\":\"nonJsonFile.txt\",\n" +
+                "       \"timestamp\":\"2015-04-22T18:37:11-07:00\"\n" +
+                "   },{\n" +
+                "       \"filename\":\"attachment.json\",\n" +
+                "       \"timestamp\":\"2015-04-22T18:38:22-07:00\"\n" +
+                "   },{\n" +
+                "       \"filename\":\"inline.json\",\n" +
+                "       \"timestamp\":\"2015-04-22T18:39:33-07:00\"\n" +
+                "   },{\n" +
+                "       \"filename\":\"field.json\",\n" +
+                "       \"timestamp\":\"2015-04-22T18:39:44-07:00\"\n" +
+                "   }],\n" +
+                "   \"item\":\"mixed-data\"\n" +
+                "}";
+        JsonNode infoJsonNode = BridgeObjectMapper.get().readTree(infoJsonText);
+
+        byte[] attachmentJsonData = ("{\n" +
+                "   \"attachment\":\"This is an attachment\"\n" +
+                "}").getBytes(Charsets.UTF_8);
+
+        byte[] inlineJsonData = ("{\n" +
+                "   \"string\":\"inline value\"\n" +
+                "}").getBytes(Charsets.UTF_8);
+
+        // The schema doesn't reference the sensor data, so it's skipped rather than read.
+        byte[] fieldJsonData = ("{\n" +
+                "   \"sensorData\":[{\"x\":0.1, \"y\":0.2}, {\"x\":0.3, \"y\":[0.4, {\"z\":0.5}]}],\n" +
+                "   \"attachment\":[\"mixed\", \"data\", \"attachment\"],\n" +
+                "   \"string\":\"This is a string\"\n" +
+                "}").getBytes(Charsets.UTF_8);
+
+        context.setJsonDataMap(ImmutableMap.of("info.json", infoJsonNode));
+        context.setRawJsonDataMap(ImmutableMap.of(
+                "attachment.json", attachmentJsonData,
+                "inline.json", inlineJsonData,
+                "field.json", fieldJsonData));
+        context.setUnzippedDataMap(ImmutableMap.of("nonJsonFile.txt",
+                "Non-JSON in mixed data".getBytes(Charsets.UTF_8)));
+
+        // execute
+        handler.handle(context);
+
+        // validate
+        validateCommonProps(context);
+
+        HealthDataRecordBuilder recordBuilder = context.getHealthDataRecordBuilder();
+        assertEquals(DateTime.parse("2015-04-22T18:39:44-07:00").getMillis(),
+                recordBuilder.getCreatedOn().longValue());
+        assertEquals("mixed-data", recordBuilder.getSchemaId());
+
+        JsonNode dataNode = recordBuilder.getData();
+        assertEquals(2, dataNode.size());
+        assertEquals("This is a string", dataNode.get("field.json.string").textValue());
+
+        JsonNode outputInlineJsonNode = dataNode.get("inline.json");
+        assertEquals(1, outputInlineJsonNode.size());
+        assertEquals("inline value", outputInlineJsonNode.get("string").textValue());
+
+        Map<String, byte[]> attachmentMap = context.getAttachmentsByFieldName();
+        assertEquals(3, attachmentMap.size());
+        assertEquals("Non-JSON in mixed data", new String(attachmentMap.get("nonJsonFile.txt"), Charsets.UTF_8));
+
+        // The whole-file attachment is passed through as uploaded, not re-serialized.
+        assertSame(attachmentJsonData, attachmentMap.get("attachment.json"));
+
+        JsonNode fieldJsonAttachmentNode = BridgeObjectMapper.get().readTree(attachmentMap.get(
+                "field.json.attachment"));
+        assertEquals(3, fieldJsonAttachmentNode.size());
+        assertEquals("mixed", fieldJsonAttachmentNode.get(0).textValue());
+        assertEquals("data", fieldJsonAttachmentNode.get(1).textValue());
+        assertEquals("attachment", fieldJsonAttachmentNode.get(2).textValue());
+
+        // We should have no messages.
+        assertTrue(context.getMessageList().isEmpty());
+    }
+
+    @Test
+    public void invalidRawJsonData() throws Exception {
+        // fill in context
+        String infoJsonText = "{\n" +
+                "   \"files\":[{\n" +
+                "       \"filename\":\"field.json\",\n" +
+                "       \"timestamp\":\"2015-04-22T18:39:44-07:00\"\n" +
+                "   }],\n" +
+                "   \"item\":\"mixed-data\"\n" +
+                "}";
+        JsonNode infoJsonNode = BridgeObjectMapper.get().readTree(infoJsonText);
+
+        context.setJsonDataMap(ImmutableMap.of("info.json", infoJsonNode));
+        context.setRawJsonDataMap(ImmutableMap.of("field.json",
+                "{\"string\":\"This is a string\", \"attachment\":[".getBytes(Charsets.UTF_8)));
+        context.setUnzippedDataMap(ImmutableMap.<String, byte[]>of());
+
+        // execute
+        handler.handle(context);
+
+        // validate - fields read before the error are kept, and the error is reported
+        JsonNode dataNode = context.getHealthDataRecordBuilder().getData();
+        assertEquals("This is a string", dataNode.get("field.json.string").textValue());
+        assertTrue(context.getAttachmentsByFieldName().isEmpty());
+
+        assertEquals(1, context.getMessageList().size());
+        assertTrue(context.getMessageList().get(0).contains("file field.json could not be parsed as JSON"));
+    }
+
     @Test
     public void schemaRevTestLegacyMap() throws Exception {
         // fill in context with JSON data
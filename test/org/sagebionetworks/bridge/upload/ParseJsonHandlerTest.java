@@ -1,6 +1,8 @@
 package org.sagebionetworks.bridge.upload;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
@@ -17,8 +19,10 @@ public class ParseJsonHandlerTest {
     @Test
     public void test() {
         // inputs
+        byte[] fooData = "{\"isJson\":true}".getBytes(Charsets.UTF_8);
         Map<String, byte[]> inputMap = new HashMap<>();
-        inputMap.put("foo", "{\"isJson\":true}".getBytes(Charsets.UTF_8));
+        inputMap.put("info.json", "{\"item\":\"test-schema\"}".getBytes(Charsets.UTF_8));
+        inputMap.put("foo", fooData);
         inputMap.put("bar", "This is not JSON".getBytes(Charsets.UTF_8));
 
         UploadValidationContext ctx = new UploadValidationContext();
@@ -31,10 +35,51 @@ public class ParseJsonHandlerTest {
         assertEquals(1, byteMap.size());
         assertEquals("This is not JSON", new String(byteMap.get("bar"), Charsets.UTF_8));
 
+        // Only info.json is parsed.
         Map<String, JsonNode> jsonDataMap = ctx.getJsonDataMap();
         assertEquals(1, jsonDataMap.size());
-        Map<String, Object> jsonInnerMap = BridgeObjectMapper.get().convertValue(jsonDataMap.get("foo"), Map.class);
+        Map<String, Object> jsonInnerMap = BridgeObjectMapper.get().convertValue(jsonDataMap.get("info.json"),
+                Map.class);
         assertEquals(1, jsonInnerMap.size());
-        assertTrue((boolean) jsonInnerMap.get("isJson"));
+        assertEquals("test-schema", jsonInnerMap.get("item"));
+
+        // Other JSON files are kept as they were uploaded.
+        Map<String, byte[]> rawJsonDataMap = ctx.getRawJsonDataMap();
+        assertEquals(1, rawJsonDataMap.size());
+        assertSame(fooData, rawJsonDataMap.get("foo"));
+    }
+
+    @Test
+    public void invalidJsonIsNotMoved() {
+        // inputs
+        Map<String, byte[]> inputMap = new HashMap<>();
+        inputMap.put("truncated.json", "{\"isJson\":tr".getBytes(Charsets.UTF_8));
+        inputMap.put("binary", new byte[] { 0x49, 0x44, 0x33, 0x04, 0x00 });
+        inputMap.put("empty", new byte[0]);
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setUnzippedDataMap(inputMap);
+
+        // execute and validate
+        new ParseJsonHandler().handle(ctx);
+
+        assertEquals(3, ctx.getUnzippedDataMap().size());
+        assertTrue(ctx.getJsonDataMap().isEmpty());
+        assertTrue(ctx.getRawJsonDataMap().isEmpty());
+    }
+
+    @Test
+    public void mightBeJson() {
+        assertTrue(ParseJsonHandler.mightBeJson(" \n\t{}".getBytes(Charsets.UTF_8)));
+        assertTrue(ParseJsonHandler.mightBeJson("[1, 2]".getBytes(Charsets.UTF_8)));
+        assertTrue(ParseJsonHandler.mightBeJson("\"string\"".getBytes(Charsets.UTF_8)));
+        assertTrue(ParseJsonHandler.mightBeJson("-42".getBytes(Charsets.UTF_8)));
+        assertTrue(ParseJsonHandler.mightBeJson("true".getBytes(Charsets.UTF_8)));
+        assertTrue(ParseJsonHandler.mightBeJson("\uFEFF{}".getBytes(Charsets.UTF_8)));
+
+        assertFalse(ParseJsonHandler.mightBeJson(new byte[0]));
+        assertFalse(ParseJsonHandler.mightBeJson("   ".getBytes(Charsets.UTF_8)));
+        assertFalse(ParseJsonHandler.mightBeJson("This is not JSON".getBytes(Charsets.UTF_8)));
+        assertFalse(ParseJsonHandler.mightBeJson(new byte[] { 0x49, 0x44, 0x33, 0x04, 0x00 }));
     }
 }
@@ -0,0 +1,322 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoUploadFieldDefinition;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.json.DateUtils;
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+
+/**
+ * <p>
+ * Compares strict validation of upload records with a compiled SchemaCanonicalizer, against the per-field loop that
+ * StrictValidationHandler used before schemas were compiled (which switched on each field's type, rebuilt the set of
+ * valid multi-choice answers, and parsed every date, time and timestamp with Joda's ISO parsers). The baseline is
+ * reproduced here so the two can still be compared. Types whose canonicalization didn't change are canonicalized by
+ * UploadUtil in both.
+ * </p>
+ * <p>
+ * The records are shaped like those the iOS apps upload for a survey with a task: ISO timestamps with offsets,
+ * timestamps in the iOS "YYYY-MM-DD hh:mm:ss +ZZZZ" form, calendar dates, times of day, choice answers, numbers and
+ * attachments. Validation writes canonicalized values back into the record, so each invocation validates a fresh
+ * copy of each record, in both benchmarks.
+ * </p>
+ * <p>
+ * Run with: sbt "test:runMain org.sagebionetworks.bridge.upload.SchemaCanonicalizationBenchmark"
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SchemaCanonicalizationBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaCanonicalizationBenchmark.class);
+
+    private static final List<String> RECORDS = ImmutableList.of(
+            "{\n" +
+            "   \"startDate\":\"2015-04-02T03:26:57-07:00\",\n" +
+            "   \"endDate\":\"2015-04-02T03:26:59-07:00\",\n" +
+            "   \"taskRunTime\":\"2015-04-02 03:26:57 -0700\",\n" +
+            "   \"sleepDate\":\"2015-04-01\",\n" +
+            "   \"bedTime\":\"22:30:00.000\",\n" +
+            "   \"wakeTime\":\"06:45\",\n" +
+            "   \"feeling\":[\"Yes\"],\n" +
+            "   \"activities\":[\"fencing\", \"running\", 3],\n" +
+            "   \"medicationTaken\":\"true\",\n" +
+            "   \"steps\":5012,\n" +
+            "   \"heartRate\":\"71.5\",\n" +
+            "   \"exerciseDuration\":\"PT35M\",\n" +
+            "   \"comments\":\"Slept badly\"\n" +
+            "}",
+            "{\n" +
+            "   \"startDate\":\"2016-06-03T18:12:34.567+0900\",\n" +
+            "   \"endDate\":\"2016-06-03T18:14:02.113+0900\",\n" +
+            "   \"taskRunTime\":1464945154567,\n" +
+            "   \"sleepDate\":\"2016-06-02T23:50:00.000+0900\",\n" +
+            "   \"bedTime\":\"2016-06-02T23:50:00.000+0900\",\n" +
+            "   \"wakeTime\":\"07:05:30\",\n" +
+            "   \"feeling\":\"Maybe\",\n" +
+            "   \"activities\":[\"swimming\"],\n" +
+            "   \"medicationTaken\":0,\n" +
+            "   \"steps\":\"8311\",\n" +
+            "   \"heartRate\":64,\n" +
+            "   \"exerciseDuration\":\"PT1H5M\",\n" +
+            "   \"comments\":{\"free\":\"text\"}\n" +
+            "}",
+            "{\n" +
+            "   \"startDate\":\"2016-11-20 08:01:16 +0000\",\n" +
+            "   \"endDate\":\"2016-11-20 08:03:41 +0000\",\n" +
+            "   \"taskRunTime\":\"2016-11-20T08:01:16Z\",\n" +
+            "   \"sleepDate\":\"2016-11-19\",\n" +
+            "   \"bedTime\":\"23:15:00.000\",\n" +
+            "   \"wakeTime\":\"2016-11-20 07:40:00 +0000\",\n" +
+            "   \"feeling\":[\"No\"],\n" +
+            "   \"activities\":[\"running\", \"cycling\"],\n" +
+            "   \"medicationTaken\":false,\n" +
+            "   \"steps\":10244.0,\n" +
+            "   \"heartRate\":\"68\",\n" +
+            "   \"exerciseDuration\":\"PT50M\"\n" +
+            "}");
+
+    private static final Set<String> ATTACHMENT_FIELD_NAME_SET = ImmutableSet.of("accelerometer", "location");
+
+    private List<UploadFieldDefinition> fieldDefList;
+    private SchemaCanonicalizer canonicalizer;
+    private List<JsonNode> recordList;
+
+    @Setup
+    public void setup() throws Exception {
+        fieldDefList = ImmutableList.of(
+                field("startDate", UploadFieldType.TIMESTAMP).withRequired(true).build(),
+                field("endDate", UploadFieldType.TIMESTAMP).withRequired(true).build(),
+                field("taskRunTime", UploadFieldType.TIMESTAMP).build(),
+                field("sleepDate", UploadFieldType.CALENDAR_DATE).build(),
+                field("bedTime", UploadFieldType.TIME_V2).build(),
+                field("wakeTime", UploadFieldType.TIME_V2).build(),
+                field("feeling", UploadFieldType.SINGLE_CHOICE).withMultiChoiceAnswerList("Yes", "No", "Maybe")
+                        .build(),
+                field("activities", UploadFieldType.MULTI_CHOICE).withMultiChoiceAnswerList("fencing", "running",
+                        "swimming", "cycling", "walking", "3").build(),
+                field("medicationTaken", UploadFieldType.BOOLEAN).build(),
+                field("steps", UploadFieldType.INT).build(),
+                field("heartRate", UploadFieldType.FLOAT).build(),
+                field("exerciseDuration", UploadFieldType.DURATION_V2).build(),
+                field("comments", UploadFieldType.STRING).build(),
+                field("accelerometer", UploadFieldType.ATTACHMENT_V2).withRequired(true).build(),
+                field("location", UploadFieldType.ATTACHMENT_V2).build());
+        canonicalizer = new SchemaCanonicalizer(fieldDefList);
+
+        recordList = new ArrayList<>();
+        for (String record : RECORDS) {
+            recordList.add(BridgeObjectMapper.get().readTree(record));
+        }
+    }
+
+    @Benchmark
+    public int perFieldLoop() {
+        int errorCount = 0;
+        for (JsonNode record : recordList) {
+            errorCount += perFieldValidateAllFields(fieldDefList, ATTACHMENT_FIELD_NAME_SET, record.deepCopy())
+                    .size();
+        }
+        return errorCount;
+    }
+
+    @Benchmark
+    public int compiled() {
+        int errorCount = 0;
+        for (JsonNode record : recordList) {
+            errorCount += canonicalizer.validateAndCanonicalize(ATTACHMENT_FIELD_NAME_SET, record.deepCopy()).size();
+        }
+        return errorCount;
+    }
+
+    // Fields are optional unless the benchmark says otherwise.
+    private static DynamoUploadFieldDefinition.Builder field(String name, UploadFieldType type) {
+        return new DynamoUploadFieldDefinition.Builder().withName(name).withType(type).withRequired(false);
+    }
+
+    /** StrictValidationHandler.validateAllFields, before schemas were compiled. */
+    private static List<String> perFieldValidateAllFields(List<UploadFieldDefinition> fieldDefList,
+            Set<String> attachmentFieldNameSet, JsonNode recordDataNode) {
+        List<String> errorList = new ArrayList<>();
+        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
+            String fieldName = oneFieldDef.getName();
+            UploadFieldType fieldType = oneFieldDef.getType();
+            boolean isRequired = oneFieldDef.isRequired();
+
+            if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(fieldType)) {
+                if (isRequired && !attachmentFieldNameSet.contains(fieldName)) {
+                    errorList.add("Required attachment field " + fieldName + " missing");
+                }
+            } else {
+                JsonNode fieldValueNode = recordDataNode.get(fieldName);
+
+                if (fieldValueNode != null && !fieldValueNode.isNull()) {
+                    CanonicalizationResult canonicalizationResult = perFieldCanonicalize(fieldValueNode, fieldType);
+                    if (canonicalizationResult.isValid()) {
+                        JsonNode canonicalizedValueNode = canonicalizationResult.getCanonicalizedValueNode();
+
+                        if (fieldType == UploadFieldType.MULTI_CHOICE &&
+                                !Boolean.TRUE.equals(oneFieldDef.getAllowOtherChoices())) {
+                            Set<String> validAnswerSet = new HashSet<>(oneFieldDef.getMultiChoiceAnswerList());
+                            int numAnswers = canonicalizedValueNode.size();
+                            for (int i = 0; i < numAnswers; i++) {
+                                String answer = canonicalizedValueNode.get(i).textValue();
+                                if (!validAnswerSet.contains(answer)) {
+                                    errorList.add("Multi-Choice field " + fieldName + " contains invalid answer " +
+                                            answer);
+                                }
+                            }
+                        }
+
+                        ((ObjectNode)recordDataNode).set(fieldName, canonicalizedValueNode);
+                    } else {
+                        errorList.add("Canonicalization failed for field " + fieldName + ": " +
+                                canonicalizationResult.getErrorMessage());
+                    }
+                } else if (isRequired) {
+                    errorList.add("Required field " + fieldName + " missing");
+                }
+            }
+        }
+        return errorList;
+    }
+
+    /**
+     * UploadUtil.canonicalize, before it dispatched through a map of canonicalizers, for the types whose parsing has
+     * changed since. Other types are canonicalized as they were (and still are) by UploadUtil.
+     */
+    private static CanonicalizationResult perFieldCanonicalize(JsonNode valueNode, UploadFieldType type) {
+        switch (type) {
+            case CALENDAR_DATE: {
+                if (!valueNode.isTextual()) {
+                    return CanonicalizationResult.makeError("Invalid calendar date JSON value " +
+                            valueNode.toString());
+                }
+                String dateStr = valueNode.textValue();
+                LocalDate parsedDate = perFieldParseIosCalendarDate(dateStr);
+                if (parsedDate != null) {
+                    return CanonicalizationResult.makeResult(new TextNode(DateUtils.getCalendarDateString(
+                            parsedDate)));
+                } else {
+                    return CanonicalizationResult.makeError("Invalid calendar date string " + dateStr);
+                }
+            }
+            case TIME_V2: {
+                if (!valueNode.isTextual()) {
+                    return CanonicalizationResult.makeError("Invalid time JSON value " + valueNode.toString());
+                }
+                String timeStr = valueNode.textValue();
+                LocalTime parsedLocalTime = null;
+                try {
+                    parsedLocalTime = LocalTime.parse(timeStr);
+                } catch (IllegalArgumentException ex) {
+                    // Fall back to parsing a full timestamp.
+                }
+                if (parsedLocalTime == null) {
+                    DateTime parsedDateTime = perFieldParseIosTimestamp(timeStr);
+                    if (parsedDateTime != null) {
+                        parsedLocalTime = parsedDateTime.toLocalTime();
+                    }
+                }
+                if (parsedLocalTime != null) {
+                    return CanonicalizationResult.makeResult(new TextNode(parsedLocalTime.toString()));
+                } else {
+                    return CanonicalizationResult.makeError("Invalid time string " + timeStr);
+                }
+            }
+            case TIMESTAMP: {
+                if (valueNode.isNumber()) {
+                    return CanonicalizationResult.makeResult(new TextNode(DateUtils.convertToISODateTime(
+                            valueNode.longValue())));
+                } else if (valueNode.isTextual()) {
+                    String dateTimeStr = valueNode.textValue();
+                    DateTime parsedDateTime = perFieldParseIosTimestamp(dateTimeStr);
+                    if (parsedDateTime != null) {
+                        return CanonicalizationResult.makeResult(new TextNode(parsedDateTime.toString()));
+                    } else {
+                        return CanonicalizationResult.makeError("Invalid date-time (timestamp) string " +
+                                dateTimeStr);
+                    }
+                } else {
+                    return CanonicalizationResult.makeError("Invalid date-time (timestamp) JSON value " +
+                            valueNode.toString());
+                }
+            }
+            default:
+                return UploadUtil.canonicalize(valueNode, type);
+        }
+    }
+
+    /** UploadUtil.parseIosCalendarDate, before it had a simple parser. */
+    private static LocalDate perFieldParseIosCalendarDate(String dateStr) {
+        if (StringUtils.isBlank(dateStr)) {
+            return null;
+        }
+        if (dateStr.length() > 10) {
+            logger.warn("Non-standard calendar date in upload data: " + dateStr);
+            dateStr = dateStr.substring(0, 10);
+        }
+        try {
+            return DateUtils.parseCalendarDate(dateStr);
+        } catch (IllegalArgumentException ex) {
+            logger.warn("Malformatted calendar date in upload data: " + dateStr);
+            return null;
+        }
+    }
+
+    /** UploadUtil.parseIosTimestamp, before it had a simple parser. */
+    private static DateTime perFieldParseIosTimestamp(String timestampStr) {
+        if (StringUtils.isBlank(timestampStr) || timestampStr.length() < 11) {
+            return null;
+        }
+        if (timestampStr.charAt(10) == ' ') {
+            logger.warn("Non-standard timestamp in upload data: " + timestampStr);
+            timestampStr = timestampStr.substring(0, 10) + 'T' + timestampStr.substring(11);
+            timestampStr = timestampStr.replaceAll("\\s+", "");
+        }
+        try {
+            return DateUtils.parseISODateTime(timestampStr);
+        } catch (IllegalArgumentException ex) {
+            logger.warn("Malformatted timestamp in upload data: " + timestampStr);
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(SchemaCanonicalizationBenchmark.class.getSimpleName()).build())
+                .run();
+    }
+}
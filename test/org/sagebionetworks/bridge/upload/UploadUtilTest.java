@@ -22,6 +22,8 @@ import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.common.collect.ImmutableList;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Test;
 
 import org.sagebionetworks.bridge.dynamodb.DynamoUploadFieldDefinition;
@@ -589,4 +591,74 @@ public class UploadUtilTest {
         DateTime parsedTimestamp = UploadUtil.parseIosTimestamp("2015-08-26 16:54:04 -0700");
         assertEquals(expectedMillis, parsedTimestamp.getMillis());
     }
+
+    @Test
+    public void leapDayCalendarDate() {
+        assertEquals(new LocalDate(2016, 2, 29), UploadUtil.parseIosCalendarDate("2016-02-29"));
+        assertNull(UploadUtil.parseIosCalendarDate("2015-02-29"));
+        assertNull(UploadUtil.parseIosCalendarDate("2015-13-01"));
+    }
+
+    @Test
+    public void timestampsMatchJoda() {
+        // Timestamps the simple parser handles should come out exactly as the general ISO parser would parse them,
+        // including the time zone.
+        String[] timestampStrArray = {
+                "2015-08-26T23:54:04Z",
+                "2015-08-26T23:54Z",
+                "2015-08-26T23:54:04.1Z",
+                "2015-08-26T23:54:04.123Z",
+                "2015-08-26T23:54:04.123456789Z",
+                "2015-08-26T16:54:04-07:00",
+                "2015-08-26T16:54:04-0700",
+                "2015-08-26T16:54:04-07",
+                "2015-08-26T16:54:04+05:30",
+                "2016-02-29T00:00:00.000+00:00",
+        };
+        for (String oneTimestampStr : timestampStrArray) {
+            DateTime expected = DateTime.parse(oneTimestampStr, ISODateTimeFormat.dateTimeParser()
+                    .withOffsetParsed());
+            DateTime parsed = UploadUtil.parseIosTimestamp(oneTimestampStr);
+            assertEquals(oneTimestampStr, expected, parsed);
+            assertEquals(oneTimestampStr, expected.toString(), parsed.toString());
+        }
+    }
+
+    @Test
+    public void iosTimestampWithFraction() {
+        DateTime expected = DateTime.parse("2015-08-26T16:54:04.321-07:00");
+        DateTime parsedTimestamp = UploadUtil.parseIosTimestamp("2015-08-26 16:54:04.321 -0700");
+        assertEquals(expected.getMillis(), parsedTimestamp.getMillis());
+    }
+
+    @Test
+    public void timestampWithoutTimezone() {
+        // This isn't handled by the simple parser, but the general parser still accepts it.
+        String timestampStr = "2015-08-26T16:54:04";
+        long expectedMillis = DateTime.parse(timestampStr).getMillis();
+        assertEquals(expectedMillis, UploadUtil.parseIosTimestamp(timestampStr).getMillis());
+    }
+
+    @Test
+    public void invalidDateTimestamp() {
+        assertNull(UploadUtil.parseIosTimestamp("2015-02-30T12:00:00Z"));
+        assertNull(UploadUtil.parseIosTimestamp("2015-08-26T24:00:00Z"));
+    }
+
+    @Test
+    public void canonicalizeTimeMatchesJoda() {
+        String[] timeStrArray = { "12:34", "12:34:56", "12:34:56.7", "12:34:56.789", "00:00:00.000000001" };
+        for (String oneTimeStr : timeStrArray) {
+            CanonicalizationResult result = UploadUtil.canonicalize(new TextNode(oneTimeStr),
+                    UploadFieldType.TIME_V2);
+            assertTrue(oneTimeStr, result.isValid());
+            assertEquals(oneTimeStr, LocalTime.parse(oneTimeStr).toString(),
+                    result.getCanonicalizedValueNode().textValue());
+        }
+
+        // Times Joda accepts that the simple parser doesn't still go through Joda.
+        CanonicalizationResult result = UploadUtil.canonicalize(new TextNode("T12:34"), UploadFieldType.TIME_V2);
+        assertTrue(result.isValid());
+        assertEquals("12:34:00.000", result.getCanonicalizedValueNode().textValue());
+    }
 }
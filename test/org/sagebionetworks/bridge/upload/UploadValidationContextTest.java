@@ -30,6 +30,7 @@ public class UploadValidationContextTest {
         Map<String, byte[]> unzippedDataMap = ImmutableMap.of("nonJsonFile.txt", "test text".getBytes(Charsets.UTF_8));
         Map<String, JsonNode> jsonDataMap = ImmutableMap.<String, JsonNode>of("json.json",
                 BridgeObjectMapper.get().createObjectNode());
+        Map<String, byte[]> rawJsonDataMap = ImmutableMap.of("raw.json", "{}".getBytes(Charsets.UTF_8));
         HealthDataRecordBuilder recordBuilder = new DynamoHealthDataRecord.Builder();
         Map<String, byte[]> attachmentMap = ImmutableMap.of("test-field", "test attachment".getBytes(Charsets.UTF_8));
 
@@ -43,6 +44,7 @@ public class UploadValidationContextTest {
         original.setDecryptedData(decryptedData);
         original.setUnzippedDataMap(unzippedDataMap);
         original.setJsonDataMap(jsonDataMap);
+        original.setRawJsonDataMap(rawJsonDataMap);
         original.setHealthDataRecordBuilder(recordBuilder);
         original.setAttachmentsByFieldName(attachmentMap);
         original.setRecordId("test-record");
@@ -56,6 +58,7 @@ public class UploadValidationContextTest {
         assertSame(decryptedData, copy.getDecryptedData());
         assertSame(unzippedDataMap, copy.getUnzippedDataMap());
         assertSame(jsonDataMap, copy.getJsonDataMap());
+        assertSame(rawJsonDataMap, copy.getRawJsonDataMap());
         assertSame(recordBuilder, copy.getHealthDataRecordBuilder());
         assertSame(attachmentMap, copy.getAttachmentsByFieldName());
         assertEquals("test-record", copy.getRecordId());
@@ -0,0 +1,56 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AdaptiveBackoffTest {
+
+    @Test
+    public void delayDoublesWhenThrottledUpToMaximum() {
+        AdaptiveBackoff backoff = new AdaptiveBackoff(10, 50);
+        assertEquals(0, backoff.getDelayMillis());
+
+        backoff.onThrottled();
+        assertEquals(10, backoff.getDelayMillis());
+        backoff.onThrottled();
+        assertEquals(20, backoff.getDelayMillis());
+        backoff.onThrottled();
+        assertEquals(40, backoff.getDelayMillis());
+        backoff.onThrottled();
+        assertEquals(50, backoff.getDelayMillis());
+    }
+
+    @Test
+    public void delayHalvesOnSuccessUntilItIsGone() {
+        AdaptiveBackoff backoff = new AdaptiveBackoff(10, 50);
+        backoff.onThrottled();
+        backoff.onThrottled();
+        backoff.onThrottled();
+
+        backoff.onSuccess();
+        assertEquals(20, backoff.getDelayMillis());
+        backoff.onSuccess();
+        assertEquals(10, backoff.getDelayMillis());
+        backoff.onSuccess();
+        assertEquals(0, backoff.getDelayMillis());
+        backoff.onSuccess();
+        assertEquals(0, backoff.getDelayMillis());
+    }
+
+    @Test
+    public void pauseWithoutDelayReturnsImmediately() throws Exception {
+        AdaptiveBackoff backoff = new AdaptiveBackoff(10, 50);
+        long start = System.currentTimeMillis();
+        backoff.pause();
+        assertEquals(0, backoff.getDelayMillis());
+        // Not a precise measure, but no delay should come close to the minimum
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumCannotBeLessThanMinimum() {
+        new AdaptiveBackoff(50, 10);
+    }
+}
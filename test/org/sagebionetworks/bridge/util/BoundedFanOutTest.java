@@ -0,0 +1,129 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedFanOutTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void before() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void runsAllTasksAndWaitsForThem() throws Exception {
+        BoundedFanOut fanOut = new BoundedFanOut(executor, 3);
+        AtomicInteger count = new AtomicInteger();
+        for (int i=0; i < 20; i++) {
+            fanOut.submit(() -> {
+                sleep(5);
+                count.incrementAndGet();
+            });
+        }
+        fanOut.awaitCompletion();
+        assertEquals(20, count.get());
+    }
+
+    @Test
+    public void neverRunsMoreThanParallelism() throws Exception {
+        BoundedFanOut fanOut = new BoundedFanOut(executor, 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (int i=0; i < 10; i++) {
+            fanOut.submit(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(5);
+                running.decrementAndGet();
+            });
+        }
+        fanOut.awaitCompletion();
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void submitWaitsForFreeWorker() throws Exception {
+        BoundedFanOut fanOut = new BoundedFanOut(executor, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        fanOut.submit(() -> await(release));
+
+        CountDownLatch submitted = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                fanOut.submit(() -> {});
+                submitted.countDown();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertFalse(submitted.await(50, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(submitted.await(1, TimeUnit.SECONDS));
+        fanOut.awaitCompletion();
+    }
+
+    @Test
+    public void failingTaskReleasesItsWorker() throws Exception {
+        BoundedFanOut fanOut = new BoundedFanOut(executor, 1);
+        fanOut.submit(() -> {
+            throw new IllegalStateException();
+        });
+        fanOut.awaitCompletion();
+
+        AtomicInteger count = new AtomicInteger();
+        fanOut.submit(count::incrementAndGet);
+        fanOut.awaitCompletion();
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void rejectedTaskIsThrownAndReleasesItsWorker() throws Exception {
+        BoundedFanOut fanOut = new BoundedFanOut(task -> {
+            throw new RejectedExecutionException();
+        }, 1);
+        try {
+            fanOut.submit(() -> {});
+            fail("Should have thrown exception");
+        } catch(RejectedExecutionException e) {
+            // expected
+        }
+        // Would block if the worker had not been released
+        fanOut.awaitCompletion();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.exceptions.ServiceUnavailableException;
+import org.sagebionetworks.bridge.models.BulkheadStats;
+
+public class BulkheadTest {
+
+    private Bulkhead bulkhead;
+    private CountDownLatch release;
+
+    @Before
+    public void before() {
+        bulkhead = new Bulkhead("test", 1, 1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void after() {
+        release.countDown();
+        bulkhead.shutdown();
+    }
+
+    @Test
+    public void runsTasksOnItsOwnThreads() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        String[] threadName = new String[1];
+        bulkhead.execute(() -> {
+            threadName[0] = Thread.currentThread().getName();
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("test-bulkhead-0", threadName[0]);
+    }
+
+    @Test
+    public void rejectsTasksWhenQueueIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        bulkhead.execute(() -> {
+            started.countDown();
+            awaitRelease();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // The one thread is busy, so this is queued
+        bulkhead.execute(this::awaitRelease);
+
+        try {
+            bulkhead.execute(this::awaitRelease);
+            fail("Should have thrown exception");
+        } catch(ServiceUnavailableException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+
+        BulkheadStats stats = bulkhead.getStats();
+        assertEquals("test", stats.getName());
+        assertEquals(1, stats.getThreads());
+        assertEquals(1, stats.getActiveThreads());
+        assertEquals(1, stats.getQueueSize());
+        assertEquals(1, stats.getQueuedTasks());
+        assertEquals(1, stats.getRejectedTasks());
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
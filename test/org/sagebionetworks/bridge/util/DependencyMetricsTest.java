@@ -0,0 +1,256 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.models.DependencyStats;
+import org.sagebionetworks.bridge.models.Metrics;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryPolicy.RetryCondition;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import play.mvc.Http;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+public class DependencyMetricsTest {
+
+    public static class Store {
+        public String read(String key) {
+            return "value";
+        }
+        public void write(String key, byte[] data) {
+        }
+        public String fail(String key) {
+            AmazonServiceException e = new AmazonServiceException("Slow down");
+            e.setErrorCode("ProvisionedThroughputExceededException");
+            throw e;
+        }
+    }
+
+    // Connections that answer commands without connecting to Redis
+    public static class StubJedis extends Jedis {
+        boolean closed;
+
+        public StubJedis() {
+            super("localhost");
+        }
+        @Override
+        public String get(String key) {
+            return "value";
+        }
+        @Override
+        public Pipeline pipelined() {
+            return new StubPipeline();
+        }
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    public static class StubPipeline extends Pipeline {
+        @Override
+        public void sync() {
+        }
+    }
+
+    public static class StubJedisPool extends JedisPool {
+        final StubJedis jedis = new StubJedis();
+
+        public StubJedisPool() {
+            super("localhost");
+        }
+        @Override
+        public Jedis getResource() {
+            return jedis;
+        }
+    }
+
+    private DependencyMetrics dependencyMetrics;
+    private Metrics metrics;
+
+    @Before
+    public void before() {
+        dependencyMetrics = new DependencyMetrics();
+
+        metrics = new Metrics("12345");
+        Http.Context context = mock(Http.Context.class);
+        context.args = new HashMap<>();
+        context.args.put(DependencyMetrics.REQUEST_METRICS_ARG, metrics);
+        Http.Context.current.set(context);
+    }
+
+    @After
+    public void after() {
+        Http.Context.current.remove();
+    }
+
+    @Test
+    public void recordsCallsToInstrumentedClass() {
+        Store store = dependencyMetrics.instrument("s3", Store.class, new Store());
+        assertEquals("value", store.read("key"));
+        store.write("key", new byte[100]);
+        try {
+            store.fail("key");
+            fail("Should have thrown exception");
+        } catch(AmazonServiceException e) {
+            // expected
+        }
+
+        List<DependencyStats> stats = dependencyMetrics.getStats();
+        assertEquals(3, stats.size());
+
+        DependencyStats failStats = stats.get(0);
+        assertEquals("s3", failStats.getDependency());
+        assertEquals("fail", failStats.getOperation());
+        assertEquals(1, failStats.getCalls());
+        assertEquals(1, failStats.getErrors());
+        assertEquals(1, failStats.getThrottles());
+
+        DependencyStats readStats = stats.get(1);
+        assertEquals("read", readStats.getOperation());
+        assertEquals(1, readStats.getCalls());
+        assertEquals(0, readStats.getErrors());
+        assertEquals("value".length(), readStats.getPayloadBytes());
+
+        DependencyStats writeStats = stats.get(2);
+        assertEquals("write", writeStats.getOperation());
+        assertEquals(100, writeStats.getPayloadBytes());
+
+        // All three calls are added to the request's totals
+        JsonNode totals = metrics.getJson().get("dependencies").get("s3");
+        assertEquals(3, totals.get("calls").asLong());
+        assertEquals(1, totals.get("errors").asLong());
+        assertEquals(1, totals.get("throttles").asLong());
+        assertEquals(105, totals.get("bytes").asLong());
+    }
+
+    @Test
+    public void recordsCallsToInstrumentedInterface() throws Exception {
+        Callable<String> callable = dependencyMetrics.instrument("stormpath", Callable.class, () -> "value");
+        assertEquals("value", callable.call());
+        // Object's methods aren't calls to the dependency
+        callable.toString();
+
+        List<DependencyStats> stats = dependencyMetrics.getStats();
+        assertEquals(1, stats.size());
+        assertEquals("stormpath", stats.get(0).getDependency());
+        assertEquals("call", stats.get(0).getOperation());
+    }
+
+    @Test
+    public void recordsCommandsOnConnectionsFromInstrumentedPool() {
+        StubJedisPool stubPool = new StubJedisPool();
+        JedisPool pool = dependencyMetrics.instrument("redis", stubPool);
+        try (Jedis jedis = pool.getResource()) {
+            assertEquals("value", jedis.get("key"));
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.sync();
+        }
+        // The connection is still returned to the pool
+        assertTrue(stubPool.jedis.closed);
+
+        // Getting and closing the connection, and starting the pipeline, aren't commands
+        List<DependencyStats> stats = dependencyMetrics.getStats();
+        assertEquals(2, stats.size());
+        assertEquals("redis", stats.get(0).getDependency());
+        assertEquals("get", stats.get(0).getOperation());
+        assertEquals("sync", stats.get(1).getOperation());
+
+        JsonNode totals = metrics.getJson().get("dependencies").get("redis");
+        assertEquals(2, totals.get("calls").asLong());
+    }
+
+    @Test
+    public void latencyIsCountedInHistogram() {
+        Store store = dependencyMetrics.instrument("s3", Store.class, new Store());
+        store.read("key");
+        store.read("key");
+
+        DependencyStats stats = dependencyMetrics.getStats().get(0);
+        assertEquals(DependencyMetrics.LATENCY_BUCKET_MILLIS.length + 1, stats.getLatencyHistogram().size());
+        long total = stats.getLatencyHistogram().values().stream().mapToLong(Long::longValue).sum();
+        assertEquals(2, total);
+        assertTrue(stats.getLatencyHistogram().containsKey("<=5"));
+        assertTrue(stats.getLatencyHistogram().containsKey(">10000"));
+    }
+
+    @Test
+    public void recordsRetries() {
+        RetryCondition condition = dependencyMetrics.retryCondition("dynamo",
+                (request, exception, retriesAttempted) -> retriesAttempted < 1);
+        AmazonServiceException throttle = new AmazonServiceException("Slow down");
+        throttle.setErrorCode("ProvisionedThroughputExceededException");
+
+        assertTrue(condition.shouldRetry(new GetItemRequest(), throttle, 0));
+        // Retries that are refused aren't recorded
+        condition.shouldRetry(new GetItemRequest(), throttle, 1);
+
+        DependencyStats stats = dependencyMetrics.getStats().get(0);
+        assertEquals("dynamo", stats.getDependency());
+        assertEquals("getItem", stats.getOperation());
+        assertEquals(1, stats.getRetries());
+        assertEquals(1, stats.getThrottles());
+
+        JsonNode totals = metrics.getJson().get("dependencies").get("dynamo");
+        assertEquals(1, totals.get("retries").asLong());
+    }
+
+    @Test
+    public void callsOnRequestExecutorAreRecordedInRequestMetrics() throws Exception {
+        Store store = dependencyMetrics.instrument("s3", Store.class, new Store());
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Executor executor = DependencyMetrics.forRequest(pool);
+            CompletableFuture.runAsync(() -> store.read("key"), executor).get();
+
+            JsonNode totals = metrics.getJson().get("dependencies").get("s3");
+            assertEquals(1, totals.get("calls").asLong());
+
+            // The pool's thread doesn't keep the request's metrics for later tasks
+            assertNull(pool.submit(DependencyMetrics::getRequestMetrics).get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void executorIsNotWrappedWithoutRequest() {
+        Http.Context.current.remove();
+
+        Executor executor = MoreExecutors.directExecutor();
+        assertSame(executor, DependencyMetrics.forRequest(executor));
+    }
+
+    @Test
+    public void callsWithoutRequestAreOnlyRecordedInStats() {
+        Http.Context.current.remove();
+
+        Store store = dependencyMetrics.instrument("s3", Store.class, new Store());
+        store.read("key");
+
+        assertEquals(1, dependencyMetrics.getStats().get(0).getCalls());
+        assertNull(metrics.getJson().get("dependencies"));
+    }
+}
@@ -0,0 +1,53 @@
+package org.sagebionetworks.bridge.validators;
+
+import static org.sagebionetworks.bridge.TestUtils.assertValidatorMessage;
+
+import org.junit.Test;
+
+import org.sagebionetworks.bridge.models.notifications.CohortNotification;
+import org.sagebionetworks.bridge.models.notifications.NotificationMessage;
+
+import com.google.common.collect.ImmutableSet;
+
+public class CohortNotificationValidatorTest {
+
+    private static final NotificationMessage MESSAGE = new NotificationMessage.Builder()
+            .withSubject("s").withMessage("m").build();
+    
+    private static final CohortNotificationValidator VALIDATOR = new CohortNotificationValidator(
+            ImmutableSet.of("group1", "group2"));
+    
+    @Test
+    public void isValid() {
+        CohortNotification notification = new CohortNotification.Builder()
+                .withDataGroups(ImmutableSet.of("group1")).withMessage(MESSAGE).build();
+        Validate.entityThrowingException(VALIDATOR, notification);
+    }
+    
+    @Test
+    public void dataGroupsAreOptional() {
+        CohortNotification notification = new CohortNotification.Builder().withMessage(MESSAGE).build();
+        Validate.entityThrowingException(VALIDATOR, notification);
+    }
+    
+    @Test
+    public void dataGroupsMustBeDefinedByStudy() {
+        CohortNotification notification = new CohortNotification.Builder()
+                .withDataGroups(ImmutableSet.of("group3")).withMessage(MESSAGE).build();
+        assertValidatorMessage(VALIDATOR, notification, "dataGroups",
+                " 'group3' is not defined for study (use group1, group2)");
+    }
+    
+    @Test
+    public void messageRequired() {
+        CohortNotification notification = new CohortNotification.Builder().build();
+        assertValidatorMessage(VALIDATOR, notification, "message", " is required");
+    }
+    
+    @Test
+    public void messageIsValidated() {
+        NotificationMessage message = new NotificationMessage.Builder().withMessage("m").build();
+        CohortNotification notification = new CohortNotification.Builder().withMessage(message).build();
+        assertValidatorMessage(VALIDATOR, notification, "message.subject", " is required");
+    }
+}